@@ -0,0 +1,62 @@
+package com.pedro.encoder.input.audio;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Mix 10 ms of 48 kHz stereo microphone with several sources, each operation is a source write
+ * plus a microphone buffer mixed, so it must stay far under 10 ms to run in real time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AudioMixerBenchmark {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int FRAMES = SAMPLE_RATE / 100;
+
+  @Param({ "1", "2", "4" })
+  public int sources;
+  //mono sources are up mixed to stereo
+  @Param({ "2", "1" })
+  public int sourceChannels;
+
+  private AudioMixer audioMixer;
+  private AudioMixer.Source[] mixerSources;
+  private byte[] microphone;
+  private byte[] buffer;
+  private byte[] sourcePcm;
+
+  @Setup
+  public void setup() {
+    audioMixer = new AudioMixer(SAMPLE_RATE, 2, FRAMES);
+    mixerSources = new AudioMixer.Source[sources];
+    for (int i = 0; i < sources; i++) {
+      mixerSources[i] = audioMixer.addSource(sourceChannels);
+      mixerSources[i].setGain(0.5f);
+    }
+    microphone = PcmGenerator.toBytes(PcmGenerator.sine(FRAMES, 2, SAMPLE_RATE, 440, 0.5f));
+    buffer = new byte[microphone.length];
+    sourcePcm = PcmGenerator.toBytes(
+        PcmGenerator.sine(FRAMES, sourceChannels, SAMPLE_RATE, 1000, 0.5f));
+  }
+
+  @Benchmark
+  public byte[] mix() {
+    for (AudioMixer.Source source : mixerSources) {
+      source.write(sourcePcm, 0, sourcePcm.length);
+    }
+    //mixer works in place, start each operation from same microphone audio
+    System.arraycopy(microphone, 0, buffer, 0, buffer.length);
+    return audioMixer.process(buffer, 0, buffer.length);
+  }
+}
@@ -0,0 +1,37 @@
+package com.pedro.encoder.input.audio;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Deterministic 16 bits PCM used as benchmark input.
+ */
+public class PcmGenerator {
+
+  /**
+   * @return sine of frequency with same value in each channel.
+   */
+  public static short[] sine(int frames, int channels, int sampleRate, float frequency,
+      float amplitude) {
+    short[] samples = new short[frames * channels];
+    for (int i = 0; i < frames; i++) {
+      short value = (short) (amplitude * Short.MAX_VALUE
+          * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+      for (int channel = 0; channel < channels; channel++) {
+        samples[i * channels + channel] = value;
+      }
+    }
+    return samples;
+  }
+
+  /**
+   * @return samples as 16 bits little endian.
+   */
+  public static byte[] toBytes(short[] samples) {
+    byte[] pcm = new byte[samples.length * 2];
+    for (int i = 0; i < samples.length; i++) {
+      pcm[i * 2] = (byte) samples[i];
+      pcm[i * 2 + 1] = (byte) (samples[i] >> 8);
+    }
+    return pcm;
+  }
+}
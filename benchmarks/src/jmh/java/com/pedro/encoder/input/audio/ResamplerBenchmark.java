@@ -0,0 +1,51 @@
+package com.pedro.encoder.input.audio;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Resample 10 ms of stereo audio per operation. Throughput in real time factor is 10 ms divided
+ * by the time of an operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResamplerBenchmark {
+
+  private static final int CHANNELS = 2;
+
+  //input rate to output rate
+  @Param({ "44100-48000", "48000-44100", "32000-48000", "48000-32000" })
+  public String rates;
+  @Param({ "LOW", "MEDIUM", "HIGH" })
+  public Resampler.Quality quality;
+
+  private Resampler resampler;
+  private byte[] input;
+  private byte[] output;
+
+  @Setup
+  public void setup() {
+    String[] values = rates.split("-");
+    int inputSampleRate = Integer.parseInt(values[0]);
+    int outputSampleRate = Integer.parseInt(values[1]);
+    resampler = new Resampler(inputSampleRate, outputSampleRate, CHANNELS, quality);
+    input = PcmGenerator.toBytes(
+        PcmGenerator.sine(inputSampleRate / 100, CHANNELS, inputSampleRate, 1000, 0.5f));
+    output = new byte[resampler.getMaxOutputSize(input.length)];
+  }
+
+  @Benchmark
+  public int resample() {
+    return resampler.process(input, 0, input.length, output, 0);
+  }
+}
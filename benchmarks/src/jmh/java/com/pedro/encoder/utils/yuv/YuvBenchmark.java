@@ -0,0 +1,107 @@
+package com.pedro.encoder.utils.yuv;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Rotate and convert a camera frame to I420, in two passes with {@link NV21Utils} and
+ * {@link YV12Utils} like YUVUtil does and in a single pass with {@link FusedYUVUtils}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YuvBenchmark {
+
+  @Param({ "1280x720", "1920x1080", "3840x2160" })
+  public String resolution;
+  @Param({ "0", "90", "270" })
+  public int rotation;
+  @Param({ "true", "false" })
+  public boolean isYV12;
+
+  private int width;
+  private int height;
+  private byte[] input;
+  private byte[] output;
+  private ExecutorService executor;
+  private int threads;
+
+  @Setup
+  public void setup() {
+    String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+    input = new byte[width * height * 3 / 2];
+    new Random(0).nextBytes(input);
+    output = new byte[input.length];
+    NV21Utils.preAllocateBuffers(input.length);
+    YV12Utils.preAllocateBuffers(input.length);
+    threads = Runtime.getRuntime().availableProcessors();
+    if (threads > 1) executor = Executors.newFixedThreadPool(threads - 1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (executor != null) executor.shutdown();
+  }
+
+  @Benchmark
+  public byte[] twoPasses() {
+    boolean swap = rotation == 90 || rotation == 270;
+    int dstWidth = swap ? height : width;
+    int dstHeight = swap ? width : height;
+    if (isYV12) {
+      return YV12Utils.toI420(rotateYV12(), dstWidth, dstHeight);
+    } else {
+      return NV21Utils.toI420(rotateNV21(), dstWidth, dstHeight);
+    }
+  }
+
+  @Benchmark
+  public byte[] fused() {
+    FusedYUVUtils.convert(input, output, width, height, rotation, isYV12, false, null, 1);
+    return output;
+  }
+
+  @Benchmark
+  public byte[] fusedParallel() {
+    FusedYUVUtils.convert(input, output, width, height, rotation, isYV12, false, executor,
+        threads);
+    return output;
+  }
+
+  private byte[] rotateNV21() {
+    switch (rotation) {
+      case 90:
+        return NV21Utils.rotate90(input, width, height);
+      case 270:
+        return NV21Utils.rotate270(input, width, height);
+      default:
+        return input;
+    }
+  }
+
+  private byte[] rotateYV12() {
+    switch (rotation) {
+      case 90:
+        return YV12Utils.rotate90(input, width, height);
+      case 270:
+        return YV12Utils.rotate270(input, width, height);
+      default:
+        return input;
+    }
+  }
+}
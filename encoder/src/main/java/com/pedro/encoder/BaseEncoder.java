@@ -1,11 +1,12 @@
 package com.pedro.encoder;
 
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
 import androidx.annotation.NonNull;
 import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.EncoderInfo;
+import com.pedro.encoder.utils.LatencyTracker;
 import java.nio.ByteBuffer;
 
 /**
@@ -20,6 +21,7 @@ public abstract class BaseEncoder implements EncoderCallback {
   protected volatile boolean running = false;
   protected boolean isBufferMode = true;
   protected CodecUtil.Force force = CodecUtil.Force.FIRST_COMPATIBLE_FOUND;
+  protected volatile LatencyTracker latencyTracker;
 
   public void start() {
     start(true);
@@ -41,7 +43,7 @@ public abstract class BaseEncoder implements EncoderCallback {
     }
   }
 
-  protected abstract MediaCodecInfo chooseEncoder(String mime);
+  protected abstract EncoderInfo chooseEncoder(String mime);
 
   protected void getDataFromEncoder(Frame frame) throws IllegalStateException {
     if (isBufferMode) {
@@ -50,6 +52,13 @@ public abstract class BaseEncoder implements EncoderCallback {
         inputAvailable(codec, inBufferIndex, frame);
       }
     }
+    drainOutput();
+  }
+
+  /**
+   * Send all encoded buffers available.
+   */
+  protected void drainOutput() throws IllegalStateException {
     for (; running; ) {
       int outBufferIndex = codec.dequeueOutputBuffer(bufferInfo, 0);
       if (outBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
@@ -65,19 +74,40 @@ public abstract class BaseEncoder implements EncoderCallback {
 
   protected abstract Frame getInputFrame() throws InterruptedException;
 
+  /**
+   * Called when an input buffer is available but there is no frame to fill it. Encoders that
+   * return null in getInputFrame must keep the index and queue it later with inputAvailable.
+   */
+  protected void onInputBufferPending(int inBufferIndex) {
+  }
+
   private void processInput(@NonNull ByteBuffer byteBuffer, @NonNull MediaCodec mediaCodec,
       int inBufferIndex, Frame frame) throws IllegalStateException {
     try {
       if (frame == null) frame = getInputFrame();
+      if (frame == null) {
+        onInputBufferPending(inBufferIndex);
+        return;
+      }
       byteBuffer.clear();
       byteBuffer.put(frame.getBuffer(), frame.getOffset(), frame.getSize());
-      long pts = System.nanoTime() / 1000 - presentTimeUs;
+      frame.release();
+      long pts = getPresentationTime(frame);
+      LatencyTracker tracker = latencyTracker;
+      if (tracker != null) tracker.onEncoderInput(pts, frame.getTimeStamp());
       mediaCodec.queueInputBuffer(inBufferIndex, 0, frame.getSize(), pts, 0);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * @return pts in us of frame given to encoder. Time since start by default.
+   */
+  protected long getPresentationTime(Frame frame) {
+    return System.nanoTime() / 1000 - presentTimeUs;
+  }
+
   protected abstract void checkBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo);
 
@@ -95,6 +125,13 @@ public abstract class BaseEncoder implements EncoderCallback {
     this.force = force;
   }
 
+  /**
+   * @param latencyTracker measure latency of frames with capture time, null to disable.
+   */
+  public void setLatencyTracker(LatencyTracker latencyTracker) {
+    this.latencyTracker = latencyTracker;
+  }
+
   public boolean isRunning() {
     return running;
   }
@@ -14,6 +14,16 @@ public class Frame {
   private int orientation;
   private boolean flip;
   private int format = ImageFormat.NV21; //nv21 or yv12 supported
+  private long timeStamp; //capture time in ns, System.nanoTime base
+  private OnReleaseListener onReleaseListener;
+  private byte[] ownedBuffer;
+
+  /**
+   * Called when the buffer of a frame is no longer used and can be recycled by its owner.
+   */
+  public interface OnReleaseListener {
+    void onRelease(byte[] buffer);
+  }
 
   /**
    * Used with video frame
@@ -76,6 +86,14 @@ public class Frame {
     this.offset = offset;
   }
 
+  public long getTimeStamp() {
+    return timeStamp;
+  }
+
+  public void setTimeStamp(long timeStamp) {
+    this.timeStamp = timeStamp;
+  }
+
   public int getSize() {
     return size;
   }
@@ -83,4 +101,23 @@ public class Frame {
   public void setSize(int size) {
     this.size = size;
   }
+
+  /**
+   * Current buffer is owned by a pool and must be returned with {@link #release()}.
+   */
+  public void setOnReleaseListener(OnReleaseListener onReleaseListener) {
+    this.onReleaseListener = onReleaseListener;
+    ownedBuffer = buffer;
+  }
+
+  /**
+   * Return owned buffer to its pool. Only first call after setting a listener has effect.
+   */
+  public void release() {
+    OnReleaseListener listener = onReleaseListener;
+    byte[] released = ownedBuffer;
+    onReleaseListener = null;
+    ownedBuffer = null;
+    if (listener != null) listener.onRelease(released);
+  }
 }
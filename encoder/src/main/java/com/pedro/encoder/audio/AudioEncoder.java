@@ -3,21 +3,41 @@ package com.pedro.encoder.audio;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
 import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
+import com.pedro.encoder.input.audio.VoiceActivityDetector;
+import com.pedro.encoder.utils.CodecCapabilityCache;
 import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.EncoderCalibration;
+import com.pedro.encoder.utils.EncoderInfo;
+import com.pedro.encoder.utils.LatencyTracker;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Created by pedro on 19/01/17.
  *
  * Encode PCM audio data to ACC and return in a callback
+ *
+ * PCM is written to a ring buffer and the encoder takes exactly one AAC frame (1024 samples per
+ * channel) each time, with pts calculated by sample count. With API 23+ codec is driven by
+ * MediaCodec.Callback in its own thread so microphone thread never waits for it.
+ *
+ * With DTX enabled, silent frames are not encoded. After a few frames of digital silence are
+ * encoded, the AAC frame produced is cached and sent instead of encoding, optionally only one of
+ * each N frames. Cached frame is only sent when encoder has returned all frames queued, so encoder
+ * output is never discarded and pts keep increasing.
  */
 
 public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
@@ -28,6 +48,33 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   private int bitRate = 64 * 1024;  //in kbps
   private int sampleRate = 32000; //in hz
   private boolean isStereo = true;
+  private static final int SAMPLES_PER_FRAME = 1024;
+  //seconds of audio that can wait for encoder
+  private static final int RING_SECONDS = 2;
+  private PcmRingBuffer pcmRingBuffer;
+  private Frame aacInputFrame;
+  private final Queue<Integer> pendingInputIndices = new ConcurrentLinkedQueue<>();
+  private HandlerThread handlerThread;
+  private Handler handler;
+  private boolean asyncMode = false;
+  private MediaCodec.Callback callback;
+  //capture time of first sample and samples per channel given to encoder since start
+  private volatile long firstSampleNs = 0;
+  private long encodedSamples = 0;
+  //DTX, silence is replaced with a cached silent AAC frame while there is no voice
+  private static final int SILENT_FRAMES_ENCODED = 3;
+  private volatile VoiceActivityDetector voiceActivityDetector;
+  private volatile int keepAliveFrames = 1;
+  private int silentFrames = 0;
+  private long silentCandidatePtsUs = -1;
+  private byte[] silentAacFrame;
+  private ByteBuffer silentAacBuffer;
+  private final MediaCodec.BufferInfo silentBufferInfo = new MediaCodec.BufferInfo();
+  private long lastSentPtsUs = -1;
+  //pts of last frame queued to encoder
+  private long lastQueuedPtsUs = -1;
+  private volatile long skippedEncodeFrames = 0;
+  private volatile long skippedSendFrames = 0;
 
   public AudioEncoder(GetAacData getAacData) {
     this.getAacData = getAacData;
@@ -39,40 +86,36 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   public boolean prepareAudioEncoder(int bitRate, int sampleRate, boolean isStereo,
       int maxInputSize) {
     this.sampleRate = sampleRate;
+    this.isStereo = isStereo;
     isBufferMode = true;
     try {
-      List<MediaCodecInfo> encoders = new ArrayList<>();
-      if (force == CodecUtil.Force.HARDWARE) {
-        encoders = CodecUtil.getAllHardwareEncoders(CodecUtil.AAC_MIME);
-      } else if (force == CodecUtil.Force.SOFTWARE) {
-        encoders = CodecUtil.getAllSoftwareEncoders(CodecUtil.AAC_MIME);
-      }
-
-      if (force == CodecUtil.Force.FIRST_COMPATIBLE_FOUND) {
-        MediaCodecInfo encoder = chooseEncoder(CodecUtil.AAC_MIME);
-        if (encoder != null) {
-          codec = MediaCodec.createByCodecName(encoder.getName());
-        } else {
-          Log.e(TAG, "Valid encoder not found");
-          return false;
-        }
+      EncoderInfo encoder = chooseEncoder(CodecUtil.AAC_MIME);
+      if (encoder != null) {
+        codec = MediaCodec.createByCodecName(encoder.getName());
       } else {
-        if (encoders.isEmpty()) {
-          Log.e(TAG, "Valid encoder not found");
-          return false;
-        } else {
-          codec = MediaCodec.createByCodecName(encoders.get(0).getName());
-        }
+        Log.e(TAG, "Valid encoder not found");
+        return false;
       }
 
       int channelCount = (isStereo) ? 2 : 1;
       MediaFormat audioFormat =
           MediaFormat.createAudioFormat(CodecUtil.AAC_MIME, sampleRate, channelCount);
       audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
-      audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxInputSize);
+      int frameSize = SAMPLES_PER_FRAME * channelCount * 2;
+      audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, Math.max(maxInputSize, frameSize));
       audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE,
           MediaCodecInfo.CodecProfileLevel.AACObjectLC);
       codec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      int ringSize = sampleRate * channelCount * 2 * RING_SECONDS;
+      if (pcmRingBuffer == null || pcmRingBuffer.getCapacity() != ringSize) {
+        pcmRingBuffer = new PcmRingBuffer(ringSize);
+      }
+      if (aacInputFrame == null || aacInputFrame.getSize() != frameSize) {
+        aacInputFrame = new Frame(new byte[frameSize], 0, frameSize);
+      }
+      //cached silent frame was encoded with old config
+      silentAacFrame = null;
+      silentAacBuffer = null;
       running = false;
       Log.i(TAG, "prepared");
       return true;
@@ -92,6 +135,26 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   @Override
   public void start(boolean resetTs) {
     presentTimeUs = System.nanoTime() / 1000;
+    pcmRingBuffer.clear();
+    pendingInputIndices.clear();
+    firstSampleNs = 0;
+    encodedSamples = 0;
+    silentFrames = 0;
+    silentCandidatePtsUs = -1;
+    silentAacFrame = null;
+    silentAacBuffer = null;
+    lastSentPtsUs = -1;
+    lastQueuedPtsUs = -1;
+    VoiceActivityDetector voiceActivityDetector = this.voiceActivityDetector;
+    if (voiceActivityDetector != null) voiceActivityDetector.reset();
+    asyncMode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    if (asyncMode) {
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+      createAsyncCallback();
+      codec.setCallback(callback, handler);
+    }
     codec.start();
     running = true;
     Log.i(TAG, "started");
@@ -99,14 +162,79 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
 
   @Override
   protected void stopImp() {
+    if (handlerThread != null) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        handlerThread.quitSafely();
+      } else {
+        handlerThread.quit();
+      }
+      handlerThread = null;
+    }
+    pendingInputIndices.clear();
     Log.i(TAG, "stopped");
   }
 
+  /**
+   * @return one AAC frame of PCM from ring buffer, null if there is not enough PCM yet. Silent
+   * frames replaced by DTX are sent here and skipped.
+   */
   @Override
-  protected Frame getInputFrame() throws InterruptedException {
+  protected Frame getInputFrame() {
+    Frame frame = aacInputFrame;
+    while (pcmRingBuffer.read(frame.getBuffer(), 0, frame.getSize())) {
+      frame.setTimeStamp(firstSampleNs + encodedSamples * 1000000000L / sampleRate);
+      encodedSamples += SAMPLES_PER_FRAME;
+      if (!replaceSilence(frame)) {
+        lastQueuedPtsUs = getPresentationTime(frame);
+        return frame;
+      }
+    }
     return null;
   }
 
+  /**
+   * @return true if frame is silence and the cached silent frame was used instead.
+   */
+  private boolean replaceSilence(Frame frame) {
+    VoiceActivityDetector voiceActivityDetector = this.voiceActivityDetector;
+    long durationUs = SAMPLES_PER_FRAME * 1000000L / sampleRate;
+    if (voiceActivityDetector == null
+        || voiceActivityDetector.process(frame.getBuffer(), 0, frame.getSize(), durationUs)) {
+      silentFrames = 0;
+      return false;
+    }
+    silentFrames++;
+    //encode digital silence first, it flushes codec and gives the frame to cache. Keep encoding
+    //while encoder output is pending, cached frame can't be sent before it
+    if (silentFrames <= SILENT_FRAMES_ENCODED || silentAacFrame == null
+        || lastQueuedPtsUs > lastSentPtsUs) {
+      Arrays.fill(frame.getBuffer(), (byte) 0);
+      if (silentFrames == SILENT_FRAMES_ENCODED) silentCandidatePtsUs = getPresentationTime(frame);
+      return false;
+    }
+    skippedEncodeFrames++;
+    if ((silentFrames - SILENT_FRAMES_ENCODED - 1) % keepAliveFrames != 0) {
+      skippedSendFrames++;
+      return true;
+    }
+    long ptsUs = getPresentationTime(frame);
+    silentAacBuffer.clear();
+    silentBufferInfo.set(0, silentAacFrame.length, ptsUs, 0);
+    lastSentPtsUs = ptsUs;
+    getAacData.getAacData(silentAacBuffer, silentBufferInfo);
+    return true;
+  }
+
+  @Override
+  protected long getPresentationTime(Frame frame) {
+    return frame.getTimeStamp() / 1000 - presentTimeUs;
+  }
+
+  @Override
+  protected void onInputBufferPending(int inBufferIndex) {
+    pendingInputIndices.offer(inBufferIndex);
+  }
+
   @Override
   protected void checkBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo) {
@@ -116,6 +244,21 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   @Override
   protected void sendBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo) {
+    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+      if (bufferInfo.presentationTimeUs == silentCandidatePtsUs) {
+        silentCandidatePtsUs = -1;
+        silentAacFrame = new byte[bufferInfo.size];
+        ByteBuffer silentData = byteBuffer.duplicate();
+        silentData.position(bufferInfo.offset);
+        silentData.get(silentAacFrame);
+        silentAacBuffer = ByteBuffer.wrap(silentAacFrame);
+      }
+      lastSentPtsUs = bufferInfo.presentationTimeUs;
+    }
+    LatencyTracker tracker = latencyTracker;
+    if (tracker != null) {
+      tracker.onEncoderOutput(bufferInfo.presentationTimeUs, bufferInfo.presentationTimeUs);
+    }
     getAacData.getAacData(byteBuffer, bufferInfo);
   }
 
@@ -128,25 +271,160 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   @Override
   public void inputPCMData(Frame frame) {
     if (running) {
+      if (firstSampleNs == 0) {
+        //frame timestamp is the end of the read, first sample was captured before
+        long captureNs = frame.getTimeStamp() != 0 ? frame.getTimeStamp() : System.nanoTime();
+        int channels = isStereo ? 2 : 1;
+        long firstNs = captureNs - frame.getSize() / (2L * channels) * 1000000000L / sampleRate;
+        //pts can't be negative, start is the origin of pts
+        firstSampleNs = Math.max(firstNs, presentTimeUs * 1000);
+      }
+      int written = pcmRingBuffer.write(frame.getBuffer(), frame.getOffset(), frame.getSize());
+      if (written < frame.getSize()) {
+        Log.e(TAG, "encoder too slow, PCM discarded: " + (frame.getSize() - written));
+      }
+      if (asyncMode) {
+        //codec is waiting for PCM
+        if (!pendingInputIndices.isEmpty()) handler.post(feedPendingInputRunnable);
+      } else {
+        try {
+          encodeSync();
+        } catch (IllegalStateException e) {
+          Log.i(TAG, "Encoding error", e);
+        }
+      }
+    } else {
+      Log.i(TAG, "frame discarded");
+    }
+  }
+
+  /**
+   * Enable DTX, silence is not encoded. Can be changed while encoding.
+   *
+   * @param voiceActivityDetector detect silence, null to disable DTX.
+   * @param keepAliveFrames send 1 of each keepAliveFrames silent frames, 1 to send all of them
+   * keeping audio continuous, more to save bandwidth if server and player accept audio gaps.
+   */
+  public void setDtx(VoiceActivityDetector voiceActivityDetector, int keepAliveFrames) {
+    this.keepAliveFrames = Math.max(1, keepAliveFrames);
+    this.voiceActivityDetector = voiceActivityDetector;
+  }
+
+  /**
+   * @return silent frames not encoded because of DTX.
+   */
+  public long getSkippedEncodeFrames() {
+    return skippedEncodeFrames;
+  }
+
+  /**
+   * @return silent frames not encoded and not sent because of DTX keep alive.
+   */
+  public long getSkippedSendFrames() {
+    return skippedSendFrames;
+  }
+
+  public void resetSkippedFrames() {
+    skippedEncodeFrames = 0;
+    skippedSendFrames = 0;
+  }
+
+  /**
+   * @return PCM bytes discarded because encoder was more than 2 seconds late.
+   */
+  public long getDiscardedBytes() {
+    return pcmRingBuffer != null ? pcmRingBuffer.getOverflowBytes() : 0;
+  }
+
+  /**
+   * Used below API 23, encode all AAC frames available in caller thread.
+   */
+  private void encodeSync() throws IllegalStateException {
+    while (running && pcmRingBuffer.getAvailable() >= aacInputFrame.getSize()) {
+      //index left if all PCM available was replaced by DTX
+      Integer pendingIndex = pendingInputIndices.poll();
+      int inBufferIndex = pendingIndex != null ? pendingIndex : codec.dequeueInputBuffer(0);
+      if (inBufferIndex < 0) break;
+      inputAvailable(codec, inBufferIndex, null);
+    }
+    drainOutput();
+  }
+
+  private final Runnable feedPendingInputRunnable = new Runnable() {
+    @Override
+    public void run() {
       try {
-        getDataFromEncoder(frame);
+        feedPendingInput();
       } catch (IllegalStateException e) {
         Log.i(TAG, "Encoding error", e);
       }
-    } else {
-      Log.i(TAG, "frame discarded");
     }
+  };
+
+  /**
+   * Fill input buffers that were available before PCM arrived.
+   */
+  private void feedPendingInput() throws IllegalStateException {
+    while (running && !pendingInputIndices.isEmpty()
+        && pcmRingBuffer.getAvailable() >= aacInputFrame.getSize()) {
+      inputAvailable(codec, pendingInputIndices.poll(), null);
+    }
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.M)
+  private void createAsyncCallback() {
+    callback = new MediaCodec.Callback() {
+      @Override
+      public void onInputBufferAvailable(@NonNull MediaCodec mediaCodec, int inBufferIndex) {
+        try {
+          inputAvailable(mediaCodec, inBufferIndex, null);
+        } catch (IllegalStateException e) {
+          Log.i(TAG, "Encoding error", e);
+        }
+      }
+
+      @Override
+      public void onOutputBufferAvailable(@NonNull MediaCodec mediaCodec, int outBufferIndex,
+          @NonNull MediaCodec.BufferInfo bufferInfo) {
+        try {
+          outputAvailable(mediaCodec, outBufferIndex, bufferInfo);
+        } catch (IllegalStateException e) {
+          Log.i(TAG, "Encoding error", e);
+        }
+      }
+
+      @Override
+      public void onError(@NonNull MediaCodec mediaCodec, @NonNull MediaCodec.CodecException e) {
+        Log.e(TAG, "Error", e);
+      }
+
+      @Override
+      public void onOutputFormatChanged(@NonNull MediaCodec mediaCodec,
+          @NonNull MediaFormat mediaFormat) {
+        formatChanged(mediaCodec, mediaFormat);
+      }
+    };
   }
 
+  /**
+   * Capabilities are cached so MediaCodecList is only walked the first time. If encoders were
+   * calibrated with {@link EncoderCalibration}, the fastest one that encodes in real time is used.
+   */
   @Override
-  protected MediaCodecInfo chooseEncoder(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = CodecUtil.getAllEncoders(mime);
-    for (MediaCodecInfo mediaCodecInfo : mediaCodecInfoList) {
-      String name = mediaCodecInfo.getName().toLowerCase();
-      if (!name.contains("omx.google")) return mediaCodecInfo;
+  protected EncoderInfo chooseEncoder(String mime) {
+    List<EncoderInfo> encoders = CodecCapabilityCache.getEncoders(mime, force);
+    EncoderInfo calibrated = EncoderCalibration.choose(mime, encoders,
+        EncoderCalibration.getAudioConfig(sampleRate, isStereo ? 2 : 1),
+        sampleRate / (float) SAMPLES_PER_FRAME);
+    if (calibrated != null) return calibrated;
+    if (force == CodecUtil.Force.FIRST_COMPATIBLE_FOUND) {
+      for (EncoderInfo encoderInfo : encoders) {
+        String name = encoderInfo.getName().toLowerCase();
+        if (!name.contains("omx.google")) return encoderInfo;
+      }
     }
-    if (mediaCodecInfoList.size() > 0) {
-      return mediaCodecInfoList.get(0);
+    if (encoders.size() > 0) {
+      return encoders.get(0);
     } else {
       return null;
     }
@@ -0,0 +1,79 @@
+package com.pedro.encoder.audio;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Preallocated ring of PCM bytes with one writer thread (microphone) and one reader thread
+ * (encoder). It is lock free so writer never waits for the reader.
+ */
+public class PcmRingBuffer {
+
+  private final byte[] buffer;
+  //total bytes written and read since clear, position in buffer is modulo capacity
+  private volatile long writePos = 0;
+  private volatile long readPos = 0;
+  private volatile long overflowBytes = 0;
+
+  public PcmRingBuffer(int capacity) {
+    buffer = new byte[capacity];
+  }
+
+  public int getCapacity() {
+    return buffer.length;
+  }
+
+  public int getAvailable() {
+    return (int) (writePos - readPos);
+  }
+
+  /**
+   * Called from writer thread. If reader is too late and there is no space, the bytes that don't
+   * fit are discarded.
+   *
+   * @return bytes written.
+   */
+  public int write(byte[] data, int offset, int size) {
+    long write = writePos;
+    int free = buffer.length - (int) (write - readPos);
+    int length = Math.min(size, free);
+    if (length < size) overflowBytes += size - length;
+    int start = (int) (write % buffer.length);
+    int first = Math.min(length, buffer.length - start);
+    System.arraycopy(data, offset, buffer, start, first);
+    System.arraycopy(data, offset + first, buffer, 0, length - first);
+    writePos = write + length;
+    return length;
+  }
+
+  /**
+   * Called from reader thread.
+   *
+   * @return false if there are less than size bytes available, nothing is read.
+   */
+  public boolean read(byte[] data, int offset, int size) {
+    long read = readPos;
+    if (writePos - read < size) return false;
+    int start = (int) (read % buffer.length);
+    int first = Math.min(size, buffer.length - start);
+    System.arraycopy(buffer, start, data, offset, first);
+    System.arraycopy(buffer, 0, data, offset + first, size - first);
+    readPos = read + size;
+    return true;
+  }
+
+  /**
+   * @return bytes discarded because buffer was full.
+   */
+  public long getOverflowBytes() {
+    return overflowBytes;
+  }
+
+  /**
+   * Must be called when writer and reader are stopped.
+   */
+  public void clear() {
+    readPos = 0;
+    writePos = 0;
+    overflowBytes = 0;
+  }
+}
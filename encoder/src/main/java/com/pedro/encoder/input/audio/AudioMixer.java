@@ -0,0 +1,329 @@
+package com.pedro.encoder.input.audio;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Mix several 16 bits little endian PCM sources (file decoder, playback capture, effects...)
+ * into the microphone buffer. Samples are mixed in int with per source gain and converted to
+ * output channels, then a soft limiter keeps peaks below full scale instead of clipping.
+ * Sources are written from any thread and consumed when microphone data is processed, so the
+ * microphone is the clock. Nothing is allocated while mixing. Sources with other sample rate are
+ * resampled when written.
+ *
+ * Can be used directly as {@link CustomAudioEffect} of microphone.
+ */
+public class AudioMixer extends CustomAudioEffect {
+
+  //gains are fixed point with 12 fractional bits
+  private static final int GAIN_BITS = 12;
+  private static final int UNITY_GAIN = 1 << GAIN_BITS;
+  private static final float MAX_GAIN = 8f;
+  //soft limiter starts at -2.5 dBFS
+  private static final int LIMITER_THRESHOLD = 24576;
+  private static final int LIMITER_RANGE = Short.MAX_VALUE - LIMITER_THRESHOLD;
+
+  private final int sampleRate;
+  private final int channels;
+  private final int maxFrames;
+  private final int[] mixBuffer;
+  private volatile Source[] sources = new Source[0];
+  private volatile int primaryGain = UNITY_GAIN;
+
+  /**
+   * Source of PCM mixed with the microphone. Audio written is consumed at microphone rate. If it
+   * is written faster than consumed, oldest audio is discarded.
+   */
+  public static class Source {
+
+    private final int channels;
+    private final int outputChannels;
+    private final short[] ring;
+    private int readPos = 0;
+    private int available = 0;
+    private volatile int[] gains;
+    private volatile boolean muted = false;
+    private long overflowSamples = 0;
+    private long underflowSamples = 0;
+    private final Resampler resampler;
+    private byte[] resampled = new byte[0];
+
+    private Source(int channels, int outputChannels, int capacityFrames, Resampler resampler) {
+      this.channels = channels;
+      this.outputChannels = outputChannels;
+      this.resampler = resampler;
+      ring = new short[capacityFrames * channels];
+      gains = calculateGains(1f);
+    }
+
+    public int getChannels() {
+      return channels;
+    }
+
+    /**
+     * @param gain linear, 1 by default. Between 0 and 8.
+     */
+    public void setGain(float gain) {
+      gains = calculateGains(gain);
+    }
+
+    public void setMuted(boolean muted) {
+      this.muted = muted;
+    }
+
+    public boolean isMuted() {
+      return muted;
+    }
+
+    /**
+     * @param pcm 16 bits little endian, interleaved with source channels.
+     */
+    public synchronized void write(byte[] pcm, int offset, int size) {
+      if (resampler != null) {
+        int maxSize = resampler.getMaxOutputSize(size);
+        //only grows until biggest write size
+        if (resampled.length < maxSize) resampled = new byte[maxSize];
+        size = resampler.process(pcm, offset, size, resampled, 0);
+        pcm = resampled;
+        offset = 0;
+      }
+      int samples = size / 2;
+      samples -= samples % channels;
+      if (samples > ring.length) {
+        overflowSamples += samples - ring.length;
+        offset += (samples - ring.length) * 2;
+        samples = ring.length;
+      }
+      int free = ring.length - available;
+      if (samples > free) {
+        int discard = samples - free;
+        //keep whole frames
+        discard += (channels - discard % channels) % channels;
+        readPos = (readPos + discard) % ring.length;
+        available -= discard;
+        overflowSamples += discard;
+      }
+      int writePos = (readPos + available) % ring.length;
+      for (int i = 0; i < samples; i++) {
+        ring[writePos] = (short) ((pcm[offset] & 0xFF) | (pcm[offset + 1] << 8));
+        offset += 2;
+        if (++writePos == ring.length) writePos = 0;
+      }
+      available += samples;
+    }
+
+    public synchronized int getAvailableFrames() {
+      return available / channels;
+    }
+
+    /**
+     * @return samples discarded because mixer didn't consume them in time.
+     */
+    public synchronized long getOverflowSamples() {
+      return overflowSamples;
+    }
+
+    /**
+     * @return samples mixed as silence because source had no data.
+     */
+    public synchronized long getUnderflowSamples() {
+      return underflowSamples;
+    }
+
+    public synchronized void clear() {
+      readPos = 0;
+      available = 0;
+      if (resampler != null) resampler.reset();
+    }
+
+    /**
+     * Consume frames adding them to mix buffer, converted to output channels.
+     */
+    private synchronized void mixTo(int[] mix, int frames) {
+      int read = Math.min(frames, available / channels);
+      underflowSamples += (long) (frames - read) * channels;
+      if (read == 0) return;
+      int[] gains = this.gains;
+      boolean skip = muted;
+      int pos = readPos;
+      int length = ring.length;
+      if (skip) {
+        pos = (pos + read * channels) % length;
+      } else if (channels == outputChannels) {
+        int gain = gains[0];
+        int samples = read * channels;
+        for (int i = 0; i < samples; i++) {
+          mix[i] += (ring[pos] * gain) >> GAIN_BITS;
+          if (++pos == length) pos = 0;
+        }
+      } else if (channels < outputChannels) {
+        //up mix, each output channel copies a source channel
+        for (int f = 0; f < read; f++) {
+          int out = f * outputChannels;
+          for (int c = 0; c < outputChannels; c++) {
+            int index = pos + c % channels;
+            if (index >= length) index -= length;
+            mix[out + c] += (ring[index] * gains[c]) >> GAIN_BITS;
+          }
+          pos += channels;
+          if (pos >= length) pos -= length;
+        }
+      } else {
+        //down mix, each source channel is averaged in an output channel
+        for (int f = 0; f < read; f++) {
+          int out = f * outputChannels;
+          for (int c = 0; c < channels; c++) {
+            int o = c % outputChannels;
+            mix[out + o] += (ring[pos] * gains[o]) >> GAIN_BITS;
+            if (++pos == length) pos = 0;
+          }
+        }
+      }
+      readPos = pos;
+      available -= read * channels;
+    }
+
+    /**
+     * @return gain of each output channel, divided by number of source channels mixed in it.
+     */
+    private int[] calculateGains(float gain) {
+      int fixedGain = (int) (Math.max(0f, Math.min(MAX_GAIN, gain)) * UNITY_GAIN);
+      int[] gains = new int[outputChannels];
+      for (int o = 0; o < outputChannels; o++) {
+        int mixed = 1;
+        if (channels > outputChannels) {
+          mixed = (channels - o + outputChannels - 1) / outputChannels;
+        }
+        gains[o] = fixedGain / mixed;
+      }
+      return gains;
+    }
+  }
+
+  /**
+   * @param sampleRate of microphone.
+   * @param channels of microphone, 1 or 2.
+   * @param maxFrames max frames (samples per channel) mixed in one call, the microphone buffer
+   * size. Sources keep up to 4 times this.
+   */
+  public AudioMixer(int sampleRate, int channels, int maxFrames) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.maxFrames = maxFrames;
+    mixBuffer = new int[maxFrames * channels];
+  }
+
+  /**
+   * Same as {@link #AudioMixer(int, int, int)} for sources with microphone sample rate only.
+   */
+  public AudioMixer(int channels, int maxFrames) {
+    this(0, channels, maxFrames);
+  }
+
+  /**
+   * @param channels of PCM written to source. Converted to mixer channels.
+   */
+  public Source addSource(int channels) {
+    return addSource(channels, sampleRate);
+  }
+
+  /**
+   * @param channels of PCM written to source. Converted to mixer channels.
+   * @param sampleRate of PCM written to source. Resampled to mixer sample rate.
+   */
+  public synchronized Source addSource(int channels, int sampleRate) {
+    Resampler resampler = null;
+    if (sampleRate != this.sampleRate) {
+      if (this.sampleRate <= 0) {
+        throw new IllegalArgumentException("Mixer sample rate is needed to resample sources");
+      }
+      resampler = new Resampler(sampleRate, this.sampleRate, channels);
+    }
+    Source source = new Source(channels, this.channels, maxFrames * 4, resampler);
+    Source[] current = sources;
+    Source[] updated = new Source[current.length + 1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length] = source;
+    sources = updated;
+    return source;
+  }
+
+  public synchronized void removeSource(Source source) {
+    Source[] current = sources;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == source) {
+        Source[] updated = new Source[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+        sources = updated;
+        return;
+      }
+    }
+  }
+
+  /**
+   * @param gain linear gain of PCM given to process (normally microphone). 1 by default, 0 to
+   * only mix sources.
+   */
+  public void setPrimaryGain(float gain) {
+    primaryGain = (int) (Math.max(0f, Math.min(MAX_GAIN, gain)) * UNITY_GAIN);
+  }
+
+  @Override
+  public byte[] process(byte[] pcmBuffer) {
+    return process(pcmBuffer, 0, pcmBuffer.length);
+  }
+
+  /**
+   * Mix sources into pcm, in place. Content of pcm is mixed as primary source.
+   *
+   * @param pcm 16 bits little endian with mixer channels.
+   * @return pcm
+   */
+  @Override
+  public byte[] process(byte[] pcm, int offset, int size) {
+    int frameSize = 2 * channels;
+    while (size >= frameSize) {
+      int frames = Math.min(size / frameSize, maxFrames);
+      mixChunk(pcm, offset, frames);
+      offset += frames * frameSize;
+      size -= frames * frameSize;
+    }
+    return pcm;
+  }
+
+  private synchronized void mixChunk(byte[] pcm, int offset, int frames) {
+    int samples = frames * channels;
+    int gain = primaryGain;
+    int index = offset;
+    for (int i = 0; i < samples; i++) {
+      int sample = (pcm[index] & 0xFF) | (pcm[index + 1] << 8);
+      mixBuffer[i] = (sample * gain) >> GAIN_BITS;
+      index += 2;
+    }
+    Source[] sources = this.sources;
+    for (Source source : sources) {
+      source.mixTo(mixBuffer, frames);
+    }
+    index = offset;
+    for (int i = 0; i < samples; i++) {
+      int sample = limit(mixBuffer[i]);
+      pcm[index] = (byte) sample;
+      pcm[index + 1] = (byte) (sample >> 8);
+      index += 2;
+    }
+  }
+
+  /**
+   * Soft knee limiter, samples over threshold approach full scale without reaching it.
+   */
+  private static int limit(int sample) {
+    if (sample > LIMITER_THRESHOLD) {
+      long over = sample - LIMITER_THRESHOLD;
+      return LIMITER_THRESHOLD + (int) (over * LIMITER_RANGE / (over + LIMITER_RANGE));
+    } else if (sample < -LIMITER_THRESHOLD) {
+      long over = -sample - LIMITER_THRESHOLD;
+      return -LIMITER_THRESHOLD - (int) (over * LIMITER_RANGE / (over + LIMITER_RANGE));
+    }
+    return sample;
+  }
+}
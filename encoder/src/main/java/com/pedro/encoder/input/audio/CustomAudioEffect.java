@@ -7,4 +7,14 @@ public abstract class CustomAudioEffect {
    * @return it must be of same size that pcmBuffer parameter.
    */
   public abstract byte[] process(byte[] pcmBuffer);
+
+  /**
+   * Process only size bytes from offset. Effects that work in place should override it to avoid
+   * processing the unused part of the buffer.
+   *
+   * @return buffer with processed data at same offset.
+   */
+  public byte[] process(byte[] pcmBuffer, int offset, int size) {
+    return process(pcmBuffer);
+  }
 }
@@ -25,6 +25,8 @@ public class MicrophoneManager {
   private GetMicrophoneData getMicrophoneData;
   private ByteBuffer pcmBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
   private byte[] pcmBufferMuted = new byte[BUFFER_SIZE];
+  //reused in each read, consumers copy the data before next read
+  private final Frame frame = new Frame(pcmBufferMuted, 0, 0);
   protected boolean running = false;
   private boolean created = false;
 
@@ -167,8 +169,14 @@ public class MicrophoneManager {
     if (size <= 0) {
       return null;
     }
-    return new Frame(muted ? pcmBufferMuted : customAudioEffect.process(pcmBuffer.array()),
-        muted ? 0 : pcmBuffer.arrayOffset(), size);
+    int offset = muted ? 0 : pcmBuffer.arrayOffset();
+    byte[] buffer = muted ? pcmBufferMuted
+        : customAudioEffect.process(pcmBuffer.array(), offset, size);
+    frame.setBuffer(buffer);
+    frame.setOffset(offset);
+    frame.setSize(size);
+    frame.setTimeStamp(System.nanoTime());
+    return frame;
   }
 
   /**
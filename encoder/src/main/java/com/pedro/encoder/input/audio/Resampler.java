@@ -0,0 +1,170 @@
+package com.pedro.encoder.input.audio;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Streaming polyphase resampler of 16 bits little endian PCM (44100 to 48000, 48000 to 32000...).
+ * Rates are reduced to an up factor L and a down factor M and a windowed sinc low pass filter is
+ * split in L phases, so each output sample only needs taps multiplications. Filter state is kept
+ * between calls, input can be given in chunks of any size. Nothing is allocated while processing.
+ */
+public class Resampler {
+
+  public enum Quality {
+    //taps per phase
+    LOW(8), MEDIUM(16), HIGH(32);
+
+    private final int taps;
+
+    Quality(int taps) {
+      this.taps = taps;
+    }
+  }
+
+  //cutoff relative to the lowest nyquist, leave room for the transition band
+  private static final double ROLLOFF = 0.92;
+  private final int inputSampleRate;
+  private final int outputSampleRate;
+  private final int channels;
+  private final int up;
+  private final int down;
+  private final int taps;
+  //coefficients of each phase, phase p at [p * taps, (p + 1) * taps), newest sample first
+  private final float[] coefficients;
+  //last taps samples of each channel, duplicated to read them without wrapping
+  private final float[][] history;
+  private int historyPos = 0;
+  private int phase;
+
+  public Resampler(int inputSampleRate, int outputSampleRate, int channels) {
+    this(inputSampleRate, outputSampleRate, channels, Quality.MEDIUM);
+  }
+
+  public Resampler(int inputSampleRate, int outputSampleRate, int channels, Quality quality) {
+    this.inputSampleRate = inputSampleRate;
+    this.outputSampleRate = outputSampleRate;
+    this.channels = channels;
+    int gcd = gcd(inputSampleRate, outputSampleRate);
+    up = outputSampleRate / gcd;
+    down = inputSampleRate / gcd;
+    //downsampling needs a longer filter for the same transition band
+    taps = quality.taps * Math.max(1, (down + up - 1) / up);
+    coefficients = createCoefficients(up, down, taps);
+    history = new float[channels][2 * taps];
+    phase = up;
+  }
+
+  public int getInputSampleRate() {
+    return inputSampleRate;
+  }
+
+  public int getOutputSampleRate() {
+    return outputSampleRate;
+  }
+
+  /**
+   * @return max bytes that {@link #process(byte[], int, int, byte[], int)} can write for the given
+   * input size.
+   */
+  public int getMaxOutputSize(int inputSize) {
+    long frames = inputSize / (2 * channels);
+    return (int) ((frames * up + down - 1) / down + 1) * 2 * channels;
+  }
+
+  /**
+   * Forget previous input, used when source is discontinuous (seek, restart).
+   */
+  public void reset() {
+    for (float[] channelHistory : history) {
+      for (int i = 0; i < channelHistory.length; i++) {
+        channelHistory[i] = 0;
+      }
+    }
+    historyPos = 0;
+    phase = up;
+  }
+
+  /**
+   * @param input 16 bits little endian interleaved PCM at input sample rate.
+   * @param output must have {@link #getMaxOutputSize(int)} bytes available from outputOffset.
+   * @return bytes written in output.
+   */
+  public int process(byte[] input, int inputOffset, int inputSize, byte[] output,
+      int outputOffset) {
+    int frameSize = 2 * channels;
+    int inputEnd = inputOffset + inputSize - inputSize % frameSize;
+    int in = inputOffset;
+    int out = outputOffset;
+    if (up == down) {
+      System.arraycopy(input, inputOffset, output, outputOffset, inputEnd - inputOffset);
+      return inputEnd - inputOffset;
+    }
+    while (true) {
+      //consume input until the next output sample position
+      while (phase >= up) {
+        if (in >= inputEnd) return out - outputOffset;
+        historyPos = historyPos + 1 == taps ? 0 : historyPos + 1;
+        for (int c = 0; c < channels; c++) {
+          float sample = (short) ((input[in] & 0xFF) | (input[in + 1] << 8));
+          history[c][historyPos] = sample;
+          history[c][historyPos + taps] = sample;
+          in += 2;
+        }
+        phase -= up;
+      }
+      int coefficientStart = phase * taps;
+      //newest sample at historyPos + taps, older ones before it
+      int newest = historyPos + taps;
+      for (int c = 0; c < channels; c++) {
+        float[] channelHistory = history[c];
+        float sum = 0;
+        for (int j = 0; j < taps; j++) {
+          sum += channelHistory[newest - j] * coefficients[coefficientStart + j];
+        }
+        int sample = Math.round(sum);
+        if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+        output[out++] = (byte) sample;
+        output[out++] = (byte) (sample >> 8);
+      }
+      phase += down;
+    }
+  }
+
+  /**
+   * Blackman windowed sinc with unity gain in each phase.
+   */
+  private static float[] createCoefficients(int up, int down, int taps) {
+    int length = up * taps;
+    double cutoff = ROLLOFF * 0.5 / Math.max(up, down);
+    double center = (length - 1) / 2.0;
+    double[] filter = new double[length];
+    for (int i = 0; i < length; i++) {
+      double x = i - center;
+      double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+      double angle = 2 * Math.PI * i / (length - 1);
+      double window = 0.42 - 0.5 * Math.cos(angle) + 0.08 * Math.cos(2 * angle);
+      filter[i] = sinc * window;
+    }
+    float[] coefficients = new float[length];
+    for (int p = 0; p < up; p++) {
+      double sum = 0;
+      for (int j = 0; j < taps; j++) {
+        sum += filter[j * up + p];
+      }
+      for (int j = 0; j < taps; j++) {
+        coefficients[p * taps + j] = (float) (filter[j * up + p] / sum);
+      }
+    }
+    return coefficients;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
@@ -0,0 +1,96 @@
+package com.pedro.encoder.input.audio;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Energy based voice activity detector of 16 bits little endian PCM. A block is voice if its
+ * level is over the threshold and over the estimated noise floor plus a margin. Voice state is
+ * kept during hangover after the last voice block, so word endings and short pauses are not cut.
+ */
+public class VoiceActivityDetector {
+
+  private static final float MIN_LEVEL_DB = -96f;
+  //noise floor follows quiet blocks fast and loud blocks slowly, voice blocks very slowly
+  private static final float FLOOR_DOWN = 0.5f;
+  private static final float FLOOR_UP = 0.01f;
+  private static final float FLOOR_UP_VOICE = 0.002f;
+
+  private final float thresholdDb;
+  private final float marginDb;
+  private final long hangoverUs;
+  private float noiseFloorDb = MIN_LEVEL_DB;
+  private float levelDb = MIN_LEVEL_DB;
+  private long silenceUs = 0;
+  private boolean voice = true;
+
+  /**
+   * @param thresholdDb level in dBFS under which audio is always silence.
+   * @param marginDb level over noise floor needed to be voice.
+   * @param hangoverMs time that voice state is kept after last voice block.
+   */
+  public VoiceActivityDetector(float thresholdDb, float marginDb, int hangoverMs) {
+    this.thresholdDb = thresholdDb;
+    this.marginDb = marginDb;
+    this.hangoverUs = hangoverMs * 1000L;
+  }
+
+  /**
+   * -50 dBFS threshold, 9 dB margin and 300 ms hangover.
+   */
+  public VoiceActivityDetector() {
+    this(-50f, 9f, 300);
+  }
+
+  /**
+   * @param pcm 16 bits little endian, interleaved.
+   * @param durationUs duration of the block.
+   * @return true if block is voice or inside hangover.
+   */
+  public boolean process(byte[] pcm, int offset, int size, long durationUs) {
+    int samples = size / 2;
+    if (samples == 0) return voice;
+    long sum = 0;
+    for (int i = offset; i < offset + samples * 2; i += 2) {
+      int sample = (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+      sum += sample * sample;
+    }
+    double rms = Math.sqrt((double) sum / samples) / 32768.0;
+    levelDb = rms > 0 ? Math.max(MIN_LEVEL_DB, (float) (20 * Math.log10(rms))) : MIN_LEVEL_DB;
+    boolean active = levelDb > thresholdDb && levelDb > noiseFloorDb + marginDb;
+    if (noiseFloorDb == MIN_LEVEL_DB || levelDb < noiseFloorDb) {
+      noiseFloorDb += (levelDb - noiseFloorDb) * FLOOR_DOWN;
+    } else {
+      noiseFloorDb += (levelDb - noiseFloorDb) * (active ? FLOOR_UP_VOICE : FLOOR_UP);
+    }
+    if (active) {
+      silenceUs = 0;
+      voice = true;
+    } else {
+      silenceUs += durationUs;
+      if (silenceUs >= hangoverUs) voice = false;
+    }
+    return voice;
+  }
+
+  public boolean isVoice() {
+    return voice;
+  }
+
+  /**
+   * @return level in dBFS of last block.
+   */
+  public float getLevelDb() {
+    return levelDb;
+  }
+
+  public float getNoiseFloorDb() {
+    return noiseFloorDb;
+  }
+
+  public void reset() {
+    noiseFloorDb = MIN_LEVEL_DB;
+    levelDb = MIN_LEVEL_DB;
+    silenceUs = 0;
+    voice = true;
+  }
+}
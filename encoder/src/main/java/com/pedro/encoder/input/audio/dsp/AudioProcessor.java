@@ -0,0 +1,26 @@
+package com.pedro.encoder.input.audio.dsp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Stage of {@link AudioProcessorChain}. Samples are modified in place and must not allocate
+ * memory in process, everything needed is created in configure.
+ */
+public interface AudioProcessor {
+
+  /**
+   * Called before first process and each time format changes.
+   */
+  void configure(int sampleRate, int channels);
+
+  /**
+   * @param samples 16 bits interleaved PCM.
+   * @param length number of samples, multiple of channels.
+   */
+  void process(short[] samples, int offset, int length);
+
+  /**
+   * Forget previous samples (filter and envelope state).
+   */
+  void reset();
+}
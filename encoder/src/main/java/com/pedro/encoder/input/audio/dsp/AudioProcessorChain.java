@@ -0,0 +1,140 @@
+package com.pedro.encoder.input.audio.dsp;
+
+import com.pedro.encoder.input.audio.CustomAudioEffect;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Chain of {@link AudioProcessor} run in order on microphone thread. PCM is converted once to a
+ * reused short array, processed in place by every stage and converted back, so nothing is
+ * allocated once the biggest buffer was seen. Time spent in each stage is measured.
+ */
+public class AudioProcessorChain extends CustomAudioEffect {
+
+  private final int sampleRate;
+  private final int channels;
+  private volatile Stage[] stages = new Stage[0];
+  private short[] samples = new short[0];
+  private long processedFrames = 0;
+
+  private static class Stage {
+    private final AudioProcessor processor;
+    private long totalNs = 0;
+    private long calls = 0;
+
+    private Stage(AudioProcessor processor) {
+      this.processor = processor;
+    }
+  }
+
+  public AudioProcessorChain(int sampleRate, int channels) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+  }
+
+  public synchronized void addProcessor(AudioProcessor processor) {
+    processor.configure(sampleRate, channels);
+    Stage[] current = stages;
+    Stage[] updated = new Stage[current.length + 1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length] = new Stage(processor);
+    stages = updated;
+  }
+
+  public synchronized void removeProcessor(AudioProcessor processor) {
+    Stage[] current = stages;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].processor == processor) {
+        Stage[] updated = new Stage[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+        stages = updated;
+        return;
+      }
+    }
+  }
+
+  @Override
+  public byte[] process(byte[] pcmBuffer) {
+    return process(pcmBuffer, 0, pcmBuffer.length);
+  }
+
+  @Override
+  public byte[] process(byte[] pcmBuffer, int offset, int size) {
+    Stage[] stages = this.stages;
+    if (stages.length == 0) return pcmBuffer;
+    int length = size / 2;
+    length -= length % channels;
+    synchronized (this) {
+      if (samples.length < length) samples = new short[length];
+      for (int i = 0, b = offset; i < length; i++, b += 2) {
+        samples[i] = (short) ((pcmBuffer[b] & 0xFF) | (pcmBuffer[b + 1] << 8));
+      }
+      process(stages, samples, 0, length);
+      for (int i = 0, b = offset; i < length; i++, b += 2) {
+        pcmBuffer[b] = (byte) samples[i];
+        pcmBuffer[b + 1] = (byte) (samples[i] >> 8);
+      }
+    }
+    return pcmBuffer;
+  }
+
+  /**
+   * Process samples in place, used if PCM is already in a short array.
+   */
+  public synchronized void process(short[] samples, int offset, int length) {
+    process(stages, samples, offset, length);
+  }
+
+  /**
+   * @return average time in us of one call to processor, 0 if it is not in the chain.
+   */
+  public synchronized float getProcessorTime(AudioProcessor processor) {
+    Stage stage = findStage(processor);
+    return stage == null || stage.calls == 0 ? 0 : stage.totalNs / stage.calls / 1000f;
+  }
+
+  /**
+   * @return portion of real time spent in processor, 0.01 means 1% of one core.
+   */
+  public synchronized float getProcessorLoad(AudioProcessor processor) {
+    Stage stage = findStage(processor);
+    if (stage == null || processedFrames == 0) return 0;
+    double audioNs = processedFrames * 1000000000.0 / sampleRate;
+    return (float) (stage.totalNs / audioNs);
+  }
+
+  public synchronized void resetStats() {
+    for (Stage stage : stages) {
+      stage.totalNs = 0;
+      stage.calls = 0;
+    }
+    processedFrames = 0;
+  }
+
+  /**
+   * Reset state of every processor, used when audio is discontinuous.
+   */
+  public synchronized void reset() {
+    for (Stage stage : stages) {
+      stage.processor.reset();
+    }
+  }
+
+  private void process(Stage[] stages, short[] samples, int offset, int length) {
+    for (Stage stage : stages) {
+      long start = System.nanoTime();
+      stage.processor.process(samples, offset, length);
+      stage.totalNs += System.nanoTime() - start;
+      stage.calls++;
+    }
+    processedFrames += length / channels;
+  }
+
+  private Stage findStage(AudioProcessor processor) {
+    for (Stage stage : stages) {
+      if (stage.processor == processor) return stage;
+    }
+    return null;
+  }
+}
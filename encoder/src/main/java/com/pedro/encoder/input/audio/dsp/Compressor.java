@@ -0,0 +1,101 @@
+package com.pedro.encoder.input.audio.dsp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Peak compressor. Level over threshold is reduced by ratio, an infinite ratio makes it a limiter
+ * (see {@link #limiter(float)}). Make up gain is applied after compression.
+ */
+public class Compressor implements AudioProcessor {
+
+  private static final float MIN_LEVEL = 1e-6f;
+  private final float thresholdDb;
+  private final float ratio;
+  private final float attackMs;
+  private final float releaseMs;
+  private final float makeUpDb;
+  private int channels = 1;
+  private float attackCoefficient;
+  private float releaseCoefficient;
+  private float slope;
+  private float makeUpGain = 1f;
+  private float envelope = 0;
+  private float gainReductionDb = 0;
+
+  /**
+   * Compressor with 5 ms attack, 100 ms release and no make up gain.
+   */
+  public Compressor(float thresholdDb, float ratio) {
+    this(thresholdDb, ratio, 5, 100, 0);
+  }
+
+  /**
+   * @param thresholdDb level in dBFS where compression starts.
+   * @param ratio 1 to disable, Float.POSITIVE_INFINITY to limit.
+   */
+  public Compressor(float thresholdDb, float ratio, float attackMs, float releaseMs,
+      float makeUpDb) {
+    this.thresholdDb = thresholdDb;
+    this.ratio = ratio;
+    this.attackMs = attackMs;
+    this.releaseMs = releaseMs;
+    this.makeUpDb = makeUpDb;
+  }
+
+  /**
+   * @param ceilingDb max level in dBFS of output.
+   */
+  public static Compressor limiter(float ceilingDb) {
+    return new Compressor(ceilingDb, Float.POSITIVE_INFINITY, 0, 50, 0);
+  }
+
+  @Override
+  public void configure(int sampleRate, int channels) {
+    this.channels = channels;
+    attackCoefficient = NoiseGate.smoothing(attackMs, sampleRate);
+    releaseCoefficient = NoiseGate.smoothing(releaseMs, sampleRate);
+    slope = 1 - 1 / ratio;
+    makeUpGain = (float) Math.pow(10, makeUpDb / 20);
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int length) {
+    int end = offset + length;
+    for (int i = offset; i < end; i += channels) {
+      int peak = 0;
+      for (int c = 0; c < channels; c++) {
+        peak = Math.max(peak, Math.abs(samples[i + c]));
+      }
+      float level = peak / (float) Short.MAX_VALUE;
+      envelope += (level - envelope) * (level > envelope ? attackCoefficient : releaseCoefficient);
+      float overDb = envelope > MIN_LEVEL ? (float) (20 * Math.log10(envelope)) - thresholdDb : 0;
+      float gain = makeUpGain;
+      if (overDb > 0) {
+        gainReductionDb = overDb * slope;
+        gain *= (float) Math.pow(10, -gainReductionDb / 20);
+      } else {
+        gainReductionDb = 0;
+      }
+      if (gain == 1f) continue;
+      for (int c = 0; c < channels; c++) {
+        int sample = Math.round(samples[i + c] * gain);
+        if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+        samples[i + c] = (short) sample;
+      }
+    }
+  }
+
+  /**
+   * @return current gain reduction in dB, useful for meters.
+   */
+  public float getGainReductionDb() {
+    return gainReductionDb;
+  }
+
+  @Override
+  public void reset() {
+    envelope = 0;
+    gainReductionDb = 0;
+  }
+}
@@ -0,0 +1,40 @@
+package com.pedro.encoder.input.audio.dsp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Constant gain with saturation.
+ */
+public class GainProcessor implements AudioProcessor {
+
+  private volatile float gain = 1f;
+
+  public GainProcessor(float gainDb) {
+    setGainDb(gainDb);
+  }
+
+  public void setGainDb(float gainDb) {
+    gain = (float) Math.pow(10, gainDb / 20);
+  }
+
+  @Override
+  public void configure(int sampleRate, int channels) {
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int length) {
+    float gain = this.gain;
+    if (gain == 1f) return;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      int sample = Math.round(samples[i] * gain);
+      if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+      if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+      samples[i] = (short) sample;
+    }
+  }
+
+  @Override
+  public void reset() {
+  }
+}
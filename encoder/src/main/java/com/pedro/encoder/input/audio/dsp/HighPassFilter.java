@@ -0,0 +1,69 @@
+package com.pedro.encoder.input.audio.dsp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Second order Butterworth high pass filter (biquad), removes rumble, wind and DC offset.
+ */
+public class HighPassFilter implements AudioProcessor {
+
+  private final float cutoffHz;
+  private float b0, b1, b2, a1, a2;
+  private int channels = 1;
+  //x[n-1], x[n-2], y[n-1], y[n-2] of each channel
+  private float[] state = new float[4];
+
+  /**
+   * @param cutoffHz -3 dB frequency, 80 to 120 hz is normally used for voice.
+   */
+  public HighPassFilter(float cutoffHz) {
+    this.cutoffHz = cutoffHz;
+  }
+
+  @Override
+  public void configure(int sampleRate, int channels) {
+    this.channels = channels;
+    state = new float[4 * channels];
+    double w0 = 2 * Math.PI * Math.min(cutoffHz, sampleRate * 0.45) / sampleRate;
+    double alpha = Math.sin(w0) / (2 * Math.sqrt(0.5));
+    double cos = Math.cos(w0);
+    double a0 = 1 + alpha;
+    b0 = (float) ((1 + cos) / 2 / a0);
+    b1 = (float) (-(1 + cos) / a0);
+    b2 = b0;
+    a1 = (float) (-2 * cos / a0);
+    a2 = (float) ((1 - alpha) / a0);
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int length) {
+    int end = offset + length;
+    for (int c = 0; c < channels; c++) {
+      int s = c * 4;
+      float x1 = state[s], x2 = state[s + 1], y1 = state[s + 2], y2 = state[s + 3];
+      for (int i = offset + c; i < end; i += channels) {
+        float x = samples[i];
+        float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+        x2 = x1;
+        x1 = x;
+        y2 = y1;
+        y1 = y;
+        int sample = Math.round(y);
+        if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+        samples[i] = (short) sample;
+      }
+      state[s] = x1;
+      state[s + 1] = x2;
+      state[s + 2] = y1;
+      state[s + 3] = y2;
+    }
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < state.length; i++) {
+      state[i] = 0;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.pedro.encoder.input.audio.dsp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Attenuate audio while its level is under threshold (background noise between words).
+ * Gate opens fast, stays open during hold time and closes smoothly to avoid clicks.
+ */
+public class NoiseGate implements AudioProcessor {
+
+  private final float thresholdDb;
+  private final float attackMs;
+  private final float holdMs;
+  private final float releaseMs;
+  private final float rangeDb;
+  private int channels = 1;
+  private float threshold;
+  private float closedGain;
+  private float attackCoefficient;
+  private float releaseCoefficient;
+  private int holdFrames;
+  private int holdCounter = 0;
+  private float gain = 1f;
+
+  /**
+   * Gate with 1 ms attack, 100 ms hold, 150 ms release and closed gain of -40 dB.
+   */
+  public NoiseGate(float thresholdDb) {
+    this(thresholdDb, 1, 100, 150, -40);
+  }
+
+  /**
+   * @param thresholdDb level in dBFS that opens the gate, -50 to -35 normally.
+   * @param rangeDb attenuation when gate is closed, negative infinity to mute.
+   */
+  public NoiseGate(float thresholdDb, float attackMs, float holdMs, float releaseMs,
+      float rangeDb) {
+    this.thresholdDb = thresholdDb;
+    this.attackMs = attackMs;
+    this.holdMs = holdMs;
+    this.releaseMs = releaseMs;
+    this.rangeDb = rangeDb;
+  }
+
+  @Override
+  public void configure(int sampleRate, int channels) {
+    this.channels = channels;
+    threshold = (float) (Short.MAX_VALUE * Math.pow(10, thresholdDb / 20));
+    closedGain = (float) Math.pow(10, rangeDb / 20);
+    attackCoefficient = smoothing(attackMs, sampleRate);
+    releaseCoefficient = smoothing(releaseMs, sampleRate);
+    holdFrames = (int) (holdMs * sampleRate / 1000);
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int length) {
+    int end = offset + length;
+    for (int i = offset; i < end; i += channels) {
+      int peak = 0;
+      for (int c = 0; c < channels; c++) {
+        peak = Math.max(peak, Math.abs(samples[i + c]));
+      }
+      float target;
+      if (peak >= threshold) {
+        holdCounter = holdFrames;
+        target = 1f;
+      } else if (holdCounter > 0) {
+        holdCounter--;
+        target = 1f;
+      } else {
+        target = closedGain;
+      }
+      gain += (target - gain) * (target > gain ? attackCoefficient : releaseCoefficient);
+      if (gain == 1f) continue;
+      for (int c = 0; c < channels; c++) {
+        samples[i + c] = (short) (samples[i + c] * gain);
+      }
+    }
+  }
+
+  public boolean isOpen() {
+    return holdCounter > 0;
+  }
+
+  @Override
+  public void reset() {
+    holdCounter = 0;
+    gain = 1f;
+  }
+
+  /**
+   * @return portion of the distance to target covered each frame.
+   */
+  static float smoothing(float timeMs, int sampleRate) {
+    if (timeMs <= 0) return 1f;
+    return (float) (1 - Math.exp(-1000 / (timeMs * sampleRate)));
+  }
+}
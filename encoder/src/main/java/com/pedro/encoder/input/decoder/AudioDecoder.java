@@ -33,6 +33,7 @@ public class AudioDecoder {
   private int size = 2048;
   private byte[] pcmBuffer = new byte[size];
   private byte[] pcmBufferMuted = new byte[11];
+  private byte[] pcmBufferStereo = new byte[size];
   private static boolean loopMode = false;
   private boolean muted = false;
   private long duration;
@@ -66,6 +67,7 @@ public class AudioDecoder {
       duration = audioFormat.getLong(MediaFormat.KEY_DURATION);
       if (channels >= 2) {
         pcmBuffer = new byte[2048 * channels];
+        pcmBufferStereo = new byte[2048 * 2];
       }
       return true;
       //audio decoder not supported
@@ -171,12 +173,13 @@ public class AudioDecoder {
                       : pcmBufferMuted.length);
               getMicrophoneData.inputPCMData(new Frame(pcmBufferMuted, 0, pcmBufferMuted.length));
             } else {
-              outBuffer.get(pcmBuffer, 0,
-                  outBuffer.remaining() <= pcmBuffer.length ? outBuffer.remaining()
-                      : pcmBuffer.length);
+              int length = outBuffer.remaining() <= pcmBuffer.length ? outBuffer.remaining()
+                  : pcmBuffer.length;
+              outBuffer.get(pcmBuffer, 0, length);
               if (channels > 2) { //downgrade to stereo
-                byte[] bufferStereo = PCMUtil.pcmToStereo(pcmBuffer, channels);
-                getMicrophoneData.inputPCMData(new Frame(bufferStereo, 0, bufferStereo.length));
+                int stereoLength =
+                    PCMUtil.pcmToStereo(pcmBuffer, length, channels, pcmBufferStereo);
+                getMicrophoneData.inputPCMData(new Frame(pcmBufferStereo, 0, stereoLength));
               } else {
                 getMicrophoneData.inputPCMData(new Frame(pcmBuffer, 0, pcmBuffer.length));
               }
@@ -13,6 +13,7 @@ import android.view.TextureView;
 
 import com.pedro.encoder.Frame;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -29,7 +30,8 @@ import java.util.List;
  * https://chromium.googlesource.com/libyuv/libyuv/
  */
 
-public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDetectionListener {
+public class Camera1ApiManager
+    implements Camera.PreviewCallback, Camera.FaceDetectionListener, Frame.OnReleaseListener {
 
   private String TAG = "Camera1ApiManager";
   private Camera camera = null;
@@ -51,7 +53,9 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   private int fps = 30;
   private int rotation = 0;
   private int imageFormat = ImageFormat.NV21;
-  private byte[] yuvBuffer;
+  //preview buffers shared with encoder, returned to camera when a frame is released
+  private int callbackBufferCount = 3;
+  private final List<byte[]> callbackBuffers = new ArrayList<>();
   private List<Camera.Size> previewSizeBack;
   private List<Camera.Size> previewSizeFront;
   private float distance;
@@ -99,6 +103,14 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
     this.surfaceTexture = surfaceTexture;
   }
 
+  /**
+   * Number of preview buffers that can be in use by camera and encoder at same time.
+   * Must be called before start. 3 by default.
+   */
+  public void setCallbackBufferCount(int callbackBufferCount) {
+    this.callbackBufferCount = Math.max(1, callbackBufferCount);
+  }
+
   public int getWidth() {
     return width;
   }
@@ -130,7 +142,6 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
     if (!checkCanOpen()) {
       throw new CameraOpenException("This camera resolution cant be opened");
     }
-    yuvBuffer = new byte[width * height * 3 / 2];
     try {
       camera = Camera.open(cameraSelect);
       Camera.CameraInfo info = new Camera.CameraInfo();
@@ -158,11 +169,11 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
       camera.setDisplayOrientation(rotation);
       if (surfaceView != null) {
         camera.setPreviewDisplay(surfaceView.getHolder());
-        camera.addCallbackBuffer(yuvBuffer);
+        addCallbackBuffers();
         camera.setPreviewCallbackWithBuffer(this);
       } else if (textureView != null) {
         camera.setPreviewTexture(textureView.getSurfaceTexture());
-        camera.addCallbackBuffer(yuvBuffer);
+        addCallbackBuffers();
         camera.setPreviewCallbackWithBuffer(this);
       } else {
         camera.setPreviewTexture(surfaceTexture);
@@ -234,16 +245,30 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   }
 
   public void stop() {
-    if (camera != null) {
-      camera.stopPreview();
-      camera.setPreviewCallback(null);
-      camera.setPreviewCallbackWithBuffer(null);
-      camera.release();
-      camera = null;
+    synchronized (callbackBuffers) {
+      if (camera != null) {
+        camera.stopPreview();
+        camera.setPreviewCallback(null);
+        camera.setPreviewCallbackWithBuffer(null);
+        camera.release();
+        camera = null;
+      }
+      callbackBuffers.clear();
     }
     running = false;
   }
 
+  private void addCallbackBuffers() {
+    synchronized (callbackBuffers) {
+      callbackBuffers.clear();
+      for (int i = 0; i < callbackBufferCount; i++) {
+        byte[] buffer = new byte[width * height * 3 / 2];
+        callbackBuffers.add(buffer);
+        camera.addCallbackBuffer(buffer);
+      }
+    }
+  }
+
   public boolean isRunning() {
     return running;
   }
@@ -266,8 +291,19 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
 
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
-    getCameraData.inputYUVData(new Frame(data, rotation, isFrontCamera && isPortrait, imageFormat));
-    camera.addCallbackBuffer(yuvBuffer);
+    Frame frame = new Frame(data, rotation, isFrontCamera && isPortrait, imageFormat);
+    frame.setTimeStamp(System.nanoTime());
+    //buffer is returned to camera in onRelease when encoder consume or discard the frame
+    frame.setOnReleaseListener(this);
+    getCameraData.inputYUVData(frame);
+  }
+
+  @Override
+  public void onRelease(byte[] buffer) {
+    synchronized (callbackBuffers) {
+      //ignore buffers of a previous camera session
+      if (camera != null && callbackBuffers.contains(buffer)) camera.addCallbackBuffer(buffer);
+    }
   }
 
   /**
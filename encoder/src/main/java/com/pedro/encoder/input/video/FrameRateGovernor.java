@@ -0,0 +1,85 @@
+package com.pedro.encoder.input.video;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Select frames to reach a target fps using frame timestamps in ns.
+ * Each target slot is derived from the previous slot and not from the last frame, so fractional
+ * rates don't drift and frames are selected evenly from any source rate (60 to 25 keeps 5 of
+ * each 12 frames, 33 or 50 ms apart). Target can be changed while running without a jump.
+ */
+public class FrameRateGovernor {
+
+  private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+  //ignore source gaps bigger than this in source interval estimation
+  private static final long MAX_SOURCE_INTERVAL_NS = 1000000000L;
+  private long intervalNs = (long) (1000000000L / 30f);
+  private float fps = 30f;
+  private long nextNs = NO_TIMESTAMP;
+  private long lastNs = NO_TIMESTAMP;
+  private long lastAcceptedNs = NO_TIMESTAMP;
+  private long sourceIntervalNs = 0;
+
+  /**
+   * @param fps target, can be fractional (29.97). 0 or negative to keep all frames.
+   * Can be called while running, next frames follow the new cadence from the last one selected.
+   */
+  public synchronized void setFps(float fps) {
+    this.fps = fps;
+    intervalNs = fps > 0 ? (long) (1000000000L / (double) fps) : 0;
+    if (lastAcceptedNs != NO_TIMESTAMP) nextNs = lastAcceptedNs + intervalNs;
+  }
+
+  public synchronized float getFps() {
+    return fps;
+  }
+
+  /**
+   * Forget previous frames, next frame is always selected.
+   */
+  public synchronized void reset() {
+    nextNs = NO_TIMESTAMP;
+    lastNs = NO_TIMESTAMP;
+    lastAcceptedNs = NO_TIMESTAMP;
+    sourceIntervalNs = 0;
+  }
+
+  /**
+   * @param timestampNs capture time of frame, System.nanoTime() base.
+   * @return true if frame must be dropped.
+   */
+  public synchronized boolean shouldDrop(long timestampNs) {
+    if (lastNs != NO_TIMESTAMP) {
+      long delta = timestampNs - lastNs;
+      if (delta > 0 && delta < MAX_SOURCE_INTERVAL_NS) {
+        //smooth camera jitter
+        sourceIntervalNs =
+            sourceIntervalNs == 0 ? delta : sourceIntervalNs + (delta - sourceIntervalNs) / 8;
+      }
+    }
+    lastNs = timestampNs;
+    if (intervalNs <= 0 || nextNs == NO_TIMESTAMP) {
+      accept(timestampNs);
+      return false;
+    }
+    //the frame nearest to the slot is selected
+    long tolerance = Math.min(sourceIntervalNs, intervalNs) / 2;
+    if (timestampNs < nextNs - tolerance) return true;
+    accept(timestampNs);
+    return false;
+  }
+
+  /**
+   * Same as {@link #shouldDrop(long)} using current time. Used if frames have no timestamp.
+   */
+  public boolean limitFPS() {
+    return shouldDrop(System.nanoTime());
+  }
+
+  private void accept(long timestampNs) {
+    //first frame, source slower than target or stalled, restart cadence from this frame
+    if (nextNs == NO_TIMESTAMP || timestampNs - nextNs > intervalNs) nextNs = timestampNs;
+    nextNs += intervalNs;
+    lastAcceptedNs = timestampNs;
+  }
+}
@@ -0,0 +1,210 @@
+package com.pedro.encoder.utils;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.os.Build;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Encoders of each mime type with their color formats, profiles and levels. MediaCodecList is
+ * only walked the first time a mime type is requested, results are kept in memory and, after
+ * {@link #init(Context)}, in a file. The file is discarded if build fingerprint changes (OS
+ * update).
+ */
+public class CodecCapabilityCache {
+
+  private static final String TAG = "CodecCapabilityCache";
+  private static final String FILE_NAME = "codec_capabilities";
+  private static final int VERSION = 1;
+  private static final Map<String, List<EncoderInfo>> encoders = new HashMap<>();
+  private static File file;
+  private static boolean loaded = false;
+
+  private CodecCapabilityCache() {
+  }
+
+  /**
+   * Enable the file cache, without it capabilities are cached only while process is alive.
+   */
+  public static synchronized void init(Context context) {
+    if (context == null || file != null) return;
+    file = new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+    loaded = false;
+  }
+
+  /**
+   * @return encoders of mime type in MediaCodecList order, filtered by force.
+   */
+  public static List<EncoderInfo> getEncoders(String mime, CodecUtil.Force force) {
+    List<EncoderInfo> encoders = getEncoders(mime);
+    if (force == CodecUtil.Force.FIRST_COMPATIBLE_FOUND) return encoders;
+    List<EncoderInfo> filtered = new ArrayList<>();
+    for (EncoderInfo encoderInfo : encoders) {
+      if (force == CodecUtil.Force.HARDWARE ? encoderInfo.isHardwareAccelerated()
+          : encoderInfo.isSoftwareOnly()) {
+        filtered.add(encoderInfo);
+      }
+    }
+    return filtered;
+  }
+
+  public static synchronized List<EncoderInfo> getEncoders(String mime) {
+    load();
+    List<EncoderInfo> list = encoders.get(mime);
+    if (list == null) {
+      list = Collections.unmodifiableList(query(mime));
+      encoders.put(mime, list);
+      save();
+    }
+    return list;
+  }
+
+  /**
+   * Discard cached capabilities, next request walk MediaCodecList again.
+   */
+  public static synchronized void clear() {
+    encoders.clear();
+    if (file != null && file.exists() && !file.delete()) {
+      Log.e(TAG, "Error deleting cache file");
+    }
+  }
+
+  private static List<EncoderInfo> query(String mime) {
+    List<EncoderInfo> list = new ArrayList<>();
+    for (MediaCodecInfo mediaCodecInfo : CodecUtil.getAllEncoders(mime)) {
+      MediaCodecInfo.CodecCapabilities codecCapabilities;
+      try {
+        codecCapabilities = mediaCodecInfo.getCapabilitiesForType(mime);
+      } catch (IllegalArgumentException e) {
+        Log.e(TAG, "Capabilities of " + mediaCodecInfo.getName() + " not found", e);
+        continue;
+      }
+      int[] colorFormats =
+          codecCapabilities.colorFormats != null ? codecCapabilities.colorFormats : new int[0];
+      MediaCodecInfo.CodecProfileLevel[] levels = codecCapabilities.profileLevels != null
+          ? codecCapabilities.profileLevels : new MediaCodecInfo.CodecProfileLevel[0];
+      int[] profileLevels = new int[levels.length * 2];
+      for (int i = 0; i < levels.length; i++) {
+        profileLevels[2 * i] = levels[i].profile;
+        profileLevels[2 * i + 1] = levels[i].level;
+      }
+      list.add(new EncoderInfo(mediaCodecInfo.getName(), mime,
+          CodecUtil.isHardwareAccelerated(mediaCodecInfo), CodecUtil.isSoftwareOnly(mediaCodecInfo),
+          colorFormats.clone(), profileLevels));
+    }
+    return list;
+  }
+
+  /**
+   * @return first line of cache files, files with other key were written by other build.
+   */
+  static String getKey() {
+    return VERSION + "\t" + Build.FINGERPRINT;
+  }
+
+  /**
+   * @return file in cache dir, null if file cache is not enabled.
+   */
+  static synchronized File getCacheFile(String name) {
+    return file != null ? new File(file.getParentFile(), name) : null;
+  }
+
+  /**
+   * File format, tab separated: key line, then for each mime a line with mime and number of
+   * encoders followed by a line per encoder with name, hardware, software, colors and profiles.
+   */
+  private static void load() {
+    if (loaded || file == null) return;
+    loaded = true;
+    if (!file.exists()) return;
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      if (!getKey().equals(reader.readLine())) {
+        Log.i(TAG, "Build changed, cache discarded");
+        return;
+      }
+      Map<String, List<EncoderInfo>> read = new HashMap<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] mimeLine = line.split("\t");
+        String mime = mimeLine[0];
+        int count = Integer.parseInt(mimeLine[1]);
+        List<EncoderInfo> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+          String[] values = reader.readLine().split("\t", -1);
+          list.add(new EncoderInfo(values[0], mime, Boolean.parseBoolean(values[1]),
+              Boolean.parseBoolean(values[2]), parseInts(values[3]), parseInts(values[4])));
+        }
+        read.put(mime, Collections.unmodifiableList(list));
+      }
+      encoders.putAll(read);
+    } catch (IOException | RuntimeException e) {
+      Log.e(TAG, "Invalid cache file, discarded", e);
+    } finally {
+      close(reader);
+    }
+  }
+
+  private static void save() {
+    if (file == null) return;
+    Writer writer = null;
+    try {
+      writer = new FileWriter(file);
+      writer.write(getKey() + "\n");
+      for (Map.Entry<String, List<EncoderInfo>> entry : encoders.entrySet()) {
+        writer.write(entry.getKey() + "\t" + entry.getValue().size() + "\n");
+        for (EncoderInfo encoderInfo : entry.getValue()) {
+          writer.write(encoderInfo.getName() + "\t" + encoderInfo.isHardwareAccelerated() + "\t"
+              + encoderInfo.isSoftwareOnly() + "\t" + joinInts(encoderInfo.getColorFormats())
+              + "\t" + joinInts(encoderInfo.getProfileLevels()) + "\n");
+        }
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Error writing cache file", e);
+    } finally {
+      close(writer);
+    }
+  }
+
+  private static String joinInts(int[] values) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) builder.append(',');
+      builder.append(values[i]);
+    }
+    return builder.toString();
+  }
+
+  private static int[] parseInts(String text) {
+    if (text.isEmpty()) return new int[0];
+    String[] parts = text.split(",");
+    int[] values = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      values[i] = Integer.parseInt(parts[i]);
+    }
+    return values;
+  }
+
+  static void close(Closeable closeable) {
+    if (closeable == null) return;
+    try {
+      closeable.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
@@ -238,7 +238,7 @@ public class CodecUtil {
   /* Adapted from google/ExoPlayer
    * https://github.com/google/ExoPlayer/commit/48555550d7fcf6953f2382466818c74092b26355
    */
-  private static boolean isHardwareAccelerated(MediaCodecInfo codecInfo) {
+  static boolean isHardwareAccelerated(MediaCodecInfo codecInfo) {
     if (Build.VERSION.SDK_INT >= 29) {
       return codecInfo.isHardwareAccelerated();
     }
@@ -250,7 +250,7 @@ public class CodecUtil {
   /* Adapted from google/ExoPlayer
    * https://github.com/google/ExoPlayer/commit/48555550d7fcf6953f2382466818c74092b26355
    */
-  private static boolean isSoftwareOnly(MediaCodecInfo mediaCodecInfo) {
+  static boolean isSoftwareOnly(MediaCodecInfo mediaCodecInfo) {
     if (Build.VERSION.SDK_INT >= 29) {
       return mediaCodecInfo.isSoftwareOnly();
     }
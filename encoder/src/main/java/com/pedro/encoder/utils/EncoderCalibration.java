@@ -0,0 +1,369 @@
+package com.pedro.encoder.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import com.pedro.encoder.video.FormatVideoEncoder;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Optional calibration that encodes synthetic frames as fast as possible through each candidate
+ * encoder and measures achieved fps, output latency and bitrate accuracy. Results are persisted
+ * with {@link CodecCapabilityCache} (same build fingerprint) and used by VideoEncoder and
+ * AudioEncoder to choose the fastest encoder that reaches the requested fps.
+ *
+ * Calibration blocks for some seconds per encoder, call it from a background thread and never
+ * while streaming.
+ */
+public class EncoderCalibration {
+
+  private static final String TAG = "EncoderCalibration";
+  private static final String FILE_NAME = "encoder_calibration";
+  private static final long TIMEOUT_US = 10000;
+  private static final int AAC_SAMPLES_PER_FRAME = 1024;
+  private static final Map<String, Result> results = new HashMap<>();
+  private static boolean loaded = false;
+
+  public static class Result {
+
+    private final String encoderName;
+    private final String mime;
+    private final String config;
+    private final float achievedFps;
+    private final float latencyMs;
+    private final float bitrateRatio;
+
+    private Result(String encoderName, String mime, String config, float achievedFps,
+        float latencyMs, float bitrateRatio) {
+      this.encoderName = encoderName;
+      this.mime = mime;
+      this.config = config;
+      this.achievedFps = achievedFps;
+      this.latencyMs = latencyMs;
+      this.bitrateRatio = bitrateRatio;
+    }
+
+    public String getEncoderName() {
+      return encoderName;
+    }
+
+    public String getMime() {
+      return mime;
+    }
+
+    /**
+     * @return resolution (1920x1080) or sample rate and channels (44100x2) calibrated.
+     */
+    public String getConfig() {
+      return config;
+    }
+
+    /**
+     * @return frames per second encoded, AAC frames of 1024 samples for audio.
+     */
+    public float getAchievedFps() {
+      return achievedFps;
+    }
+
+    /**
+     * @return average time from input queued to output available.
+     */
+    public float getLatencyMs() {
+      return latencyMs;
+    }
+
+    /**
+     * @return output bitrate divided by requested bitrate, 1 is exact.
+     */
+    public float getBitrateRatio() {
+      return bitrateRatio;
+    }
+
+    @Override
+    public String toString() {
+      return encoderName + " " + config + ": " + achievedFps + " fps, latency " + latencyMs
+          + " ms, bitrate ratio " + bitrateRatio;
+    }
+  }
+
+  private EncoderCalibration() {
+  }
+
+  public static String getVideoConfig(int width, int height) {
+    //rotation doesn't change encoder cost
+    return Math.max(width, height) + "x" + Math.min(width, height);
+  }
+
+  public static String getAudioConfig(int sampleRate, int channels) {
+    return sampleRate + "x" + channels;
+  }
+
+  /**
+   * Calibrate every video encoder of mime that accepts YUV420 buffers.
+   *
+   * @param durationMs encoding time of each encoder, 3000 is enough for most devices.
+   */
+  public static List<Result> calibrateVideo(String mime, int width, int height, int fps,
+      int bitrate, long durationMs) {
+    List<Result> list = new ArrayList<>();
+    for (EncoderInfo encoderInfo : CodecCapabilityCache.getEncoders(mime)) {
+      int color;
+      if (encoderInfo.supportsColorFormat(FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec())) {
+        color = FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec();
+      } else if (encoderInfo.supportsColorFormat(
+          FormatVideoEncoder.YUV420PLANAR.getFormatCodec())) {
+        color = FormatVideoEncoder.YUV420PLANAR.getFormatCodec();
+      } else {
+        continue;
+      }
+      MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+      format.setInteger(MediaFormat.KEY_COLOR_FORMAT, color);
+      format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+      format.setInteger(MediaFormat.KEY_FRAME_RATE, fps);
+      format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 2);
+      //noise scrolled one line each frame so every frame has new content
+      byte[] frame = createNoise(width * height * 3 / 2);
+      Result result = calibrate(encoderInfo.getName(), mime, getVideoConfig(width, height),
+          format, frame, width, fps, bitrate, durationMs);
+      if (result != null) list.add(result);
+    }
+    save();
+    return list;
+  }
+
+  /**
+   * Calibrate every audio encoder of mime.
+   *
+   * @param durationMs encoding time of each encoder.
+   */
+  public static List<Result> calibrateAudio(String mime, int sampleRate, int channels,
+      int bitrate, long durationMs) {
+    List<Result> list = new ArrayList<>();
+    float fps = sampleRate / (float) AAC_SAMPLES_PER_FRAME;
+    for (EncoderInfo encoderInfo : CodecCapabilityCache.getEncoders(mime)) {
+      MediaFormat format = MediaFormat.createAudioFormat(mime, sampleRate, channels);
+      format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+      int frameSize = AAC_SAMPLES_PER_FRAME * channels * 2;
+      format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, frameSize);
+      byte[] frame = createNoise(frameSize);
+      Result result = calibrate(encoderInfo.getName(), mime,
+          getAudioConfig(sampleRate, channels), format, frame, 2 * channels, fps, bitrate,
+          durationMs);
+      if (result != null) list.add(result);
+    }
+    save();
+    return list;
+  }
+
+  /**
+   * @return result of encoder with that config, null if it was never calibrated.
+   */
+  public static synchronized Result getResult(String mime, String encoderName, String config) {
+    load();
+    return results.get(getKey(mime, encoderName, config));
+  }
+
+  /**
+   * @return fastest calibrated candidate that reaches requiredFps. If none reaches it, the fastest
+   * one if all candidates were calibrated. Null to keep default choice.
+   */
+  public static synchronized EncoderInfo choose(String mime, List<EncoderInfo> candidates,
+      String config, float requiredFps) {
+    load();
+    EncoderInfo fastest = null;
+    float fastestFps = 0;
+    EncoderInfo best = null;
+    float bestFps = 0;
+    boolean allCalibrated = true;
+    for (EncoderInfo encoderInfo : candidates) {
+      Result result = results.get(getKey(mime, encoderInfo.getName(), config));
+      if (result == null) {
+        allCalibrated = false;
+        continue;
+      }
+      if (result.achievedFps > fastestFps) {
+        fastest = encoderInfo;
+        fastestFps = result.achievedFps;
+      }
+      if (result.achievedFps >= requiredFps && result.achievedFps > bestFps) {
+        best = encoderInfo;
+        bestFps = result.achievedFps;
+      }
+    }
+    if (best != null) return best;
+    return allCalibrated ? fastest : null;
+  }
+
+  /**
+   * Discard calibration results, saved file included.
+   */
+  public static synchronized void clear() {
+    results.clear();
+    File file = CodecCapabilityCache.getCacheFile(FILE_NAME);
+    if (file != null && file.exists() && !file.delete()) {
+      Log.e(TAG, "Error deleting calibration file");
+    }
+  }
+
+  /**
+   * @param lineSize bytes that frame is scrolled each time.
+   */
+  private static Result calibrate(String name, String mime, String config, MediaFormat format,
+      byte[] frame, int lineSize, float fps, int bitrate, long durationMs) {
+    MediaCodec codec = null;
+    try {
+      codec = MediaCodec.createByCodecName(name);
+      codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      codec.start();
+      MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+      Map<Long, Long> inputTimes = new HashMap<>();
+      long startNs = System.nanoTime();
+      long endNs = startNs + durationMs * 1000000L;
+      long lastOutputNs = startNs;
+      long inputFrames = 0;
+      long outputFrames = 0;
+      long outputBytes = 0;
+      long latencyNs = 0;
+      while (System.nanoTime() < endNs) {
+        int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+        if (inIndex >= 0) {
+          ByteBuffer input = getInputBuffer(codec, inIndex);
+          input.clear();
+          int scroll = (int) (inputFrames * lineSize % frame.length);
+          int size = Math.min(frame.length, input.remaining());
+          int first = Math.min(size, frame.length - scroll);
+          input.put(frame, scroll, first);
+          input.put(frame, 0, size - first);
+          long ptsUs = (long) (inputFrames * 1000000L / fps);
+          inputTimes.put(ptsUs, System.nanoTime());
+          codec.queueInputBuffer(inIndex, 0, size, ptsUs, 0);
+          inputFrames++;
+        }
+        for (;;) {
+          int outIndex = codec.dequeueOutputBuffer(bufferInfo, 0);
+          if (outIndex < 0) break;
+          if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            long nowNs = System.nanoTime();
+            Long inputNs = inputTimes.remove(bufferInfo.presentationTimeUs);
+            if (inputNs != null) latencyNs += nowNs - inputNs;
+            outputFrames++;
+            outputBytes += bufferInfo.size;
+            lastOutputNs = nowNs;
+          }
+          codec.releaseOutputBuffer(outIndex, false);
+        }
+      }
+      if (outputFrames == 0) {
+        Log.e(TAG, name + " produced no output");
+        return null;
+      }
+      float seconds = (lastOutputNs - startNs) / 1000000000f;
+      float achievedFps = outputFrames / seconds;
+      float latencyMs = latencyNs / (float) outputFrames / 1000000f;
+      float bitrateRatio = outputBytes * 8 * fps / outputFrames / bitrate;
+      Result result = new Result(name, mime, config, achievedFps, latencyMs, bitrateRatio);
+      Log.i(TAG, result.toString());
+      synchronized (EncoderCalibration.class) {
+        load();
+        results.put(getKey(mime, name, config), result);
+      }
+      return result;
+    } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+      Log.e(TAG, "Calibration of " + name + " failed", e);
+      return null;
+    } finally {
+      if (codec != null) {
+        try {
+          codec.stop();
+        } catch (IllegalStateException ignored) {
+        }
+        codec.release();
+      }
+    }
+  }
+
+  private static ByteBuffer getInputBuffer(MediaCodec codec, int index) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      return codec.getInputBuffer(index);
+    } else {
+      return codec.getInputBuffers()[index];
+    }
+  }
+
+  private static byte[] createNoise(int size) {
+    byte[] noise = new byte[size];
+    new Random(1).nextBytes(noise);
+    return noise;
+  }
+
+  private static String getKey(String mime, String encoderName, String config) {
+    return mime + "\t" + encoderName + "\t" + config;
+  }
+
+  /**
+   * File format, tab separated: cache key line, then a line per result with mime, encoder name,
+   * config, fps, latency and bitrate ratio.
+   */
+  private static void load() {
+    if (loaded) return;
+    File file = CodecCapabilityCache.getCacheFile(FILE_NAME);
+    if (file == null) return;
+    loaded = true;
+    if (!file.exists()) return;
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      if (!CodecCapabilityCache.getKey().equals(reader.readLine())) {
+        Log.i(TAG, "Build changed, calibration discarded");
+        return;
+      }
+      Map<String, Result> read = new HashMap<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] values = line.split("\t");
+        Result result = new Result(values[1], values[0], values[2], Float.parseFloat(values[3]),
+            Float.parseFloat(values[4]), Float.parseFloat(values[5]));
+        read.put(getKey(result.mime, result.encoderName, result.config), result);
+      }
+      //results calibrated before load are newer
+      read.putAll(results);
+      results.putAll(read);
+    } catch (IOException | RuntimeException e) {
+      Log.e(TAG, "Invalid calibration file, discarded", e);
+    } finally {
+      CodecCapabilityCache.close(reader);
+    }
+  }
+
+  private static synchronized void save() {
+    File file = CodecCapabilityCache.getCacheFile(FILE_NAME);
+    if (file == null) return;
+    Writer writer = null;
+    try {
+      writer = new FileWriter(file);
+      writer.write(CodecCapabilityCache.getKey() + "\n");
+      for (Result result : results.values()) {
+        writer.write(result.mime + "\t" + result.encoderName + "\t" + result.config + "\t"
+            + result.achievedFps + "\t" + result.latencyMs + "\t" + result.bitrateRatio + "\n");
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Error writing calibration file", e);
+    } finally {
+      CodecCapabilityCache.close(writer);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.pedro.encoder.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Capabilities of an encoder for one mime type, copied from MediaCodecInfo so they can be cached.
+ */
+public class EncoderInfo {
+
+  private final String name;
+  private final String mime;
+  private final boolean hardwareAccelerated;
+  private final boolean softwareOnly;
+  private final int[] colorFormats;
+  //profile and level pairs
+  private final int[] profileLevels;
+
+  public EncoderInfo(String name, String mime, boolean hardwareAccelerated, boolean softwareOnly,
+      int[] colorFormats, int[] profileLevels) {
+    this.name = name;
+    this.mime = mime;
+    this.hardwareAccelerated = hardwareAccelerated;
+    this.softwareOnly = softwareOnly;
+    this.colorFormats = colorFormats;
+    this.profileLevels = profileLevels;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getMime() {
+    return mime;
+  }
+
+  public boolean isHardwareAccelerated() {
+    return hardwareAccelerated;
+  }
+
+  public boolean isSoftwareOnly() {
+    return softwareOnly;
+  }
+
+  public int[] getColorFormats() {
+    return colorFormats;
+  }
+
+  public boolean supportsColorFormat(int colorFormat) {
+    for (int color : colorFormats) {
+      if (color == colorFormat) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return profile and level pairs, profile at even positions and its max level after it.
+   */
+  public int[] getProfileLevels() {
+    return profileLevels;
+  }
+
+  public boolean supportsProfile(int profile) {
+    for (int i = 0; i < profileLevels.length; i += 2) {
+      if (profileLevels[i] == profile) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + mime + ")";
+  }
+}
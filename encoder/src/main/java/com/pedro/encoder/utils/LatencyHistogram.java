@@ -0,0 +1,82 @@
+package com.pedro.encoder.utils;
+
+import java.util.Locale;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Thread safe histogram of latencies in ms with fixed buckets.
+ */
+public class LatencyHistogram {
+
+  //upper bound in ms of each bucket, last bucket count anything bigger
+  private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000 };
+  private final long[] counts = new long[BOUNDS.length + 1];
+  private long count = 0;
+  private long sum = 0;
+  private long max = 0;
+
+  public synchronized void record(long latencyMs) {
+    if (latencyMs < 0) latencyMs = 0;
+    int i = 0;
+    while (i < BOUNDS.length && latencyMs > BOUNDS[i]) i++;
+    counts[i]++;
+    count++;
+    sum += latencyMs;
+    if (latencyMs > max) max = latencyMs;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized float getAverage() {
+    return count == 0 ? 0 : (float) sum / count;
+  }
+
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   * @return upper bound in ms of the bucket that contains the percentile, max latency if it is
+   * in the last bucket. 0 if there are no samples.
+   */
+  public synchronized long getPercentile(float percentile) {
+    if (count == 0) return 0;
+    long target = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+    long accumulated = 0;
+    for (int i = 0; i < BOUNDS.length; i++) {
+      accumulated += counts[i];
+      if (accumulated >= Math.max(1, target)) return Math.min(BOUNDS[i], max);
+    }
+    return max;
+  }
+
+  /**
+   * @return upper bound in ms of each bucket. Last bucket of {@link #getCounts()} has no bound.
+   */
+  public long[] getBounds() {
+    return BOUNDS.clone();
+  }
+
+  public synchronized long[] getCounts() {
+    return counts.clone();
+  }
+
+  public synchronized void reset() {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "n=%d avg=%.1fms p50=%dms p95=%dms max=%dms", count,
+        getAverage(), getPercentile(50), getPercentile(95), max);
+  }
+}
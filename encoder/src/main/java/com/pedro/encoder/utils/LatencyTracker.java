@@ -0,0 +1,149 @@
+package com.pedro.encoder.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Capture to wire latency of one track (video or audio).
+ * Capture time is kept by encoder input pts until the frame is encoded and then by output pts
+ * in ms, the timestamp used by muxers, until it is written to the socket. Each stage has an
+ * histogram of time elapsed since capture. Frames without capture time are ignored.
+ */
+public class LatencyTracker {
+
+  public enum Stage {
+    ENCODER_INPUT, ENCODER_OUTPUT, MUX_ENQUEUE, MUX_DEQUEUE, SOCKET_WRITE
+  }
+
+  //frames dropped before socket write are forgotten after this
+  private static final int MAX_IN_FLIGHT = 128;
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+  private final TreeMap<Long, Long> pendingInput = new TreeMap<>();
+  private final Map<Long, Entry> inFlight = new LinkedHashMap<Long, Entry>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+      return size() > MAX_IN_FLIGHT;
+    }
+  };
+  private volatile boolean enabled = true;
+
+  private static class Entry {
+    private final long captureNs;
+    private int stages;
+
+    private Entry(long captureNs) {
+      this.captureNs = captureNs;
+    }
+  }
+
+  public LatencyTracker() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) clear();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param ptsUs pts given to encoder.
+   * @param captureNs System.nanoTime() when frame was captured, 0 if unknown.
+   */
+  public void onEncoderInput(long ptsUs, long captureNs) {
+    if (!enabled || captureNs <= 0) return;
+    record(Stage.ENCODER_INPUT, captureNs);
+    synchronized (pendingInput) {
+      pendingInput.put(ptsUs, captureNs);
+      if (pendingInput.size() > MAX_IN_FLIGHT) pendingInput.pollFirstEntry();
+    }
+  }
+
+  /**
+   * Encoders can split input frames (AAC) so the capture time used is the one of the last input
+   * with pts lower or equal than codec pts.
+   *
+   * @param codecPtsUs pts returned by encoder.
+   * @param ptsUs pts sent to muxers, different of codecPtsUs if it was rewritten.
+   */
+  public void onEncoderOutput(long codecPtsUs, long ptsUs) {
+    if (!enabled) return;
+    Long captureNs;
+    synchronized (pendingInput) {
+      Map.Entry<Long, Long> input = pendingInput.floorEntry(codecPtsUs);
+      if (input == null) return;
+      pendingInput.headMap(input.getKey(), false).clear();
+      captureNs = input.getValue();
+    }
+    record(Stage.ENCODER_OUTPUT, captureNs);
+    Entry entry = new Entry(captureNs);
+    entry.stages = 1 << Stage.ENCODER_OUTPUT.ordinal();
+    synchronized (inFlight) {
+      inFlight.put(ptsUs / 1000, entry);
+    }
+  }
+
+  /**
+   * Called by muxers. A frame split in several packets is recorded by the first packet that reach
+   * each stage.
+   *
+   * @param timestampMs pts sent to muxers in ms.
+   */
+  public void onStage(Stage stage, long timestampMs) {
+    if (!enabled) return;
+    long captureNs;
+    synchronized (inFlight) {
+      Entry entry = inFlight.get(timestampMs);
+      int bit = 1 << stage.ordinal();
+      if (entry == null || (entry.stages & bit) != 0) return;
+      entry.stages |= bit;
+      captureNs = entry.captureNs;
+      if (stage == Stage.SOCKET_WRITE) inFlight.remove(timestampMs);
+    }
+    record(stage, captureNs);
+  }
+
+  /**
+   * @return time since capture until each frame reached the stage.
+   */
+  public LatencyHistogram getHistogram(Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  public void reset() {
+    clear();
+    for (LatencyHistogram histogram : histograms) {
+      histogram.reset();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Stage stage : Stage.values()) {
+      builder.append(stage).append(": ").append(histograms[stage.ordinal()]).append("\n");
+    }
+    return builder.toString();
+  }
+
+  private void clear() {
+    synchronized (pendingInput) {
+      pendingInput.clear();
+    }
+    synchronized (inFlight) {
+      inFlight.clear();
+    }
+  }
+
+  private void record(Stage stage, long captureNs) {
+    histograms[stage.ordinal()].record((System.nanoTime() - captureNs) / 1000000);
+  }
+}
@@ -5,58 +5,68 @@ package com.pedro.encoder.utils;
  */
 public class PCMUtil {
 
-  //no tested
-  //see https://stackoverflow.com/questions/15652432/how-to-mix-overlay-two-mp3-audio-file-into-one-mp3-file-not-concatenate/33255658#33255658
-  public static byte[] mixPCM(byte[] pcm1, byte[] pcm2) {
-    int len1 = pcm1.length;
-    int len2 = pcm2.length;
-    byte[] pcmL;
-    byte[] pcmS;
-    int lenL; // length of the longest
-    int lenS; // length of the shortest
-    if (len2 > len1) {
-      lenL = len1;
-      pcmL = pcm1;
-      lenS = len2;
-      pcmS = pcm2;
-    } else {
-      lenL = len2;
-      pcmL = pcm2;
-      lenS = len1;
-      pcmS = pcm1;
-    }
-    for (int idx = 0; idx < lenL; idx++) {
-      int sample;
-      if (idx >= lenS) {
-        sample = pcmL[idx];
-      } else {
-        sample = pcmL[idx] + pcmS[idx];
-      }
-      sample = (int) (sample * .71);
-      if (sample > 127) sample = 127;
-      if (sample < -128) sample = -128;
-      pcmL[idx] = (byte) sample;
+  /**
+   * Mix two 16 bits little endian PCM buffers with same channels, saturating on overflow.
+   * Inputs are not modified. Use {@link com.pedro.encoder.input.audio.AudioMixer} to mix several
+   * sources with gain and limiter.
+   *
+   * @param output must have the length of the longest buffer at least. Reuse it between calls to
+   * avoid allocations.
+   * @return bytes written in output, the length of the longest buffer.
+   */
+  public static int mixPCM(byte[] pcm1, byte[] pcm2, byte[] output) {
+    byte[] pcmL = pcm1.length >= pcm2.length ? pcm1 : pcm2;
+    byte[] pcmS = pcmL == pcm1 ? pcm2 : pcm1;
+    int len = pcmS.length - pcmS.length % 2;
+    for (int i = 0; i < len; i += 2) {
+      int sample = getSample(pcmL, i) + getSample(pcmS, i);
+      if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+      if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+      output[i] = (byte) sample;
+      output[i + 1] = (byte) (sample >> 8);
     }
-    return pcmL;
+    //only the longest buffer has samples here
+    System.arraycopy(pcmL, len, output, len, pcmL.length - len);
+    return pcmL.length;
   }
 
-  private static final byte[] pcmBufferStereo = new byte[4096];
+  /**
+   * @deprecated use {@link #mixPCM(byte[], byte[], byte[])}.
+   */
+  @Deprecated
+  public static byte[] mixPCM(byte[] pcm1, byte[] pcm2) {
+    byte[] output = new byte[Math.max(pcm1.length, pcm2.length)];
+    mixPCM(pcm1, pcm2, output);
+    return output;
+  }
 
   /**
-   * Experimental method to downgrade pcm with 3 channels or more to stereo.
+   * Downgrade 16 bits PCM with 3 channels or more to stereo keeping first 2 channels.
    *
-   * @return pcm buffer in stereo (2 channels)
+   * @param output must have size * 2 / channels bytes at least.
+   * @return bytes written in output.
    */
-  public static byte[] pcmToStereo(byte[] pcm, int channels) {
+  public static int pcmToStereo(byte[] pcm, int size, int channels, byte[] output) {
+    int frameSize = 2 * channels;
     int cont = 0;
-    for (int i = 0; i < pcm.length; i += channels) {
-      byte channel1 = pcm[i];
-      byte channel2 = pcm[i + 1];
-
-      pcmBufferStereo[cont] = channel1;
-      pcmBufferStereo[cont + 1] = channel2;
-      cont += 2;
+    for (int i = 0; i + frameSize <= size; i += frameSize) {
+      System.arraycopy(pcm, i, output, cont, 4);
+      cont += 4;
     }
-    return pcmBufferStereo;
+    return cont;
+  }
+
+  /**
+   * @deprecated use {@link #pcmToStereo(byte[], int, int, byte[])}.
+   */
+  @Deprecated
+  public static byte[] pcmToStereo(byte[] pcm, int channels) {
+    byte[] output = new byte[pcm.length * 2 / channels];
+    pcmToStereo(pcm, pcm.length, channels, output);
+    return output;
+  }
+
+  private static int getSample(byte[] pcm, int index) {
+    return (short) ((pcm[index] & 0xFF) | (pcm[index + 1] << 8));
   }
 }
@@ -0,0 +1,162 @@
+package com.pedro.encoder.utils.yuv;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Rotate and convert NV21 or YV12 to I420 or NV12 in a single pass without intermediate buffer.
+ * 90 and 270 rotations walk the frame by tiles so source lines stay in cache while destination
+ * lines are written. Big frames can be split in row stripes converted by several threads.
+ * Scratch memory is owned by the caller, see {@link YuvConverter}.
+ */
+public class FusedYUVUtils {
+
+  private static final String TAG = "FusedYUVUtils";
+  private static final int TILE = 32;
+  //min luma pixels of a stripe to be worth a thread
+  private static final int MIN_STRIPE_SIZE = 1280 * 180;
+
+  /**
+   * @param width of input frame.
+   * @param height of input frame.
+   * @param rotation clockwise, 0, 90, 180 or 270.
+   * @param isYV12 true for YV12 input, false for NV21.
+   * @param toNV12 true for NV12 output, false for I420.
+   * @param executor used to convert stripes of big frames, null to convert all in caller thread.
+   * @param threads max number of stripes converted at same time, caller thread included.
+   */
+  public static void convert(final byte[] input, final byte[] output, final int width,
+      final int height, final int rotation, final boolean isYV12, final boolean toNV12,
+      ExecutorService executor, int threads) {
+    final int dstHeight = (rotation == 90 || rotation == 270) ? width : height;
+    final int chromaRows = dstHeight / 2;
+    int stripes = executor == null ? 1 : Math.min(threads, width * height / MIN_STRIPE_SIZE);
+    if (stripes <= 1) {
+      convertRows(input, output, width, height, rotation, isYV12, toNV12, 0, chromaRows);
+      return;
+    }
+    final int rowsPerStripe = (chromaRows + stripes - 1) / stripes;
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 1; i < stripes; i++) {
+      final int start = i * rowsPerStripe;
+      final int end = Math.min(start + rowsPerStripe, chromaRows);
+      if (start >= end) break;
+      try {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            convertRows(input, output, width, height, rotation, isYV12, toNV12, start, end);
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        //executor closed while converting
+        convertRows(input, output, width, height, rotation, isYV12, toNV12, start, end);
+      }
+    }
+    convertRows(input, output, width, height, rotation, isYV12, toNV12, 0, rowsPerStripe);
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      Log.e(TAG, "Error converting stripe", e);
+    }
+  }
+
+  /**
+   * Convert destination chroma rows [chromaStart, chromaEnd) and the luma rows they cover.
+   */
+  private static void convertRows(byte[] input, byte[] output, int width, int height,
+      int rotation, boolean isYV12, boolean toNV12, int chromaStart, int chromaEnd) {
+    final int frameSize = width * height;
+    final int qFrameSize = frameSize / 4;
+    final int dstWidth = (rotation == 90 || rotation == 270) ? height : width;
+    rotatePlane(input, 0, 0, 1, width, width, height, output, 0, 0, 1, dstWidth, rotation,
+        chromaStart * 2, chromaEnd * 2);
+    //NV21 is Y + VU interleaved, YV12 is Y + V + U
+    int srcU = isYV12 ? frameSize + qFrameSize : frameSize + 1;
+    int srcV = frameSize;
+    int srcPixel = isYV12 ? 1 : 2;
+    int srcRow = isYV12 ? width / 2 : width;
+    //NV12 is Y + UV interleaved, I420 is Y + U + V
+    int dstU = frameSize;
+    int dstV = toNV12 ? frameSize + 1 : frameSize + qFrameSize;
+    int dstPixel = toNV12 ? 2 : 1;
+    int dstRow = toNV12 ? dstWidth : dstWidth / 2;
+    rotatePlane(input, srcU, srcV, srcPixel, srcRow, width / 2, height / 2, output, dstU, dstV,
+        dstPixel, dstRow, rotation, chromaStart, chromaEnd);
+  }
+
+  /**
+   * Rotate one plane, or two planes with same layout (U and V) in the same walk.
+   * Only destination rows [rowStart, rowEnd) are written.
+   */
+  private static void rotatePlane(byte[] src, int srcOffsetA, int srcOffsetB, int srcPixel,
+      int srcRow, int srcWidth, int srcHeight, byte[] dst, int dstOffsetA, int dstOffsetB,
+      int dstPixel, int dstRow, int rotation, int rowStart, int rowEnd) {
+    boolean twoPlanes = srcOffsetA != srcOffsetB;
+    int dstWidth = (rotation == 90 || rotation == 270) ? srcHeight : srcWidth;
+    if (rotation == 0 && srcPixel == 1 && dstPixel == 1) {
+      for (int r = rowStart; r < rowEnd; r++) {
+        System.arraycopy(src, srcOffsetA + r * srcRow, dst, dstOffsetA + r * dstRow, dstWidth);
+        if (twoPlanes) {
+          System.arraycopy(src, srcOffsetB + r * srcRow, dst, dstOffsetB + r * dstRow, dstWidth);
+        }
+      }
+      return;
+    }
+    for (int tileRow = rowStart; tileRow < rowEnd; tileRow += TILE) {
+      int tileRowEnd = Math.min(tileRow + TILE, rowEnd);
+      for (int tileColumn = 0; tileColumn < dstWidth; tileColumn += TILE) {
+        int tileColumnEnd = Math.min(tileColumn + TILE, dstWidth);
+        for (int r = tileRow; r < tileRowEnd; r++) {
+          //source position of destination (r, tileColumn) and step for each destination column
+          int srcIndex;
+          int srcStep;
+          switch (rotation) {
+            case 90:
+              srcIndex = (srcHeight - 1 - tileColumn) * srcRow + r * srcPixel;
+              srcStep = -srcRow;
+              break;
+            case 180:
+              srcIndex = (srcHeight - 1 - r) * srcRow + (srcWidth - 1 - tileColumn) * srcPixel;
+              srcStep = -srcPixel;
+              break;
+            case 270:
+              srcIndex = tileColumn * srcRow + (srcWidth - 1 - r) * srcPixel;
+              srcStep = srcRow;
+              break;
+            default:
+              srcIndex = r * srcRow + tileColumn * srcPixel;
+              srcStep = srcPixel;
+              break;
+          }
+          int dstIndex = r * dstRow + tileColumn * dstPixel;
+          if (twoPlanes) {
+            for (int c = tileColumn; c < tileColumnEnd; c++) {
+              dst[dstOffsetA + dstIndex] = src[srcOffsetA + srcIndex];
+              dst[dstOffsetB + dstIndex] = src[srcOffsetB + srcIndex];
+              dstIndex += dstPixel;
+              srcIndex += srcStep;
+            }
+          } else {
+            for (int c = tileColumn; c < tileColumnEnd; c++) {
+              dst[dstOffsetA + dstIndex] = src[srcOffsetA + srcIndex];
+              dstIndex += dstPixel;
+              srcIndex += srcStep;
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.pedro.encoder.utils.yuv;
+
+import android.util.Log;
+import com.pedro.encoder.Frame;
+import com.pedro.encoder.video.FormatVideoEncoder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Rotate and convert camera frames of one stream to encoder color.
+ * Each instance owns its scratch memory, so several streams can convert in parallel. Converted
+ * buffers belong to the caller until they are returned with {@link #releaseBuffer(byte[])}.
+ * Two buffers are allocated so next frame can be converted while previous one is consumed.
+ */
+public class YuvConverter implements Frame.OnReleaseListener {
+
+  private static final String TAG = "YuvConverter";
+  private static final int DEFAULT_BUFFERS = 2;
+  private final int width;
+  private final int height;
+  private final int bufferSize;
+  private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+  private ExecutorService executorService;
+  private int threads = 1;
+
+  /**
+   * @param width of input frames.
+   * @param height of input frames.
+   */
+  public YuvConverter(int width, int height) {
+    this.width = width;
+    this.height = height;
+    bufferSize = width * height * 3 / 2;
+    for (int i = 0; i < DEFAULT_BUFFERS; i++) {
+      freeBuffers.add(new byte[bufferSize]);
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @param threads number of threads used to convert big frames, caller thread included.
+   * 1 by default (no parallel striping).
+   */
+  public synchronized void setThreads(int threads) {
+    if (executorService != null) {
+      executorService.shutdown();
+      executorService = null;
+    }
+    this.threads = Math.max(1, threads);
+    if (this.threads > 1) executorService = Executors.newFixedThreadPool(this.threads - 1);
+  }
+
+  /**
+   * @param rotation clockwise, 0, 90, 180 or 270.
+   * @param isYV12 true for YV12 input, false for NV21.
+   * @return converted frame owned by caller, null if color is not supported.
+   */
+  public byte[] convert(byte[] input, int rotation, boolean isYV12,
+      FormatVideoEncoder formatVideoEncoder) {
+    boolean toNV12;
+    switch (formatVideoEncoder) {
+      case YUV420PLANAR:
+        toNV12 = false;
+        break;
+      case YUV420SEMIPLANAR:
+        toNV12 = true;
+        break;
+      default:
+        return null;
+    }
+    byte[] output = acquireBuffer();
+    ExecutorService executor;
+    int threads;
+    synchronized (this) {
+      executor = executorService;
+      threads = this.threads;
+    }
+    FusedYUVUtils.convert(input, output, width, height, rotation, isYV12, toNV12, executor,
+        threads);
+    return output;
+  }
+
+  /**
+   * Return a buffer given by {@link #convert(byte[], int, boolean, FormatVideoEncoder)}.
+   */
+  public void releaseBuffer(byte[] buffer) {
+    if (buffer == null || buffer.length != bufferSize) return;
+    synchronized (freeBuffers) {
+      if (freeBuffers.size() < DEFAULT_BUFFERS) freeBuffers.push(buffer);
+    }
+  }
+
+  @Override
+  public void onRelease(byte[] buffer) {
+    releaseBuffer(buffer);
+  }
+
+  /**
+   * Stop threads. Buffers still owned by callers can be used until they are released.
+   */
+  public synchronized void close() {
+    if (executorService != null) {
+      executorService.shutdown();
+      executorService = null;
+    }
+  }
+
+  private byte[] acquireBuffer() {
+    synchronized (freeBuffers) {
+      byte[] buffer = freeBuffers.poll();
+      if (buffer != null) return buffer;
+    }
+    //every buffer is owned by a caller, it should not happen with one frame in flight
+    Log.i(TAG, "all buffers in use, allocating a new one");
+    return new byte[bufferSize];
+  }
+}
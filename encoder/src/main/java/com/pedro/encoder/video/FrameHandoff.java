@@ -0,0 +1,136 @@
+package com.pedro.encoder.video;
+
+import com.pedro.encoder.Frame;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Bounded handoff of camera frames to encoder with latest frame wins semantics.
+ * When a new frame exceed the depth, the oldest one is released and discarded so encoder always
+ * get recent frames. Producer never blocks and consumer only waits if it ask for it.
+ */
+public class FrameHandoff {
+
+  public static final int MIN_DEPTH = 1;
+  public static final int MAX_DEPTH = 3;
+
+  private final ConcurrentLinkedQueue<Frame> frames = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger(0);
+  private volatile int depth = 2;
+  private volatile Thread waiter;
+  //stats
+  private final AtomicLong droppedFrames = new AtomicLong(0);
+  private volatile long consumedFrames = 0;
+  private volatile long totalAge = 0;
+  private volatile long maxAge = 0;
+
+  /**
+   * @param depth max frames waiting for encoder, between 1 and 3. 2 by default.
+   */
+  public void setDepth(int depth) {
+    this.depth = Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Called from producer thread.
+   */
+  public void offer(Frame frame) {
+    if (frame.getTimeStamp() == 0) frame.setTimeStamp(System.nanoTime());
+    frames.offer(frame);
+    int currentSize = size.incrementAndGet();
+    while (currentSize > depth) {
+      Frame oldest = frames.poll();
+      if (oldest == null) break;
+      droppedFrames.incrementAndGet();
+      oldest.release();
+      currentSize = size.decrementAndGet();
+    }
+    Thread thread = waiter;
+    if (thread != null) LockSupport.unpark(thread);
+  }
+
+  /**
+   * Called from consumer thread.
+   *
+   * @return oldest frame waiting or null if there is no frame.
+   */
+  public Frame poll() {
+    Frame frame = frames.poll();
+    if (frame != null) {
+      size.decrementAndGet();
+      long age = System.nanoTime() - frame.getTimeStamp();
+      consumedFrames++;
+      totalAge += age;
+      if (age > maxAge) maxAge = age;
+    }
+    return frame;
+  }
+
+  /**
+   * Like {@link #poll()} but waits up to timeout if there is no frame.
+   */
+  public Frame poll(long timeoutNs) {
+    Frame frame = poll();
+    if (frame != null) return frame;
+    waiter = Thread.currentThread();
+    frame = poll();
+    if (frame == null) {
+      LockSupport.parkNanos(this, timeoutNs);
+      frame = poll();
+    }
+    waiter = null;
+    return frame;
+  }
+
+  public boolean isEmpty() {
+    return frames.isEmpty();
+  }
+
+  /**
+   * Release and discard all frames waiting.
+   */
+  public void clear() {
+    Frame frame;
+    while ((frame = frames.poll()) != null) {
+      size.decrementAndGet();
+      frame.release();
+    }
+  }
+
+  /**
+   * @return frames replaced by newer ones before encoder could consume them.
+   */
+  public long getDroppedFrames() {
+    return droppedFrames.get();
+  }
+
+  /**
+   * @return average time in ms since frame was captured until encoder consumed it.
+   */
+  public float getAverageFrameAge() {
+    long consumed = consumedFrames;
+    return consumed == 0 ? 0 : totalAge / consumed / 1000000f;
+  }
+
+  /**
+   * @return max time in ms since frame was captured until encoder consumed it.
+   */
+  public float getMaxFrameAge() {
+    return maxAge / 1000000f;
+  }
+
+  public void resetStats() {
+    droppedFrames.set(0);
+    consumedFrames = 0;
+    totalAge = 0;
+    maxAge = 0;
+  }
+}
@@ -2,7 +2,6 @@ package com.pedro.encoder.video;
 
 import android.graphics.ImageFormat;
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.os.Bundle;
@@ -15,16 +14,21 @@ import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
-import com.pedro.encoder.input.video.FpsLimiter;
+import com.pedro.encoder.input.video.FrameRateGovernor;
 import com.pedro.encoder.input.video.GetCameraData;
+import com.pedro.encoder.utils.CodecCapabilityCache;
 import com.pedro.encoder.utils.CodecUtil;
-import com.pedro.encoder.utils.yuv.YUVUtil;
+import com.pedro.encoder.utils.EncoderCalibration;
+import com.pedro.encoder.utils.EncoderInfo;
+import com.pedro.encoder.utils.LatencyTracker;
+import com.pedro.encoder.utils.yuv.YuvConverter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by pedro on 19/01/17.
@@ -34,6 +38,7 @@ import java.util.concurrent.BlockingQueue;
 public class VideoEncoder extends BaseEncoder implements GetCameraData {
 
   private static final String TAG = "VideoEncoder";
+  private static final long SYNC_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(10);
   private GetVideoData getVideoData;
   private boolean spsPpsSetted = false;
   private boolean hardwareRotation = false;
@@ -48,13 +53,20 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   private int rotation = 90;
   private int iFrameInterval = 2;
   //for disable video
-  private FpsLimiter fpsLimiter = new FpsLimiter();
+  private FrameRateGovernor frameRateGovernor = new FrameRateGovernor();
   private String type = CodecUtil.H264_MIME;
   private FormatVideoEncoder formatVideoEncoder = FormatVideoEncoder.YUV420Dynamical;
   private int avcProfile = -1;
   private int avcProfileLevel = -1;
   private HandlerThread handlerThread;
-  private BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(80);
+  private FrameHandoff frameHandoff = new FrameHandoff();
+  //input buffers waiting for a frame, filled and consumed in encoder thread
+  private Queue<Integer> pendingInputIndices = new ConcurrentLinkedQueue<>();
+  private Handler handler;
+  private boolean asyncMode = false;
+  private volatile YuvConverter yuvConverter;
+  private int conversionThreads = 1;
+  private int temporalLayers = 1;
 
   public VideoEncoder(GetVideoData getVideoData) {
     this.getVideoData = getVideoData;
@@ -75,6 +87,8 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     this.width = width;
     this.height = height;
     this.fps = fps;
+    //keep fractional target of setFps(float) if it is the same rate
+    if (Math.round(frameRateGovernor.getFps()) != fps) frameRateGovernor.setFps(fps);
     this.bitRate = bitRate;
     this.rotation = rotation;
     this.hardwareRotation = hardwareRotation;
@@ -82,7 +96,7 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     this.avcProfile = avcProfile;
     this.avcProfileLevel = avcProfileLevel;
     isBufferMode = true;
-    MediaCodecInfo encoder = chooseEncoder(type);
+    EncoderInfo encoder = chooseEncoder(type);
     try {
       if (encoder != null) {
         codec = MediaCodec.createByCodecName(encoder.getName());
@@ -125,7 +139,11 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
         // MediaFormat.KEY_LEVEL, API > 23
         videoFormat.setInteger("level", this.avcProfileLevel);
       }
-      codec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      if (temporalLayers > 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+        configureTemporalLayers(videoFormat);
+      } else {
+        codec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      }
       running = false;
       if (formatVideoEncoder == FormatVideoEncoder.SURFACE
           && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
@@ -140,20 +158,37 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     }
   }
 
+  @RequiresApi(api = Build.VERSION_CODES.Q)
+  private void configureTemporalLayers(MediaFormat videoFormat) {
+    videoFormat.setString(MediaFormat.KEY_TEMPORAL_LAYERING, "android.generic." + temporalLayers);
+    try {
+      codec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      Log.e(TAG, "Temporal layers not supported by encoder, configured without them", e);
+      codec.reset();
+      videoFormat.removeKey(MediaFormat.KEY_TEMPORAL_LAYERING);
+      codec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+  }
+
   @Override
   public void start(boolean resetTs) {
     spsPpsSetted = false;
     if (resetTs) {
       presentTimeUs = System.nanoTime() / 1000;
-      fpsLimiter.setFPS(fps);
+      frameRateGovernor.reset();
     }
-    if (formatVideoEncoder != FormatVideoEncoder.SURFACE) {
-      YUVUtil.preAllocateBuffers(width * height * 3 / 2);
+    if (formatVideoEncoder != FormatVideoEncoder.SURFACE && (yuvConverter == null
+        || yuvConverter.getWidth() != width || yuvConverter.getHeight() != height)) {
+      if (yuvConverter != null) yuvConverter.close();
+      yuvConverter = new YuvConverter(width, height);
+      yuvConverter.setThreads(conversionThreads);
     }
     handlerThread = new HandlerThread(TAG);
     handlerThread.start();
-    Handler handler = new Handler(handlerThread.getLooper());
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+    handler = new Handler(handlerThread.getLooper());
+    asyncMode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    if (asyncMode) {
       createAsyncCallback();
       codec.setCallback(callback, handler);
       codec.start();
@@ -164,6 +199,7 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
         public void run() {
           while (running) {
             try {
+              feedPendingInput();
               getDataFromEncoder(null);
             } catch (IllegalStateException e) {
               Log.i(TAG, "Encoding error", e);
@@ -185,7 +221,12 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
         handlerThread.quit();
       }
     }
-    queue.clear();
+    frameHandoff.clear();
+    pendingInputIndices.clear();
+    if (yuvConverter != null) {
+      yuvConverter.close();
+      yuvConverter = null;
+    }
     spsPpsSetted = false;
     inputSurface = null;
     Log.i(TAG, "stopped");
@@ -198,8 +239,19 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     start(false);
   }
 
-  private FormatVideoEncoder chooseColorDynamically(MediaCodecInfo mediaCodecInfo) {
-    for (int color : mediaCodecInfo.getCapabilitiesForType(type).colorFormats) {
+  /**
+   * Restart encoder with other resolution and bitrate keeping timestamps. First frame of the new
+   * encoder is a key frame preceded by new SPS/PPS.
+   */
+  public void reset(int width, int height, int bitRate) {
+    this.width = width;
+    this.height = height;
+    this.bitRate = bitRate;
+    reset();
+  }
+
+  private FormatVideoEncoder chooseColorDynamically(EncoderInfo encoderInfo) {
+    for (int color : encoderInfo.getColorFormats()) {
       if (color == FormatVideoEncoder.YUV420PLANAR.getFormatCodec()) {
         return FormatVideoEncoder.YUV420PLANAR;
       } else if (color == FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec()) {
@@ -268,8 +320,22 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     return rotation;
   }
 
+  /**
+   * Can be called while encoding to change frames selected in buffer mode, encoder is configured
+   * with it on next prepareVideoEncoder.
+   */
   public void setFps(int fps) {
     this.fps = fps;
+    frameRateGovernor.setFps(fps);
+  }
+
+  /**
+   * Same as {@link #setFps(int)} with a fractional rate (29.97) used to select frames. Encoder is
+   * configured with the rate rounded.
+   */
+  public void setFps(float fps) {
+    this.fps = Math.round(fps);
+    frameRateGovernor.setFps(fps);
   }
 
   public int getFps() {
@@ -280,6 +346,62 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     return bitRate;
   }
 
+  /**
+   * Split rotation and color conversion of big frames in several threads.
+   *
+   * @param threads 1 by default. Normally number of cores - 1 is a good value.
+   */
+  public void setConversionThreads(int threads) {
+    conversionThreads = threads;
+    YuvConverter converter = yuvConverter;
+    if (converter != null) converter.setThreads(threads);
+  }
+
+  /**
+   * @param depth max camera frames waiting for encoder, between 1 and 3. Older frames are
+   * discarded when a new one arrive. 2 by default.
+   */
+  public void setInputQueueDepth(int depth) {
+    frameHandoff.setDepth(depth);
+  }
+
+  /**
+   * @return camera frames discarded because encoder was slower than camera.
+   */
+  public long getDroppedInputFrames() {
+    return frameHandoff.getDroppedFrames();
+  }
+
+  /**
+   * @return average time in ms since a frame is captured until encoder consume it.
+   */
+  public float getAverageInputFrameAge() {
+    return frameHandoff.getAverageFrameAge();
+  }
+
+  public float getMaxInputFrameAge() {
+    return frameHandoff.getMaxFrameAge();
+  }
+
+  public void resetInputFrameStats() {
+    frameHandoff.resetStats();
+  }
+
+  /**
+   * Encode with a temporal scalability schema (android.generic.N), frames of upper layers are not
+   * referenced by base layer so they can be dropped. Only API 29+, ignored by encoders without
+   * support. Used on next prepareVideoEncoder.
+   *
+   * @param layers 1 by default (disabled).
+   */
+  public void setTemporalLayers(int layers) {
+    temporalLayers = Math.max(1, layers);
+  }
+
+  public int getTemporalLayers() {
+    return temporalLayers;
+  }
+
   public String getType() {
     return type;
   }
@@ -290,8 +412,12 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
 
   @Override
   public void inputYUVData(Frame frame) {
-    if (running && !queue.offer(frame)) {
-      Log.i(TAG, "frame discarded");
+    if (!running) {
+      frame.release();
+    } else {
+      frameHandoff.offer(frame);
+      //codec is waiting for a frame
+      if (asyncMode && !pendingInputIndices.isEmpty()) handler.post(feedPendingInputRunnable);
     }
   }
 
@@ -308,35 +434,39 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   }
 
   /**
-   * choose the video encoder by mime.
+   * choose the video encoder by mime. Capabilities are cached so MediaCodecList is only walked
+   * the first time. If encoders were calibrated with {@link EncoderCalibration}, the fastest one
+   * that reaches fps is used.
    */
   @Override
-  protected MediaCodecInfo chooseEncoder(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList;
-    if (force == CodecUtil.Force.HARDWARE) {
-      mediaCodecInfoList = CodecUtil.getAllHardwareEncoders(mime);
-    } else if (force == CodecUtil.Force.SOFTWARE) {
-      mediaCodecInfoList = CodecUtil.getAllSoftwareEncoders(mime);
-    } else {
-      mediaCodecInfoList = CodecUtil.getAllEncoders(mime);
+  protected EncoderInfo chooseEncoder(String mime) {
+    List<EncoderInfo> candidates = new ArrayList<>();
+    for (EncoderInfo encoderInfo : CodecCapabilityCache.getEncoders(mime, force)) {
+      boolean supported;
+      if (formatVideoEncoder == FormatVideoEncoder.SURFACE) {
+        supported = encoderInfo.supportsColorFormat(FormatVideoEncoder.SURFACE.getFormatCodec());
+      } else {
+        //check if encoder support any yuv420 color
+        supported =
+            encoderInfo.supportsColorFormat(FormatVideoEncoder.YUV420PLANAR.getFormatCodec())
+                || encoderInfo.supportsColorFormat(
+                FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec());
+      }
+      if (supported) candidates.add(encoderInfo);
     }
-    for (MediaCodecInfo mci : mediaCodecInfoList) {
-      Log.i(TAG, String.format("VideoEncoder %s", mci.getName()));
-      MediaCodecInfo.CodecCapabilities codecCapabilities = mci.getCapabilitiesForType(mime);
-      for (int color : codecCapabilities.colorFormats) {
-        Log.i(TAG, "Color supported: " + color);
-        if (formatVideoEncoder == FormatVideoEncoder.SURFACE) {
-          if (color == FormatVideoEncoder.SURFACE.getFormatCodec()) return mci;
-        } else {
-          //check if encoder support any yuv420 color
-          if (color == FormatVideoEncoder.YUV420PLANAR.getFormatCodec()
-              || color == FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec()) {
-            return mci;
-          }
-        }
+    if (candidates.isEmpty()) return null;
+    if (avcProfile > 0) {
+      List<EncoderInfo> withProfile = new ArrayList<>();
+      for (EncoderInfo encoderInfo : candidates) {
+        if (encoderInfo.supportsProfile(avcProfile)) withProfile.add(encoderInfo);
       }
+      if (!withProfile.isEmpty()) candidates = withProfile;
     }
-    return null;
+    EncoderInfo encoder = EncoderCalibration.choose(mime, candidates,
+        EncoderCalibration.getVideoConfig(width, height), fps);
+    if (encoder == null) encoder = candidates.get(0);
+    Log.i(TAG, "VideoEncoder " + encoder.getName());
+    return encoder;
   }
 
   /**
@@ -420,21 +550,40 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     return byteBufferList;
   }
 
+  /**
+   * Never blocks in async mode, the input buffer is kept pending until a new frame arrive.
+   * In sync mode waits a bit to avoid a busy loop.
+   */
   @Override
-  protected Frame getInputFrame() throws InterruptedException {
-    Frame frame = queue.take();
-    if (fpsLimiter.limitFPS()) return getInputFrame();
-    byte[] buffer = frame.getBuffer();
-    boolean isYV12 = frame.getFormat() == ImageFormat.YV12;
-    if (!hardwareRotation) {
-      int orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
-      if (orientation >= 360) orientation -= 360;
-      buffer = isYV12 ? YUVUtil.rotateYV12(buffer, width, height, orientation)
-          : YUVUtil.rotateNV21(buffer, width, height, orientation);
+  protected Frame getInputFrame() {
+    Frame frame;
+    byte[] buffer;
+    YuvConverter converter;
+    while (true) {
+      frame = asyncMode ? frameHandoff.poll() : frameHandoff.poll(SYNC_WAIT_NS);
+      if (frame == null) return null;
+      if (frameRateGovernor.shouldDrop(frame.getTimeStamp())) {
+        frame.release();
+        continue;
+      }
+      boolean isYV12 = frame.getFormat() == ImageFormat.YV12;
+      int orientation = 0;
+      if (!hardwareRotation) {
+        orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
+        if (orientation >= 360) orientation -= 360;
+      }
+      converter = yuvConverter;
+      buffer = converter != null
+          ? converter.convert(frame.getBuffer(), orientation, isYV12, formatVideoEncoder) : null;
+      //converted to encoder buffer, camera buffer can be reused
+      frame.release();
+      if (buffer != null) break;
+      //color not supported by converter or encoder stopped, frame is skipped
+      Log.e(TAG, "Frame skipped, conversion to " + formatVideoEncoder + " failed");
     }
-    buffer = isYV12 ? YUVUtil.YV12toYUV420byColor(buffer, width, height, formatVideoEncoder)
-        : YUVUtil.NV21toYUV420byColor(buffer, width, height, formatVideoEncoder);
     frame.setBuffer(buffer);
+    //converted buffer is returned to converter when copied to codec
+    frame.setOnReleaseListener(converter);
     return frame;
   }
 
@@ -463,10 +612,40 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   @Override
   protected void sendBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo) {
+    long codecPts = bufferInfo.presentationTimeUs;
     bufferInfo.presentationTimeUs = System.nanoTime() / 1000 - presentTimeUs;
+    LatencyTracker tracker = latencyTracker;
+    if (tracker != null) tracker.onEncoderOutput(codecPts, bufferInfo.presentationTimeUs);
     getVideoData.getVideoData(byteBuffer, bufferInfo);
   }
 
+  @Override
+  protected void onInputBufferPending(int inBufferIndex) {
+    pendingInputIndices.offer(inBufferIndex);
+  }
+
+  private final Runnable feedPendingInputRunnable = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        feedPendingInput();
+      } catch (IllegalStateException e) {
+        Log.i(TAG, "Encoding error", e);
+      }
+    }
+  };
+
+  /**
+   * Fill input buffers that were available before a frame arrived.
+   */
+  private void feedPendingInput() throws IllegalStateException {
+    while (running && !pendingInputIndices.isEmpty() && !frameHandoff.isEmpty()) {
+      Frame frame = getInputFrame();
+      if (frame == null) return;
+      inputAvailable(codec, pendingInputIndices.poll(), frame);
+    }
+  }
+
   private MediaCodec.Callback callback;
 
   @RequiresApi(api = Build.VERSION_CODES.M)
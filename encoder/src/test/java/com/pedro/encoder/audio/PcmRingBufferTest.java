@@ -0,0 +1,132 @@
+package com.pedro.encoder.audio;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class PcmRingBufferTest {
+
+  private PcmRingBuffer ringBuffer;
+
+  @Before
+  public void setUp() {
+    ringBuffer = new PcmRingBuffer(8);
+  }
+
+  private static byte[] sequence(int start, int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (start + i);
+    }
+    return data;
+  }
+
+  @Test
+  public void bytesAreReadInOrder() {
+    assertEquals(3, ringBuffer.write(sequence(0, 3), 0, 3));
+    assertEquals(3, ringBuffer.write(sequence(3, 3), 0, 3));
+    assertEquals(6, ringBuffer.getAvailable());
+    byte[] data = new byte[4];
+    assertTrue(ringBuffer.read(data, 0, 4));
+    assertArrayEquals(sequence(0, 4), data);
+    assertEquals(2, ringBuffer.getAvailable());
+  }
+
+  @Test
+  public void writeAndReadWrapAround() {
+    byte[] data = new byte[6];
+    ringBuffer.write(sequence(0, 6), 0, 6);
+    assertTrue(ringBuffer.read(data, 0, 6));
+    //starts at position 6 of 8
+    assertEquals(6, ringBuffer.write(sequence(10, 6), 0, 6));
+    assertTrue(ringBuffer.read(data, 0, 6));
+    assertArrayEquals(sequence(10, 6), data);
+  }
+
+  @Test
+  public void notEnoughBytesReadNothing() {
+    ringBuffer.write(sequence(0, 3), 0, 3);
+    byte[] data = new byte[4];
+    assertFalse(ringBuffer.read(data, 0, 4));
+    assertEquals(3, ringBuffer.getAvailable());
+  }
+
+  @Test
+  public void fullBufferDiscardsNewBytes() {
+    assertEquals(8, ringBuffer.write(sequence(0, 10), 0, 10));
+    assertEquals(2, ringBuffer.getOverflowBytes());
+    assertEquals(0, ringBuffer.write(sequence(0, 1), 0, 1));
+    assertEquals(3, ringBuffer.getOverflowBytes());
+    byte[] data = new byte[8];
+    assertTrue(ringBuffer.read(data, 0, 8));
+    assertArrayEquals(sequence(0, 8), data);
+  }
+
+  @Test
+  public void offsetsAreUsed() {
+    byte[] source = sequence(0, 6);
+    ringBuffer.write(source, 2, 3);
+    byte[] data = new byte[5];
+    assertTrue(ringBuffer.read(data, 1, 3));
+    assertArrayEquals(new byte[] { 0, 2, 3, 4, 0 }, data);
+  }
+
+  @Test
+  public void clearEmptiesBuffer() {
+    ringBuffer.write(sequence(0, 10), 0, 10);
+    ringBuffer.clear();
+    assertEquals(0, ringBuffer.getAvailable());
+    assertEquals(0, ringBuffer.getOverflowBytes());
+    assertEquals(8, ringBuffer.write(sequence(0, 8), 0, 8));
+  }
+
+  @Test
+  public void writerAndReaderThreadsKeepOrder() throws InterruptedException {
+    final PcmRingBuffer ringBuffer = new PcmRingBuffer(4096);
+    final int total = 1 << 20;
+    final AtomicReference<String> error = new AtomicReference<>();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        int written = 0;
+        while (written < total) {
+          int size = Math.min(1000, total - written);
+          //retry what didn't fit, like a microphone that waits
+          written += ringBuffer.write(sequence(written, size), 0, size);
+        }
+      }
+    });
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] data = new byte[1024];
+        int read = 0;
+        while (read < total) {
+          if (!ringBuffer.read(data, 0, data.length)) continue;
+          for (int i = 0; i < data.length; i++) {
+            if (data[i] != (byte) (read + i)) {
+              error.set("wrong byte at " + (read + i));
+              return;
+            }
+          }
+          read += data.length;
+        }
+      }
+    });
+    writer.start();
+    reader.start();
+    writer.join(10000);
+    reader.join(10000);
+    assertFalse(writer.isAlive() || reader.isAlive());
+    assertNull(error.get());
+  }
+}
@@ -0,0 +1,129 @@
+package com.pedro.encoder.input.audio;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class ResamplerTest {
+
+  private static final int CHANNELS = 2;
+  //output discarded while filter history is filled
+  private static final int SKIP_FRAMES = 512;
+
+  private static byte[] sine(int sampleRate, double frequency, int frames) {
+    byte[] pcm = new byte[frames * CHANNELS * 2];
+    for (int i = 0; i < frames; i++) {
+      short value = (short) Math.round(0.5 * Short.MAX_VALUE
+          * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+      for (int c = 0; c < CHANNELS; c++) {
+        int index = (i * CHANNELS + c) * 2;
+        pcm[index] = (byte) value;
+        pcm[index + 1] = (byte) (value >> 8);
+      }
+    }
+    return pcm;
+  }
+
+  private static byte[] resample(Resampler resampler, byte[] input, int chunkSize) {
+    byte[] output = new byte[resampler.getMaxOutputSize(input.length) + chunkSize];
+    int size = 0;
+    for (int offset = 0; offset < input.length; offset += chunkSize) {
+      int length = Math.min(chunkSize, input.length - offset);
+      size += resampler.process(input, offset, length, output, size);
+    }
+    return Arrays.copyOf(output, size);
+  }
+
+  /**
+   * Fit a sine of the expected frequency (any phase) to the first channel and compare it with
+   * the residual, that is noise, aliasing and distortion added by the resampler.
+   */
+  private static double getSnrDb(byte[] pcm, int sampleRate, double frequency) {
+    int frames = pcm.length / (2 * CHANNELS);
+    double w = 2 * Math.PI * frequency / sampleRate;
+    double ss = 0, cc = 0, sc = 0, ys = 0, yc = 0;
+    for (int i = SKIP_FRAMES; i < frames; i++) {
+      double y = sample(pcm, i);
+      double s = Math.sin(w * i);
+      double c = Math.cos(w * i);
+      ss += s * s;
+      cc += c * c;
+      sc += s * c;
+      ys += y * s;
+      yc += y * c;
+    }
+    double det = ss * cc - sc * sc;
+    double a = (ys * cc - yc * sc) / det;
+    double b = (yc * ss - ys * sc) / det;
+    double signal = 0, noise = 0;
+    for (int i = SKIP_FRAMES; i < frames; i++) {
+      double fit = a * Math.sin(w * i) + b * Math.cos(w * i);
+      double error = sample(pcm, i) - fit;
+      signal += fit * fit;
+      noise += error * error;
+    }
+    return 10 * Math.log10(signal / noise);
+  }
+
+  private static short sample(byte[] pcm, int frame) {
+    int index = frame * CHANNELS * 2;
+    return (short) ((pcm[index] & 0xFF) | (pcm[index + 1] << 8));
+  }
+
+  private static void assertSnr(int inputRate, int outputRate, double frequency) {
+    Resampler resampler = new Resampler(inputRate, outputRate, CHANNELS);
+    byte[] output = resample(resampler, sine(inputRate, frequency, inputRate), 4096);
+    double snr = getSnrDb(output, outputRate, frequency);
+    assertTrue(inputRate + " -> " + outputRate + " " + frequency + " Hz: " + snr + " dB",
+        snr >= 65);
+  }
+
+  @Test
+  public void upsampleKeepsSnr() {
+    assertSnr(44100, 48000, 1000);
+    assertSnr(44100, 48000, 8000);
+    //near the end of pass band
+    assertSnr(44100, 48000, 16000);
+    assertSnr(32000, 48000, 1000);
+  }
+
+  @Test
+  public void downsampleKeepsSnr() {
+    assertSnr(48000, 44100, 1000);
+    assertSnr(48000, 44100, 8000);
+    assertSnr(48000, 44100, 16000);
+    assertSnr(48000, 32000, 12000);
+    assertSnr(48000, 32000, 1000);
+  }
+
+  @Test
+  public void outputLengthFollowsRatio() {
+    Resampler resampler = new Resampler(44100, 48000, CHANNELS);
+    byte[] output = resample(resampler, sine(44100, 1000, 44100), 4096);
+    int frames = output.length / (2 * CHANNELS);
+    assertTrue(String.valueOf(frames), Math.abs(frames - 48000) <= 1);
+  }
+
+  @Test
+  public void chunkSizeDoesNotChangeOutput() {
+    byte[] input = sine(44100, 1000, 4410);
+    byte[] whole = resample(new Resampler(44100, 48000, CHANNELS), input, input.length);
+    //37 frames per call, filter state is kept between calls
+    byte[] chunked = resample(new Resampler(44100, 48000, CHANNELS), input, 4 * 37);
+    assertArrayEquals(whole, chunked);
+  }
+
+  @Test
+  public void sameRateIsCopied() {
+    byte[] input = sine(48000, 1000, 480);
+    byte[] output = resample(new Resampler(48000, 48000, CHANNELS), input, input.length);
+    assertEquals(input.length, output.length);
+    assertArrayEquals(input, output);
+  }
+}
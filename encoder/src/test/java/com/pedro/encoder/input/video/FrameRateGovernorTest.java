@@ -0,0 +1,107 @@
+package com.pedro.encoder.input.video;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class FrameRateGovernorTest {
+
+  private static final long START_NS = 1000000000L;
+
+  private FrameRateGovernor governor;
+
+  @Before
+  public void setUp() {
+    governor = new FrameRateGovernor();
+  }
+
+  /**
+   * @return timestamps of frames selected from a source at sourceFps.
+   */
+  private List<Long> run(double sourceFps, int frames, long jitterNs) {
+    List<Long> selected = new ArrayList<>();
+    for (int i = 0; i < frames; i++) {
+      //jitter alternates sign so average source rate is kept
+      long jitter = i % 2 == 0 ? jitterNs : -jitterNs;
+      long timestampNs = START_NS + (long) (i * 1000000000L / sourceFps) + jitter;
+      if (!governor.shouldDrop(timestampNs)) selected.add(timestampNs);
+    }
+    return selected;
+  }
+
+  @Test
+  public void halfRateKeepsOneOfTwo() {
+    governor.setFps(30);
+    assertEquals(300, run(60, 600, 0).size());
+  }
+
+  @Test
+  public void framesAreSelectedEvenly() {
+    governor.setFps(25);
+    List<Long> selected = run(60, 600, 0);
+    assertEquals(250, selected.size());
+    //5 of each 12 source frames, 33 or 50 ms apart
+    for (int i = 1; i < selected.size(); i++) {
+      long intervalMs = Math.round((selected.get(i) - selected.get(i - 1)) / 1000000.0);
+      assertTrue(String.valueOf(intervalMs), intervalMs == 33 || intervalMs == 50);
+    }
+  }
+
+  @Test
+  public void fractionalRateDoesNotDrift() {
+    governor.setFps(29.97f);
+    //100 seconds of 30 fps
+    int selected = run(30, 3000, 0).size();
+    assertTrue(String.valueOf(selected), Math.abs(selected - 2997) <= 1);
+  }
+
+  @Test
+  public void jitterDoesNotDropFrames() {
+    governor.setFps(30);
+    assertEquals(300, run(30, 300, 4000000).size());
+  }
+
+  @Test
+  public void slowerSourceKeepsAll() {
+    governor.setFps(30);
+    assertEquals(150, run(15, 150, 0).size());
+  }
+
+  @Test
+  public void noTargetKeepsAll() {
+    governor.setFps(0);
+    assertEquals(600, run(60, 600, 0).size());
+  }
+
+  @Test
+  public void fpsChangeFollowsLastSelectedFrame() {
+    governor.setFps(30);
+    List<Long> selected = run(60, 60, 0);
+    long last = selected.get(selected.size() - 1);
+    governor.setFps(15);
+    long frameNs = 1000000000L / 60;
+    long next = -1;
+    for (int i = 60; i < 120 && next < 0; i++) {
+      long timestampNs = START_NS + i * frameNs;
+      if (!governor.shouldDrop(timestampNs)) next = timestampNs;
+    }
+    assertEquals(4 * frameNs, next - last, frameNs / 2);
+  }
+
+  @Test
+  public void resetSelectsNextFrame() {
+    governor.setFps(1);
+    assertFalse(governor.shouldDrop(START_NS));
+    assertTrue(governor.shouldDrop(START_NS + 100000000L));
+    governor.reset();
+    assertFalse(governor.shouldDrop(START_NS + 200000000L));
+  }
+}
@@ -0,0 +1,78 @@
+package com.pedro.encoder.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class LatencyHistogramTest {
+
+  private LatencyHistogram histogram;
+
+  @Before
+  public void setUp() {
+    histogram = new LatencyHistogram();
+  }
+
+  @Test
+  public void emptyHistogram() {
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getAverage(), 0);
+    assertEquals(0, histogram.getPercentile(95));
+  }
+
+  @Test
+  public void latenciesGoToTheirBucket() {
+    histogram.record(0);
+    histogram.record(1);
+    histogram.record(3);
+    histogram.record(10);
+    histogram.record(11);
+    histogram.record(5000);
+    //negative latencies (clock adjustments) count as 0
+    histogram.record(-5);
+    long[] counts = histogram.getCounts();
+    assertEquals(histogram.getBounds().length + 1, counts.length);
+    assertArrayEquals(new long[] { 3, 0, 1, 1, 1, 0, 0, 0, 0, 0, 0, 1 }, counts);
+    assertEquals(7, histogram.getCount());
+    assertEquals(5000, histogram.getMax());
+    assertEquals(5025 / 7f, histogram.getAverage(), 0.001f);
+  }
+
+  @Test
+  public void percentileIsBucketBound() {
+    for (int i = 0; i < 90; i++) {
+      histogram.record(15);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(150);
+    }
+    assertEquals(20, histogram.getPercentile(50));
+    assertEquals(20, histogram.getPercentile(90));
+    assertEquals(150, histogram.getPercentile(95));
+    assertEquals(20, histogram.getPercentile(0));
+  }
+
+  @Test
+  public void percentileIsLimitedByMax() {
+    histogram.record(3);
+    assertEquals(3, histogram.getPercentile(50));
+    histogram.record(3000);
+    assertEquals(5, histogram.getPercentile(50));
+    //last bucket has no bound
+    assertEquals(3000, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void resetClearsAll() {
+    histogram.record(30);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertArrayEquals(new long[histogram.getBounds().length + 1], histogram.getCounts());
+  }
+}
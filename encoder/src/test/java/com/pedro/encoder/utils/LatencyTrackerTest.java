@@ -0,0 +1,101 @@
+package com.pedro.encoder.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class LatencyTrackerTest {
+
+  private static final long CAPTURE_AGO_MS = 100;
+
+  private LatencyTracker tracker;
+  private long captureNs;
+
+  @Before
+  public void setUp() {
+    tracker = new LatencyTracker();
+    captureNs = System.nanoTime() - CAPTURE_AGO_MS * 1000000;
+  }
+
+  private LatencyHistogram histogram(LatencyTracker.Stage stage) {
+    return tracker.getHistogram(stage);
+  }
+
+  private void assertRecorded(LatencyTracker.Stage stage) {
+    LatencyHistogram histogram = histogram(stage);
+    assertEquals(stage.toString(), 1, histogram.getCount());
+    assertTrue(stage + " " + histogram, histogram.getMax() >= CAPTURE_AGO_MS);
+    //generous, only to know that capture time of another frame was not used
+    assertTrue(stage + " " + histogram, histogram.getMax() < CAPTURE_AGO_MS + 5000);
+  }
+
+  @Test
+  public void frameIsFollowedToSocket() {
+    tracker.onEncoderInput(33000, captureNs);
+    //muxers use a rewritten pts
+    tracker.onEncoderOutput(33000, 1033000);
+    tracker.onStage(LatencyTracker.Stage.MUX_ENQUEUE, 1033);
+    tracker.onStage(LatencyTracker.Stage.MUX_DEQUEUE, 1033);
+    tracker.onStage(LatencyTracker.Stage.SOCKET_WRITE, 1033);
+    for (LatencyTracker.Stage stage : LatencyTracker.Stage.values()) {
+      assertRecorded(stage);
+    }
+  }
+
+  @Test
+  public void splitFrameIsRecordedOnce() {
+    tracker.onEncoderInput(0, captureNs);
+    tracker.onEncoderOutput(0, 0);
+    //RTSP packets of a frame share its timestamp
+    tracker.onStage(LatencyTracker.Stage.MUX_ENQUEUE, 0);
+    tracker.onStage(LatencyTracker.Stage.MUX_ENQUEUE, 0);
+    tracker.onStage(LatencyTracker.Stage.MUX_ENQUEUE, 0);
+    assertEquals(1, histogram(LatencyTracker.Stage.MUX_ENQUEUE).getCount());
+  }
+
+  @Test
+  public void encoderOutputUsesLastInputBefore() {
+    //AAC encoder output pts are between input pts
+    tracker.onEncoderInput(0, captureNs);
+    tracker.onEncoderInput(46000, System.nanoTime() + 60000000000L);
+    tracker.onEncoderOutput(23000, 23000);
+    assertRecorded(LatencyTracker.Stage.ENCODER_OUTPUT);
+  }
+
+  @Test
+  public void unknownFramesAreIgnored() {
+    //no capture time
+    tracker.onEncoderInput(0, 0);
+    tracker.onEncoderOutput(0, 0);
+    tracker.onStage(LatencyTracker.Stage.SOCKET_WRITE, 5);
+    for (LatencyTracker.Stage stage : LatencyTracker.Stage.values()) {
+      assertEquals(0, histogram(stage).getCount());
+    }
+  }
+
+  @Test
+  public void disabledTrackerRecordsNothing() {
+    tracker.setEnabled(false);
+    tracker.onEncoderInput(0, captureNs);
+    tracker.onEncoderOutput(0, 0);
+    tracker.onStage(LatencyTracker.Stage.SOCKET_WRITE, 0);
+    for (LatencyTracker.Stage stage : LatencyTracker.Stage.values()) {
+      assertEquals(0, histogram(stage).getCount());
+    }
+  }
+
+  @Test
+  public void resetForgetsFramesInFlight() {
+    tracker.onEncoderInput(0, captureNs);
+    tracker.onEncoderOutput(0, 0);
+    tracker.reset();
+    tracker.onStage(LatencyTracker.Stage.SOCKET_WRITE, 0);
+    assertEquals(0, histogram(LatencyTracker.Stage.ENCODER_OUTPUT).getCount());
+    assertEquals(0, histogram(LatencyTracker.Stage.SOCKET_WRITE).getCount());
+  }
+}
@@ -0,0 +1,162 @@
+package com.pedro.encoder.utils.yuv;
+
+import com.pedro.encoder.video.FormatVideoEncoder;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class YuvConverterTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test
+  public void unsupportedColorReturnsNull() {
+    YuvConverter yuvConverter = new YuvConverter(WIDTH, HEIGHT);
+    byte[] input = new byte[WIDTH * HEIGHT * 3 / 2];
+    assertNull(yuvConverter.convert(input, 0, false, FormatVideoEncoder.SURFACE));
+    assertNull(yuvConverter.convert(input, 90, true, FormatVideoEncoder.YUV420PACKEDPLANAR));
+    yuvConverter.close();
+  }
+
+  @Test
+  public void releasedBuffersAreReused() {
+    YuvConverter yuvConverter = new YuvConverter(WIDTH, HEIGHT);
+    byte[] input = new byte[WIDTH * HEIGHT * 3 / 2];
+    byte[] first = yuvConverter.convert(input, 0, false, FormatVideoEncoder.YUV420SEMIPLANAR);
+    byte[] second = yuvConverter.convert(input, 0, false, FormatVideoEncoder.YUV420PLANAR);
+    assertEquals(input.length, first.length);
+    assertNotSame(first, second);
+    yuvConverter.onRelease(second);
+    assertSame(second, yuvConverter.convert(input, 0, true, FormatVideoEncoder.YUV420PLANAR));
+    yuvConverter.close();
+  }
+
+  @Test
+  public void convertsNV21ToNV12() {
+    YuvConverter yuvConverter = new YuvConverter(WIDTH, HEIGHT);
+    byte[] input = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int i = 0; i < input.length; i++) input[i] = (byte) i;
+    byte[] output = yuvConverter.convert(input, 0, false, FormatVideoEncoder.YUV420SEMIPLANAR);
+    for (int i = 0; i < WIDTH * HEIGHT; i++) assertEquals(input[i], output[i]);
+    //chroma pairs are swapped, V U to U V
+    for (int i = WIDTH * HEIGHT; i < input.length; i += 2) {
+      assertEquals(input[i + 1], output[i]);
+      assertEquals(input[i], output[i + 1]);
+    }
+    yuvConverter.close();
+  }
+
+  @Test
+  public void rotationsMatchNV21Utils() {
+    for (int rotation = 0; rotation < 360; rotation += 90) {
+      assertMatchesUtils(WIDTH, HEIGHT, rotation, false);
+    }
+  }
+
+  @Test
+  public void rotationsMatchYV12Utils() {
+    for (int rotation = 0; rotation < 360; rotation += 90) {
+      assertMatchesUtils(WIDTH, HEIGHT, rotation, true);
+    }
+  }
+
+  /**
+   * Frames are packed with stride equal to width. Widths that are not multiple of 16 (the stride
+   * alignment of camera buffers) or of the tile size leave partial tiles in every row.
+   */
+  @Test
+  public void paddedWidthsMatchUtils() {
+    int[][] sizes = { { 200, 120 }, { 176, 144 }, { 72, 40 } };
+    for (int[] size : sizes) {
+      for (int rotation = 0; rotation < 360; rotation += 90) {
+        assertMatchesUtils(size[0], size[1], rotation, false);
+        assertMatchesUtils(size[0], size[1], rotation, true);
+      }
+    }
+  }
+
+  @Test
+  public void stripesMatchSingleThread() {
+    int width = 1280;
+    int height = 720;
+    byte[] input = createInput(width, height);
+    YuvConverter single = new YuvConverter(width, height);
+    YuvConverter striped = new YuvConverter(width, height);
+    striped.setThreads(4);
+    for (int rotation = 0; rotation < 360; rotation += 90) {
+      for (FormatVideoEncoder format : new FormatVideoEncoder[] {
+          FormatVideoEncoder.YUV420PLANAR, FormatVideoEncoder.YUV420SEMIPLANAR
+      }) {
+        byte[] expected = single.convert(input, rotation, false, format);
+        byte[] output = striped.convert(input, rotation, false, format);
+        assertArrayEquals("rotation " + rotation + " " + format, expected, output);
+        single.releaseBuffer(expected);
+        striped.releaseBuffer(output);
+      }
+    }
+    single.close();
+    striped.close();
+  }
+
+  private void assertMatchesUtils(int width, int height, int rotation, boolean isYV12) {
+    byte[] input = createInput(width, height);
+    YuvConverter yuvConverter = new YuvConverter(width, height);
+    for (boolean toNV12 : new boolean[] { false, true }) {
+      byte[] expected = rotateAndConvert(input, width, height, rotation, isYV12, toNV12);
+      byte[] output = yuvConverter.convert(input, rotation, isYV12,
+          toNV12 ? FormatVideoEncoder.YUV420SEMIPLANAR : FormatVideoEncoder.YUV420PLANAR);
+      String message = width + "x" + height + " rotation " + rotation
+          + (isYV12 ? " YV12" : " NV21") + (toNV12 ? " to NV12" : " to I420");
+      assertArrayEquals(message, expected, output);
+      yuvConverter.releaseBuffer(output);
+    }
+    yuvConverter.close();
+  }
+
+  /**
+   * Old path, rotate and then convert color with the utilities replaced by the fused kernels.
+   */
+  private byte[] rotateAndConvert(byte[] input, int width, int height, int rotation,
+      boolean isYV12, boolean toNV12) {
+    byte[] rotated = input;
+    if (isYV12) {
+      YV12Utils.preAllocateBuffers(input.length);
+      if (rotation == 90) {
+        rotated = YV12Utils.rotate90(input, width, height);
+      } else if (rotation == 180) {
+        rotated = YV12Utils.rotate180(input, width, height);
+      } else if (rotation == 270) {
+        rotated = YV12Utils.rotate270(input, width, height);
+      }
+      //color conversion only depends on frame size
+      return (toNV12 ? YV12Utils.toNV12(rotated, width, height)
+          : YV12Utils.toI420(rotated, width, height)).clone();
+    } else {
+      NV21Utils.preAllocateBuffers(input.length);
+      if (rotation == 90) {
+        rotated = NV21Utils.rotate90(input, width, height);
+      } else if (rotation == 180) {
+        rotated = NV21Utils.rotate180(input, width, height);
+      } else if (rotation == 270) {
+        rotated = NV21Utils.rotate270(input, width, height);
+      }
+      return (toNV12 ? NV21Utils.toNV12(rotated, width, height)
+          : NV21Utils.toI420(rotated, width, height)).clone();
+    }
+  }
+
+  private byte[] createInput(int width, int height) {
+    byte[] input = new byte[width * height * 3 / 2];
+    new Random(width * 31 + height).nextBytes(input);
+    return input;
+  }
+}
@@ -0,0 +1,107 @@
+package com.pedro.encoder.video;
+
+import com.pedro.encoder.Frame;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class FrameHandoffTest {
+
+  private FrameHandoff frameHandoff;
+  private final List<byte[]> released = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    frameHandoff = new FrameHandoff();
+    released.clear();
+  }
+
+  private Frame createFrame() {
+    Frame frame = new Frame(new byte[16], 0, false, 0);
+    frame.setTimeStamp(System.nanoTime());
+    frame.setOnReleaseListener(new Frame.OnReleaseListener() {
+      @Override
+      public void onRelease(byte[] buffer) {
+        released.add(buffer);
+      }
+    });
+    return frame;
+  }
+
+  @Test
+  public void overflowDiscardsOnlyOldestFrame() {
+    frameHandoff.setDepth(2);
+    Frame first = createFrame();
+    Frame second = createFrame();
+    Frame third = createFrame();
+    frameHandoff.offer(first);
+    frameHandoff.offer(second);
+    frameHandoff.offer(third);
+    assertEquals(1, frameHandoff.getDroppedFrames());
+    assertEquals(1, released.size());
+    assertSame(first.getBuffer(), released.get(0));
+    assertSame(second, frameHandoff.poll());
+    assertSame(third, frameHandoff.poll());
+    assertNull(frameHandoff.poll());
+  }
+
+  @Test
+  public void steadyStateKeepsDepthFrames() {
+    for (int depth = FrameHandoff.MIN_DEPTH; depth <= FrameHandoff.MAX_DEPTH; depth++) {
+      setUp();
+      frameHandoff.setDepth(depth);
+      Frame last = null;
+      for (int i = 0; i < 100; i++) {
+        last = createFrame();
+        frameHandoff.offer(last);
+      }
+      assertEquals(100 - depth, frameHandoff.getDroppedFrames());
+      assertEquals(100 - depth, released.size());
+      Frame frame = null;
+      int polled = 0;
+      while (!frameHandoff.isEmpty()) {
+        frame = frameHandoff.poll();
+        polled++;
+      }
+      assertEquals(depth, polled);
+      assertSame(last, frame);
+    }
+  }
+
+  @Test
+  public void consumerKeepingUpNeverDrops() {
+    for (int i = 0; i < 100; i++) {
+      Frame frame = createFrame();
+      frameHandoff.offer(frame);
+      assertSame(frame, frameHandoff.poll());
+    }
+    assertEquals(0, frameHandoff.getDroppedFrames());
+    assertTrue(released.isEmpty());
+    assertNull(frameHandoff.poll(1000000));
+  }
+
+  @Test
+  public void clearReleasesWaitingFrames() {
+    frameHandoff.setDepth(3);
+    frameHandoff.offer(createFrame());
+    frameHandoff.offer(createFrame());
+    frameHandoff.clear();
+    assertTrue(frameHandoff.isEmpty());
+    assertEquals(2, released.size());
+    assertEquals(0, frameHandoff.getDroppedFrames());
+    //size counter must be consistent after clear
+    frameHandoff.offer(createFrame());
+    frameHandoff.offer(createFrame());
+    frameHandoff.offer(createFrame());
+    assertEquals(0, frameHandoff.getDroppedFrames());
+  }
+}
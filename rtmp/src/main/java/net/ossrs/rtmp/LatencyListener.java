@@ -0,0 +1,16 @@
+package net.ossrs.rtmp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Notify when FLV tags are queued, dequeued and written to the socket, used to measure latency.
+ * Timestamp is the tag dts in ms.
+ */
+public interface LatencyListener {
+
+  void onPacketQueued(boolean isVideo, long timestampMs);
+
+  void onPacketDequeued(boolean isVideo, long timestampMs);
+
+  void onPacketSent(boolean isVideo, long timestampMs);
+}
@@ -0,0 +1,21 @@
+package net.ossrs.rtmp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Notify tags written to the socket or discarded, used to measure network state.
+ */
+public interface NetworkListener {
+
+  /**
+   * @param size bytes written.
+   * @param queueDelayMs time between the tag and the last tag queued.
+   * @param writeTimeMs time blocked writing it in the socket.
+   */
+  void onFrameSent(boolean isVideo, int size, long queueDelayMs, long writeTimeMs);
+
+  /**
+   * Tag discarded because queue was full or to reduce latency.
+   */
+  void onFrameDropped(boolean isVideo);
+}
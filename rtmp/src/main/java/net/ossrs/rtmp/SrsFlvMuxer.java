@@ -82,6 +82,12 @@ public class SrsFlvMuxer {
   private long mVideoFramesSent = 0;
   private long mDroppedAudioFrames = 0;
   private long mDroppedVideoFrames = 0;
+  private volatile LatencyListener latencyListener;
+  private volatile NetworkListener networkListener;
+  //dts of last tag queued, used to know queue delay
+  private volatile int lastQueuedDts = 0;
+  private volatile long temporalLayerMaxLatency = 0;
+  private boolean dropEnhancementLayers = false;
 
   /**
    * constructor.
@@ -117,6 +123,37 @@ public class SrsFlvMuxer {
     publisher.setAuthorization(user, password);
   }
 
+  /**
+   * @param latencyListener notified for each tag queued, dequeued and sent. Null to disable.
+   */
+  public void setLatencyListener(LatencyListener latencyListener) {
+    this.latencyListener = latencyListener;
+  }
+
+  /**
+   * @param networkListener notified for each tag sent or discarded. Null to disable.
+   */
+  public void setNetworkListener(NetworkListener networkListener) {
+    this.networkListener = networkListener;
+  }
+
+  private void notifyFrameDropped(boolean isVideo) {
+    NetworkListener listener = networkListener;
+    if (listener != null) listener.onFrameDropped(isVideo);
+  }
+
+  /**
+   * Drop frames of temporal enhancement layers while video in queue is over a latency budget, so
+   * base layer keeps playing without waiting a key frame. Layer is read from H264 prefix NAL units,
+   * without them non reference frames are the enhancement layer. Decision only change on base
+   * layer frames, dropped frames are never referenced by frames sent.
+   *
+   * @param maxLatencyMs max time between oldest video frame in queue and new frame. 0 to disable.
+   */
+  public void setTemporalLayerDropping(long maxLatencyMs) {
+    temporalLayerMaxLatency = maxLatencyMs;
+  }
+
   public boolean isConnected() {
     return connected;
   }
@@ -195,6 +232,7 @@ public class SrsFlvMuxer {
     connected = false;
     mVideoSequenceHeader = null;
     mAudioSequenceHeader = null;
+    lastQueuedDts = 0;
 
     if (connectChecker != null) {
       reTries = 0;
@@ -248,6 +286,10 @@ public class SrsFlvMuxer {
     if (!connected || frame == null) {
       return;
     }
+    LatencyListener listener = latencyListener;
+    if (listener != null) listener.onPacketDequeued(frame.is_video(), frame.dts);
+    int size = frame.flvTag.size();
+    long writeTime = System.currentTimeMillis();
 
     if (frame.is_video()) {
       if (frame.is_keyframe()) {
@@ -263,6 +305,12 @@ public class SrsFlvMuxer {
       mAudioAllocator.release(frame.flvTag);
       mAudioFramesSent++;
     }
+    if (listener != null) listener.onPacketSent(frame.is_video(), frame.dts);
+    NetworkListener network = networkListener;
+    if (network != null) {
+      network.onFrameSent(frame.is_video(), size, Math.max(0, lastQueuedDts - frame.dts),
+          System.currentTimeMillis() - writeTime);
+    }
   }
 
   /**
@@ -327,6 +375,7 @@ public class SrsFlvMuxer {
     mFlvVideoTagCache.clear();
     flv.reset();
     needToFindKeyFrame = true;
+    dropEnhancementLayers = false;
     Log.i(TAG, "SrsFlvMuxer closed");
 
     new Thread(new Runnable() {
@@ -931,8 +980,19 @@ public class SrsFlvMuxer {
       int type = SrsCodecVideoAVCFrame.InterFrame;
       SrsFlvFrameBytes frame = avc.demuxAnnexb(bb, bi.size, true);
       int nal_unit_type = frame.data.get(0) & 0x1f;
-      if (nal_unit_type == SrsAvcNaluType.IDR || bi.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
+      int temporalLayer = -1;
+      if (nal_unit_type == SrsAvcNaluType.PrefixNALU && frame.size > 4) {
+        //svc extension of the next slice, temporal_id is in 3 high bits of last extension byte
+        temporalLayer = (frame.data.get(3) >> 5) & 0x07;
+        frame = avc.demuxAnnexb(bb, bi.size, false);
+        if (frame.size <= 0) return;
+        nal_unit_type = frame.data.get(0) & 0x1f;
+      }
+      if (nal_unit_type == SrsAvcNaluType.IDR
+          || (bi.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
         type = SrsCodecVideoAVCFrame.KeyFrame;
+        //parameter sets changed (resolution switch), send them before the key frame
+        writeH264SpsPps(pts);
       } else if (nal_unit_type == SrsAvcNaluType.SPS || nal_unit_type == SrsAvcNaluType.PPS) {
         SrsFlvFrameBytes frame_pps = avc.demuxAnnexb(bb, bi.size, false);
         frame.size = frame.size - frame_pps.size - 4;  // 4 ---> 00 00 00 01 pps
@@ -961,6 +1021,12 @@ public class SrsFlvMuxer {
       } else if (nal_unit_type != SrsAvcNaluType.NonIDR) {
         return;
       }
+      if (temporalLayer < 0) {
+        //nal_ref_idc 0, no other frame reference it
+        temporalLayer = (frame.data.get(0) & 0x60) == 0 ? 1 : 0;
+      }
+      if (type == SrsCodecVideoAVCFrame.KeyFrame) temporalLayer = 0;
+      if (dropTemporalLayer(temporalLayer, pts)) return;
 
       ipbs.add(avc.muxNaluHeader(frame));
       ipbs.add(frame);
@@ -970,6 +1036,7 @@ public class SrsFlvMuxer {
     }
 
     public void setSpsPPs(ByteBuffer sps, ByteBuffer pps) {
+      if (!sps.equals(Sps) || !pps.equals(Pps)) isPpsSpsSend = false;
       Sps = sps;
       Pps = pps;
     }
@@ -1029,6 +1096,24 @@ public class SrsFlvMuxer {
       }
     }
 
+    private boolean dropTemporalLayer(int temporalLayer, int dts) {
+      long maxLatency = temporalLayerMaxLatency;
+      if (maxLatency <= 0) {
+        dropEnhancementLayers = false;
+        return false;
+      }
+      if (temporalLayer == 0) {
+        SrsFlvFrame oldest = mFlvVideoTagCache.peek();
+        dropEnhancementLayers = oldest != null && dts - oldest.dts > maxLatency;
+        return false;
+      } else if (dropEnhancementLayers) {
+        mDroppedVideoFrames++;
+        notifyFrameDropped(true);
+        return true;
+      }
+      return false;
+    }
+
     private void flvFrameCacheAdd(SrsFlvFrame frame) {
       try {
         if(frame.is_video()) {
@@ -1036,13 +1121,22 @@ public class SrsFlvMuxer {
         } else {
           mFlvAudioTagCache.add(frame);
         }
+        lastQueuedDts = frame.dts;
+        LatencyListener listener = latencyListener;
+        if (listener != null) listener.onPacketQueued(frame.is_video(), frame.dts);
       } catch (IllegalStateException e) {
         Log.i(TAG, "frame discarded");
         if (frame.is_video()) {
+          if (frame.is_sequenceHeader()) {
+            //frames are not decodable without it, send it again with next key frame
+            isPpsSpsSend = false;
+            needToFindKeyFrame = true;
+          }
           mDroppedVideoFrames++;
         } else {
           mDroppedAudioFrames++;
         }
+        notifyFrameDropped(frame.is_video());
       }
     }
   }
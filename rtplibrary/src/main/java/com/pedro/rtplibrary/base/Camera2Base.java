@@ -17,20 +17,30 @@ import com.pedro.encoder.audio.GetAacData;
 import com.pedro.encoder.input.audio.CustomAudioEffect;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.input.audio.MicrophoneManager;
+import com.pedro.encoder.input.audio.VoiceActivityDetector;
 import com.pedro.encoder.input.video.Camera2ApiManager;
 import com.pedro.encoder.input.video.CameraCallbacks;
 import com.pedro.encoder.input.video.CameraHelper;
 import com.pedro.encoder.input.video.CameraOpenException;
+import com.pedro.encoder.utils.CodecCapabilityCache;
 import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.LatencyHistogram;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.cc.CongestionController;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.AbrLadder;
+import com.pedro.rtplibrary.util.BitrateAdapter;
 import com.pedro.rtplibrary.util.FpsListener;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import com.pedro.rtplibrary.util.RecordController;
+import com.pedro.rtplibrary.util.ReplayBuffer;
 import com.pedro.rtplibrary.view.GlInterface;
 import com.pedro.rtplibrary.view.LightOpenGlView;
 import com.pedro.rtplibrary.view.OffScreenGlThread;
 import com.pedro.rtplibrary.view.OpenGlView;
+import com.pedro.rtplibrary.view.OpenGlViewBase;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -55,6 +65,7 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   private MicrophoneManager microphoneManager;
   private AudioEncoder audioEncoder;
   private boolean streaming = false;
+  private CongestionMonitor congestionMonitor;
   private SurfaceView surfaceView;
   private TextureView textureView;
   private GlInterface glInterface;
@@ -62,8 +73,10 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   private boolean onPreview = false;
   private boolean isBackground = false;
   private RecordController recordController;
+  private ReplayBuffer replayBuffer;
   private int previewWidth, previewHeight;
   private FpsListener fpsListener = new FpsListener();
+  private volatile AbrLadder abrLadder;
 
   public Camera2Base(SurfaceView surfaceView) {
     this.surfaceView = surfaceView;
@@ -102,6 +115,7 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   }
 
   private void init(Context context) {
+    CodecCapabilityCache.init(context);
     cameraManager = new Camera2ApiManager(context);
     videoEncoder = new VideoEncoder(this);
     microphoneManager = new MicrophoneManager(this);
@@ -168,6 +182,100 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     return cameraManager.isLanternSupported();
   }
 
+  /**
+   * Measure capture to wire latency of each stage. Only microphone audio is measured, video is
+   * encoded from a surface so frames have no capture time.
+   *
+   * @param latencyMonitor null to disable.
+   */
+  public void setLatencyMonitor(LatencyMonitor latencyMonitor) {
+    videoEncoder.setLatencyTracker(
+        latencyMonitor != null ? latencyMonitor.getVideoTracker() : null);
+    audioEncoder.setLatencyTracker(
+        latencyMonitor != null ? latencyMonitor.getAudioTracker() : null);
+    setLatencyMonitorRtp(latencyMonitor);
+  }
+
+  protected abstract void setLatencyMonitorRtp(LatencyMonitor latencyMonitor);
+
+  /**
+   * Adapt video bitrate and fps to the network. Each second the controller receives send bitrate,
+   * queue delay, time blocked in socket writes and frames discarded, plus RTT and packet loss with
+   * RTSP transport-cc. Encoder bitrate and fps are restored when stream stops. If an
+   * {@link AbrLadder} is set, bitrates are given to it so it also chooses the resolution.
+   *
+   * @param congestionController null to disable.
+   */
+  public void setCongestionController(CongestionController congestionController) {
+    if (streaming) restoreVideoTargets();
+    congestionMonitor = congestionController != null
+        ? new CongestionMonitor(congestionController, congestionListener) : null;
+    if (streaming) startCongestionMonitor();
+    setNetworkListenerRtp(congestionMonitor);
+  }
+
+  protected abstract void setNetworkListenerRtp(CongestionMonitor congestionMonitor);
+
+  private final CongestionController.Listener congestionListener =
+      new CongestionController.Listener() {
+        @Override
+        public void onTargetChanged(int bitrate, int fps) {
+          AbrLadder ladder = abrLadder;
+          if (ladder != null) {
+            ladder.onBitrateAdapted(bitrate);
+          } else {
+            setVideoBitrateOnFly(bitrate);
+          }
+          setLimitFPSOnFly(fps);
+        }
+      };
+
+  private void startCongestionMonitor() {
+    if (congestionMonitor != null) {
+      congestionMonitor.start(videoEncoder.getBitRate(), videoEncoder.getFps());
+    }
+  }
+
+  private void restoreVideoTargets() {
+    if (congestionMonitor != null) {
+      int bitrate = congestionMonitor.getStartBitrate();
+      setVideoBitrateOnFly(bitrate);
+      setLimitFPSOnFly(congestionMonitor.getStartFps());
+    }
+  }
+
+  /**
+   * Stop encoding audio while there is no voice, a cached silent AAC frame is sent instead.
+   *
+   * @param voiceActivityDetector null to disable.
+   * @param keepAliveFrames send 1 of each keepAliveFrames silent frames, 1 to send all of them.
+   */
+  public void setAudioDtx(VoiceActivityDetector voiceActivityDetector, int keepAliveFrames) {
+    audioEncoder.setDtx(voiceActivityDetector, keepAliveFrames);
+  }
+
+  /**
+   * @return silent audio frames not encoded because of DTX.
+   */
+  public long getDtxSkippedAudioFrames() {
+    return audioEncoder.getSkippedEncodeFrames();
+  }
+
+  /**
+   * Encode video with temporal layers (API 29+) and drop frames of enhancement layers while
+   * stream queue is over a latency budget, frame rate is reduced instead of freeze video. Call it
+   * before prepareVideo.
+   *
+   * @param layers 1 to encode without layers.
+   * @param maxLatencyMs queue latency budget. 0 to disable drop.
+   */
+  public void setTemporalLayers(int layers, long maxLatencyMs) {
+    videoEncoder.setTemporalLayers(layers);
+    setTemporalLayerDroppingRtp(maxLatencyMs);
+  }
+
+  protected abstract void setTemporalLayerDroppingRtp(long maxLatencyMs);
+
   /**
    * Basic auth developed to work with Wowza. No tested with other server
    *
@@ -433,6 +541,8 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     } else {
       resetVideoEncoder();
     }
+    if (abrLadder != null) abrLadder.reset();
+    startCongestionMonitor();
     startStreamRtp(url);
     onPreview = true;
   }
@@ -501,6 +611,7 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   public void stopStream() {
     if (streaming) {
       streaming = false;
+      restoreVideoTargets();
       stopStreamRtp();
     }
     if (!recordController.isRecording()) {
@@ -726,6 +837,62 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     videoEncoder.setVideoBitrateOnFly(bitrate);
   }
 
+  /**
+   * Change resolution and bitrate while streaming without reconnecting. Encoder is restarted, so
+   * the stream continues from a key frame with new SPS/PPS, sent in band with RTMP and before each
+   * key frame with RTSP. Not possible while recording, MP4 can't change resolution.
+   *
+   * @return false if resolution can't be changed now.
+   */
+  public boolean setVideoResolutionOnFly(int width, int height, int bitrate) {
+    if (!streaming || recordController.isRunning() || !videoEncoder.isRunning()) return false;
+    if (glInterface != null) {
+      glInterface.removeMediaCodecSurface();
+      videoEncoder.reset(width, height, bitrate);
+      if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
+        glInterface.setEncoderSize(height, width);
+      } else {
+        glInterface.setEncoderSize(width, height);
+      }
+      glInterface.addMediaCodecSurface(videoEncoder.getInputSurface());
+    } else {
+      cameraManager.closeCamera();
+      videoEncoder.reset(width, height, bitrate);
+      cameraManager.prepareCamera(videoEncoder.getInputSurface());
+      cameraManager.openLastCamera();
+    }
+    return true;
+  }
+
+  /**
+   * Adapt resolution and bitrate to bandwidth. Give bitrates of the bitrate controller to the
+   * ladder, normally using it as {@link BitrateAdapter} listener, and it changes bitrate inside
+   * the current rung and switches resolution with {@link #setVideoResolutionOnFly(int, int, int)}.
+   * A controller set with {@link #setCongestionController(CongestionController)} gives its
+   * bitrates to the ladder instead of changing encoder bitrate, so use only one of them as source
+   * of bitrates. Ladder goes back to the highest rung, the resolution of prepareVideo, on each
+   * startStream.
+   *
+   * @param abrLadder null to disable.
+   */
+  public void setAbrLadder(AbrLadder abrLadder) {
+    if (this.abrLadder != null) this.abrLadder.setListener(null);
+    this.abrLadder = abrLadder;
+    if (abrLadder != null) abrLadder.setListener(abrListener);
+  }
+
+  private final AbrLadder.Listener abrListener = new AbrLadder.Listener() {
+    @Override
+    public void onBitrateChanged(int bitrate) {
+      setVideoBitrateOnFly(bitrate);
+    }
+
+    @Override
+    public boolean onRungChanged(AbrLadder.Rung rung, int bitrate) {
+      return setVideoResolutionOnFly(rung.getWidth(), rung.getHeight(), bitrate);
+    }
+  };
+
   /**
    * Set limit FPS while stream. This will be override when you call to prepareVideo method. This
    * could produce a change in iFrameInterval.
@@ -734,6 +901,22 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
+  }
+
+  /**
+   * Same as {@link #setLimitFPSOnFly(int)} with a fractional rate (29.97). Frames are selected
+   * with the exact rate, encoder is configured with it rounded.
+   */
+  public void setLimitFPSOnFly(float fps) {
+    videoEncoder.setFps(fps);
+    if (glInterface instanceof OpenGlViewBase) {
+      ((OpenGlViewBase) glInterface).setFps(fps);
+    } else if (glInterface instanceof OffScreenGlThread) {
+      ((OffScreenGlThread) glInterface).setFps(fps);
+    } else if (glInterface != null) {
+      glInterface.setFps(Math.round(fps));
+    }
   }
 
   /**
@@ -766,6 +949,45 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     return recordController.getStatus();
   }
 
+  /**
+   * Encoded samples are written in file by other thread, this limit the memory used while storage
+   * is slow.
+   *
+   * @param maxQueuedBytes 8 MB by default.
+   * @param overflowPolicy what to do with samples that don't fit.
+   */
+  public void setRecordMemoryBudget(long maxQueuedBytes,
+      RecordController.OverflowPolicy overflowPolicy) {
+    recordController.setMemoryBudget(maxQueuedBytes, overflowPolicy);
+  }
+
+  /**
+   * @return time since an encoded sample is queued until it is written in file.
+   */
+  public LatencyHistogram getRecordWriteLatency() {
+    return recordController.getWriteLatency();
+  }
+
+  /**
+   * @return samples not recorded because memory budget was full.
+   */
+  public long getRecordDroppedSamples() {
+    return recordController.getDroppedSamples();
+  }
+
+  /**
+   * Keep last encoded samples in replayBuffer to save them with {@link ReplayBuffer#dump}.
+   *
+   * @param replayBuffer null to disable.
+   */
+  public void setReplayBuffer(ReplayBuffer replayBuffer) {
+    if (replayBuffer != null) {
+      replayBuffer.setVideoFormat(recordController.getVideoFormat());
+      replayBuffer.setAudioFormat(recordController.getAudioFormat());
+    }
+    this.replayBuffer = replayBuffer;
+  }
+
   /**
    * Get preview state.
    *
@@ -780,6 +1002,7 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
     recordController.recordAudio(aacBuffer, info);
+    if (replayBuffer != null) replayBuffer.addAudio(aacBuffer, info);
     if (streaming) getAacDataRtp(aacBuffer, info);
   }
 
@@ -801,6 +1024,7 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
     recordController.recordVideo(h264Buffer, info);
+    if (replayBuffer != null) replayBuffer.addVideo(h264Buffer, info);
     if (streaming) getH264DataRtp(h264Buffer, info);
   }
 
@@ -812,10 +1036,12 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   @Override
   public void onVideoFormat(MediaFormat mediaFormat) {
     recordController.setVideoFormat(mediaFormat);
+    if (replayBuffer != null) replayBuffer.setVideoFormat(mediaFormat);
   }
 
   @Override
   public void onAudioFormat(MediaFormat mediaFormat) {
     recordController.setAudioFormat(mediaFormat);
+    if (replayBuffer != null) replayBuffer.setAudioFormat(mediaFormat);
   }
 }
@@ -19,12 +19,19 @@ import com.pedro.encoder.audio.GetAacData;
 import com.pedro.encoder.input.audio.CustomAudioEffect;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.input.audio.MicrophoneManager;
+import com.pedro.encoder.input.audio.VoiceActivityDetector;
+import com.pedro.encoder.utils.CodecCapabilityCache;
 import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.LatencyHistogram;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.cc.CongestionController;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
 import com.pedro.rtplibrary.util.FpsListener;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import com.pedro.rtplibrary.util.RecordController;
+import com.pedro.rtplibrary.util.ReplayBuffer;
 import com.pedro.rtplibrary.view.GlInterface;
 import com.pedro.rtplibrary.view.OffScreenGlThread;
 import java.io.IOException;
@@ -52,6 +59,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   private MicrophoneManager microphoneManager;
   private AudioEncoder audioEncoder;
   private boolean streaming = false;
+  private CongestionMonitor congestionMonitor;
   protected SurfaceView surfaceView;
   private boolean videoEnabled = true;
   private int dpi = 320;
@@ -59,6 +67,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   private int resultCode = -1;
   private Intent data;
   private RecordController recordController;
+  private ReplayBuffer replayBuffer;
   private FpsListener fpsListener = new FpsListener();
 
   public DisplayBase(Context context, boolean useOpengl) {
@@ -70,6 +79,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     mediaProjectionManager =
         ((MediaProjectionManager) context.getSystemService(MEDIA_PROJECTION_SERVICE));
     this.surfaceView = null;
+    CodecCapabilityCache.init(context);
     videoEncoder = new VideoEncoder(this);
     microphoneManager = new MicrophoneManager(this);
     audioEncoder = new AudioEncoder(this);
@@ -90,6 +100,93 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     fpsListener.setCallback(callback);
   }
 
+  /**
+   * Measure capture to wire latency of each stage. Only microphone audio is measured, video is
+   * encoded from a surface so frames have no capture time.
+   *
+   * @param latencyMonitor null to disable.
+   */
+  public void setLatencyMonitor(LatencyMonitor latencyMonitor) {
+    videoEncoder.setLatencyTracker(
+        latencyMonitor != null ? latencyMonitor.getVideoTracker() : null);
+    audioEncoder.setLatencyTracker(
+        latencyMonitor != null ? latencyMonitor.getAudioTracker() : null);
+    setLatencyMonitorRtp(latencyMonitor);
+  }
+
+  protected abstract void setLatencyMonitorRtp(LatencyMonitor latencyMonitor);
+
+  /**
+   * Adapt video bitrate and fps to the network. Each second the controller receives send bitrate,
+   * queue delay, time blocked in socket writes and frames discarded, plus RTT and packet loss with
+   * RTSP transport-cc. Encoder bitrate and fps are restored when stream stops.
+   *
+   * @param congestionController null to disable.
+   */
+  public void setCongestionController(CongestionController congestionController) {
+    if (streaming) restoreVideoTargets();
+    congestionMonitor = congestionController != null
+        ? new CongestionMonitor(congestionController, congestionListener) : null;
+    if (streaming) startCongestionMonitor();
+    setNetworkListenerRtp(congestionMonitor);
+  }
+
+  protected abstract void setNetworkListenerRtp(CongestionMonitor congestionMonitor);
+
+  private final CongestionController.Listener congestionListener =
+      new CongestionController.Listener() {
+        @Override
+        public void onTargetChanged(int bitrate, int fps) {
+          setVideoBitrateOnFly(bitrate);
+          setLimitFPSOnFly(fps);
+        }
+      };
+
+  private void startCongestionMonitor() {
+    if (congestionMonitor != null) {
+      congestionMonitor.start(videoEncoder.getBitRate(), videoEncoder.getFps());
+    }
+  }
+
+  private void restoreVideoTargets() {
+    if (congestionMonitor != null) {
+      congestionListener.onTargetChanged(congestionMonitor.getStartBitrate(),
+          congestionMonitor.getStartFps());
+    }
+  }
+
+  /**
+   * Stop encoding audio while there is no voice, a cached silent AAC frame is sent instead.
+   *
+   * @param voiceActivityDetector null to disable.
+   * @param keepAliveFrames send 1 of each keepAliveFrames silent frames, 1 to send all of them.
+   */
+  public void setAudioDtx(VoiceActivityDetector voiceActivityDetector, int keepAliveFrames) {
+    audioEncoder.setDtx(voiceActivityDetector, keepAliveFrames);
+  }
+
+  /**
+   * @return silent audio frames not encoded because of DTX.
+   */
+  public long getDtxSkippedAudioFrames() {
+    return audioEncoder.getSkippedEncodeFrames();
+  }
+
+  /**
+   * Encode video with temporal layers (API 29+) and drop frames of enhancement layers while
+   * stream queue is over a latency budget, frame rate is reduced instead of freeze video. Call it
+   * before prepareVideo.
+   *
+   * @param layers 1 to encode without layers.
+   * @param maxLatencyMs queue latency budget. 0 to disable drop.
+   */
+  public void setTemporalLayers(int layers, long maxLatencyMs) {
+    videoEncoder.setTemporalLayers(layers);
+    setTemporalLayerDroppingRtp(maxLatencyMs);
+  }
+
+  protected abstract void setTemporalLayerDroppingRtp(long maxLatencyMs);
+
   /**
    * Basic auth developed to work with Wowza. No tested with other server
    *
@@ -274,6 +371,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     } else {
       resetVideoEncoder();
     }
+    startCongestionMonitor();
     startStreamRtp(url);
   }
 
@@ -319,6 +417,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   public void stopStream() {
     if (streaming) {
       streaming = false;
+      restoreVideoTargets();
       stopStreamRtp();
     }
     if (!recordController.isRecording()) {
@@ -458,6 +557,16 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
+  }
+
+  /**
+   * Same as {@link #setLimitFPSOnFly(int)} with a fractional rate (29.97). Frames are selected
+   * with the exact rate, encoder is configured with it rounded.
+   */
+  public void setLimitFPSOnFly(float fps) {
+    videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
   }
 
   /**
@@ -490,11 +599,51 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     return recordController.getStatus();
   }
 
+  /**
+   * Encoded samples are written in file by other thread, this limit the memory used while storage
+   * is slow.
+   *
+   * @param maxQueuedBytes 8 MB by default.
+   * @param overflowPolicy what to do with samples that don't fit.
+   */
+  public void setRecordMemoryBudget(long maxQueuedBytes,
+      RecordController.OverflowPolicy overflowPolicy) {
+    recordController.setMemoryBudget(maxQueuedBytes, overflowPolicy);
+  }
+
+  /**
+   * @return time since an encoded sample is queued until it is written in file.
+   */
+  public LatencyHistogram getRecordWriteLatency() {
+    return recordController.getWriteLatency();
+  }
+
+  /**
+   * @return samples not recorded because memory budget was full.
+   */
+  public long getRecordDroppedSamples() {
+    return recordController.getDroppedSamples();
+  }
+
+  /**
+   * Keep last encoded samples in replayBuffer to save them with {@link ReplayBuffer#dump}.
+   *
+   * @param replayBuffer null to disable.
+   */
+  public void setReplayBuffer(ReplayBuffer replayBuffer) {
+    if (replayBuffer != null) {
+      replayBuffer.setVideoFormat(recordController.getVideoFormat());
+      replayBuffer.setAudioFormat(recordController.getAudioFormat());
+    }
+    this.replayBuffer = replayBuffer;
+  }
+
   protected abstract void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info);
 
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
     recordController.recordAudio(aacBuffer, info);
+    if (replayBuffer != null) replayBuffer.addAudio(aacBuffer, info);
     if (streaming) getAacDataRtp(aacBuffer, info);
   }
 
@@ -516,6 +665,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
     recordController.recordVideo(h264Buffer, info);
+    if (replayBuffer != null) replayBuffer.addVideo(h264Buffer, info);
     if (streaming) getH264DataRtp(h264Buffer, info);
   }
 
@@ -527,11 +677,13 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   @Override
   public void onVideoFormat(MediaFormat mediaFormat) {
     recordController.setVideoFormat(mediaFormat);
+    if (replayBuffer != null) replayBuffer.setVideoFormat(mediaFormat);
   }
 
   @Override
   public void onAudioFormat(MediaFormat mediaFormat) {
     recordController.setAudioFormat(mediaFormat);
+    if (replayBuffer != null) replayBuffer.setAudioFormat(mediaFormat);
   }
 }
 
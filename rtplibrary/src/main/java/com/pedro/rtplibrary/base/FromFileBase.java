@@ -18,16 +18,22 @@ import com.pedro.encoder.input.decoder.AudioDecoderInterface;
 import com.pedro.encoder.input.decoder.LoopFileInterface;
 import com.pedro.encoder.input.decoder.VideoDecoder;
 import com.pedro.encoder.input.decoder.VideoDecoderInterface;
+import com.pedro.encoder.utils.CodecCapabilityCache;
 import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.LatencyHistogram;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.cc.CongestionController;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
 import com.pedro.rtplibrary.util.FpsListener;
 import com.pedro.rtplibrary.util.RecordController;
+import com.pedro.rtplibrary.util.ReplayBuffer;
 import com.pedro.rtplibrary.view.GlInterface;
 import com.pedro.rtplibrary.view.LightOpenGlView;
 import com.pedro.rtplibrary.view.OffScreenGlThread;
 import com.pedro.rtplibrary.view.OpenGlView;
+import com.pedro.rtplibrary.view.OpenGlViewBase;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -52,8 +58,10 @@ public abstract class FromFileBase
   private AudioEncoder audioEncoder;
   private GlInterface glInterface;
   private boolean streaming = false;
+  private CongestionMonitor congestionMonitor;
   private boolean videoEnabled = true;
   private RecordController recordController;
+  private ReplayBuffer replayBuffer;
   private FpsListener fpsListener = new FpsListener();
 
   private VideoDecoder videoDecoder;
@@ -102,6 +110,7 @@ public abstract class FromFileBase
       AudioDecoderInterface audioDecoderInterface) {
     this.videoDecoderInterface = videoDecoderInterface;
     this.audioDecoderInterface = audioDecoderInterface;
+    CodecCapabilityCache.init(context);
     videoEncoder = new VideoEncoder(this);
     audioEncoder = new AudioEncoder(this);
     recordController = new RecordController();
@@ -122,6 +131,45 @@ public abstract class FromFileBase
    */
   public abstract void setAuthorization(String user, String password);
 
+  /**
+   * Adapt video bitrate and fps to the network. Each second the controller receives send bitrate,
+   * queue delay, time blocked in socket writes and frames discarded, plus RTT and packet loss with
+   * RTSP transport-cc. Encoder bitrate and fps are restored when stream stops.
+   *
+   * @param congestionController null to disable.
+   */
+  public void setCongestionController(CongestionController congestionController) {
+    if (streaming) restoreVideoTargets();
+    congestionMonitor = congestionController != null
+        ? new CongestionMonitor(congestionController, congestionListener) : null;
+    if (streaming) startCongestionMonitor();
+    setNetworkListenerRtp(congestionMonitor);
+  }
+
+  protected abstract void setNetworkListenerRtp(CongestionMonitor congestionMonitor);
+
+  private final CongestionController.Listener congestionListener =
+      new CongestionController.Listener() {
+        @Override
+        public void onTargetChanged(int bitrate, int fps) {
+          setVideoBitrateOnFly(bitrate);
+          setLimitFPSOnFly(fps);
+        }
+      };
+
+  private void startCongestionMonitor() {
+    if (congestionMonitor != null) {
+      congestionMonitor.start(videoEncoder.getBitRate(), videoEncoder.getFps());
+    }
+  }
+
+  private void restoreVideoTargets() {
+    if (congestionMonitor != null) {
+      congestionListener.onTargetChanged(congestionMonitor.getStartBitrate(),
+          congestionMonitor.getStartFps());
+    }
+  }
+
   /**
    * @param filePath to video MP4 file.
    * @param bitRate H264 in bps.
@@ -236,6 +284,7 @@ public abstract class FromFileBase
     } else {
       resetVideoEncoder();
     }
+    startCongestionMonitor();
     startStreamRtp(url);
   }
 
@@ -348,6 +397,7 @@ public abstract class FromFileBase
   public void stopStream() {
     if (streaming) {
       streaming = false;
+      restoreVideoTargets();
       stopStreamRtp();
     }
     if (!recordController.isRecording()) {
@@ -435,6 +485,22 @@ public abstract class FromFileBase
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
+  }
+
+  /**
+   * Same as {@link #setLimitFPSOnFly(int)} with a fractional rate (29.97). Frames are selected
+   * with the exact rate, encoder is configured with it rounded.
+   */
+  public void setLimitFPSOnFly(float fps) {
+    videoEncoder.setFps(fps);
+    if (glInterface instanceof OpenGlViewBase) {
+      ((OpenGlViewBase) glInterface).setFps(fps);
+    } else if (glInterface instanceof OffScreenGlThread) {
+      ((OffScreenGlThread) glInterface).setFps(fps);
+    } else if (glInterface != null) {
+      glInterface.setFps(Math.round(fps));
+    }
   }
 
   /**
@@ -467,6 +533,45 @@ public abstract class FromFileBase
     return recordController.getStatus();
   }
 
+  /**
+   * Encoded samples are written in file by other thread, this limit the memory used while storage
+   * is slow.
+   *
+   * @param maxQueuedBytes 8 MB by default.
+   * @param overflowPolicy what to do with samples that don't fit.
+   */
+  public void setRecordMemoryBudget(long maxQueuedBytes,
+      RecordController.OverflowPolicy overflowPolicy) {
+    recordController.setMemoryBudget(maxQueuedBytes, overflowPolicy);
+  }
+
+  /**
+   * @return time since an encoded sample is queued until it is written in file.
+   */
+  public LatencyHistogram getRecordWriteLatency() {
+    return recordController.getWriteLatency();
+  }
+
+  /**
+   * @return samples not recorded because memory budget was full.
+   */
+  public long getRecordDroppedSamples() {
+    return recordController.getDroppedSamples();
+  }
+
+  /**
+   * Keep last encoded samples in replayBuffer to save them with {@link ReplayBuffer#dump}.
+   *
+   * @param replayBuffer null to disable.
+   */
+  public void setReplayBuffer(ReplayBuffer replayBuffer) {
+    if (replayBuffer != null) {
+      replayBuffer.setVideoFormat(recordController.getVideoFormat());
+      replayBuffer.setAudioFormat(recordController.getAudioFormat());
+    }
+    this.replayBuffer = replayBuffer;
+  }
+
   /**
    * @return return time in second. 0 if no streaming
    */
@@ -559,12 +664,14 @@ public abstract class FromFileBase
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
     recordController.recordVideo(h264Buffer, info);
+    if (replayBuffer != null) replayBuffer.addVideo(h264Buffer, info);
     if (streaming) getH264DataRtp(h264Buffer, info);
   }
 
   @Override
   public void onVideoFormat(MediaFormat mediaFormat) {
     recordController.setVideoFormat(mediaFormat);
+    if (replayBuffer != null) replayBuffer.setVideoFormat(mediaFormat);
   }
 
   protected abstract void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info);
@@ -572,12 +679,14 @@ public abstract class FromFileBase
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
     recordController.recordAudio(aacBuffer, info);
+    if (replayBuffer != null) replayBuffer.addAudio(aacBuffer, info);
     if (streaming) getAacDataRtp(aacBuffer, info);
   }
 
   @Override
   public void onAudioFormat(MediaFormat mediaFormat) {
     recordController.setAudioFormat(mediaFormat);
+    if (replayBuffer != null) replayBuffer.setAudioFormat(mediaFormat);
   }
 
   @Override
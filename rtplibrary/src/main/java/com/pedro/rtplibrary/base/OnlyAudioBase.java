@@ -8,6 +8,8 @@ import com.pedro.encoder.audio.GetAacData;
 import com.pedro.encoder.input.audio.CustomAudioEffect;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.input.audio.MicrophoneManager;
+import com.pedro.encoder.input.audio.VoiceActivityDetector;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import java.nio.ByteBuffer;
 
 /**
@@ -33,6 +35,36 @@ public abstract class OnlyAudioBase implements GetAacData, GetMicrophoneData {
     microphoneManager.setCustomAudioEffect(customAudioEffect);
   }
 
+  /**
+   * Measure capture to wire latency of each stage.
+   *
+   * @param latencyMonitor null to disable.
+   */
+  public void setLatencyMonitor(LatencyMonitor latencyMonitor) {
+    audioEncoder.setLatencyTracker(
+        latencyMonitor != null ? latencyMonitor.getAudioTracker() : null);
+    setLatencyMonitorRtp(latencyMonitor);
+  }
+
+  protected abstract void setLatencyMonitorRtp(LatencyMonitor latencyMonitor);
+
+  /**
+   * Stop encoding audio while there is no voice, a cached silent AAC frame is sent instead.
+   *
+   * @param voiceActivityDetector null to disable.
+   * @param keepAliveFrames send 1 of each keepAliveFrames silent frames, 1 to send all of them.
+   */
+  public void setAudioDtx(VoiceActivityDetector voiceActivityDetector, int keepAliveFrames) {
+    audioEncoder.setDtx(voiceActivityDetector, keepAliveFrames);
+  }
+
+  /**
+   * @return silent audio frames not encoded because of DTX.
+   */
+  public long getDtxSkippedAudioFrames() {
+    return audioEncoder.getSkippedEncodeFrames();
+  }
+
   /**
    * Basic auth developed to work with Wowza. No tested with other server
    *
@@ -0,0 +1,66 @@
+package com.pedro.rtplibrary.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Additive increase, multiplicative decrease. Congestion is loss, queue delay or write stalls
+ * over a limit. Bitrate is decreased from the measured send rate at most once per round trip and
+ * increased linearly in other case, never far over the send rate so an encoder that produce less
+ * than target (static scenes) doesn't make target grow without limit.
+ */
+public class AimdCongestionController extends BaseCongestionController {
+
+  private static final float APP_LIMITED_MARGIN = 1.5f;
+  private static final long DEFAULT_RTT_MS = 500;
+  private int increaseBitrate = 100 * 1024;
+  private float decreaseFactor = 0.85f;
+  private long maxQueueDelayMs = 200;
+  private float maxLossRate = 0.02f;
+  private float maxWriteStallRatio = 0.1f;
+  private long lastDecreaseMs = -1;
+
+  /**
+   * @param increaseBitrate bps added each second without congestion. 100 kbps by default.
+   * @param decreaseFactor factor applied to send rate on congestion. 0.85 by default.
+   */
+  public void setRates(int increaseBitrate, float decreaseFactor) {
+    this.increaseBitrate = increaseBitrate;
+    this.decreaseFactor = decreaseFactor;
+  }
+
+  /**
+   * @param maxQueueDelayMs 200 by default.
+   * @param maxLossRate 0.02 by default.
+   * @param maxWriteStallRatio fraction of sample blocked in socket write. 0.1 by default.
+   */
+  public void setCongestionLimits(long maxQueueDelayMs, float maxLossRate,
+      float maxWriteStallRatio) {
+    this.maxQueueDelayMs = maxQueueDelayMs;
+    this.maxLossRate = maxLossRate;
+    this.maxWriteStallRatio = maxWriteStallRatio;
+  }
+
+  @Override
+  protected int getBitrate(NetworkSample sample, int bitrate) {
+    boolean congested = sample.getLossRate() > maxLossRate
+        || sample.getQueueDelayMs() > maxQueueDelayMs
+        || sample.getWriteStallMs() > sample.getDurationMs() * maxWriteStallRatio;
+    if (congested) {
+      long rtt = sample.getRttMs() > 0 ? sample.getRttMs() : DEFAULT_RTT_MS;
+      //wait a round trip to see the effect of last decrease
+      if (lastDecreaseMs >= 0 && sample.getTimeMs() - lastDecreaseMs < rtt) return bitrate;
+      lastDecreaseMs = sample.getTimeMs();
+      long base = sample.getSendBitrate() > 0 ? Math.min(bitrate, sample.getSendBitrate())
+          : bitrate;
+      return (int) (base * decreaseFactor);
+    }
+    long increased = bitrate + increaseBitrate * sample.getDurationMs() / 1000;
+    long limit = (long) (Math.max(sample.getSendBitrate(), minBitrate) * APP_LIMITED_MARGIN);
+    return (int) Math.max(bitrate, Math.min(increased, limit));
+  }
+
+  @Override
+  protected void onReset() {
+    lastDecreaseMs = -1;
+  }
+}
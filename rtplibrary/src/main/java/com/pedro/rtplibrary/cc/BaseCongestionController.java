@@ -0,0 +1,93 @@
+package com.pedro.rtplibrary.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Keep targets inside configured ranges and derive fps from bitrate. Fps is only reduced under a
+ * fraction of max bitrate, proportionally to bitrate, so bits per frame are kept when bandwidth is
+ * very low.
+ */
+public abstract class BaseCongestionController implements CongestionController {
+
+  private Listener listener;
+  protected int minBitrate = 100 * 1024;
+  protected int maxBitrate = 1200 * 1024;
+  private int minFps = 15;
+  private int maxFps = 30;
+  private float fpsBitrateRatio = 0.5f;
+  private int targetBitrate = maxBitrate;
+  private int targetFps = maxFps;
+
+  @Override
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void setBitrateRange(int minBitrate, int maxBitrate) {
+    this.minBitrate = Math.min(minBitrate, maxBitrate);
+    this.maxBitrate = maxBitrate;
+    targetBitrate = clampBitrate(targetBitrate);
+  }
+
+  @Override
+  public void setFpsRange(int minFps, int maxFps) {
+    this.minFps = Math.max(1, Math.min(minFps, maxFps));
+    this.maxFps = maxFps;
+    targetFps = getFps(targetBitrate);
+  }
+
+  /**
+   * @param ratio fraction of max bitrate under which fps is reduced. 0.5 by default, 0 to never
+   * reduce fps.
+   */
+  public void setFpsBitrateRatio(float ratio) {
+    fpsBitrateRatio = ratio;
+  }
+
+  @Override
+  public void reset(int startBitrate) {
+    targetBitrate = clampBitrate(startBitrate);
+    targetFps = getFps(targetBitrate);
+    onReset();
+  }
+
+  @Override
+  public void onSample(NetworkSample sample) {
+    int bitrate = clampBitrate(getBitrate(sample, targetBitrate));
+    int fps = getFps(bitrate);
+    if (bitrate != targetBitrate || fps != targetFps) {
+      targetBitrate = bitrate;
+      targetFps = fps;
+      if (listener != null) listener.onTargetChanged(bitrate, fps);
+    }
+  }
+
+  @Override
+  public int getTargetBitrate() {
+    return targetBitrate;
+  }
+
+  @Override
+  public int getTargetFps() {
+    return targetFps;
+  }
+
+  /**
+   * @param bitrate current target.
+   * @return new target, it is clamped to bitrate range after.
+   */
+  protected abstract int getBitrate(NetworkSample sample, int bitrate);
+
+  protected abstract void onReset();
+
+  private int clampBitrate(long bitrate) {
+    return (int) Math.max(minBitrate, Math.min(maxBitrate, bitrate));
+  }
+
+  private int getFps(int bitrate) {
+    int threshold = (int) (maxBitrate * fpsBitrateRatio);
+    if (bitrate >= threshold) return maxFps;
+    return Math.max(minFps, Math.round(maxFps * (float) bitrate / threshold));
+  }
+}
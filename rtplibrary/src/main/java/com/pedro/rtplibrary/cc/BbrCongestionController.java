@@ -0,0 +1,136 @@
+package com.pedro.rtplibrary.cc;
+
+import java.util.Arrays;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Model based control like BBR. Bottleneck bandwidth is the max send rate of last samples and
+ * min rtt the min of last seconds, target bitrate is bandwidth multiplied by a gain of the state:
+ * startup doubles bitrate until bandwidth stop growing, drain empties the queue created, probe
+ * bandwidth cycles gains to discover more bandwidth and probe rtt reduces bitrate a moment to
+ * measure rtt without queue. Heavy loss discard the bandwidth estimation.
+ */
+public class BbrCongestionController extends BaseCongestionController {
+
+  public enum State {
+    STARTUP, DRAIN, PROBE_BW, PROBE_RTT
+  }
+
+  private static final float STARTUP_GAIN = 2f;
+  private static final float DRAIN_GAIN = 0.75f;
+  private static final float PROBE_RTT_GAIN = 0.5f;
+  private static final float[] PROBE_BW_GAINS = { 1.25f, 0.75f, 1f, 1f, 1f, 1f, 1f, 1f };
+  //startup ends after 3 samples without 25% growth
+  private static final float STARTUP_GROWTH = 1.25f;
+  private static final int STARTUP_ROUNDS = 3;
+  private static final float HIGH_LOSS_RATE = 0.2f;
+  private int bandwidthWindow = 10;
+  private long minRttWindowMs = 10000;
+  private long[] bandwidths = new long[bandwidthWindow];
+  private int bandwidthPosition = 0;
+  private State state = State.STARTUP;
+  private long fullBandwidth = 0;
+  private int fullBandwidthRounds = 0;
+  private int cycleIndex = 0;
+  private long minRtt = -1;
+  private long minRttTimeMs = 0;
+
+  /**
+   * @param bandwidthWindow samples used for max bandwidth. 10 by default.
+   * @param minRttWindowMs time that a min rtt is valid, probe rtt is done after it. 10000 by
+   * default.
+   */
+  public void setWindows(int bandwidthWindow, long minRttWindowMs) {
+    this.bandwidthWindow = Math.max(1, bandwidthWindow);
+    this.minRttWindowMs = minRttWindowMs;
+    bandwidths = new long[this.bandwidthWindow];
+    onReset();
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public long getBandwidth() {
+    long max = 0;
+    for (long bandwidth : bandwidths) {
+      max = Math.max(max, bandwidth);
+    }
+    return max;
+  }
+
+  @Override
+  protected int getBitrate(NetworkSample sample, int bitrate) {
+    if (sample.getLossRate() > HIGH_LOSS_RATE) {
+      //policer or shallow buffer, older samples overestimate bandwidth
+      Arrays.fill(bandwidths, 0);
+    }
+    bandwidths[bandwidthPosition] = sample.getSendBitrate();
+    bandwidthPosition = (bandwidthPosition + 1) % bandwidths.length;
+    long bandwidth = getBandwidth();
+    //without rtt queue delay is used, it is rtt minus a constant
+    long rtt = sample.getRttMs() >= 0 ? sample.getRttMs() : sample.getQueueDelayMs();
+    boolean minRttExpired = sample.getTimeMs() - minRttTimeMs > minRttWindowMs;
+    if (minRtt < 0 || rtt <= minRtt || minRttExpired) {
+      minRtt = rtt;
+      minRttTimeMs = sample.getTimeMs();
+    }
+    float gain;
+    switch (state) {
+      case STARTUP:
+        if (bandwidth >= fullBandwidth * STARTUP_GROWTH) {
+          fullBandwidth = bandwidth;
+          fullBandwidthRounds = 0;
+        } else if (++fullBandwidthRounds >= STARTUP_ROUNDS) {
+          state = State.DRAIN;
+        }
+        gain = state == State.STARTUP ? STARTUP_GAIN : DRAIN_GAIN;
+        break;
+      case DRAIN:
+        if (isQueueEmpty(rtt)) {
+          state = State.PROBE_BW;
+          cycleIndex = 0;
+          gain = PROBE_BW_GAINS[0];
+        } else {
+          gain = DRAIN_GAIN;
+        }
+        break;
+      case PROBE_RTT:
+        state = State.PROBE_BW;
+        gain = PROBE_BW_GAINS[cycleIndex];
+        break;
+      default:
+        if (minRttExpired) {
+          state = State.PROBE_RTT;
+          gain = PROBE_RTT_GAIN;
+        } else {
+          //keep low gain until queue created by high gain is empty
+          if (PROBE_BW_GAINS[cycleIndex] >= 1 || isQueueEmpty(rtt)) {
+            cycleIndex = (cycleIndex + 1) % PROBE_BW_GAINS.length;
+          }
+          gain = PROBE_BW_GAINS[cycleIndex];
+        }
+        break;
+    }
+    if (bandwidth == 0) return bitrate;
+    if (state == State.STARTUP) return (int) Math.max(bitrate, bandwidth * gain);
+    return (int) (bandwidth * gain);
+  }
+
+  private boolean isQueueEmpty(long rtt) {
+    return rtt <= minRtt * 1.25f + 10;
+  }
+
+  @Override
+  protected void onReset() {
+    Arrays.fill(bandwidths, 0);
+    bandwidthPosition = 0;
+    state = State.STARTUP;
+    fullBandwidth = 0;
+    fullBandwidthRounds = 0;
+    cycleIndex = 0;
+    minRtt = -1;
+    minRttTimeMs = 0;
+  }
+}
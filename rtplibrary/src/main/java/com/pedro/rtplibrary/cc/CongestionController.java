@@ -0,0 +1,44 @@
+package com.pedro.rtplibrary.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Choose bitrate and fps of the stream from network samples. Implementations are not thread
+ * safe and have no Android dependencies, so they can be evaluated with {@link LinkSimulator}.
+ */
+public interface CongestionController {
+
+  interface Listener {
+    void onTargetChanged(int bitrate, int fps);
+  }
+
+  void setListener(Listener listener);
+
+  /**
+   * @param minBitrate bitrate is never reduced under it.
+   * @param maxBitrate normally bitrate given in prepareVideo.
+   */
+  void setBitrateRange(int minBitrate, int maxBitrate);
+
+  /**
+   * @param minFps fps is never reduced under it.
+   * @param maxFps normally fps given in prepareVideo.
+   */
+  void setFpsRange(int minFps, int maxFps);
+
+  /**
+   * Forget network state, call it when stream starts.
+   *
+   * @param startBitrate first target bitrate.
+   */
+  void reset(int startBitrate);
+
+  /**
+   * Update targets with a new sample, listener is called if they change.
+   */
+  void onSample(NetworkSample sample);
+
+  int getTargetBitrate();
+
+  int getTargetFps();
+}
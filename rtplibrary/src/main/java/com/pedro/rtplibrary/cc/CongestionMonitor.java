@@ -0,0 +1,140 @@
+package com.pedro.rtplibrary.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Build a {@link NetworkSample} each interval from frames sent and discarded by RTMP, RTSP and TS
+ * clients and give it to a controller, like {@link LinkSimulator} does in tests. Send bitrate is
+ * measured like onNewBitrate callbacks, queue delay is the delay of last frame sent, write stall
+ * the time blocked in socket writes and loss the fraction of frames discarded, or packets lost
+ * with RTSP transport-cc feedback.
+ */
+public class CongestionMonitor
+    implements com.pedro.rtsp.utils.NetworkListener, net.ossrs.rtmp.NetworkListener,
+    com.pedro.ts.utils.NetworkListener {
+
+  private final CongestionController congestionController;
+  private final CongestionController.Listener listener;
+  private long intervalMs = 1000;
+  private long intervalStartMs = -1;
+  private long intervalBytes = 0;
+  private long intervalSent = 0;
+  private long intervalDropped = 0;
+  private long intervalWriteMs = 0;
+  private long queueDelayMs = 0;
+  private long rttMs = -1;
+  private float feedbackLossRate = -1;
+  private int startBitrate;
+  private int startFps;
+
+  /**
+   * @param listener called with new targets, normally to apply them to video encoder.
+   */
+  public CongestionMonitor(CongestionController congestionController,
+      CongestionController.Listener listener) {
+    this.congestionController = congestionController;
+    this.listener = listener;
+    congestionController.setListener(listener);
+  }
+
+  public CongestionController getCongestionController() {
+    return congestionController;
+  }
+
+  /**
+   * @param intervalMs time between samples. 1000 by default, like onNewBitrate callbacks.
+   */
+  public synchronized void setInterval(long intervalMs) {
+    this.intervalMs = intervalMs;
+  }
+
+  /**
+   * Reset controller and network state, call it when stream starts. Controller listener is called
+   * if its first targets are not the encoder ones.
+   *
+   * @param bitrate encoder bitrate, used as start bitrate.
+   * @param fps encoder fps.
+   */
+  public synchronized void start(int bitrate, int fps) {
+    startBitrate = bitrate;
+    startFps = fps;
+    intervalStartMs = -1;
+    clearInterval();
+    queueDelayMs = 0;
+    rttMs = -1;
+    feedbackLossRate = -1;
+    congestionController.reset(bitrate);
+    int targetBitrate = congestionController.getTargetBitrate();
+    int targetFps = congestionController.getTargetFps();
+    if (listener != null && (targetBitrate != bitrate || targetFps != fps)) {
+      listener.onTargetChanged(targetBitrate, targetFps);
+    }
+  }
+
+  /**
+   * @return bitrate given in start, to restore encoder when stream stops.
+   */
+  public synchronized int getStartBitrate() {
+    return startBitrate;
+  }
+
+  /**
+   * @return fps given in start, to restore encoder when stream stops.
+   */
+  public synchronized int getStartFps() {
+    return startFps;
+  }
+
+  @Override
+  public void onFrameSent(boolean isVideo, int size, long queueDelayMs, long writeTimeMs) {
+    onFrameSent(size, queueDelayMs, writeTimeMs, System.currentTimeMillis());
+  }
+
+  @Override
+  public void onFrameDropped(boolean isVideo) {
+    onFrameDropped(System.currentTimeMillis());
+  }
+
+  @Override
+  public synchronized void onFeedback(long rttMs, float lossRate) {
+    this.rttMs = rttMs;
+    feedbackLossRate = Math.max(feedbackLossRate, lossRate);
+  }
+
+  synchronized void onFrameSent(int size, long queueDelayMs, long writeTimeMs, long nowMs) {
+    if (intervalStartMs < 0) intervalStartMs = nowMs;
+    intervalBytes += size;
+    intervalSent++;
+    intervalWriteMs += writeTimeMs;
+    this.queueDelayMs = queueDelayMs;
+    checkInterval(nowMs);
+  }
+
+  synchronized void onFrameDropped(long nowMs) {
+    if (intervalStartMs < 0) intervalStartMs = nowMs;
+    intervalDropped++;
+    checkInterval(nowMs);
+  }
+
+  private void checkInterval(long nowMs) {
+    long durationMs = nowMs - intervalStartMs;
+    if (durationMs < intervalMs) return;
+    long total = intervalSent + intervalDropped;
+    float lossRate = total > 0 ? (float) intervalDropped / total : 0;
+    //frames discarded by client and packets lost in network are both loss
+    if (feedbackLossRate >= 0) lossRate = Math.max(lossRate, feedbackLossRate);
+    congestionController.onSample(new NetworkSample(nowMs, durationMs,
+        intervalBytes * 8000 / durationMs, queueDelayMs, rttMs, lossRate,
+        Math.min(intervalWriteMs, durationMs)));
+    intervalStartMs = nowMs;
+    clearInterval();
+  }
+
+  private void clearInterval() {
+    intervalBytes = 0;
+    intervalSent = 0;
+    intervalDropped = 0;
+    intervalWriteMs = 0;
+    feedbackLossRate = -1;
+  }
+}
@@ -0,0 +1,102 @@
+package com.pedro.rtplibrary.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Delay based control like GCC. The trend of queue delay is the least squares slope of the last
+ * samples. A growing queue is overuse: bitrate goes under the send rate. A draining queue is
+ * underuse: bitrate is kept until queue is empty. Other case bitrate grows multiplicatively. Loss
+ * over 10% is handled as overuse, queue can't grow when frames are discarded.
+ */
+public class DelayGradientCongestionController extends BaseCongestionController {
+
+  private static final float HIGH_LOSS_RATE = 0.1f;
+  private static final float APP_LIMITED_MARGIN = 1.5f;
+  private int windowSize = 10;
+  //queue growth in ms per second
+  private float overuseSlope = 50f;
+  private long maxQueueDelayMs = 500;
+  private float increaseFactor = 1.08f;
+  private float decreaseFactor = 0.85f;
+  private long[] times = new long[windowSize];
+  private long[] delays = new long[windowSize];
+  private int count = 0;
+  private int position = 0;
+  private int overuseSamples = 0;
+
+  /**
+   * @param windowSize samples used to calculate trend. 10 by default.
+   * @param overuseSlope queue delay growth in ms per second that is overuse. 50 by default.
+   * @param maxQueueDelayMs queue delay that is always overuse. 500 by default.
+   */
+  public void setDetector(int windowSize, float overuseSlope, long maxQueueDelayMs) {
+    this.windowSize = Math.max(2, windowSize);
+    this.overuseSlope = overuseSlope;
+    this.maxQueueDelayMs = maxQueueDelayMs;
+    times = new long[this.windowSize];
+    delays = new long[this.windowSize];
+    onReset();
+  }
+
+  /**
+   * @param increaseFactor bitrate growth per second in normal state. 1.08 by default.
+   * @param decreaseFactor factor applied to send rate on overuse. 0.85 by default.
+   */
+  public void setRates(float increaseFactor, float decreaseFactor) {
+    this.increaseFactor = increaseFactor;
+    this.decreaseFactor = decreaseFactor;
+  }
+
+  /**
+   * @return queue delay slope in ms per second of last samples.
+   */
+  public float getTrend() {
+    if (count < 2) return 0;
+    double meanTime = 0, meanDelay = 0;
+    for (int i = 0; i < count; i++) {
+      meanTime += times[i];
+      meanDelay += delays[i];
+    }
+    meanTime /= count;
+    meanDelay /= count;
+    double numerator = 0, denominator = 0;
+    for (int i = 0; i < count; i++) {
+      double time = times[i] - meanTime;
+      numerator += time * (delays[i] - meanDelay);
+      denominator += time * time;
+    }
+    return denominator > 0 ? (float) (numerator / denominator * 1000) : 0;
+  }
+
+  @Override
+  protected int getBitrate(NetworkSample sample, int bitrate) {
+    times[position] = sample.getTimeMs();
+    delays[position] = sample.getQueueDelayMs();
+    position = (position + 1) % windowSize;
+    if (count < windowSize) count++;
+    float trend = getTrend();
+    //a single sample can be a key frame, overuse must be sustained
+    overuseSamples = trend > overuseSlope ? overuseSamples + 1 : 0;
+    boolean overuse = overuseSamples >= 2 || sample.getQueueDelayMs() > maxQueueDelayMs
+        || sample.getLossRate() > HIGH_LOSS_RATE;
+    if (overuse) {
+      overuseSamples = 0;
+      long base = sample.getSendBitrate() > 0 ? Math.min(bitrate, sample.getSendBitrate())
+          : bitrate;
+      return (int) (base * decreaseFactor);
+    } else if (trend < -overuseSlope && sample.getQueueDelayMs() > 0) {
+      //underuse, queue is draining
+      return bitrate;
+    }
+    double factor = Math.pow(increaseFactor, sample.getDurationMs() / 1000.0);
+    long limit = (long) (Math.max(sample.getSendBitrate(), minBitrate) * APP_LIMITED_MARGIN);
+    return (int) Math.max(bitrate, Math.min(bitrate * factor, limit));
+  }
+
+  @Override
+  protected void onReset() {
+    count = 0;
+    position = 0;
+    overuseSamples = 0;
+  }
+}
@@ -0,0 +1,301 @@
+package com.pedro.rtplibrary.cc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Deterministic trace driven simulation of a stream over a single bottleneck, in 1 ms steps.
+ * An encoder produce frames with the target bitrate and fps of the controller (key frames
+ * bigger), frames wait in a queue with the muxer cache limit and the link sends the bytes allowed
+ * by the trace. Each sample interval the controller receive the same signals that a real stream
+ * has. Same trace, configuration and seed give always the same result, so it can be used in unit
+ * tests of controllers.
+ */
+public class LinkSimulator {
+
+  public static class Result {
+
+    private final long durationMs;
+    private final long capacityBitrate;
+    private final long sendBitrate;
+    private final long targetBitrate;
+    private final float fps;
+    private final long droppedFrames;
+    private final long lostFrames;
+    private final long stallMs;
+    private final long averageDelayMs;
+    private final long p95DelayMs;
+    private final long maxDelayMs;
+    private final List<NetworkSample> samples;
+
+    private Result(long durationMs, long capacityBitrate, long sendBitrate, long targetBitrate,
+        float fps, long droppedFrames, long lostFrames, long stallMs, List<Integer> delays,
+        List<NetworkSample> samples) {
+      this.durationMs = durationMs;
+      this.capacityBitrate = capacityBitrate;
+      this.sendBitrate = sendBitrate;
+      this.targetBitrate = targetBitrate;
+      this.fps = fps;
+      this.droppedFrames = droppedFrames;
+      this.lostFrames = lostFrames;
+      this.stallMs = stallMs;
+      this.samples = Collections.unmodifiableList(samples);
+      Collections.sort(delays);
+      long sum = 0;
+      for (int delay : delays) {
+        sum += delay;
+      }
+      averageDelayMs = delays.isEmpty() ? 0 : sum / delays.size();
+      p95DelayMs = delays.isEmpty() ? 0 : delays.get((int) (delays.size() * 0.95f));
+      maxDelayMs = delays.isEmpty() ? 0 : delays.get(delays.size() - 1);
+    }
+
+    public long getDurationMs() {
+      return durationMs;
+    }
+
+    /**
+     * @return average link capacity in bps.
+     */
+    public long getCapacityBitrate() {
+      return capacityBitrate;
+    }
+
+    /**
+     * @return average bps sent.
+     */
+    public long getSendBitrate() {
+      return sendBitrate;
+    }
+
+    /**
+     * @return fraction of link capacity used.
+     */
+    public float getUtilization() {
+      return capacityBitrate > 0 ? (float) sendBitrate / capacityBitrate : 0;
+    }
+
+    /**
+     * @return average of target bitrate in each sample.
+     */
+    public long getTargetBitrate() {
+      return targetBitrate;
+    }
+
+    /**
+     * @return frames received per second.
+     */
+    public float getFps() {
+      return fps;
+    }
+
+    /**
+     * @return frames discarded because queue was full.
+     */
+    public long getDroppedFrames() {
+      return droppedFrames;
+    }
+
+    /**
+     * @return frames lost in the link by random loss.
+     */
+    public long getLostFrames() {
+      return lostFrames;
+    }
+
+    /**
+     * @return time with socket buffer full.
+     */
+    public long getStallMs() {
+      return stallMs;
+    }
+
+    /**
+     * @return average time since a frame is encoded until it is received.
+     */
+    public long getAverageDelayMs() {
+      return averageDelayMs;
+    }
+
+    public long getP95DelayMs() {
+      return p95DelayMs;
+    }
+
+    public long getMaxDelayMs() {
+      return maxDelayMs;
+    }
+
+    /**
+     * @return samples given to controller.
+     */
+    public List<NetworkSample> getSamples() {
+      return samples;
+    }
+
+    @Override
+    public String toString() {
+      return "Result{capacity=" + capacityBitrate + ", send=" + sendBitrate + ", target="
+          + targetBitrate + ", utilization=" + getUtilization() + ", fps=" + fps + ", dropped="
+          + droppedFrames + ", lost=" + lostFrames + ", stall=" + stallMs + ", delay="
+          + averageDelayMs + ", p95Delay=" + p95DelayMs + ", maxDelay=" + maxDelayMs + "}";
+    }
+  }
+
+  private static class Frame {
+    private final long createdMs;
+    private int remaining;
+
+    private Frame(long createdMs, int size) {
+      this.createdMs = createdMs;
+      this.remaining = size;
+    }
+  }
+
+  private final LinkTrace trace;
+  private int propagationDelayMs = 40;
+  private int maxQueuedFrames = 30;
+  private int socketBufferBytes = 64 * 1024;
+  private int sampleIntervalMs = 1000;
+  private int iFrameInterval = 2;
+  private float keyFrameFactor = 3f;
+  private float randomLossRate = 0;
+  private long seed = 0;
+
+  public LinkSimulator(LinkTrace trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * @param propagationDelayMs one way delay without queue. 40 by default.
+   */
+  public void setPropagationDelay(int propagationDelayMs) {
+    this.propagationDelayMs = propagationDelayMs;
+  }
+
+  /**
+   * @param maxQueuedFrames frames queued before discard new ones, like muxer cache. 30 by
+   * default.
+   * @param socketBufferBytes queued bytes over it are a write stall. 64 KB by default.
+   */
+  public void setQueue(int maxQueuedFrames, int socketBufferBytes) {
+    this.maxQueuedFrames = maxQueuedFrames;
+    this.socketBufferBytes = socketBufferBytes;
+  }
+
+  /**
+   * @param sampleIntervalMs time between samples given to controller. 1000 by default, like
+   * bitrate callbacks.
+   */
+  public void setSampleInterval(int sampleIntervalMs) {
+    this.sampleIntervalMs = sampleIntervalMs;
+  }
+
+  /**
+   * @param iFrameInterval seconds between key frames. 2 by default.
+   * @param keyFrameFactor size of key frames compared with other frames. 3 by default.
+   */
+  public void setKeyFrames(int iFrameInterval, float keyFrameFactor) {
+    this.iFrameInterval = iFrameInterval;
+    this.keyFrameFactor = keyFrameFactor;
+  }
+
+  /**
+   * @param randomLossRate fraction of frames lost in link after being sent.
+   * @param seed seed of loss generator.
+   */
+  public void setRandomLoss(float randomLossRate, long seed) {
+    this.randomLossRate = randomLossRate;
+    this.seed = seed;
+  }
+
+  /**
+   * Bitrate and fps ranges of controller must be configured before.
+   */
+  public Result run(CongestionController controller, int startBitrate, long durationMs) {
+    controller.reset(startBitrate);
+    Random random = new Random(seed);
+    ArrayDeque<Frame> queue = new ArrayDeque<>();
+    List<Integer> delays = new ArrayList<>();
+    List<NetworkSample> samples = new ArrayList<>();
+    long queuedBytes = 0;
+    double nextFrameMs = 0;
+    long frameIndex = 0;
+    long capacityBytes = 0, sentBytes = 0, targetSum = 0, droppedFrames = 0, lostFrames = 0;
+    long stallMs = 0;
+    long intervalCapacity = 0, intervalSent = 0, intervalFrames = 0, intervalLost = 0;
+    long intervalStall = 0;
+    for (long time = 0; time < durationMs; time++) {
+      int bitrate = controller.getTargetBitrate();
+      int fps = Math.max(1, controller.getTargetFps());
+      while (time >= nextFrameMs) {
+        int gopFrames = Math.max(1, fps * iFrameInterval);
+        double frameSize = bitrate / 8.0 / fps * gopFrames / (gopFrames - 1 + keyFrameFactor);
+        boolean keyFrame = frameIndex % gopFrames == 0;
+        int size = (int) Math.max(1, keyFrame ? frameSize * keyFrameFactor : frameSize);
+        frameIndex++;
+        intervalFrames++;
+        nextFrameMs += 1000.0 / fps;
+        if (queue.size() >= maxQueuedFrames) {
+          droppedFrames++;
+          intervalLost++;
+        } else {
+          queue.add(new Frame(time, size));
+          queuedBytes += size;
+        }
+      }
+      int capacity = trace.getBytes(time);
+      capacityBytes += capacity;
+      intervalCapacity += capacity;
+      while (capacity > 0 && !queue.isEmpty()) {
+        Frame frame = queue.peek();
+        int bytes = Math.min(capacity, frame.remaining);
+        frame.remaining -= bytes;
+        capacity -= bytes;
+        queuedBytes -= bytes;
+        sentBytes += bytes;
+        intervalSent += bytes;
+        if (frame.remaining == 0) {
+          queue.poll();
+          if (random.nextFloat() < randomLossRate) {
+            lostFrames++;
+            intervalLost++;
+          } else {
+            delays.add((int) (time - frame.createdMs + propagationDelayMs));
+          }
+        }
+      }
+      if (queuedBytes > socketBufferBytes) {
+        stallMs++;
+        intervalStall++;
+      }
+      if ((time + 1) % sampleIntervalMs == 0) {
+        Frame oldest = queue.peek();
+        long queueDelay = oldest != null ? time - oldest.createdMs : 0;
+        //only bytes inside socket buffer are in the network, they increase rtt
+        long networkBytes = Math.min(queuedBytes, socketBufferBytes);
+        long rtt = 2L * propagationDelayMs + (intervalCapacity > 0
+            ? networkBytes * sampleIntervalMs / intervalCapacity : sampleIntervalMs);
+        float loss = intervalFrames > 0 ? (float) intervalLost / intervalFrames : 0;
+        NetworkSample sample = new NetworkSample(time + 1, sampleIntervalMs,
+            intervalSent * 8000 / sampleIntervalMs, queueDelay, rtt, loss, intervalStall);
+        controller.onSample(sample);
+        samples.add(sample);
+        targetSum += controller.getTargetBitrate();
+        intervalCapacity = 0;
+        intervalSent = 0;
+        intervalFrames = 0;
+        intervalLost = 0;
+        intervalStall = 0;
+      }
+    }
+    long duration = Math.max(1, durationMs);
+    return new Result(durationMs, capacityBytes * 8000 / duration, sentBytes * 8000 / duration,
+        samples.isEmpty() ? startBitrate : targetSum / samples.size(), delays.size() * 1000f
+        / duration, droppedFrames, lostFrames, stallMs, delays, samples);
+  }
+}
@@ -0,0 +1,88 @@
+package com.pedro.rtplibrary.cc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Link capacity of each ms, repeated when trace ends. Recorded cellular traces use mahimahi
+ * format: a line per packet delivery opportunity with the ms when a MTU sized packet can be sent.
+ */
+public class LinkTrace {
+
+  public static final int MTU = 1500;
+  private final int[] bytesPerMs;
+
+  private LinkTrace(int[] bytesPerMs) {
+    if (bytesPerMs.length == 0) throw new IllegalArgumentException("Empty trace");
+    this.bytesPerMs = bytesPerMs;
+  }
+
+  /**
+   * @param reader mahimahi trace, a ms timestamp per line in ascending order.
+   */
+  public static LinkTrace fromMahimahi(Reader reader) throws IOException {
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    List<Integer> opportunities = new ArrayList<>();
+    String line;
+    while ((line = bufferedReader.readLine()) != null) {
+      line = line.trim();
+      if (!line.isEmpty()) opportunities.add(Integer.parseInt(line));
+    }
+    if (opportunities.isEmpty()) throw new IllegalArgumentException("Empty trace");
+    //trace period is its last timestamp
+    int[] bytesPerMs = new int[Math.max(1, opportunities.get(opportunities.size() - 1))];
+    for (int time : opportunities) {
+      bytesPerMs[time % bytesPerMs.length] += MTU;
+    }
+    return new LinkTrace(bytesPerMs);
+  }
+
+  /**
+   * @param bitrates capacity in bps of each step.
+   * @param stepMs duration of each step.
+   */
+  public static LinkTrace fromBitrates(int[] bitrates, int stepMs) {
+    int[] bytesPerMs = new int[bitrates.length * stepMs];
+    for (int step = 0; step < bitrates.length; step++) {
+      //spread bytes so each ms of the step has the same capacity on average
+      long bytes = 0;
+      for (int ms = 0; ms < stepMs; ms++) {
+        long total = (long) bitrates[step] * (ms + 1) / 8000;
+        bytesPerMs[step * stepMs + ms] = (int) (total - bytes);
+        bytes = total;
+      }
+    }
+    return new LinkTrace(bytesPerMs);
+  }
+
+  public static LinkTrace constant(int bitrate) {
+    return fromBitrates(new int[] { bitrate }, 1000);
+  }
+
+  /**
+   * @return bytes that can be sent in ms timeMs.
+   */
+  public int getBytes(long timeMs) {
+    return bytesPerMs[(int) (timeMs % bytesPerMs.length)];
+  }
+
+  public long getDurationMs() {
+    return bytesPerMs.length;
+  }
+
+  /**
+   * @return average capacity in bps of the whole trace.
+   */
+  public long getAverageBitrate() {
+    long bytes = 0;
+    for (int value : bytesPerMs) {
+      bytes += value;
+    }
+    return bytes * 8000 / bytesPerMs.length;
+  }
+}
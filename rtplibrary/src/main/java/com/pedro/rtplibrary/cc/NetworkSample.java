@@ -0,0 +1,74 @@
+package com.pedro.rtplibrary.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Network state measured during an interval. Send rate is the bitrate given in onNewBitrate
+ * callbacks, queue delay the age of the oldest frame waiting in the muxer cache, write stall the
+ * time the socket write was blocked. Unknown values are -1.
+ */
+public class NetworkSample {
+
+  private final long timeMs;
+  private final long durationMs;
+  private final long sendBitrate;
+  private final long queueDelayMs;
+  private final long rttMs;
+  private final float lossRate;
+  private final long writeStallMs;
+
+  /**
+   * @param timeMs end of the interval.
+   * @param durationMs duration of the interval.
+   * @param sendBitrate bps sent to network.
+   * @param queueDelayMs time that oldest queued frame has been waiting.
+   * @param rttMs round trip time, -1 if unknown.
+   * @param lossRate frames or packets lost or discarded, between 0 and 1.
+   * @param writeStallMs time blocked writing in socket.
+   */
+  public NetworkSample(long timeMs, long durationMs, long sendBitrate, long queueDelayMs,
+      long rttMs, float lossRate, long writeStallMs) {
+    this.timeMs = timeMs;
+    this.durationMs = durationMs;
+    this.sendBitrate = sendBitrate;
+    this.queueDelayMs = queueDelayMs;
+    this.rttMs = rttMs;
+    this.lossRate = lossRate;
+    this.writeStallMs = writeStallMs;
+  }
+
+  public long getTimeMs() {
+    return timeMs;
+  }
+
+  public long getDurationMs() {
+    return durationMs;
+  }
+
+  public long getSendBitrate() {
+    return sendBitrate;
+  }
+
+  public long getQueueDelayMs() {
+    return queueDelayMs;
+  }
+
+  public long getRttMs() {
+    return rttMs;
+  }
+
+  public float getLossRate() {
+    return lossRate;
+  }
+
+  public long getWriteStallMs() {
+    return writeStallMs;
+  }
+
+  @Override
+  public String toString() {
+    return "NetworkSample{time=" + timeMs + ", sendBitrate=" + sendBitrate + ", queueDelay="
+        + queueDelayMs + ", rtt=" + rttMs + ", loss=" + lossRate + ", writeStall=" + writeStallMs
+        + "}";
+  }
+}
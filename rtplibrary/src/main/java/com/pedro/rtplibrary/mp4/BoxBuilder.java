@@ -0,0 +1,121 @@
+package com.pedro.rtplibrary.mp4;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Growable big endian buffer to build ISO BMFF boxes. Box size is written when box is closed.
+ */
+class BoxBuilder {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private byte[] data = new byte[1024];
+  private int length = 0;
+  private int[] starts = new int[16];
+  private int depth = 0;
+
+  BoxBuilder start(String type) {
+    if (depth == starts.length) starts = Arrays.copyOf(starts, depth * 2);
+    starts[depth++] = length;
+    putInt(0);
+    putBytes(type.getBytes(ASCII));
+    return this;
+  }
+
+  BoxBuilder startFull(String type, int version, int flags) {
+    start(type);
+    putInt((version << 24) | (flags & 0xFFFFFF));
+    return this;
+  }
+
+  BoxBuilder end() {
+    int start = starts[--depth];
+    int size = length - start;
+    data[start] = (byte) (size >>> 24);
+    data[start + 1] = (byte) (size >>> 16);
+    data[start + 2] = (byte) (size >>> 8);
+    data[start + 3] = (byte) size;
+    return this;
+  }
+
+  BoxBuilder putByte(int value) {
+    ensure(1);
+    data[length++] = (byte) value;
+    return this;
+  }
+
+  BoxBuilder putShort(int value) {
+    ensure(2);
+    data[length++] = (byte) (value >>> 8);
+    data[length++] = (byte) value;
+    return this;
+  }
+
+  BoxBuilder putInt(int value) {
+    ensure(4);
+    data[length++] = (byte) (value >>> 24);
+    data[length++] = (byte) (value >>> 16);
+    data[length++] = (byte) (value >>> 8);
+    data[length++] = (byte) value;
+    return this;
+  }
+
+  BoxBuilder putLong(long value) {
+    putInt((int) (value >>> 32));
+    putInt((int) value);
+    return this;
+  }
+
+  BoxBuilder putBytes(byte[] bytes) {
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, data, length, bytes.length);
+    length += bytes.length;
+    return this;
+  }
+
+  BoxBuilder putZeros(int count) {
+    ensure(count);
+    Arrays.fill(data, length, length + count, (byte) 0);
+    length += count;
+    return this;
+  }
+
+  BoxBuilder putType(String type) {
+    return putBytes(type.getBytes(ASCII));
+  }
+
+  /**
+   * Overwrite an int written before.
+   */
+  void setInt(int position, int value) {
+    data[position] = (byte) (value >>> 24);
+    data[position + 1] = (byte) (value >>> 16);
+    data[position + 2] = (byte) (value >>> 8);
+    data[position + 3] = (byte) value;
+  }
+
+  int length() {
+    return length;
+  }
+
+  byte[] getData() {
+    return data;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(data, length);
+  }
+
+  void reset() {
+    length = 0;
+    depth = 0;
+  }
+
+  private void ensure(int bytes) {
+    if (length + bytes > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + bytes));
+    }
+  }
+}
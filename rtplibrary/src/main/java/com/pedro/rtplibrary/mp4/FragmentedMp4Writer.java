@@ -0,0 +1,591 @@
+package com.pedro.rtplibrary.mp4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Fragmented MP4 writer of H264 and AAC. Each segment file has its own init (ftyp and moov) and
+ * a moof and mdat per fragment, written when fragment is complete, so a crash only lose the last
+ * fragment. Segments can be rolled by duration or size at video key frames.
+ *
+ * Decode time of each track is the sum of sample durations, durations are pts differences. Pause
+ * closes the timeline, so samples after resume continue it without gaps or pts rewriting. Frames
+ * are written in arrival order, B-frames are not supported. Not thread safe and without Android
+ * dependencies.
+ */
+public class FragmentedMp4Writer {
+
+  public interface SegmentProvider {
+    /**
+     * @param index 0 for first segment.
+     */
+    File getSegmentFile(int index);
+  }
+
+  public interface Listener {
+    void onSegmentClosed(File file, int index, long durationUs, long bytes);
+  }
+
+  private static final int VIDEO_TIMESCALE = 90000;
+  private static final int VIDEO_TRACK_ID = 1;
+  private static final int AUDIO_TRACK_ID = 2;
+  private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+  private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+  private static final int NAL_SPS = 7;
+  private static final int NAL_PPS = 8;
+  private static final int NAL_AUD = 9;
+
+  private static class Track {
+    private final int id;
+    private final int timescale;
+    private byte[] data = new byte[64 * 1024];
+    private int dataLength = 0;
+    private int[] sizes = new int[64];
+    private int[] durations = new int[64];
+    private int[] flags = new int[64];
+    private int count = 0;
+    private boolean hasPending = false;
+    private int pendingSize;
+    private long pendingPtsUs;
+    private int pendingFlags;
+    private long lastDurationUs;
+    private boolean started = false;
+    //decode time of first sample in fragment and of pending sample
+    private long fragmentStartUs = 0;
+    private long nextUs = 0;
+
+    private Track(int id, int timescale, long defaultDurationUs) {
+      this.id = id;
+      this.timescale = timescale;
+      lastDurationUs = defaultDurationUs;
+    }
+
+    private long toTimescale(long us) {
+      return us * timescale / 1000000;
+    }
+
+    private void ensureData(int bytes) {
+      if (dataLength + bytes > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + bytes));
+      }
+    }
+
+    private void putData(ByteBuffer buffer, int offset, int size) {
+      ensureData(size);
+      for (int i = 0; i < size; i++) {
+        data[dataLength + i] = buffer.get(offset + i);
+      }
+      dataLength += size;
+    }
+
+    private void putLength(int length) {
+      ensureData(4);
+      data[dataLength++] = (byte) (length >>> 24);
+      data[dataLength++] = (byte) (length >>> 16);
+      data[dataLength++] = (byte) (length >>> 8);
+      data[dataLength++] = (byte) length;
+    }
+
+    /**
+     * Sample data is already in data, it is pending until its duration is known.
+     */
+    private void addPending(int size, long ptsUs, int sampleFlags) {
+      hasPending = true;
+      pendingSize = size;
+      pendingPtsUs = ptsUs;
+      pendingFlags = sampleFlags;
+    }
+
+    /**
+     * @param durationUs duration of pending sample, &lt;= 0 to use last duration.
+     */
+    private void resolvePending(long durationUs) {
+      if (!hasPending) return;
+      if (durationUs <= 0) durationUs = lastDurationUs;
+      lastDurationUs = durationUs;
+      if (count == sizes.length) {
+        sizes = Arrays.copyOf(sizes, count * 2);
+        durations = Arrays.copyOf(durations, count * 2);
+        flags = Arrays.copyOf(flags, count * 2);
+      }
+      sizes[count] = pendingSize;
+      durations[count] = (int) (toTimescale(nextUs + durationUs) - toTimescale(nextUs));
+      flags[count] = pendingFlags;
+      count++;
+      nextUs += durationUs;
+      hasPending = false;
+    }
+
+    private int getResolvedBytes() {
+      return dataLength - (hasPending ? pendingSize : 0);
+    }
+
+    /**
+     * Remove resolved samples after write them, pending sample is kept.
+     */
+    private void clearResolved() {
+      int resolved = getResolvedBytes();
+      System.arraycopy(data, resolved, data, 0, dataLength - resolved);
+      dataLength -= resolved;
+      count = 0;
+      fragmentStartUs = nextUs;
+    }
+  }
+
+  private final SegmentProvider segmentProvider;
+  private Listener listener;
+  private Track videoTrack;
+  private Track audioTrack;
+  private boolean hasVideo = false;
+  private boolean hasAudio = false;
+  private byte[] sps, pps;
+  private int width, height;
+  private int sampleRate, channels;
+  private byte[] audioSpecificConfig;
+  private long fragmentDurationUs = 1000000;
+  private long maxSegmentDurationUs = 0;
+  private long maxSegmentBytes = 0;
+  private boolean syncFragments = true;
+  private byte[] init;
+  private final BoxBuilder moof = new BoxBuilder();
+  private FileChannel channel;
+  private FileOutputStream outputStream;
+  private File segmentFile;
+  private int segmentIndex = 0;
+  private long segmentBytes = 0;
+  private long segmentStartUs = 0;
+  private int sequenceNumber = 1;
+  private long originUs = -1;
+  private boolean needKeyFrame = true;
+  private boolean running = false;
+
+  public FragmentedMp4Writer(SegmentProvider segmentProvider) {
+    this.segmentProvider = segmentProvider;
+  }
+
+  /**
+   * @param file first segment, next ones are name_index.ext in the same folder.
+   */
+  public FragmentedMp4Writer(final File file) {
+    this(new SegmentProvider() {
+      @Override
+      public File getSegmentFile(int index) {
+        if (index == 0) return file;
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new File(file.getParentFile(), base + "_" + index + extension);
+      }
+    });
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @param sps H264 sps with or without start code.
+   * @param pps H264 pps with or without start code.
+   */
+  public void setVideoTrack(byte[] sps, byte[] pps, int width, int height) {
+    this.sps = removeStartCode(sps);
+    this.pps = removeStartCode(pps);
+    this.width = width;
+    this.height = height;
+    hasVideo = true;
+  }
+
+  /**
+   * @param audioSpecificConfig AAC config (csd-0 of MediaFormat), null to create an AAC-LC one.
+   */
+  public void setAudioTrack(int sampleRate, int channels, byte[] audioSpecificConfig) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.audioSpecificConfig =
+        audioSpecificConfig != null ? audioSpecificConfig : createAacConfig(sampleRate, channels);
+    hasAudio = true;
+  }
+
+  /**
+   * @param fragmentDurationUs min duration of each fragment, fragments are closed at video key
+   * frames. Lost data after a crash is at most one fragment. 1 second by default.
+   */
+  public void setFragmentDuration(long fragmentDurationUs) {
+    this.fragmentDurationUs = fragmentDurationUs;
+  }
+
+  /**
+   * Start a new segment file in the first video key frame after a limit.
+   *
+   * @param maxDurationUs 0 to disable.
+   * @param maxBytes 0 to disable.
+   */
+  public void setSegmentRolling(long maxDurationUs, long maxBytes) {
+    this.maxSegmentDurationUs = maxDurationUs;
+    this.maxSegmentBytes = maxBytes;
+  }
+
+  /**
+   * @param syncFragments flush each fragment to storage, so it survives a power loss. True by
+   * default.
+   */
+  public void setSyncFragments(boolean syncFragments) {
+    this.syncFragments = syncFragments;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public void start() throws IOException {
+    if (!hasVideo && !hasAudio) {
+      throw new IllegalStateException("Set at least one track before start");
+    }
+    videoTrack = hasVideo ? new Track(VIDEO_TRACK_ID, VIDEO_TIMESCALE, 1000000 / 30) : null;
+    audioTrack =
+        hasAudio ? new Track(AUDIO_TRACK_ID, sampleRate, 1024L * 1000000 / sampleRate) : null;
+    init = createInit();
+    segmentIndex = 0;
+    segmentStartUs = 0;
+    sequenceNumber = 1;
+    originUs = -1;
+    needKeyFrame = true;
+    openSegment();
+    running = true;
+  }
+
+  /**
+   * @param buffer annexb H264 access unit, sps, pps and aud are removed.
+   */
+  public void writeVideo(ByteBuffer buffer, int offset, int size, long ptsUs, boolean keyFrame)
+      throws IOException {
+    Track track = videoTrack;
+    if (!running || track == null) return;
+    if (needKeyFrame && !keyFrame) return;
+    needKeyFrame = false;
+    prepareSample(track, ptsUs, keyFrame);
+    int start = track.dataLength;
+    appendAvcc(track, buffer, offset, size);
+    track.addPending(track.dataLength - start, ptsUs,
+        keyFrame ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+  }
+
+  public void writeAudio(ByteBuffer buffer, int offset, int size, long ptsUs) throws IOException {
+    Track track = audioTrack;
+    if (!running || track == null) return;
+    if (videoTrack != null && needKeyFrame) return;
+    prepareSample(track, ptsUs, videoTrack == null);
+    track.putData(buffer, offset, size);
+    track.addPending(size, ptsUs, SAMPLE_FLAGS_SYNC);
+  }
+
+  /**
+   * Close timeline and write pending samples. Video after resume must start with a key frame.
+   */
+  public void pause() throws IOException {
+    if (!running) return;
+    closeTimeline();
+    writeFragment();
+    needKeyFrame = true;
+  }
+
+  public void resume() {
+    needKeyFrame = true;
+  }
+
+  public void stop() throws IOException {
+    if (!running) return;
+    running = false;
+    try {
+      closeTimeline();
+      writeFragment();
+    } finally {
+      closeSegment();
+    }
+  }
+
+  /**
+   * Resolve pending sample duration and decide if a fragment or segment must be closed before
+   * the new sample.
+   *
+   * @param boundary new sample can start a fragment (video key frame or audio only).
+   */
+  private void prepareSample(Track track, long ptsUs, boolean boundary) throws IOException {
+    if (originUs < 0) originUs = ptsUs;
+    if (!track.started) {
+      track.started = true;
+      track.nextUs = Math.max(0, ptsUs - originUs);
+      track.fragmentStartUs = track.nextUs;
+    }
+    track.resolvePending(ptsUs - track.pendingPtsUs);
+    if (!boundary) return;
+    long elapsed = track.nextUs - track.fragmentStartUs;
+    long segmentElapsed = track.nextUs - segmentStartUs;
+    boolean roll = (maxSegmentDurationUs > 0 && segmentElapsed >= maxSegmentDurationUs)
+        || (maxSegmentBytes > 0 && segmentBytes >= maxSegmentBytes);
+    if (roll || elapsed >= fragmentDurationUs) {
+      writeFragment();
+      if (roll) {
+        closeSegment();
+        segmentIndex++;
+        segmentStartUs = track.nextUs;
+        openSegment();
+      }
+    }
+  }
+
+  private void closeTimeline() {
+    if (videoTrack != null) videoTrack.resolvePending(0);
+    if (audioTrack != null) audioTrack.resolvePending(0);
+  }
+
+  private void openSegment() throws IOException {
+    segmentFile = segmentProvider.getSegmentFile(segmentIndex);
+    outputStream = new FileOutputStream(segmentFile);
+    channel = outputStream.getChannel();
+    segmentBytes = 0;
+    write(ByteBuffer.wrap(init));
+  }
+
+  private void closeSegment() throws IOException {
+    if (channel == null) return;
+    try {
+      channel.force(true);
+      outputStream.close();
+    } finally {
+      channel = null;
+      outputStream = null;
+    }
+    Track track = videoTrack != null ? videoTrack : audioTrack;
+    if (listener != null) {
+      listener.onSegmentClosed(segmentFile, segmentIndex, track.nextUs - segmentStartUs,
+          segmentBytes);
+    }
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      segmentBytes += channel.write(buffer);
+    }
+  }
+
+  private void writeFragment() throws IOException {
+    Track[] tracks = { videoTrack, audioTrack };
+    int mdatSize = 8;
+    boolean empty = true;
+    for (Track track : tracks) {
+      if (track != null && track.count > 0) {
+        mdatSize += track.getResolvedBytes();
+        empty = false;
+      }
+    }
+    if (empty) return;
+    moof.reset();
+    moof.start("moof");
+    moof.startFull("mfhd", 0, 0).putInt(sequenceNumber++).end();
+    int[] dataOffsetPositions = new int[tracks.length];
+    for (int i = 0; i < tracks.length; i++) {
+      Track track = tracks[i];
+      if (track == null || track.count == 0) continue;
+      moof.start("traf");
+      //default-base-is-moof
+      moof.startFull("tfhd", 0, 0x020000).putInt(track.id).end();
+      moof.startFull("tfdt", 1, 0).putLong(track.toTimescale(track.fragmentStartUs)).end();
+      //data offset, duration, size and flags of each sample
+      moof.startFull("trun", 0, 0x000701).putInt(track.count);
+      dataOffsetPositions[i] = moof.length();
+      moof.putInt(0);
+      for (int s = 0; s < track.count; s++) {
+        moof.putInt(track.durations[s]).putInt(track.sizes[s]).putInt(track.flags[s]);
+      }
+      moof.end();
+      moof.end();
+    }
+    moof.end();
+    int dataOffset = moof.length() + 8;
+    for (int i = 0; i < tracks.length; i++) {
+      Track track = tracks[i];
+      if (track == null || track.count == 0) continue;
+      moof.setInt(dataOffsetPositions[i], dataOffset);
+      dataOffset += track.getResolvedBytes();
+    }
+    ByteBuffer mdatHeader = ByteBuffer.allocate(8);
+    mdatHeader.putInt(mdatSize).put(new byte[] { 'm', 'd', 'a', 't' });
+    mdatHeader.flip();
+    write(ByteBuffer.wrap(moof.getData(), 0, moof.length()));
+    write(mdatHeader);
+    for (Track track : tracks) {
+      if (track == null) continue;
+      if (track.count > 0) write(ByteBuffer.wrap(track.data, 0, track.getResolvedBytes()));
+      track.clearResolved();
+    }
+    if (syncFragments) channel.force(false);
+  }
+
+  /**
+   * Convert annexb NAL units to 4 bytes length prefixed ones.
+   */
+  private void appendAvcc(Track track, ByteBuffer buffer, int offset, int size) {
+    int end = offset + size;
+    int nalStart = -1;
+    int i = offset;
+    while (i + 3 <= end) {
+      if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+        if (nalStart >= 0) appendNal(track, buffer, nalStart, trimZeros(buffer, nalStart, i));
+        i += 3;
+        nalStart = i;
+      } else {
+        i++;
+      }
+    }
+    if (nalStart < 0) {
+      //already without start codes, a single NAL unit
+      appendNal(track, buffer, offset, end);
+    } else {
+      appendNal(track, buffer, nalStart, end);
+    }
+  }
+
+  private int trimZeros(ByteBuffer buffer, int start, int end) {
+    while (end > start && buffer.get(end - 1) == 0) end--;
+    return end;
+  }
+
+  private void appendNal(Track track, ByteBuffer buffer, int start, int end) {
+    if (end <= start) return;
+    int type = buffer.get(start) & 0x1F;
+    if (type == NAL_SPS || type == NAL_PPS || type == NAL_AUD) return;
+    track.putLength(end - start);
+    track.putData(buffer, start, end - start);
+  }
+
+  private byte[] createInit() {
+    BoxBuilder builder = new BoxBuilder();
+    builder.start("ftyp").putType("iso6").putInt(0);
+    builder.putType("iso6").putType("isom").putType("mp41");
+    if (videoTrack != null) builder.putType("avc1");
+    builder.end();
+    builder.start("moov");
+    builder.startFull("mvhd", 0, 0).putInt(0).putInt(0).putInt(1000).putInt(0)
+        .putInt(0x00010000).putShort(0x0100).putZeros(10);
+    putMatrix(builder);
+    builder.putZeros(24).putInt(AUDIO_TRACK_ID + 1).end();
+    if (videoTrack != null) putTrak(builder, videoTrack, true);
+    if (audioTrack != null) putTrak(builder, audioTrack, false);
+    builder.start("mvex");
+    for (Track track : new Track[] { videoTrack, audioTrack }) {
+      if (track == null) continue;
+      builder.startFull("trex", 0, 0).putInt(track.id).putInt(1).putInt(0).putInt(0).putInt(0)
+          .end();
+    }
+    builder.end();
+    builder.end();
+    return builder.toByteArray();
+  }
+
+  private void putTrak(BoxBuilder builder, Track track, boolean isVideo) {
+    builder.start("trak");
+    //enabled and in movie
+    builder.startFull("tkhd", 0, 3).putInt(0).putInt(0).putInt(track.id).putInt(0).putInt(0)
+        .putZeros(8).putShort(0).putShort(0).putShort(isVideo ? 0 : 0x0100).putShort(0);
+    putMatrix(builder);
+    builder.putInt(isVideo ? width << 16 : 0).putInt(isVideo ? height << 16 : 0).end();
+    builder.start("mdia");
+    //language und
+    builder.startFull("mdhd", 0, 0).putInt(0).putInt(0).putInt(track.timescale).putInt(0)
+        .putShort(0x55C4).putShort(0).end();
+    builder.startFull("hdlr", 0, 0).putInt(0).putType(isVideo ? "vide" : "soun").putZeros(12)
+        .putBytes((isVideo ? "VideoHandler\0" : "SoundHandler\0").getBytes()).end();
+    builder.start("minf");
+    if (isVideo) {
+      builder.startFull("vmhd", 0, 1).putZeros(8).end();
+    } else {
+      builder.startFull("smhd", 0, 0).putZeros(4).end();
+    }
+    builder.start("dinf").startFull("dref", 0, 0).putInt(1).startFull("url ", 0, 1).end().end()
+        .end();
+    builder.start("stbl");
+    builder.startFull("stsd", 0, 0).putInt(1);
+    if (isVideo) {
+      putAvc1(builder);
+    } else {
+      putMp4a(builder);
+    }
+    builder.end();
+    builder.startFull("stts", 0, 0).putInt(0).end();
+    builder.startFull("stsc", 0, 0).putInt(0).end();
+    builder.startFull("stsz", 0, 0).putInt(0).putInt(0).end();
+    builder.startFull("stco", 0, 0).putInt(0).end();
+    builder.end();
+    builder.end();
+    builder.end();
+    builder.end();
+  }
+
+  private void putAvc1(BoxBuilder builder) {
+    builder.start("avc1").putZeros(6).putShort(1).putZeros(16).putShort(width).putShort(height)
+        .putInt(0x00480000).putInt(0x00480000).putInt(0).putShort(1).putZeros(32)
+        .putShort(0x0018).putShort(0xFFFF);
+    int profile = sps[1] & 0xFF;
+    builder.start("avcC").putByte(1).putByte(profile).putByte(sps[2]).putByte(sps[3])
+        .putByte(0xFF).putByte(0xE1).putShort(sps.length).putBytes(sps).putByte(1)
+        .putShort(pps.length).putBytes(pps);
+    if (profile == 100 || profile == 110 || profile == 122 || profile == 144) {
+      //4:2:0 8 bits, encoders output
+      builder.putByte(0xFD).putByte(0xF8).putByte(0xF8).putByte(0);
+    }
+    builder.end();
+    builder.end();
+  }
+
+  private void putMp4a(BoxBuilder builder) {
+    builder.start("mp4a").putZeros(6).putShort(1).putZeros(8).putShort(channels).putShort(16)
+        .putZeros(4).putInt(sampleRate << 16);
+    int ascLength = audioSpecificConfig.length;
+    builder.startFull("esds", 0, 0);
+    //ES_Descriptor
+    builder.putByte(0x03).putByte(3 + 2 + 13 + 2 + ascLength + 3).putShort(0).putByte(0);
+    //DecoderConfigDescriptor, AAC audio stream
+    builder.putByte(0x04).putByte(13 + 2 + ascLength).putByte(0x40).putByte(0x15).putZeros(3)
+        .putInt(0).putInt(0);
+    //DecoderSpecificInfo
+    builder.putByte(0x05).putByte(ascLength).putBytes(audioSpecificConfig);
+    //SLConfigDescriptor
+    builder.putByte(0x06).putByte(1).putByte(0x02);
+    builder.end();
+    builder.end();
+  }
+
+  private static void putMatrix(BoxBuilder builder) {
+    builder.putInt(0x00010000).putInt(0).putInt(0).putInt(0).putInt(0x00010000).putInt(0)
+        .putInt(0).putInt(0).putInt(0x40000000);
+  }
+
+  private static byte[] removeStartCode(byte[] nal) {
+    int i = 0;
+    while (i < nal.length - 1 && nal[i] == 0) i++;
+    if (i >= 2 && nal[i] == 1) return Arrays.copyOfRange(nal, i + 1, nal.length);
+    return nal;
+  }
+
+  private static byte[] createAacConfig(int sampleRate, int channels) {
+    int[] rates = {
+        96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+    int index = 4;
+    for (int i = 0; i < rates.length; i++) {
+      if (rates[i] == sampleRate) index = i;
+    }
+    //AAC-LC object type 2
+    return new byte[] {
+        (byte) ((2 << 3) | (index >> 1)), (byte) (((index & 1) << 7) | (channels << 3))
+    };
+  }
+}
@@ -18,6 +18,10 @@ package com.pedro.rtplibrary.network;
  * This class notifies all subscribed {@link ConnectionClassStateChangeListener} with the new
  * ConnectionClass when the network's ConnectionClass changes.
  * </p>
+ *
+ * @deprecated /proc/net/xt_qtaguid is not available in new Android versions. Give a
+ * {@link com.pedro.rtplibrary.cc.CongestionController} to setCongestionController of camera,
+ * display or file streams, it is fed with bytes sent by the stream itself.
  */
 
 @Deprecated
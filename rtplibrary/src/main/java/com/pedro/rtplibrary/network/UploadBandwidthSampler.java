@@ -21,6 +21,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * Class used to read from the file {@code /proc/net/xt_qtaguid/stats} periodically, in order to
  * determine a ConnectionClass.
+ *
+ * @deprecated /proc/net/xt_qtaguid is not available in new Android versions. Give a
+ * {@link com.pedro.rtplibrary.cc.CongestionController} to setCongestionController of camera,
+ * display or file streams, it is fed with bytes sent by the stream itself.
  */
 
 @Deprecated
@@ -7,6 +7,8 @@ import androidx.annotation.RequiresApi;
 import android.view.SurfaceView;
 import android.view.TextureView;
 import com.pedro.rtplibrary.base.Camera1Base;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import com.pedro.rtplibrary.view.LightOpenGlView;
 import com.pedro.rtplibrary.view.OpenGlView;
 import java.nio.ByteBuffer;
@@ -116,6 +118,21 @@ public class RtmpCamera1 extends Camera1Base {
     srsFlvMuxer.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    srsFlvMuxer.setLatencyListener(latencyMonitor);
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    srsFlvMuxer.setNetworkListener(congestionMonitor);
+  }
+
+  @Override
+  protected void setTemporalLayerDroppingRtp(long maxLatencyMs) {
+    srsFlvMuxer.setTemporalLayerDropping(maxLatencyMs);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     srsFlvMuxer.setIsStereo(isStereo);
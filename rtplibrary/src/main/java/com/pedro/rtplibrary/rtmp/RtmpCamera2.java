@@ -9,6 +9,8 @@ import android.view.TextureView;
 
 import com.pedro.rtplibrary.base.Camera2Base;
 
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import com.pedro.rtplibrary.view.LightOpenGlView;
 import com.pedro.rtplibrary.view.OpenGlView;
 import net.ossrs.rtmp.ConnectCheckerRtmp;
@@ -116,6 +118,21 @@ public class RtmpCamera2 extends Camera2Base {
     srsFlvMuxer.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    srsFlvMuxer.setLatencyListener(latencyMonitor);
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    srsFlvMuxer.setNetworkListener(congestionMonitor);
+  }
+
+  @Override
+  protected void setTemporalLayerDroppingRtp(long maxLatencyMs) {
+    srsFlvMuxer.setTemporalLayerDropping(maxLatencyMs);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     srsFlvMuxer.setIsStereo(isStereo);
@@ -6,6 +6,8 @@ import android.os.Build;
 import androidx.annotation.RequiresApi;
 
 import com.pedro.rtplibrary.base.DisplayBase;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 
 import net.ossrs.rtmp.ConnectCheckerRtmp;
 import net.ossrs.rtmp.SrsFlvMuxer;
@@ -92,6 +94,21 @@ public class RtmpDisplay extends DisplayBase {
     srsFlvMuxer.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    srsFlvMuxer.setLatencyListener(latencyMonitor);
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    srsFlvMuxer.setNetworkListener(congestionMonitor);
+  }
+
+  @Override
+  protected void setTemporalLayerDroppingRtp(long maxLatencyMs) {
+    srsFlvMuxer.setTemporalLayerDropping(maxLatencyMs);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     srsFlvMuxer.setIsStereo(isStereo);
@@ -8,6 +8,7 @@ import androidx.annotation.RequiresApi;
 import com.pedro.encoder.input.decoder.AudioDecoderInterface;
 import com.pedro.encoder.input.decoder.VideoDecoderInterface;
 import com.pedro.rtplibrary.base.FromFileBase;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
 
 import com.pedro.rtplibrary.view.LightOpenGlView;
 import com.pedro.rtplibrary.view.OpenGlView;
@@ -115,6 +116,11 @@ public class RtmpFromFile extends FromFileBase {
     srsFlvMuxer.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    srsFlvMuxer.setNetworkListener(congestionMonitor);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     srsFlvMuxer.setIsStereo(isStereo);
@@ -2,6 +2,7 @@ package com.pedro.rtplibrary.rtmp;
 
 import android.media.MediaCodec;
 import com.pedro.rtplibrary.base.OnlyAudioBase;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import java.nio.ByteBuffer;
 import net.ossrs.rtmp.ConnectCheckerRtmp;
 import net.ossrs.rtmp.SrsFlvMuxer;
@@ -76,6 +77,11 @@ public class RtmpOnlyAudio extends OnlyAudioBase {
     srsFlvMuxer.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    srsFlvMuxer.setLatencyListener(latencyMonitor);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     srsFlvMuxer.setIsStereo(isStereo);
@@ -6,10 +6,14 @@ import android.os.Build;
 import androidx.annotation.RequiresApi;
 import com.pedro.encoder.utils.CodecUtil;
 import com.pedro.rtplibrary.base.DisplayBase;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.LatencyMonitor;
+import com.pedro.rtsp.cc.SendSideBandwidthEstimator;
 import com.pedro.rtsp.rtsp.Protocol;
 import com.pedro.rtsp.rtsp.RtspClient;
 import com.pedro.rtsp.rtsp.VideoCodec;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.rtsp.utils.KeyFrameRequestListener;
 import java.nio.ByteBuffer;
 
 /**
@@ -19,7 +23,7 @@ import java.nio.ByteBuffer;
  * Created by pedro on 9/08/17.
  */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-public class RtspDisplay extends DisplayBase {
+public class RtspDisplay extends DisplayBase implements KeyFrameRequestListener {
 
   private RtspClient rtspClient;
 
@@ -37,6 +41,37 @@ public class RtspDisplay extends DisplayBase {
     rtspClient.setProtocol(protocol);
   }
 
+  /**
+   * Reduce round trips of RTSP handshake. Falls back to sequential handshake if server fails.
+   * Must be called before startStream.
+   *
+   * @param optimizedHandshake true to skip OPTIONS and pipeline SETUP and RECORD.
+   */
+  public void setOptimizedHandshake(boolean optimizedHandshake) {
+    rtspClient.setOptimizedHandshake(optimizedHandshake);
+  }
+
+  /**
+   * Estimate available bandwidth with transport-wide congestion control feedback and adapt video
+   * bitrate to it. Server must support transport-cc. Need be called before startStream.
+   *
+   * @param minBitrate min video bitrate in bps.
+   * @param maxBitrate max video bitrate in bps. Normally bitrate used in prepareVideo.
+   */
+  public void enableBandwidthEstimation(int minBitrate, int maxBitrate) {
+    rtspClient.enableTransportCc(getBitrate(), minBitrate, maxBitrate,
+        new SendSideBandwidthEstimator.Listener() {
+          @Override
+          public void onTargetBitrate(int bitrate) {
+            setVideoBitrateOnFly(bitrate);
+          }
+        });
+  }
+
+  public void disableBandwidthEstimation() {
+    rtspClient.disableTransportCc();
+  }
+
   @Override
   public void resizeCache(int newSize) throws RuntimeException {
     rtspClient.resizeCache(newSize);
@@ -96,6 +131,21 @@ public class RtspDisplay extends DisplayBase {
     rtspClient.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    rtspClient.setLatencyListener(latencyMonitor);
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    rtspClient.setNetworkListener(congestionMonitor);
+  }
+
+  @Override
+  protected void setTemporalLayerDroppingRtp(long maxLatencyMs) {
+    rtspClient.setTemporalLayerDropping(maxLatencyMs);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     rtspClient.setIsStereo(isStereo);
@@ -145,4 +195,39 @@ public class RtspDisplay extends DisplayBase {
   protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     rtspClient.sendVideo(h264Buffer, info);
   }
+
+  /**
+   * Force a key frame when server lost one (RTCP PLI or FIR). SDP advertises this feedback only
+   * if enabled. Must be called before startStream. Disabled by default.
+   *
+   * @param enabled true to listen server key frame requests.
+   */
+  public void setKeyFrameRequestEnabled(boolean enabled) {
+    rtspClient.setKeyFrameRequestListener(enabled ? this : null);
+  }
+
+  /**
+   * Min time between two key frames forced by server requests (RTCP PLI or FIR).
+   *
+   * @param interval in ms. 1000 by default.
+   */
+  public void setKeyFrameRequestInterval(long interval) {
+    rtspClient.setKeyFrameRequestInterval(interval);
+  }
+
+  /**
+   * Send several audio frames in each packet to reduce packet rate. Must be called before
+   * startStream.
+   *
+   * @param maxLatencyMs max time an audio frame is delayed. 0 to disable (default).
+   * @param mtu max packet size in bytes.
+   */
+  public void setAudioAggregation(long maxLatencyMs, int mtu) {
+    rtspClient.setAudioAggregation(maxLatencyMs, mtu);
+  }
+
+  @Override
+  public void onKeyFrameRequest() {
+    videoEncoder.forceSyncFrame();
+  }
 }
@@ -2,6 +2,7 @@ package com.pedro.rtplibrary.rtsp;
 
 import android.media.MediaCodec;
 import com.pedro.rtplibrary.base.OnlyAudioBase;
+import com.pedro.rtplibrary.util.LatencyMonitor;
 import com.pedro.rtsp.rtsp.Protocol;
 import com.pedro.rtsp.rtsp.RtspClient;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
@@ -32,6 +33,27 @@ public class RtspOnlyAudio extends OnlyAudioBase {
     rtspClient.setProtocol(protocol);
   }
 
+  /**
+   * Reduce round trips of RTSP handshake. Falls back to sequential handshake if server fails.
+   * Must be called before startStream.
+   *
+   * @param optimizedHandshake true to skip OPTIONS and pipeline SETUP and RECORD.
+   */
+  public void setOptimizedHandshake(boolean optimizedHandshake) {
+    rtspClient.setOptimizedHandshake(optimizedHandshake);
+  }
+
+  /**
+   * Send several audio frames in each packet to reduce packet rate. Must be called before
+   * startStream.
+   *
+   * @param maxLatencyMs max time an audio frame is delayed. 0 to disable (default).
+   * @param mtu max packet size in bytes.
+   */
+  public void setAudioAggregation(long maxLatencyMs, int mtu) {
+    rtspClient.setAudioAggregation(maxLatencyMs, mtu);
+  }
+
   @Override
   public void resizeCache(int newSize) throws RuntimeException {
     rtspClient.resizeCache(newSize);
@@ -87,6 +109,11 @@ public class RtspOnlyAudio extends OnlyAudioBase {
     rtspClient.setAuthorization(user, password);
   }
 
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    rtspClient.setLatencyListener(latencyMonitor);
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     rtspClient.setIsStereo(isStereo);
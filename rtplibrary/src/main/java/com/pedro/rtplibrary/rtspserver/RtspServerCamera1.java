@@ -0,0 +1,230 @@
+package com.pedro.rtplibrary.rtspserver;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.RequiresApi;
+import android.view.SurfaceView;
+import android.view.TextureView;
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.rtplibrary.base.Camera1Base;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.LatencyMonitor;
+import com.pedro.rtplibrary.view.LightOpenGlView;
+import com.pedro.rtplibrary.view.OpenGlView;
+import com.pedro.rtsp.rtsp.VideoCodec;
+import com.pedro.rtsp.server.RtspServer;
+import com.pedro.rtsp.utils.KeyFrameRequestListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serve the stream with a RTSP server running in the device. Players connect to
+ * rtsp://device_ip:port/ while streaming. Url of startStream is not used.
+ *
+ * More documentation see:
+ * {@link com.pedro.rtplibrary.base.Camera1Base}
+ *
+ * Created by pedro on 18/10/26.
+ */
+public class RtspServerCamera1 extends Camera1Base implements KeyFrameRequestListener {
+
+  private static final String TAG = "RtspServerCamera1";
+
+  private RtspServer rtspServer;
+
+  public RtspServerCamera1(SurfaceView surfaceView, RtspServer.Listener listener, int port) {
+    super(surfaceView);
+    rtspServer = createServer(listener, port);
+  }
+
+  public RtspServerCamera1(TextureView textureView, RtspServer.Listener listener, int port) {
+    super(textureView);
+    rtspServer = createServer(listener, port);
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  public RtspServerCamera1(OpenGlView openGlView, RtspServer.Listener listener, int port) {
+    super(openGlView);
+    rtspServer = createServer(listener, port);
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  public RtspServerCamera1(LightOpenGlView lightOpenGlView,
+      RtspServer.Listener listener, int port) {
+    super(lightOpenGlView);
+    rtspServer = createServer(listener, port);
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  public RtspServerCamera1(Context context, RtspServer.Listener listener, int port) {
+    super(context);
+    rtspServer = createServer(listener, port);
+  }
+
+  private RtspServer createServer(RtspServer.Listener listener, int port) {
+    RtspServer server = new RtspServer(port);
+    server.setListener(listener);
+    server.setKeyFrameRequestListener(this);
+    return server;
+  }
+
+  /**
+   * Same to startStream with an empty url.
+   */
+  public void startStream() {
+    startStream("");
+  }
+
+  public int getPort() {
+    return rtspServer.getPort();
+  }
+
+  public int getNumClients() {
+    return rtspServer.getNumClients();
+  }
+
+  /**
+   * Min time between two key frames forced by clients that start to play or lose packets.
+   *
+   * @param interval in ms. 1000 by default.
+   */
+  public void setKeyFrameRequestInterval(long interval) {
+    rtspServer.setKeyFrameRequestInterval(interval);
+  }
+
+  @Override
+  public void resizeCache(int newSize) throws RuntimeException {
+    //each client has its own queue
+  }
+
+  @Override
+  public int getCacheSize() {
+    return 0;
+  }
+
+  @Override
+  public long getSentAudioFrames() {
+    return rtspServer.getSentAudioFrames();
+  }
+
+  @Override
+  public long getSentVideoFrames() {
+    return rtspServer.getSentVideoFrames();
+  }
+
+  @Override
+  public long getDroppedAudioFrames() {
+    return rtspServer.getDroppedAudioFrames();
+  }
+
+  @Override
+  public long getDroppedVideoFrames() {
+    return rtspServer.getDroppedVideoFrames();
+  }
+
+  @Override
+  public void resetSentAudioFrames() {
+    rtspServer.resetSentAudioFrames();
+  }
+
+  @Override
+  public void resetSentVideoFrames() {
+    rtspServer.resetSentVideoFrames();
+  }
+
+  @Override
+  public void resetDroppedAudioFrames() {
+    rtspServer.resetDroppedAudioFrames();
+  }
+
+  @Override
+  public void resetDroppedVideoFrames() {
+    rtspServer.resetDroppedVideoFrames();
+  }
+
+  public void setVideoCodec(VideoCodec videoCodec) {
+    videoEncoder.setType(videoCodec == VideoCodec.H265 ? CodecUtil.H265_MIME : CodecUtil.H264_MIME);
+  }
+
+  @Override
+  public void setAuthorization(String user, String password) {
+    //clients are not authenticated
+  }
+
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    //each client has its own queue, there is no single send latency
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    //each client has its own queue, there is no single send bitrate or delay
+  }
+
+  @Override
+  protected void setTemporalLayerDroppingRtp(long maxLatencyMs) {
+    //clients that can't keep up wait next key frame
+  }
+
+  @Override
+  protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
+    rtspServer.setAudioInfo(sampleRate, isStereo);
+  }
+
+  @Override
+  protected void startStreamRtp(String url) {
+    //server is started when video info is ready
+  }
+
+  @Override
+  protected void stopStreamRtp() {
+    rtspServer.stopServer();
+  }
+
+  @Override
+  public void setReTries(int reTries) {
+    //nothing to reconnect, clients connect to server
+  }
+
+  @Override
+  public boolean shouldRetry(String reason) {
+    return false;
+  }
+
+  @Override
+  public void reConnect(long delay) {
+  }
+
+  @Override
+  protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    rtspServer.sendAudio(aacBuffer, info);
+  }
+
+  @Override
+  protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    ByteBuffer newSps = sps.duplicate();
+    ByteBuffer newPps = pps.duplicate();
+    ByteBuffer newVps = vps != null ? vps.duplicate() : null;
+    rtspServer.setVideoInfo(newSps, newPps, newVps);
+    if (!rtspServer.isRunning()) {
+      try {
+        rtspServer.startServer();
+      } catch (IOException e) {
+        //listener receives onServerError
+        Log.e(TAG, "server start error", e);
+      }
+    }
+  }
+
+  @Override
+  protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    rtspServer.sendVideo(h264Buffer, info);
+  }
+
+  @Override
+  public void onKeyFrameRequest() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) videoEncoder.forceSyncFrame();
+  }
+}
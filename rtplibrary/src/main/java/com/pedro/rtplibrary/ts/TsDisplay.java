@@ -0,0 +1,166 @@
+package com.pedro.rtplibrary.ts;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.rtplibrary.base.DisplayBase;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.util.LatencyMonitor;
+import com.pedro.rtsp.rtsp.VideoCodec;
+import com.pedro.ts.ts.TsClient;
+import com.pedro.ts.utils.ConnectCheckerTs;
+import java.nio.ByteBuffer;
+
+/**
+ * More documentation see:
+ * {@link com.pedro.rtplibrary.base.DisplayBase}
+ *
+ * Created by pedro on 18/10/26.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class TsDisplay extends DisplayBase {
+
+  private TsClient tsClient;
+
+  public TsDisplay(Context context, boolean useOpengl, ConnectCheckerTs connectCheckerTs) {
+    super(context, useOpengl);
+    tsClient = new TsClient(connectCheckerTs);
+  }
+
+  /**
+   * @param pacing spread UDP datagrams with PCR times. True by default. Must be called before
+   * startStream.
+   */
+  public void setPacing(boolean pacing) {
+    tsClient.setPacing(pacing);
+  }
+
+  /**
+   * @param muxDelayMs time receivers buffer before decode a frame. 500 by default.
+   */
+  public void setMuxDelay(long muxDelayMs) {
+    tsClient.setMuxDelay(muxDelayMs);
+  }
+
+  @Override
+  public void resizeCache(int newSize) throws RuntimeException {
+    tsClient.resizeCache(newSize);
+  }
+
+  @Override
+  public int getCacheSize() {
+    return tsClient.getCacheSize();
+  }
+
+  @Override
+  public long getSentAudioFrames() {
+    return tsClient.getSentAudioFrames();
+  }
+
+  @Override
+  public long getSentVideoFrames() {
+    return tsClient.getSentVideoFrames();
+  }
+
+  @Override
+  public long getDroppedAudioFrames() {
+    return tsClient.getDroppedAudioFrames();
+  }
+
+  @Override
+  public long getDroppedVideoFrames() {
+    return tsClient.getDroppedVideoFrames();
+  }
+
+  @Override
+  public void resetSentAudioFrames() {
+    tsClient.resetSentAudioFrames();
+  }
+
+  @Override
+  public void resetSentVideoFrames() {
+    tsClient.resetSentVideoFrames();
+  }
+
+  @Override
+  public void resetDroppedAudioFrames() {
+    tsClient.resetDroppedAudioFrames();
+  }
+
+  @Override
+  public void resetDroppedVideoFrames() {
+    tsClient.resetDroppedVideoFrames();
+  }
+
+  public void setVideoCodec(VideoCodec videoCodec) {
+    videoEncoder.setType(videoCodec == VideoCodec.H265 ? CodecUtil.H265_MIME : CodecUtil.H264_MIME);
+  }
+
+  @Override
+  public void setAuthorization(String user, String password) {
+    //UDP and file outputs have no authorization
+  }
+
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    tsClient.setLatencyListener(latencyMonitor);
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    tsClient.setNetworkListener(congestionMonitor);
+  }
+
+  @Override
+  protected void setTemporalLayerDroppingRtp(long maxLatencyMs) {
+    //TS output send all layers, receivers are usually in a managed network
+  }
+
+  @Override
+  protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
+    tsClient.setSampleRate(sampleRate, isStereo);
+  }
+
+  @Override
+  protected void startStreamRtp(String url) {
+    tsClient.setUrl(url);
+  }
+
+  @Override
+  protected void stopStreamRtp() {
+    tsClient.disconnect();
+  }
+
+  @Override
+  public void setReTries(int reTries) {
+    tsClient.setReTries(reTries);
+  }
+
+  @Override
+  public boolean shouldRetry(String reason) {
+    return tsClient.shouldRetry(reason);
+  }
+
+  @Override
+  public void reConnect(long delay) {
+    tsClient.reConnect(delay);
+  }
+
+  @Override
+  protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    tsClient.sendAudio(aacBuffer, info);
+  }
+
+  @Override
+  protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    tsClient.setSPSandPPS(sps, pps, vps);
+    tsClient.connect();
+  }
+
+  @Override
+  protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    tsClient.sendVideo(h264Buffer, info);
+  }
+}
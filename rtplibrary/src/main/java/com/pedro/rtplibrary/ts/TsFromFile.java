@@ -0,0 +1,178 @@
+package com.pedro.rtplibrary.ts;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.input.decoder.AudioDecoderInterface;
+import com.pedro.encoder.input.decoder.VideoDecoderInterface;
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.rtplibrary.base.FromFileBase;
+import com.pedro.rtplibrary.cc.CongestionMonitor;
+import com.pedro.rtplibrary.view.LightOpenGlView;
+import com.pedro.rtplibrary.view.OpenGlView;
+import com.pedro.rtsp.rtsp.VideoCodec;
+import com.pedro.ts.ts.TsClient;
+import com.pedro.ts.utils.ConnectCheckerTs;
+import java.nio.ByteBuffer;
+
+/**
+ * More documentation see:
+ * {@link com.pedro.rtplibrary.base.FromFileBase}
+ *
+ * Created by pedro on 18/10/26.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class TsFromFile extends FromFileBase {
+
+  private TsClient tsClient;
+
+  public TsFromFile(ConnectCheckerTs connectCheckerTs,
+      VideoDecoderInterface videoDecoderInterface, AudioDecoderInterface audioDecoderInterface) {
+    super(videoDecoderInterface, audioDecoderInterface);
+    tsClient = new TsClient(connectCheckerTs);
+  }
+
+  public TsFromFile(Context context, ConnectCheckerTs connectCheckerTs,
+      VideoDecoderInterface videoDecoderInterface, AudioDecoderInterface audioDecoderInterface) {
+    super(context, videoDecoderInterface, audioDecoderInterface);
+    tsClient = new TsClient(connectCheckerTs);
+  }
+
+  public TsFromFile(OpenGlView openGlView, ConnectCheckerTs connectCheckerTs,
+      VideoDecoderInterface videoDecoderInterface, AudioDecoderInterface audioDecoderInterface) {
+    super(openGlView, videoDecoderInterface, audioDecoderInterface);
+    tsClient = new TsClient(connectCheckerTs);
+  }
+
+  public TsFromFile(LightOpenGlView lightOpenGlView, ConnectCheckerTs connectCheckerTs,
+      VideoDecoderInterface videoDecoderInterface, AudioDecoderInterface audioDecoderInterface) {
+    super(lightOpenGlView, videoDecoderInterface, audioDecoderInterface);
+    tsClient = new TsClient(connectCheckerTs);
+  }
+
+  /**
+   * @param pacing spread UDP datagrams with PCR times. True by default. Must be called before
+   * startStream.
+   */
+  public void setPacing(boolean pacing) {
+    tsClient.setPacing(pacing);
+  }
+
+  /**
+   * @param muxDelayMs time receivers buffer before decode a frame. 500 by default.
+   */
+  public void setMuxDelay(long muxDelayMs) {
+    tsClient.setMuxDelay(muxDelayMs);
+  }
+
+  @Override
+  public void resizeCache(int newSize) throws RuntimeException {
+    tsClient.resizeCache(newSize);
+  }
+
+  @Override
+  public int getCacheSize() {
+    return tsClient.getCacheSize();
+  }
+
+  @Override
+  public long getSentAudioFrames() {
+    return tsClient.getSentAudioFrames();
+  }
+
+  @Override
+  public long getSentVideoFrames() {
+    return tsClient.getSentVideoFrames();
+  }
+
+  @Override
+  public long getDroppedAudioFrames() {
+    return tsClient.getDroppedAudioFrames();
+  }
+
+  @Override
+  public long getDroppedVideoFrames() {
+    return tsClient.getDroppedVideoFrames();
+  }
+
+  @Override
+  public void resetSentAudioFrames() {
+    tsClient.resetSentAudioFrames();
+  }
+
+  @Override
+  public void resetSentVideoFrames() {
+    tsClient.resetSentVideoFrames();
+  }
+
+  @Override
+  public void resetDroppedAudioFrames() {
+    tsClient.resetDroppedAudioFrames();
+  }
+
+  @Override
+  public void resetDroppedVideoFrames() {
+    tsClient.resetDroppedVideoFrames();
+  }
+
+  public void setVideoCodec(VideoCodec videoCodec) {
+    videoEncoder.setType(videoCodec == VideoCodec.H265 ? CodecUtil.H265_MIME : CodecUtil.H264_MIME);
+  }
+
+  @Override
+  public void setAuthorization(String user, String password) {
+    //UDP and file outputs have no authorization
+  }
+
+  @Override
+  protected void setNetworkListenerRtp(CongestionMonitor congestionMonitor) {
+    tsClient.setNetworkListener(congestionMonitor);
+  }
+
+  @Override
+  protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
+    tsClient.setSampleRate(sampleRate, isStereo);
+  }
+
+  @Override
+  protected void startStreamRtp(String url) {
+    tsClient.setUrl(url);
+  }
+
+  @Override
+  protected void stopStreamRtp() {
+    tsClient.disconnect();
+  }
+
+  @Override
+  public void setReTries(int reTries) {
+    tsClient.setReTries(reTries);
+  }
+
+  @Override
+  public boolean shouldRetry(String reason) {
+    return tsClient.shouldRetry(reason);
+  }
+
+  @Override
+  public void reConnect(long delay) {
+    tsClient.reConnect(delay);
+  }
+
+  @Override
+  protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    tsClient.setSPSandPPS(sps, pps, vps);
+    tsClient.connect();
+  }
+
+  @Override
+  protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    tsClient.sendVideo(h264Buffer, info);
+  }
+
+  @Override
+  protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    tsClient.sendAudio(aacBuffer, info);
+  }
+}
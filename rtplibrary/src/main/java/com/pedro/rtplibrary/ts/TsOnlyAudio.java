@@ -0,0 +1,136 @@
+package com.pedro.rtplibrary.ts;
+
+import android.media.MediaCodec;
+import com.pedro.rtplibrary.base.OnlyAudioBase;
+import com.pedro.rtplibrary.util.LatencyMonitor;
+import com.pedro.ts.ts.TsClient;
+import com.pedro.ts.utils.ConnectCheckerTs;
+import java.nio.ByteBuffer;
+
+/**
+ * More documentation see:
+ * {@link com.pedro.rtplibrary.base.OnlyAudioBase}
+ *
+ * Created by pedro on 18/10/26.
+ */
+public class TsOnlyAudio extends OnlyAudioBase {
+
+  private TsClient tsClient;
+
+  public TsOnlyAudio(ConnectCheckerTs connectCheckerTs) {
+    super();
+    tsClient = new TsClient(connectCheckerTs);
+    tsClient.setOnlyAudio(true);
+  }
+
+  /**
+   * @param pacing spread UDP datagrams with PCR times. True by default. Must be called before
+   * startStream.
+   */
+  public void setPacing(boolean pacing) {
+    tsClient.setPacing(pacing);
+  }
+
+  /**
+   * @param muxDelayMs time receivers buffer before decode a frame. 500 by default.
+   */
+  public void setMuxDelay(long muxDelayMs) {
+    tsClient.setMuxDelay(muxDelayMs);
+  }
+
+  @Override
+  public void resizeCache(int newSize) throws RuntimeException {
+    tsClient.resizeCache(newSize);
+  }
+
+  @Override
+  public int getCacheSize() {
+    return tsClient.getCacheSize();
+  }
+
+  @Override
+  public long getSentAudioFrames() {
+    return tsClient.getSentAudioFrames();
+  }
+
+  @Override
+  public long getSentVideoFrames() {
+    return tsClient.getSentVideoFrames();
+  }
+
+  @Override
+  public long getDroppedAudioFrames() {
+    return tsClient.getDroppedAudioFrames();
+  }
+
+  @Override
+  public long getDroppedVideoFrames() {
+    return tsClient.getDroppedVideoFrames();
+  }
+
+  @Override
+  public void resetSentAudioFrames() {
+    tsClient.resetSentAudioFrames();
+  }
+
+  @Override
+  public void resetSentVideoFrames() {
+    tsClient.resetSentVideoFrames();
+  }
+
+  @Override
+  public void resetDroppedAudioFrames() {
+    tsClient.resetDroppedAudioFrames();
+  }
+
+  @Override
+  public void resetDroppedVideoFrames() {
+    tsClient.resetDroppedVideoFrames();
+  }
+
+  @Override
+  public void setAuthorization(String user, String password) {
+    //UDP and file outputs have no authorization
+  }
+
+  @Override
+  protected void setLatencyMonitorRtp(LatencyMonitor latencyMonitor) {
+    tsClient.setLatencyListener(latencyMonitor);
+  }
+
+  @Override
+  protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
+    tsClient.setSampleRate(sampleRate, isStereo);
+  }
+
+  @Override
+  protected void startStreamRtp(String url) {
+    tsClient.setUrl(url);
+    tsClient.connect();
+  }
+
+  @Override
+  protected void stopStreamRtp() {
+    tsClient.disconnect();
+  }
+
+  @Override
+  public void setReTries(int reTries) {
+    tsClient.setReTries(reTries);
+  }
+
+  @Override
+  public boolean shouldRetry(String reason) {
+    return tsClient.shouldRetry(reason);
+  }
+
+  @Override
+  public void reConnect(long delay) {
+    tsClient.reConnect(delay);
+  }
+
+  @Override
+  protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    tsClient.sendAudio(aacBuffer, info);
+  }
+}
@@ -0,0 +1,165 @@
+package com.pedro.rtplibrary.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Adaptive bitrate ladder. Each rung is a resolution with the bitrate range where it looks better
+ * than its neighbours. Bitrates given by the bitrate controller ({@link BitrateAdapter}) move the
+ * stream inside the current rung and switch rungs with hysteresis: down after a few samples under
+ * the rung minimum, up after more samples over the upper rung minimum with a margin and never
+ * just after other switch.
+ */
+public class AbrLadder implements BitrateAdapter.Listener {
+
+  public static class Rung {
+
+    private final int width;
+    private final int height;
+    private final int bitrate;
+    private final int minBitrate;
+
+    /**
+     * @param bitrate max bitrate used in this rung.
+     * @param minBitrate under it next lower rung is used.
+     */
+    public Rung(int width, int height, int bitrate, int minBitrate) {
+      this.width = width;
+      this.height = height;
+      this.bitrate = bitrate;
+      this.minBitrate = minBitrate;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getBitrate() {
+      return bitrate;
+    }
+
+    public int getMinBitrate() {
+      return minBitrate;
+    }
+
+    @Override
+    public String toString() {
+      return width + "x" + height + " " + minBitrate + "-" + bitrate;
+    }
+  }
+
+  public interface Listener {
+    void onBitrateChanged(int bitrate);
+
+    /**
+     * @return false if resolution can't be changed now, rung is kept.
+     */
+    boolean onRungChanged(Rung rung, int bitrate);
+  }
+
+  //bitrate over upper rung minimum needed to go up
+  private static final float UP_MARGIN = 1.2f;
+  private final List<Rung> rungs;
+  private Listener listener;
+  private int current = 0;
+  private int samplesBelow = 0;
+  private int samplesAbove = 0;
+  private long lastSwitchMs = 0;
+  private int downSamples = 2;
+  private int upSamples = 5;
+  private long upHoldMs = 10000;
+
+  /**
+   * @param rungs in any order, sorted from highest to lowest bitrate. Stream starts in the highest,
+   * the resolution given in prepareVideo.
+   */
+  public AbrLadder(List<Rung> rungs) {
+    if (rungs.isEmpty()) throw new IllegalArgumentException("Ladder needs at least one rung");
+    this.rungs = new ArrayList<>(rungs);
+    Collections.sort(this.rungs, new Comparator<Rung>() {
+      @Override
+      public int compare(Rung r1, Rung r2) {
+        return r2.bitrate - r1.bitrate;
+      }
+    });
+  }
+
+  public synchronized void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @param downSamples consecutive samples under rung minimum to go down. 2 by default.
+   * @param upSamples consecutive samples over upper rung minimum to go up. 5 by default.
+   * @param upHoldMs time after a switch without going up. 10000 by default.
+   */
+  public synchronized void setHysteresis(int downSamples, int upSamples, long upHoldMs) {
+    this.downSamples = Math.max(1, downSamples);
+    this.upSamples = Math.max(1, upSamples);
+    this.upHoldMs = upHoldMs;
+  }
+
+  /**
+   * @return bitrate of the highest rung, max bitrate of the bitrate controller.
+   */
+  public int getMaxBitrate() {
+    return rungs.get(0).bitrate;
+  }
+
+  public synchronized Rung getCurrentRung() {
+    return rungs.get(current);
+  }
+
+  /**
+   * Go back to the highest rung, call it when stream starts.
+   */
+  public synchronized void reset() {
+    current = 0;
+    samplesBelow = 0;
+    samplesAbove = 0;
+    lastSwitchMs = 0;
+  }
+
+  @Override
+  public synchronized void onBitrateAdapted(int bitrate) {
+    Rung rung = rungs.get(current);
+    if (current < rungs.size() - 1 && bitrate < rung.minBitrate) {
+      samplesBelow++;
+      samplesAbove = 0;
+    } else if (current > 0 && bitrate >= rungs.get(current - 1).minBitrate * UP_MARGIN) {
+      samplesAbove++;
+      samplesBelow = 0;
+    } else {
+      samplesBelow = 0;
+      samplesAbove = 0;
+    }
+    int target = current;
+    long now = System.currentTimeMillis();
+    if (samplesBelow >= downSamples) {
+      //bandwidth can collapse, go directly to the rung that fits
+      while (target < rungs.size() - 1 && bitrate < rungs.get(target).minBitrate) target++;
+    } else if (samplesAbove >= upSamples && now - lastSwitchMs >= upHoldMs) {
+      target = current - 1;
+    }
+    if (listener == null) return;
+    if (target != current) {
+      samplesBelow = 0;
+      samplesAbove = 0;
+      int targetBitrate = Math.min(bitrate, rungs.get(target).bitrate);
+      if (listener.onRungChanged(rungs.get(target), targetBitrate)) {
+        current = target;
+        lastSwitchMs = now;
+        return;
+      }
+    }
+    listener.onBitrateChanged(Math.min(bitrate, rungs.get(current).bitrate));
+  }
+}
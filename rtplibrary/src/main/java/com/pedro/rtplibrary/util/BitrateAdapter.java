@@ -2,6 +2,11 @@ package com.pedro.rtplibrary.util;
 
 /**
  * Created by pedro on 11/07/19.
+ *
+ * Adapt bitrate only from send rate given in onNewBitrate callbacks. To use queue delay, rtt or
+ * loss too, give a {@link com.pedro.rtplibrary.cc.CongestionController} to
+ * {@link com.pedro.rtplibrary.base.Camera1Base#setCongestionController} or the same method of
+ * other stream bases.
  */
 public class BitrateAdapter {
 
@@ -0,0 +1,64 @@
+package com.pedro.rtplibrary.util;
+
+import com.pedro.encoder.utils.LatencyHistogram;
+import com.pedro.encoder.utils.LatencyTracker;
+import com.pedro.rtsp.utils.LatencyListener;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Capture to wire latency of video and audio, per stage: encoder input, encoder output, mux
+ * enqueue, mux dequeue and socket write. Latency of each stage is the time elapsed since capture.
+ * Frames without capture time (surface encoding, files) are not measured.
+ */
+public class LatencyMonitor
+    implements LatencyListener, net.ossrs.rtmp.LatencyListener, com.pedro.ts.utils.LatencyListener {
+
+  private final LatencyTracker videoTracker = new LatencyTracker();
+  private final LatencyTracker audioTracker = new LatencyTracker();
+
+  public LatencyTracker getVideoTracker() {
+    return videoTracker;
+  }
+
+  public LatencyTracker getAudioTracker() {
+    return audioTracker;
+  }
+
+  public LatencyHistogram getVideoHistogram(LatencyTracker.Stage stage) {
+    return videoTracker.getHistogram(stage);
+  }
+
+  public LatencyHistogram getAudioHistogram(LatencyTracker.Stage stage) {
+    return audioTracker.getHistogram(stage);
+  }
+
+  public void reset() {
+    videoTracker.reset();
+    audioTracker.reset();
+  }
+
+  @Override
+  public void onPacketQueued(boolean isVideo, long timestampMs) {
+    getTracker(isVideo).onStage(LatencyTracker.Stage.MUX_ENQUEUE, timestampMs);
+  }
+
+  @Override
+  public void onPacketDequeued(boolean isVideo, long timestampMs) {
+    getTracker(isVideo).onStage(LatencyTracker.Stage.MUX_DEQUEUE, timestampMs);
+  }
+
+  @Override
+  public void onPacketSent(boolean isVideo, long timestampMs) {
+    getTracker(isVideo).onStage(LatencyTracker.Stage.SOCKET_WRITE, timestampMs);
+  }
+
+  @Override
+  public String toString() {
+    return "Video latency:\n" + videoTracker + "Audio latency:\n" + audioTracker;
+  }
+
+  private LatencyTracker getTracker(boolean isVideo) {
+    return isVideo ? videoTracker : audioTracker;
+  }
+}
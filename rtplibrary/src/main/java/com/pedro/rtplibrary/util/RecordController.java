@@ -4,19 +4,34 @@ import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.os.Build;
+import android.util.Log;
 import androidx.annotation.RequiresApi;
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.utils.LatencyHistogram;
+import com.pedro.rtplibrary.mp4.FragmentedMp4Writer;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Created by pedro on 08/03/19.
  *
- * Class to control video recording with MediaMuxer.
+ * Class to control video recording with MediaMuxer. Encoded samples are copied to pooled buffers
+ * and written by an I/O thread, so a slow storage never delays encoder callbacks or the stream.
+ * Queued samples have a memory budget, see {@link OverflowPolicy}. H264 records can be written as
+ * fragmented MP4, see {@link #setFragmented(boolean, long)}.
  */
 public class RecordController {
 
-  private Status status = Status.STOPPED;
-  private MediaMuxer mediaMuxer;
+  private static final String TAG = "RecordController";
+  private static final int VIDEO_TRACK = 0;
+  private static final int AUDIO_TRACK = 1;
+  private volatile Status status = Status.STOPPED;
+  private boolean fragmented = false;
+  private long segmentDurationUs = 0;
   private MediaFormat videoFormat, audioFormat;
   private int videoTrack = -1;
   private int audioTrack = -1;
@@ -24,41 +39,252 @@ public class RecordController {
   //Pause/Resume
   private long pauseMoment = 0;
   private long pauseTime = 0;
-  private MediaCodec.BufferInfo videoInfo = new MediaCodec.BufferInfo();
-  private MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+  //Async write
+  private Session session;
+  private long maxQueuedBytes = 8 * 1024 * 1024;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_FRAMES;
+  private boolean waitKeyFrame = false;
+  private long droppedSamples = 0;
+  private final LatencyHistogram writeLatency = new LatencyHistogram();
+  private final LatencyHistogram writeDuration = new LatencyHistogram();
 
   public enum Status {
     STARTED, STOPPED, RECORDING, PAUSED, RESUMED
   }
 
+  /**
+   * What to do with a sample that doesn't fit in the memory budget.
+   */
+  public enum OverflowPolicy {
+    //discard samples, video until next key frame that fit
+    DROP_FRAMES,
+    //write queued samples and stop record
+    STOP_RECORD
+  }
+
   public interface Listener {
     void onStatusChange(Status status);
   }
 
+  private static class Sample {
+    private ByteBuffer buffer;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private int track;
+    private long queuedNs;
+  }
+
+  //marks end of record and pause in samples queue
+  private static final Sample END = new Sample();
+  private static final Sample PAUSE = new Sample();
+
+  /**
+   * Writer state of one record. It is owned by its writer thread, so a previous record still
+   * closing its file never shares buffers or memory budget with a new one.
+   */
+  private static class Session {
+    private final BlockingQueue<Sample> samples = new LinkedBlockingQueue<>();
+    //guarded by session. Bytes are buffer capacities, queued and pooled together are the direct
+    //memory held by the record
+    private final ArrayDeque<Sample> pool = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private long pooledBytes = 0;
+    private final String path;
+    //read by writer thread after first sample is queued
+    private volatile MediaMuxer mediaMuxer;
+    private volatile FragmentedMp4Writer fragmentedWriter;
+    private Thread thread;
+
+    private Session(String path) {
+      this.path = path;
+    }
+  }
+
+  /**
+   * Write H264 records as fragmented MP4 instead of MediaMuxer MP4. File is readable until last
+   * fragment after a crash and pause doesn't leave gaps. Used on next startRecord. Other video
+   * codecs are recorded with MediaMuxer.
+   *
+   * @param segmentDurationUs start a new file (name_index.mp4) after it. 0 to use one file.
+   */
+  public void setFragmented(boolean fragmented, long segmentDurationUs) {
+    this.fragmented = fragmented;
+    this.segmentDurationUs = segmentDurationUs;
+  }
+
+  /**
+   * @param maxQueuedBytes memory used by samples waiting to be written and buffers pooled to reuse.
+   * 8 MB by default.
+   * @param overflowPolicy {@link OverflowPolicy#DROP_FRAMES} by default.
+   */
+  public synchronized void setMemoryBudget(long maxQueuedBytes, OverflowPolicy overflowPolicy) {
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * @return time since a sample is queued until it is written in file.
+   */
+  public LatencyHistogram getWriteLatency() {
+    return writeLatency;
+  }
+
+  /**
+   * @return time spent in each MediaMuxer write.
+   */
+  public LatencyHistogram getWriteDuration() {
+    return writeDuration;
+  }
+
+  /**
+   * @return samples discarded because memory budget was full.
+   */
+  public synchronized long getDroppedSamples() {
+    return droppedSamples;
+  }
+
+  /**
+   * @return memory of samples waiting to be written.
+   */
+  public synchronized long getQueuedBytes() {
+    Session current = session;
+    if (current == null) return 0;
+    synchronized (current) {
+      return current.queuedBytes;
+    }
+  }
+
+  public synchronized void resetMetrics() {
+    droppedSamples = 0;
+    writeLatency.reset();
+    writeDuration.reset();
+  }
+
   @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
   public void startRecord(String path, Listener listener) throws IOException {
-    mediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    Session newSession = new Session(path);
+    if (fragmented && supportsFragmented(videoFormat)) {
+      newSession.fragmentedWriter = new FragmentedMp4Writer(new File(path));
+      newSession.fragmentedWriter.setSegmentRolling(segmentDurationUs, 0);
+    } else {
+      newSession.mediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
     this.listener = listener;
+    synchronized (this) {
+      waitKeyFrame = false;
+      newSession.thread = createWriterThread(newSession);
+      session = newSession;
+      newSession.thread.start();
+    }
     status = Status.STARTED;
     if (listener != null) listener.onStatusChange(status);
   }
 
+  /**
+   * Wait until queued samples are written and file is closed.
+   */
   @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
   public void stopRecord() {
-    status = Status.STOPPED;
-    if (mediaMuxer != null) {
+    Thread thread = finishRecord();
+    if (thread != null) {
       try {
-        mediaMuxer.stop();
-        mediaMuxer.release();
-      } catch (Exception ignored) {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
     }
-    mediaMuxer = null;
+    if (listener != null) listener.onStatusChange(status);
+  }
+
+  /**
+   * Stop accepting samples and let writer thread close the file.
+   *
+   * @return writer thread, null if not recording.
+   */
+  private synchronized Thread finishRecord() {
+    status = Status.STOPPED;
+    Session current = session;
+    session = null;
+    Thread thread = null;
+    if (current != null) {
+      current.samples.add(END);
+      thread = current.thread;
+    }
     videoTrack = -1;
     audioTrack = -1;
     pauseMoment = 0;
     pauseTime = 0;
-    if (listener != null) listener.onStatusChange(status);
+    return thread;
+  }
+
+  private Thread createWriterThread(final Session session) {
+    return new Thread(new Runnable() {
+      @Override
+      public void run() {
+        //muxer or writer can be replaced until tracks are configured
+        MediaMuxer muxer = null;
+        FragmentedMp4Writer writer = null;
+        boolean started = false;
+        while (true) {
+          Sample sample;
+          try {
+            sample = session.samples.take();
+          } catch (InterruptedException e) {
+            continue;
+          }
+          if (sample == END) break;
+          long startNs = System.nanoTime();
+          try {
+            if (sample == PAUSE) {
+              if (writer != null) writer.pause();
+              continue;
+            }
+            if (!started) {
+              started = true;
+              muxer = session.mediaMuxer;
+              writer = session.fragmentedWriter;
+              if (muxer != null) {
+                muxer.start();
+              } else {
+                writer.start();
+              }
+            }
+            if (muxer != null) {
+              muxer.writeSampleData(sample.track, sample.buffer, sample.info);
+            } else if (sample.track == VIDEO_TRACK) {
+              writer.writeVideo(sample.buffer, 0, sample.info.size,
+                  sample.info.presentationTimeUs,
+                  sample.info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME);
+            } else {
+              writer.writeAudio(sample.buffer, 0, sample.info.size,
+                  sample.info.presentationTimeUs);
+            }
+          } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Write sample error", e);
+          }
+          long endNs = System.nanoTime();
+          writeDuration.record((endNs - startNs) / 1000000);
+          writeLatency.record((endNs - sample.queuedNs) / 1000000);
+          synchronized (session) {
+            session.queuedBytes -= sample.buffer.capacity();
+            session.pooledBytes += sample.buffer.capacity();
+            session.pool.add(sample);
+          }
+        }
+        try {
+          if (session.mediaMuxer != null) {
+            if (started) session.mediaMuxer.stop();
+            session.mediaMuxer.release();
+          } else if (started) {
+            session.fragmentedWriter.stop();
+          }
+        } catch (Exception ignored) {
+        }
+        synchronized (session) {
+          session.pool.clear();
+          session.pooledBytes = 0;
+        }
+      }
+    }, TAG);
   }
 
   public boolean isRunning() {
@@ -85,13 +311,17 @@ public class RecordController {
     if (status == Status.RECORDING) {
       pauseMoment = System.nanoTime() / 1000;
       status = Status.PAUSED;
+      //fragmented writer closes its timeline, pause time is not removed from timestamps
+      synchronized (this) {
+        if (session != null && session.fragmentedWriter != null) session.samples.add(PAUSE);
+      }
       if (listener != null) listener.onStatusChange(status);
     }
   }
 
   public void resumeRecord() {
     if (status == Status.PAUSED) {
-      pauseTime += System.nanoTime() / 1000 - pauseMoment;
+      if (!isFragmentedSession()) pauseTime += System.nanoTime() / 1000 - pauseMoment;
       status = Status.RESUMED;
       if (listener != null) listener.onStatusChange(status);
     }
@@ -103,9 +333,31 @@ public class RecordController {
         && videoInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
         && videoFormat != null
         && audioFormat != null) {
-      videoTrack = mediaMuxer.addTrack(videoFormat);
-      audioTrack = mediaMuxer.addTrack(audioFormat);
-      mediaMuxer.start();
+      synchronized (this) {
+        if (session == null) return;
+        if (session.fragmentedWriter != null && !supportsFragmented(videoFormat)) {
+          Log.e(TAG, "Fragmented MP4 only support H264, recording with MediaMuxer");
+          try {
+            session.mediaMuxer =
+                new MediaMuxer(session.path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            session.fragmentedWriter = null;
+          } catch (IOException e) {
+            Log.e(TAG, "Create MediaMuxer error", e);
+            finishRecord();
+            if (listener != null) listener.onStatusChange(status);
+            return;
+          }
+        }
+        if (session.fragmentedWriter != null) {
+          configureTracks(session.fragmentedWriter, videoFormat, audioFormat);
+          videoTrack = VIDEO_TRACK;
+          audioTrack = AUDIO_TRACK;
+        } else {
+          videoTrack = session.mediaMuxer.addTrack(videoFormat);
+          audioTrack = session.mediaMuxer.addTrack(audioFormat);
+        }
+      }
+      //muxer is started in writer thread, start writes file header
       status = Status.RECORDING;
       if (listener != null) listener.onStatusChange(status);
     } else if (status == Status.RESUMED && videoInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
@@ -113,16 +365,15 @@ public class RecordController {
       if (listener != null) listener.onStatusChange(status);
     }
     if (status == Status.RECORDING) {
-      updateFormat(this.videoInfo, videoInfo);
-      mediaMuxer.writeSampleData(videoTrack, videoBuffer, this.videoInfo);
+      queueSample(videoTrack, videoBuffer, videoInfo,
+          videoInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME);
     }
   }
 
   @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
   public void recordAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo audioInfo) {
     if (status == Status.RECORDING) {
-      updateFormat(this.audioInfo, audioInfo);
-      mediaMuxer.writeSampleData(audioTrack, audioBuffer, this.audioInfo);
+      queueSample(audioTrack, audioBuffer, audioInfo, true);
     }
   }
 
@@ -134,11 +385,127 @@ public class RecordController {
     this.audioFormat = audioFormat;
   }
 
-  //We can't reuse info because could produce stream issues
-  private void updateFormat(MediaCodec.BufferInfo newInfo, MediaCodec.BufferInfo oldInfo) {
-    newInfo.flags = oldInfo.flags;
-    newInfo.offset = oldInfo.offset;
-    newInfo.size = oldInfo.size;
-    newInfo.presentationTimeUs = oldInfo.presentationTimeUs - pauseTime;
+  public MediaFormat getVideoFormat() {
+    return videoFormat;
+  }
+
+  public MediaFormat getAudioFormat() {
+    return audioFormat;
+  }
+
+  /**
+   * @param videoFormat encoder output format, null if it is not known yet.
+   * @return false if video codec can't be written by {@link FragmentedMp4Writer}.
+   */
+  static boolean supportsFragmented(MediaFormat videoFormat) {
+    return videoFormat == null
+        || CodecUtil.H264_MIME.equals(videoFormat.getString(MediaFormat.KEY_MIME));
+  }
+
+  /**
+   * Set fragmented writer tracks from encoder output formats.
+   *
+   * @param videoFormat H264 format, null to write only audio.
+   * @param audioFormat AAC format, null to write only video.
+   * @throws IllegalArgumentException if video is not H264.
+   */
+  static void configureTracks(FragmentedMp4Writer writer, MediaFormat videoFormat,
+      MediaFormat audioFormat) {
+    if (videoFormat != null) {
+      if (!supportsFragmented(videoFormat)) {
+        throw new IllegalArgumentException("Fragmented MP4 only support H264");
+      }
+      writer.setVideoTrack(toArray(videoFormat.getByteBuffer("csd-0")),
+          toArray(videoFormat.getByteBuffer("csd-1")),
+          videoFormat.getInteger(MediaFormat.KEY_WIDTH),
+          videoFormat.getInteger(MediaFormat.KEY_HEIGHT));
+    }
+    if (audioFormat != null) {
+      ByteBuffer audioConfig = audioFormat.getByteBuffer("csd-0");
+      writer.setAudioTrack(audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+          audioFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+          audioConfig != null ? toArray(audioConfig) : null);
+    }
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    ByteBuffer source = buffer.duplicate();
+    source.rewind();
+    byte[] bytes = new byte[source.remaining()];
+    source.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Copy sample to a pooled buffer and queue it to writer thread.
+   *
+   * @param syncSample key frame or audio, samples decodable without previous ones.
+   */
+  private synchronized void queueSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info,
+      boolean syncSample) {
+    Session current = session;
+    if (status != Status.RECORDING || current == null) return;
+    boolean isVideo = track == videoTrack;
+    if (isVideo && waitKeyFrame && !syncSample) {
+      droppedSamples++;
+      return;
+    }
+    long queuedBytes;
+    synchronized (current) {
+      queuedBytes = current.queuedBytes;
+    }
+    if (queuedBytes + info.size > maxQueuedBytes) {
+      droppedSamples++;
+      if (overflowPolicy == OverflowPolicy.STOP_RECORD) {
+        Log.e(TAG, "Record memory budget full, stopping record");
+        finishRecord();
+        if (listener != null) listener.onStatusChange(status);
+      } else if (isVideo) {
+        waitKeyFrame = true;
+      }
+      return;
+    }
+    if (isVideo) waitKeyFrame = false;
+    Sample sample = obtainSample(current, info.size);
+    sample.buffer.clear();
+    ByteBuffer source = buffer.duplicate();
+    source.limit(info.offset + info.size);
+    source.position(info.offset);
+    sample.buffer.put(source);
+    sample.buffer.flip();
+    //We can't reuse info because could produce stream issues
+    sample.info.set(0, info.size, info.presentationTimeUs - pauseTime, info.flags);
+    sample.track = track;
+    sample.queuedNs = System.nanoTime();
+    current.samples.add(sample);
+  }
+
+  /**
+   * Reuse a pooled sample or allocate one, discarding pooled buffers so queued and pooled memory
+   * stay in budget. Returned sample is counted as queued.
+   */
+  private Sample obtainSample(Session current, int size) {
+    synchronized (current) {
+      Sample sample = current.pool.poll();
+      if (sample != null) {
+        current.pooledBytes -= sample.buffer.capacity();
+        if (sample.buffer.capacity() < size) sample.buffer = null;
+      } else {
+        sample = new Sample();
+      }
+      if (sample.buffer == null) {
+        while (current.queuedBytes + current.pooledBytes + size > maxQueuedBytes
+            && !current.pool.isEmpty()) {
+          current.pooledBytes -= current.pool.poll().buffer.capacity();
+        }
+        sample.buffer = ByteBuffer.allocateDirect(size);
+      }
+      current.queuedBytes += sample.buffer.capacity();
+      return sample;
+    }
+  }
+
+  private synchronized boolean isFragmentedSession() {
+    return session != null && session.fragmentedWriter != null;
   }
 }
@@ -0,0 +1,418 @@
+package com.pedro.rtplibrary.util;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.rtplibrary.mp4.FragmentedMp4Writer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Keep last encoded samples in memory to save them on demand (instant replay) while stream or
+ * record continue. Samples are copied in a fixed size direct buffer used as ring and oldest GOPs
+ * are discarded when buffer is full or older than max duration, so saved files always start with
+ * a key frame.
+ *
+ * Dump copies samples in other thread without holding the lock, so encoders are not blocked. That
+ * copy is a direct buffer of {@link #getUsedBytes()}, never bigger than capacity, alive until file
+ * is written. Samples overwritten while copying are discarded until next key frame.
+ */
+public class ReplayBuffer {
+
+  private static final String TAG = "ReplayBuffer";
+
+  public interface Listener {
+    void onReplaySaved(File file, long durationUs);
+
+    void onReplayFailed(File file, String reason);
+  }
+
+  private final long maxDurationUs;
+  private final ByteBuffer ring;
+  //sample metadata in circular arrays, sample data is contiguous in ring in the same order
+  private int[] offsets = new int[256];
+  private int[] sizes = new int[256];
+  private int[] flags = new int[256];
+  private long[] times = new long[256];
+  private boolean[] video = new boolean[256];
+  private boolean[] sync = new boolean[256];
+  private int head = 0;
+  private int count = 0;
+  private int writePosition = 0;
+  //times the ring was rewritten from start. lap * capacity + position only grows, used to know if
+  //samples copied by dump were overwritten
+  private long lap = 0;
+  private long droppedSamples = 0;
+  private MediaFormat videoFormat;
+  private MediaFormat audioFormat;
+
+  /**
+   * @param maxDurationUs duration kept, at least this time is kept if capacity is enough.
+   * @param capacityBytes memory used, should be bitrate * duration plus a GOP.
+   */
+  public ReplayBuffer(long maxDurationUs, int capacityBytes) {
+    this.maxDurationUs = maxDurationUs;
+    ring = ByteBuffer.allocateDirect(capacityBytes);
+  }
+
+  /**
+   * Samples kept are discarded if format change, they can't be saved with the new one.
+   */
+  public synchronized void setVideoFormat(MediaFormat videoFormat) {
+    if (this.videoFormat != null && this.videoFormat != videoFormat) clear();
+    this.videoFormat = videoFormat;
+  }
+
+  /**
+   * Samples kept are discarded if format change, they can't be saved with the new one.
+   */
+  public synchronized void setAudioFormat(MediaFormat audioFormat) {
+    if (this.audioFormat != null && this.audioFormat != audioFormat) clear();
+    this.audioFormat = audioFormat;
+  }
+
+  public void addVideo(ByteBuffer videoBuffer, MediaCodec.BufferInfo videoInfo) {
+    add(videoBuffer, videoInfo, true);
+  }
+
+  public void addAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo audioInfo) {
+    add(audioBuffer, audioInfo, false);
+  }
+
+  /**
+   * @return time between first and last sample kept.
+   */
+  public synchronized long getDurationUs() {
+    if (count == 0) return 0;
+    return times[index(count - 1)] - times[head];
+  }
+
+  public synchronized int getUsedBytes() {
+    if (count == 0) return 0;
+    int start = offsets[head];
+    return writePosition > start ? writePosition - start
+        : ring.capacity() - start + writePosition;
+  }
+
+  /**
+   * @return samples not kept because they were bigger than capacity or their key frame was
+   * discarded.
+   */
+  public synchronized long getDroppedSamples() {
+    return droppedSamples;
+  }
+
+  public synchronized void clear() {
+    head = 0;
+    count = 0;
+    writePosition = 0;
+  }
+
+  /**
+   * Save samples kept in a MP4 file. Only sample metadata is taken with the lock, samples are
+   * copied and file is written in other thread while buffer continue receiving samples. H264 and
+   * AAC are written as fragmented MP4, other codecs with MediaMuxer.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  public void dump(final File file, final Listener listener) {
+    final Snapshot snapshot = snapshot();
+    if (snapshot == null) {
+      if (listener != null) listener.onReplayFailed(file, "Replay buffer is empty");
+      return;
+    }
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        snapshot.copy();
+        int first = getFirstValid(snapshot);
+        if (first < 0) {
+          if (listener != null) {
+            listener.onReplayFailed(file, "Replay buffer overwritten while saving");
+          }
+          return;
+        }
+        int samples = snapshot.samples;
+        MediaFormat videoFormat = snapshot.videoFormat;
+        MediaFormat audioFormat = snapshot.audioFormat;
+        try {
+          if (videoFormat == null
+              || CodecUtil.H264_MIME.equals(videoFormat.getString(MediaFormat.KEY_MIME))) {
+            writeFragmented(file, videoFormat, audioFormat, snapshot.data, first, samples,
+                snapshot.dataOffsets, snapshot.times, snapshot.flags, snapshot.video);
+          } else {
+            writeMuxer(file, videoFormat, audioFormat, snapshot.data, first, samples,
+                snapshot.dataOffsets, snapshot.times, snapshot.flags, snapshot.video);
+          }
+          if (listener != null) {
+            listener.onReplaySaved(file, snapshot.times[samples - 1] - snapshot.times[first]);
+          }
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+          Log.e(TAG, "Replay dump error", e);
+          if (listener != null) listener.onReplayFailed(file, e.getMessage());
+        }
+      }
+    }, TAG).start();
+  }
+
+  /**
+   * @return metadata of samples kept, null if there is nothing to save.
+   */
+  synchronized Snapshot snapshot() {
+    if (count == 0 || (videoFormat == null && audioFormat == null)) return null;
+    Snapshot snapshot =
+        new Snapshot(videoFormat, audioFormat, count, getUsedBytes(), ring.duplicate());
+    int headOffset = offsets[head];
+    //head is in previous lap if ring wrapped after it
+    long headLap = writePosition > headOffset ? lap : lap - 1;
+    for (int i = 0; i < count; i++) {
+      int index = index(i);
+      snapshot.ringOffsets[i] = offsets[index];
+      snapshot.sizes[i] = sizes[index];
+      snapshot.flags[i] = flags[index];
+      snapshot.times[i] = times[index];
+      snapshot.video[i] = video[index];
+      snapshot.sync[i] = sync[index];
+      long sampleLap = offsets[index] >= headOffset ? headLap : headLap + 1;
+      snapshot.ringPositions[i] = sampleLap * ring.capacity() + offsets[index];
+    }
+    return snapshot;
+  }
+
+  /**
+   * @return first sample of snapshot not overwritten after it was taken and starting a GOP, -1 if
+   * there is no one.
+   */
+  synchronized int getFirstValid(Snapshot snapshot) {
+    //a sample is overwritten when ring position reach it again in next lap
+    long writeEnd = lap * ring.capacity() + writePosition;
+    boolean overwritten = false;
+    for (int i = 0; i < snapshot.samples; i++) {
+      if (writeEnd > snapshot.ringPositions[i] + ring.capacity()) {
+        overwritten = true;
+      } else if (!overwritten || snapshot.sync[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Samples kept when dump was called. Data is copied later without the lock.
+   */
+  static class Snapshot {
+
+    final MediaFormat videoFormat;
+    final MediaFormat audioFormat;
+    final int samples;
+    final int usedBytes;
+    final int[] ringOffsets;
+    final long[] ringPositions;
+    final int[] sizes;
+    final int[] flags;
+    final long[] times;
+    final boolean[] video;
+    final boolean[] sync;
+    final int[] dataOffsets;
+    private final ByteBuffer source;
+    ByteBuffer data;
+
+    Snapshot(MediaFormat videoFormat, MediaFormat audioFormat, int samples, int usedBytes,
+        ByteBuffer source) {
+      this.videoFormat = videoFormat;
+      this.audioFormat = audioFormat;
+      this.samples = samples;
+      this.usedBytes = usedBytes;
+      ringOffsets = new int[samples];
+      ringPositions = new long[samples];
+      sizes = new int[samples];
+      flags = new int[samples];
+      times = new long[samples];
+      video = new boolean[samples];
+      sync = new boolean[samples];
+      dataOffsets = new int[samples + 1];
+      this.source = source;
+    }
+
+    /**
+     * Samples overwritten while copying are corrupted, check them with getFirstValid.
+     */
+    void copy() {
+      data = ByteBuffer.allocateDirect(usedBytes);
+      for (int i = 0; i < samples; i++) {
+        source.limit(ringOffsets[i] + sizes[i]);
+        source.position(ringOffsets[i]);
+        dataOffsets[i] = data.position();
+        data.put(source);
+      }
+      dataOffsets[samples] = data.position();
+    }
+  }
+
+  private static void writeFragmented(File file, MediaFormat videoFormat, MediaFormat audioFormat,
+      ByteBuffer data, int first, int samples, int[] offsets, long[] times, int[] flags,
+      boolean[] video) throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file);
+    writer.setSyncFragments(false);
+    RecordController.configureTracks(writer, videoFormat, audioFormat);
+    writer.start();
+    try {
+      for (int i = first; i < samples; i++) {
+        int size = offsets[i + 1] - offsets[i];
+        if (!video[i]) {
+          if (audioFormat != null) writer.writeAudio(data, offsets[i], size, times[i]);
+        } else if (videoFormat != null) {
+          writer.writeVideo(data, offsets[i], size, times[i],
+              (flags[i] & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        }
+      }
+    } finally {
+      writer.stop();
+    }
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  private static void writeMuxer(File file, MediaFormat videoFormat, MediaFormat audioFormat,
+      ByteBuffer data, int first, int samples, int[] offsets, long[] times, int[] flags,
+      boolean[] video) throws IOException {
+    MediaMuxer mediaMuxer =
+        new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    try {
+      int videoTrack = mediaMuxer.addTrack(videoFormat);
+      int audioTrack = audioFormat != null ? mediaMuxer.addTrack(audioFormat) : -1;
+      mediaMuxer.start();
+      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      for (int i = first; i < samples; i++) {
+        int track = video[i] ? videoTrack : audioTrack;
+        if (track == -1) continue;
+        info.set(offsets[i], offsets[i + 1] - offsets[i], times[i], flags[i]);
+        mediaMuxer.writeSampleData(track, data, info);
+      }
+      mediaMuxer.stop();
+    } finally {
+      mediaMuxer.release();
+    }
+  }
+
+  private synchronized void add(ByteBuffer buffer, MediaCodec.BufferInfo info, boolean isVideo) {
+    if (info.size <= 0) return;
+    //audio only start a GOP if there is no video
+    boolean syncSample = isVideo ? (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0
+        : videoFormat == null;
+    if (syncSample) trimDuration(info.presentationTimeUs);
+    int position = allocate(info.size);
+    if (position < 0 || (count == 0 && !syncSample)) {
+      droppedSamples++;
+      return;
+    }
+    if (count == offsets.length) grow();
+    //ring rewritten from start, wrapped or reset
+    if (count == 0 || position < writePosition) lap++;
+    ByteBuffer source = buffer.duplicate();
+    source.limit(info.offset + info.size);
+    source.position(info.offset);
+    ring.clear();
+    ring.position(position);
+    ring.put(source);
+    int index = index(count);
+    offsets[index] = position;
+    sizes[index] = info.size;
+    flags[index] = info.flags;
+    times[index] = info.presentationTimeUs;
+    video[index] = isVideo;
+    sync[index] = syncSample;
+    count++;
+    writePosition = position + info.size;
+  }
+
+  /**
+   * Discard first GOP while next GOP is enough to keep max duration.
+   */
+  private void trimDuration(long timeUs) {
+    while (count > 0) {
+      int next = nextSync();
+      if (next < 0 || times[index(next)] > timeUs - maxDurationUs) return;
+      remove(next);
+    }
+  }
+
+  /**
+   * @return position in ring where size bytes fit, discarding oldest GOPs if needed. -1 if size is
+   * bigger than ring.
+   */
+  private int allocate(int size) {
+    if (size >= ring.capacity()) {
+      clear();
+      return -1;
+    }
+    while (count > 0) {
+      int start = offsets[head];
+      if (writePosition > start) {
+        if (ring.capacity() - writePosition >= size) return writePosition;
+        //wrap to ring start, end of ring is unused until next wrap
+        if (size < start) return 0;
+      } else if (writePosition + size < start) {
+        return writePosition;
+      }
+      int next = nextSync();
+      remove(next < 0 ? count : next);
+    }
+    writePosition = 0;
+    return 0;
+  }
+
+  /**
+   * @return position from head of first sync sample after head, -1 if there is no one.
+   */
+  private int nextSync() {
+    for (int i = 1; i < count; i++) {
+      if (sync[index(i)]) return i;
+    }
+    return -1;
+  }
+
+  private void remove(int samples) {
+    head = index(samples);
+    count -= samples;
+  }
+
+  private int index(int position) {
+    return (head + position) % offsets.length;
+  }
+
+  private void grow() {
+    int length = offsets.length;
+    offsets = unwrap(offsets, length * 2);
+    sizes = unwrap(sizes, length * 2);
+    flags = unwrap(flags, length * 2);
+    times = unwrap(times, length * 2);
+    video = unwrap(video, length * 2);
+    sync = unwrap(sync, length * 2);
+    head = 0;
+  }
+
+  private int[] unwrap(int[] values, int length) {
+    int[] result = Arrays.copyOf(Arrays.copyOfRange(values, head, values.length), length);
+    System.arraycopy(values, 0, result, values.length - head, head);
+    return result;
+  }
+
+  private long[] unwrap(long[] values, int length) {
+    long[] result = Arrays.copyOf(Arrays.copyOfRange(values, head, values.length), length);
+    System.arraycopy(values, 0, result, values.length - head, head);
+    return result;
+  }
+
+  private boolean[] unwrap(boolean[] values, int length) {
+    boolean[] result = Arrays.copyOf(Arrays.copyOfRange(values, head, values.length), length);
+    System.arraycopy(values, 0, result, values.length - head, head);
+    return result;
+  }
+}
@@ -95,7 +95,7 @@ public class LightOpenGlView extends OpenGlViewBase {
         surfaceManager.swapBuffer();
 
         synchronized (sync) {
-          if (surfaceManagerEncoder != null && !fpsLimiter.limitFPS()) {
+          if (surfaceManagerEncoder != null && !frameRateGovernor.shouldDrop(getFrameTimestamp())) {
             surfaceManagerEncoder.makeCurrent();
             if (muteVideo) {
               simpleCameraRender.drawFrame(0, 0, false, aspectRatioMode, streamRotation, false,
@@ -8,7 +8,7 @@ import android.view.Surface;
 import com.pedro.encoder.input.gl.SurfaceManager;
 import com.pedro.encoder.input.gl.render.ManagerRender;
 import com.pedro.encoder.input.gl.render.filters.BaseFilterRender;
-import com.pedro.encoder.input.video.FpsLimiter;
+import com.pedro.encoder.input.video.FrameRateGovernor;
 import com.pedro.encoder.utils.gl.GlUtil;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -44,7 +44,7 @@ public class OffScreenGlThread
   private boolean isStreamVerticalFlip = false;
 
   private boolean AAEnabled = false;
-  private FpsLimiter fpsLimiter = new FpsLimiter();
+  private FrameRateGovernor frameRateGovernor = new FrameRateGovernor();
   //used with camera
   private TakePhotoCallback takePhotoCallback;
 
@@ -82,7 +82,22 @@ public class OffScreenGlThread
 
   @Override
   public void setFps(int fps) {
-    fpsLimiter.setFPS(fps);
+    frameRateGovernor.setFps(fps);
+  }
+
+  /**
+   * Same as {@link #setFps(int)} with a fractional rate (29.97).
+   */
+  public void setFps(float fps) {
+    frameRateGovernor.setFps(fps);
+  }
+
+  /**
+   * @return capture time of last frame updated, current time if source doesn't give it.
+   */
+  private long getFrameTimestamp() {
+    long timestamp = textureManager.getSurfaceTexture().getTimestamp();
+    return timestamp != 0 ? timestamp : System.nanoTime();
   }
 
   @Override
@@ -210,7 +225,7 @@ public class OffScreenGlThread
           surfaceManager.swapBuffer();
 
           synchronized (sync) {
-            if (surfaceManagerEncoder != null && !fpsLimiter.limitFPS()) {
+            if (surfaceManagerEncoder != null && !frameRateGovernor.shouldDrop(getFrameTimestamp())) {
               surfaceManagerEncoder.makeCurrent();
               if (muteVideo) {
                 textureManager.drawScreen(0, 0, false, 0, streamRotation, false,
@@ -137,7 +137,7 @@ public class OpenGlView extends OpenGlViewBase {
           surfaceManager.swapBuffer();
 
           synchronized (sync) {
-            if (surfaceManagerEncoder != null && !fpsLimiter.limitFPS()) {
+            if (surfaceManagerEncoder != null && !frameRateGovernor.shouldDrop(getFrameTimestamp())) {
               surfaceManagerEncoder.makeCurrent();
               if (muteVideo) {
                 managerRender.drawScreen(0, 0, false, aspectRatioMode, streamRotation, false,
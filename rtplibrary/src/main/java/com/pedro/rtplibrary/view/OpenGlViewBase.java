@@ -11,6 +11,7 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import com.pedro.encoder.input.gl.SurfaceManager;
 import com.pedro.encoder.input.video.FpsLimiter;
+import com.pedro.encoder.input.video.FrameRateGovernor;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
@@ -34,7 +35,12 @@ public abstract class OpenGlViewBase extends SurfaceView
   protected SurfaceManager surfaceManager = null;
   protected SurfaceManager surfaceManagerEncoder = null;
 
+  /**
+   * @deprecated use {@link #frameRateGovernor}, it is the same instance.
+   */
+  @Deprecated
   protected FpsLimiter fpsLimiter = new FpsLimiter();
+  protected FrameRateGovernor frameRateGovernor = fpsLimiter;
   protected final Semaphore semaphore = new Semaphore(0);
   protected final BlockingQueue<Filter> filterQueue = new LinkedBlockingQueue<>();
   protected final Object sync = new Object();
@@ -97,7 +103,22 @@ public abstract class OpenGlViewBase extends SurfaceView
 
   @Override
   public void setFps(int fps) {
-    fpsLimiter.setFPS(fps);
+    frameRateGovernor.setFps(fps);
+  }
+
+  /**
+   * Same as {@link #setFps(int)} with a fractional rate (29.97).
+   */
+  public void setFps(float fps) {
+    frameRateGovernor.setFps(fps);
+  }
+
+  /**
+   * @return capture time of last frame updated, current time if source doesn't give it.
+   */
+  protected long getFrameTimestamp() {
+    long timestamp = getSurfaceTexture().getTimestamp();
+    return timestamp != 0 ? timestamp : System.nanoTime();
   }
 
   @Override
@@ -0,0 +1,94 @@
+package com.pedro.rtplibrary.cc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Run controllers over traces/cellular.mahimahi, a 30 seconds mahimahi trace with capacity
+ * between 0.6 and 3 Mbps changing each 500 ms and 1.5 seconds of outages (1.12 Mbps average).
+ */
+public class CongestionControllerTraceTest {
+
+  private static final int MIN_BITRATE = 200 * 1000;
+  private static final int MAX_BITRATE = 4000 * 1000;
+  private static final int START_BITRATE = 1000 * 1000;
+  private static final long DURATION_MS = 120000;
+
+  private LinkTrace trace;
+
+  @Before
+  public void setUp() throws IOException {
+    InputStream inputStream = getClass().getResourceAsStream("/traces/cellular.mahimahi");
+    assertNotNull(inputStream);
+    try {
+      trace = LinkTrace.fromMahimahi(new InputStreamReader(inputStream, "UTF-8"));
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private LinkSimulator.Result run(CongestionController controller) {
+    controller.setBitrateRange(MIN_BITRATE, MAX_BITRATE);
+    controller.setFpsRange(15, 30);
+    return new LinkSimulator(trace).run(controller, START_BITRATE, DURATION_MS);
+  }
+
+  private LinkSimulator.Result runFixed(int bitrate) {
+    CongestionController controller = new AimdCongestionController();
+    controller.setBitrateRange(bitrate, bitrate);
+    controller.setFpsRange(30, 30);
+    return new LinkSimulator(trace).run(controller, bitrate, DURATION_MS);
+  }
+
+  @Test
+  public void traceIsParsed() {
+    assertEquals(30000, trace.getDurationMs());
+    assertEquals(1120000, trace.getAverageBitrate());
+  }
+
+  @Test
+  public void aimdKeepsDelayLow() {
+    LinkSimulator.Result result = run(new AimdCongestionController());
+    assertTrue(result.toString(), result.getUtilization() > 0.55f);
+    assertTrue(result.toString(), result.getP95DelayMs() < 1000);
+    assertEquals(0, result.getDroppedFrames());
+    //a stream that doesn't adapt, even under average capacity, queue all outages
+    assertTrue(result.getP95DelayMs() < runFixed(START_BITRATE).getP95DelayMs());
+  }
+
+  @Test
+  public void delayGradientKeepsDelayLow() {
+    LinkSimulator.Result result = run(new DelayGradientCongestionController());
+    assertTrue(result.toString(), result.getUtilization() > 0.5f);
+    assertTrue(result.toString(), result.getP95DelayMs() < 1000);
+    assertEquals(0, result.getDroppedFrames());
+    assertTrue(result.getP95DelayMs() < runFixed(START_BITRATE).getP95DelayMs());
+  }
+
+  @Test
+  public void bbrKeepsUtilizationHigh() {
+    LinkSimulator.Result result = run(new BbrCongestionController());
+    //max bandwidth of last samples follows capacity peaks, it uses the link but queues more
+    assertTrue(result.toString(), result.getUtilization() > 0.85f);
+    assertTrue(result.toString(), result.getP95DelayMs() < 3500);
+    LinkSimulator.Result fixed = runFixed(MAX_BITRATE / 2);
+    assertTrue(result.getP95DelayMs() < fixed.getP95DelayMs());
+    assertTrue(result.getDroppedFrames() < fixed.getDroppedFrames());
+  }
+
+  @Test
+  public void sameRunGivesSameResult() {
+    LinkSimulator.Result first = run(new DelayGradientCongestionController());
+    LinkSimulator.Result second = run(new DelayGradientCongestionController());
+    assertEquals(first.toString(), second.toString());
+  }
+}
@@ -0,0 +1,113 @@
+package com.pedro.rtplibrary.cc;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class CongestionMonitorTest {
+
+  /**
+   * Keep samples received, targets are the ones given in reset.
+   */
+  private static class RecordController extends BaseCongestionController {
+
+    private final List<NetworkSample> samples = new ArrayList<>();
+
+    @Override
+    protected int getBitrate(NetworkSample sample, int bitrate) {
+      samples.add(sample);
+      return bitrate;
+    }
+
+    @Override
+    protected void onReset() {
+      samples.clear();
+    }
+  }
+
+  private RecordController controller;
+  private CongestionMonitor congestionMonitor;
+  private final List<int[]> targets = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    controller = new RecordController();
+    controller.setBitrateRange(100 * 1000, 2000 * 1000);
+    controller.setFpsRange(15, 30);
+    congestionMonitor = new CongestionMonitor(controller, new CongestionController.Listener() {
+      @Override
+      public void onTargetChanged(int bitrate, int fps) {
+        targets.add(new int[] { bitrate, fps });
+      }
+    });
+    congestionMonitor.start(2000 * 1000, 30);
+  }
+
+  @Test
+  public void sampleEachInterval() {
+    //10 frames of 1000 bytes in a second
+    for (int i = 0; i < 10; i++) {
+      congestionMonitor.onFrameSent(1000, 20 + i, 5, 1000 + i * 100);
+    }
+    assertTrue(controller.samples.isEmpty());
+    congestionMonitor.onFrameSent(1000, 50, 5, 2000);
+    assertEquals(1, controller.samples.size());
+    NetworkSample sample = controller.samples.get(0);
+    assertEquals(1000, sample.getDurationMs());
+    assertEquals(88000, sample.getSendBitrate());
+    assertEquals(50, sample.getQueueDelayMs());
+    assertEquals(55, sample.getWriteStallMs());
+    assertEquals(-1, sample.getRttMs());
+    assertEquals(0, sample.getLossRate(), 0);
+  }
+
+  @Test
+  public void lossIsMaxOfDiscardedAndFeedback() {
+    congestionMonitor.onFrameSent(1000, 0, 0, 0);
+    congestionMonitor.onFrameDropped(500);
+    congestionMonitor.onFeedback(80, 0.1f);
+    congestionMonitor.onFrameSent(1000, 0, 0, 1000);
+    //1 of 3 frames discarded
+    assertEquals(1f / 3, controller.samples.get(0).getLossRate(), 0.001f);
+    assertEquals(80, controller.samples.get(0).getRttMs());
+
+    congestionMonitor.onFeedback(90, 0.25f);
+    congestionMonitor.onFrameSent(1000, 0, 0, 2000);
+    assertEquals(0.25f, controller.samples.get(1).getLossRate(), 0.001f);
+    assertEquals(90, controller.samples.get(1).getRttMs());
+  }
+
+  @Test
+  public void writeStallIsLimitedToInterval() {
+    congestionMonitor.onFrameSent(1000, 0, 800, 0);
+    congestionMonitor.onFrameSent(1000, 0, 900, 1000);
+    assertEquals(1000, controller.samples.get(0).getWriteStallMs());
+  }
+
+  @Test
+  public void startNotifiesTargetsOutOfRange() {
+    assertTrue(targets.isEmpty());
+    congestionMonitor.start(4000 * 1000, 30);
+    assertEquals(1, targets.size());
+    assertEquals(2000 * 1000, targets.get(0)[0]);
+    assertEquals(4000 * 1000, congestionMonitor.getStartBitrate());
+    assertEquals(30, congestionMonitor.getStartFps());
+  }
+
+  @Test
+  public void startClearsInterval() {
+    congestionMonitor.onFrameSent(1000, 0, 0, 0);
+    congestionMonitor.start(2000 * 1000, 30);
+    congestionMonitor.onFrameSent(1000, 0, 0, 5000);
+    congestionMonitor.onFrameSent(1000, 0, 0, 6000);
+    assertEquals(1, controller.samples.size());
+    assertEquals(16000, controller.samples.get(0).getSendBitrate());
+  }
+}
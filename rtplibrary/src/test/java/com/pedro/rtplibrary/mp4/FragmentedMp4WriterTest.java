@@ -0,0 +1,316 @@
+package com.pedro.rtplibrary.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class FragmentedMp4WriterTest {
+
+  private static final byte[] SPS = { 0, 0, 0, 1, 0x67, 0x64, 0, 0x1f, (byte) 0xac };
+  private static final byte[] PPS = { 0, 0, 0, 1, 0x68, (byte) 0xee, 0x3c };
+  private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+
+  private File folder;
+  private final List<File> segments = new ArrayList<>();
+
+  /**
+   * Box type, position and size in a file.
+   */
+  private static class Box {
+    private final String type;
+    private final int offset;
+    private final int size;
+
+    private Box(String type, int offset, int size) {
+      this.type = type;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Track fragment values parsed from a moof.
+   */
+  private static class Traf {
+    private int trackId;
+    private long decodeTime;
+    private int dataOffset;
+    private int[] durations;
+    private int[] sizes;
+    private int[] flags;
+
+    private long getDuration() {
+      long duration = 0;
+      for (int d : durations) duration += d;
+      return duration;
+    }
+
+    private int getBytes() {
+      int bytes = 0;
+      for (int s : sizes) bytes += s;
+      return bytes;
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    folder = File.createTempFile("fmp4", "");
+    folder.delete();
+    folder.mkdirs();
+    segments.clear();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    folder.delete();
+  }
+
+  private FragmentedMp4Writer createWriter() {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(new FragmentedMp4Writer.SegmentProvider() {
+      @Override
+      public File getSegmentFile(int index) {
+        File file = new File(folder, "segment_" + index + ".mp4");
+        segments.add(file);
+        return file;
+      }
+    });
+    writer.setVideoTrack(SPS, PPS, 640, 480);
+    writer.setAudioTrack(44100, 2, null);
+    writer.setSyncFragments(false);
+    return writer;
+  }
+
+  /**
+   * Write 30 fps video with a key frame each second and 44100 Hz audio frames.
+   */
+  private void writeSamples(FragmentedMp4Writer writer, long startUs, long durationUs)
+      throws IOException {
+    long audioDurationUs = 1024L * 1000000 / 44100;
+    long nextAudioUs = startUs;
+    for (int frame = 0; frame * 1000000L / 30 < durationUs; frame++) {
+      long videoUs = startUs + frame * 1000000L / 30;
+      ByteBuffer videoFrame = frame % 30 == 0 ? createKeyFrame() : createFrame();
+      writer.writeVideo(videoFrame, 0, videoFrame.capacity(), videoUs, frame % 30 == 0);
+      while (nextAudioUs <= videoUs) {
+        writer.writeAudio(ByteBuffer.wrap(new byte[10]), 0, 10, nextAudioUs);
+        nextAudioUs += audioDurationUs;
+      }
+    }
+  }
+
+  private ByteBuffer createKeyFrame() {
+    return ByteBuffer.wrap(new byte[] {
+        0, 0, 0, 1, 0x09, 0x10, 0, 0, 0, 1, 0x67, 0x64, 0, 0x1f, 0, 0, 0, 1, 0x68, (byte) 0xee,
+        0, 0, 1, 0x65, 1, 2, 3, 4, 5, 6, 7, 8
+    });
+  }
+
+  private ByteBuffer createFrame() {
+    return ByteBuffer.wrap(new byte[] { 0, 0, 0, 1, 0x41, 1, 2, 3, 4, 5 });
+  }
+
+  @Test
+  public void writesInitAndFragmentsWithValidSizes() throws IOException {
+    FragmentedMp4Writer writer = createWriter();
+    writer.start();
+    writeSamples(writer, 5000000, 3500000);
+    writer.stop();
+    assertEquals(1, segments.size());
+    byte[] file = read(segments.get(0));
+    List<Box> boxes = parse(file, 0, file.length);
+    assertEquals("ftyp", boxes.get(0).type);
+    assertEquals("moov", boxes.get(1).type);
+    assertTrue(boxes.size() > 2 && boxes.size() % 2 == 0);
+    for (int i = 2; i < boxes.size(); i += 2) {
+      assertEquals("moof", boxes.get(i).type);
+      assertEquals("mdat", boxes.get(i + 1).type);
+    }
+    Box last = boxes.get(boxes.size() - 1);
+    assertEquals(file.length, last.offset + last.size);
+    //sps and pps are in avcC without start codes
+    Box moov = boxes.get(1);
+    assertTrue(indexOf(file, moov, new byte[] { 0x67, 0x64, 0, 0x1f, (byte) 0xac }) > 0);
+    assertTrue(indexOf(file, moov, new byte[] { 0x68, (byte) 0xee, 0x3c }) > 0);
+    assertTrue(indexOf(file, moov, "mvex".getBytes()) > 0);
+  }
+
+  @Test
+  public void trunDataIsInsideMdat() throws IOException {
+    FragmentedMp4Writer writer = createWriter();
+    writer.start();
+    writeSamples(writer, 0, 3500000);
+    writer.stop();
+    byte[] file = read(segments.get(0));
+    List<Box> boxes = parse(file, 0, file.length);
+    for (int i = 2; i < boxes.size(); i += 2) {
+      Box moof = boxes.get(i);
+      Box mdat = boxes.get(i + 1);
+      int bytes = 0;
+      for (Traf traf : parseTrafs(file, moof)) {
+        int start = moof.offset + traf.dataOffset;
+        assertTrue(start >= mdat.offset + 8);
+        assertTrue(start + traf.getBytes() <= mdat.offset + mdat.size);
+        bytes += traf.getBytes();
+        if (traf.trackId == 1) {
+          //fragments start with a key frame without aud, sps and pps, length prefixed
+          assertEquals(SAMPLE_FLAGS_SYNC, traf.flags[0]);
+          byte[] expected = { 0, 0, 0, 9, 0x65, 1, 2, 3, 4, 5, 6, 7, 8 };
+          assertEquals(expected.length, traf.sizes[0]);
+          assertArrayEquals(expected, Arrays.copyOfRange(file, start, start + expected.length));
+        }
+      }
+      assertEquals(mdat.size - 8, bytes);
+    }
+  }
+
+  @Test
+  public void decodeTimeContinuesAcrossPause() throws IOException {
+    FragmentedMp4Writer writer = createWriter();
+    writer.start();
+    writeSamples(writer, 1000000, 2000000);
+    writer.pause();
+    writer.resume();
+    //one second paused, timeline continues without gap
+    writeSamples(writer, 4000000, 2000000);
+    writer.stop();
+    byte[] file = read(segments.get(0));
+    List<Box> boxes = parse(file, 0, file.length);
+    long[] nextDecodeTime = { -1, -1, -1 };
+    int fragments = 0;
+    for (int i = 2; i < boxes.size(); i += 2) {
+      for (Traf traf : parseTrafs(file, boxes.get(i))) {
+        if (nextDecodeTime[traf.trackId] >= 0) {
+          assertEquals(nextDecodeTime[traf.trackId], traf.decodeTime);
+        } else {
+          assertEquals(0, traf.decodeTime);
+        }
+        nextDecodeTime[traf.trackId] = traf.decodeTime + traf.getDuration();
+      }
+      fragments++;
+    }
+    assertTrue(fragments >= 4);
+    //4 seconds of video in 90 kHz, without the pause
+    assertEquals(4 * 90000, nextDecodeTime[1], 90000 / 30);
+    assertEquals(4 * 44100, nextDecodeTime[2], 4096);
+  }
+
+  @Test
+  public void segmentsStartWithInitAndKeyFrame() throws IOException {
+    FragmentedMp4Writer writer = createWriter();
+    writer.setSegmentRolling(2000000, 0);
+    writer.start();
+    writeSamples(writer, 0, 6500000);
+    writer.stop();
+    assertEquals(4, segments.size());
+    for (File segment : segments) {
+      byte[] file = read(segment);
+      List<Box> boxes = parse(file, 0, file.length);
+      assertEquals("ftyp", boxes.get(0).type);
+      assertEquals("moov", boxes.get(1).type);
+      assertEquals("moof", boxes.get(2).type);
+      for (Traf traf : parseTrafs(file, boxes.get(2))) {
+        if (traf.trackId == 1) assertEquals(SAMPLE_FLAGS_SYNC, traf.flags[0]);
+      }
+    }
+  }
+
+  @Test
+  public void videoBeforeFirstKeyFrameIsDiscarded() throws IOException {
+    FragmentedMp4Writer writer = createWriter();
+    writer.start();
+    ByteBuffer frame = createFrame();
+    writer.writeVideo(frame, 0, frame.capacity(), 0, false);
+    writer.writeAudio(ByteBuffer.wrap(new byte[10]), 0, 10, 0);
+    writeSamples(writer, 33333, 1000000);
+    writer.stop();
+    byte[] file = read(segments.get(0));
+    List<Box> boxes = parse(file, 0, file.length);
+    for (Traf traf : parseTrafs(file, boxes.get(2))) {
+      assertEquals(0, traf.decodeTime);
+      if (traf.trackId == 1) assertEquals(SAMPLE_FLAGS_SYNC, traf.flags[0]);
+    }
+  }
+
+  private static byte[] read(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      byte[] data = new byte[(int) randomAccessFile.length()];
+      randomAccessFile.readFully(data);
+      return data;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static List<Box> parse(byte[] data, int start, int end) {
+    List<Box> boxes = new ArrayList<>();
+    int offset = start;
+    while (offset < end) {
+      ByteBuffer buffer = ByteBuffer.wrap(data, offset, end - offset);
+      int size = buffer.getInt();
+      String type = new String(data, offset + 4, 4);
+      assertTrue("Bad size of " + type, size >= 8 && offset + size <= end);
+      boxes.add(new Box(type, offset, size));
+      offset += size;
+    }
+    return boxes;
+  }
+
+  private static List<Traf> parseTrafs(byte[] data, Box moof) {
+    List<Traf> trafs = new ArrayList<>();
+    for (Box box : parse(data, moof.offset + 8, moof.offset + moof.size)) {
+      if (!box.type.equals("traf")) continue;
+      Traf traf = new Traf();
+      for (Box child : parse(data, box.offset + 8, box.offset + box.size)) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, child.offset + 12, child.size - 12);
+        if (child.type.equals("tfhd")) {
+          traf.trackId = buffer.getInt();
+        } else if (child.type.equals("tfdt")) {
+          traf.decodeTime = buffer.getLong();
+        } else if (child.type.equals("trun")) {
+          int count = buffer.getInt();
+          traf.dataOffset = buffer.getInt();
+          traf.durations = new int[count];
+          traf.sizes = new int[count];
+          traf.flags = new int[count];
+          for (int i = 0; i < count; i++) {
+            traf.durations[i] = buffer.getInt();
+            traf.sizes[i] = buffer.getInt();
+            traf.flags[i] = buffer.getInt();
+          }
+        }
+      }
+      trafs.add(traf);
+    }
+    return trafs;
+  }
+
+  private static int indexOf(byte[] data, Box box, byte[] value) {
+    for (int i = box.offset; i <= box.offset + box.size - value.length; i++) {
+      boolean found = true;
+      for (int j = 0; j < value.length && found; j++) {
+        found = data[i + j] == value[j];
+      }
+      if (found) return i;
+    }
+    return -1;
+  }
+}
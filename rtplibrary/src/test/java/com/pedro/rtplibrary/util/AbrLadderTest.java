@@ -0,0 +1,125 @@
+package com.pedro.rtplibrary.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class AbrLadderTest {
+
+  private static final AbrLadder.Rung RUNG_1080 =
+      new AbrLadder.Rung(1920, 1080, 4000 * 1000, 2500 * 1000);
+  private static final AbrLadder.Rung RUNG_720 =
+      new AbrLadder.Rung(1280, 720, 2500 * 1000, 1200 * 1000);
+  private static final AbrLadder.Rung RUNG_480 =
+      new AbrLadder.Rung(854, 480, 1200 * 1000, 300 * 1000);
+
+  private AbrLadder abrLadder;
+  private final List<Integer> bitrates = new ArrayList<>();
+  private final List<AbrLadder.Rung> rungs = new ArrayList<>();
+  private boolean acceptRungs = true;
+
+  @Before
+  public void setUp() {
+    //any order
+    abrLadder = new AbrLadder(Arrays.asList(RUNG_720, RUNG_480, RUNG_1080));
+    abrLadder.setHysteresis(2, 3, 0);
+    abrLadder.setListener(new AbrLadder.Listener() {
+      @Override
+      public void onBitrateChanged(int bitrate) {
+        bitrates.add(bitrate);
+      }
+
+      @Override
+      public boolean onRungChanged(AbrLadder.Rung rung, int bitrate) {
+        if (acceptRungs) rungs.add(rung);
+        return acceptRungs;
+      }
+    });
+  }
+
+  @Test
+  public void startsInHighestRung() {
+    assertEquals(RUNG_1080, abrLadder.getCurrentRung());
+    assertEquals(4000 * 1000, abrLadder.getMaxBitrate());
+  }
+
+  @Test
+  public void bitrateIsLimitedInsideRung() {
+    abrLadder.onBitrateAdapted(5000 * 1000);
+    abrLadder.onBitrateAdapted(3000 * 1000);
+    assertEquals(Arrays.asList(4000 * 1000, 3000 * 1000), bitrates);
+    assertTrue(rungs.isEmpty());
+  }
+
+  @Test
+  public void goesDownAfterConsecutiveSamples() {
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    assertEquals(RUNG_1080, abrLadder.getCurrentRung());
+    //a good sample restarts the count
+    abrLadder.onBitrateAdapted(3000 * 1000);
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    assertEquals(RUNG_1080, abrLadder.getCurrentRung());
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    assertEquals(RUNG_720, abrLadder.getCurrentRung());
+    assertEquals(Arrays.asList(RUNG_720), rungs);
+  }
+
+  @Test
+  public void collapseSkipsRungs() {
+    abrLadder.onBitrateAdapted(500 * 1000);
+    abrLadder.onBitrateAdapted(500 * 1000);
+    assertEquals(RUNG_480, abrLadder.getCurrentRung());
+    assertEquals(Arrays.asList(RUNG_480), rungs);
+  }
+
+  @Test
+  public void goesUpWithMargin() {
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    //over 1080 min but under the 20% margin
+    for (int i = 0; i < 5; i++) {
+      abrLadder.onBitrateAdapted(2800 * 1000);
+    }
+    assertEquals(RUNG_720, abrLadder.getCurrentRung());
+    for (int i = 0; i < 3; i++) {
+      abrLadder.onBitrateAdapted(3100 * 1000);
+    }
+    assertEquals(RUNG_1080, abrLadder.getCurrentRung());
+  }
+
+  @Test
+  public void upIsHeldAfterSwitch() {
+    abrLadder.setHysteresis(1, 1, 60000);
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    assertEquals(RUNG_720, abrLadder.getCurrentRung());
+    abrLadder.onBitrateAdapted(4000 * 1000);
+    abrLadder.onBitrateAdapted(4000 * 1000);
+    assertEquals(RUNG_720, abrLadder.getCurrentRung());
+  }
+
+  @Test
+  public void rejectedSwitchKeepsRung() {
+    acceptRungs = false;
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    abrLadder.onBitrateAdapted(2000 * 1000);
+    assertEquals(RUNG_1080, abrLadder.getCurrentRung());
+    //bitrate is still applied in current rung
+    assertEquals(Integer.valueOf(2000 * 1000), bitrates.get(bitrates.size() - 1));
+  }
+
+  @Test
+  public void resetGoesBackToHighestRung() {
+    abrLadder.onBitrateAdapted(500 * 1000);
+    abrLadder.onBitrateAdapted(500 * 1000);
+    abrLadder.reset();
+    assertEquals(RUNG_1080, abrLadder.getCurrentRung());
+  }
+}
@@ -0,0 +1,192 @@
+package com.pedro.rtplibrary.util;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import java.io.File;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class ReplayBufferTest {
+
+  private static final long SECOND_US = 1000000;
+  private static final long FRAME_US = SECOND_US / 25;
+  //a key frame each second
+  private static final int GOP = 25;
+
+  private ReplayBuffer replayBuffer;
+  private final ByteBuffer frame = ByteBuffer.allocate(1000);
+
+  @Before
+  public void setUp() {
+    replayBuffer = new ReplayBuffer(3 * SECOND_US, 1024 * 1024);
+    replayBuffer.setVideoFormat(new MediaFormat());
+  }
+
+  private static MediaCodec.BufferInfo info(int size, long timeUs, int flags) {
+    //fields are set directly, methods of android classes are not implemented in unit tests
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.offset = 0;
+    info.size = size;
+    info.presentationTimeUs = timeUs;
+    info.flags = flags;
+    return info;
+  }
+
+  private void addVideo(int frames, int size) {
+    for (int i = 0; i < frames; i++) {
+      int flags = i % GOP == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+      replayBuffer.addVideo(frame, info(size, i * FRAME_US, flags));
+    }
+  }
+
+  /**
+   * @return time of first sample kept.
+   */
+  private long getFirstTimeUs(long lastTimeUs) {
+    return lastTimeUs - replayBuffer.getDurationUs();
+  }
+
+  @Test
+  public void framesBeforeKeyFrameAreDropped() {
+    replayBuffer.addVideo(frame, info(100, 0, 0));
+    replayBuffer.addVideo(frame, info(100, FRAME_US, 0));
+    assertEquals(0, replayBuffer.getUsedBytes());
+    assertEquals(2, replayBuffer.getDroppedSamples());
+    replayBuffer.addVideo(frame, info(100, 2 * FRAME_US, MediaCodec.BUFFER_FLAG_KEY_FRAME));
+    assertEquals(100, replayBuffer.getUsedBytes());
+  }
+
+  @Test
+  public void keyFrameWithOtherFlagsStartsGop() {
+    replayBuffer.addVideo(frame, info(100, 0,
+        MediaCodec.BUFFER_FLAG_KEY_FRAME | MediaCodec.BUFFER_FLAG_END_OF_STREAM));
+    assertEquals(100, replayBuffer.getUsedBytes());
+    assertEquals(0, replayBuffer.getDroppedSamples());
+  }
+
+  @Test
+  public void oldGopsAreDiscardedByDuration() {
+    //10 seconds
+    addVideo(250, 100);
+    long lastTimeUs = 249 * FRAME_US;
+    //at least max duration is kept, first GOP is discarded only if next one is enough
+    long durationUs = replayBuffer.getDurationUs();
+    assertTrue(String.valueOf(durationUs), durationUs >= 3 * SECOND_US);
+    assertTrue(String.valueOf(durationUs), durationUs < 5 * SECOND_US);
+    //first sample is a key frame
+    assertEquals(0, getFirstTimeUs(lastTimeUs) % (GOP * FRAME_US));
+    assertEquals(0, replayBuffer.getDroppedSamples());
+  }
+
+  @Test
+  public void oldGopsAreDiscardedByCapacity() {
+    replayBuffer = new ReplayBuffer(60 * SECOND_US, 100 * 1000);
+    replayBuffer.setVideoFormat(new MediaFormat());
+    //10 seconds of 25 KB/s, only about 4 seconds fit
+    addVideo(250, 1000);
+    assertTrue(replayBuffer.getUsedBytes() <= 100 * 1000);
+    long durationUs = replayBuffer.getDurationUs();
+    assertTrue(String.valueOf(durationUs), durationUs >= 2 * SECOND_US);
+    assertTrue(String.valueOf(durationUs), durationUs < 4 * SECOND_US);
+    assertEquals(0, getFirstTimeUs(249 * FRAME_US) % (GOP * FRAME_US));
+  }
+
+  @Test
+  public void manySamplesKeepOrder() {
+    replayBuffer = new ReplayBuffer(60 * SECOND_US, 1024 * 1024);
+    replayBuffer.setVideoFormat(new MediaFormat());
+    //more than initial 256 samples of metadata
+    addVideo(1000, 100);
+    assertEquals(999 * FRAME_US, replayBuffer.getDurationUs());
+    assertEquals(1000 * 100, replayBuffer.getUsedBytes());
+  }
+
+  @Test
+  public void biggerThanCapacityIsDropped() {
+    replayBuffer = new ReplayBuffer(3 * SECOND_US, 1000);
+    replayBuffer.setVideoFormat(new MediaFormat());
+    replayBuffer.addVideo(frame, info(500, 0, MediaCodec.BUFFER_FLAG_KEY_FRAME));
+    replayBuffer.addVideo(frame, info(1000, FRAME_US, MediaCodec.BUFFER_FLAG_KEY_FRAME));
+    assertEquals(1, replayBuffer.getDroppedSamples());
+    assertEquals(0, replayBuffer.getUsedBytes());
+  }
+
+  @Test
+  public void audioOnlySamplesAreSync() {
+    replayBuffer = new ReplayBuffer(SECOND_US, 1024 * 1024);
+    replayBuffer.setAudioFormat(new MediaFormat());
+    for (int i = 0; i < 100; i++) {
+      replayBuffer.addAudio(frame, info(300, i * 23220, 0));
+    }
+    long durationUs = replayBuffer.getDurationUs();
+    //each sample is a sync point, so less than a sample over max duration is kept
+    assertTrue(String.valueOf(durationUs), durationUs >= SECOND_US);
+    assertTrue(String.valueOf(durationUs), durationUs < SECOND_US + 23220);
+  }
+
+  @Test
+  public void formatChangeClearsSamples() {
+    addVideo(30, 100);
+    replayBuffer.setVideoFormat(new MediaFormat());
+    assertEquals(0, replayBuffer.getUsedBytes());
+    assertEquals(0, replayBuffer.getDurationUs());
+  }
+
+  @Test
+  public void emptyBufferDumpFails() {
+    final String[] reason = new String[1];
+    replayBuffer.dump(new File("replay.mp4"), new ReplayBuffer.Listener() {
+      @Override
+      public void onReplaySaved(File file, long durationUs) {
+      }
+
+      @Override
+      public void onReplayFailed(File file, String message) {
+        reason[0] = message;
+      }
+    });
+    assertNotNull(reason[0]);
+  }
+
+  @Test
+  public void snapshotIsValidWithoutWrites() {
+    addVideo(100, 100);
+    ReplayBuffer.Snapshot snapshot = replayBuffer.snapshot();
+    assertNotNull(snapshot);
+    snapshot.copy();
+    assertEquals(0, replayBuffer.getFirstValid(snapshot));
+    assertEquals(100 * 100, snapshot.data.position());
+  }
+
+  @Test
+  public void overwrittenSamplesAreSkippedToNextKeyFrame() {
+    //300 frames of 100 bytes fit in ring
+    replayBuffer = new ReplayBuffer(60 * SECOND_US, 30000);
+    replayBuffer.setVideoFormat(new MediaFormat());
+    addVideo(100, 100);
+    ReplayBuffer.Snapshot snapshot = replayBuffer.snapshot();
+    assertNotNull(snapshot);
+    for (int i = 100; i < 300; i++) {
+      int flags = i % GOP == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+      replayBuffer.addVideo(frame, info(100, i * FRAME_US, flags));
+    }
+    //ring is full but nothing copied was overwritten
+    assertEquals(0, replayBuffer.getFirstValid(snapshot));
+    replayBuffer.addVideo(frame, info(100, 300 * FRAME_US, 0));
+    //first frame overwritten, copy must start in next GOP
+    assertEquals(GOP, replayBuffer.getFirstValid(snapshot));
+    for (int i = 301; i < 400; i++) {
+      int flags = i % GOP == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+      replayBuffer.addVideo(frame, info(100, i * FRAME_US, flags));
+    }
+    assertEquals(-1, replayBuffer.getFirstValid(snapshot));
+  }
+}
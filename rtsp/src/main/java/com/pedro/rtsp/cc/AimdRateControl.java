@@ -0,0 +1,107 @@
+package com.pedro.rtsp.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Additive increase, multiplicative decrease rate controller driven by over-use detector.
+ */
+public class AimdRateControl {
+
+  private enum State {
+    HOLD, INCREASE, DECREASE
+  }
+
+  private static final double BETA = 0.85;
+  private static final double INCREASE_FACTOR_PER_SECOND = 1.08;
+
+  private int startBitrate;
+  private int minBitrate;
+  private int maxBitrate;
+  private int bitrate;
+  private State state = State.INCREASE;
+  private long lastChangeMs = -1;
+
+  public AimdRateControl(int startBitrate, int minBitrate, int maxBitrate) {
+    setBitrates(startBitrate, minBitrate, maxBitrate);
+  }
+
+  /**
+   * @param ackedBitrate bitrate received by server, 0 if unknown
+   * @return new target bitrate
+   */
+  public int update(BandwidthUsage bandwidthUsage, int ackedBitrate, long nowMs) {
+    switch (bandwidthUsage) {
+      case NORMAL:
+        if (state == State.HOLD) state = State.INCREASE;
+        break;
+      case OVERUSING:
+        state = State.DECREASE;
+        break;
+      case UNDERUSING:
+        //queues are draining, wait until delay is stable
+        state = State.HOLD;
+        break;
+    }
+    if (lastChangeMs == -1) lastChangeMs = nowMs;
+    switch (state) {
+      case INCREASE:
+        //don't grow far away of the bitrate that we really get delivered
+        if (ackedBitrate <= 0 || bitrate < 1.5 * ackedBitrate) {
+          long elapsedMs = Math.min(nowMs - lastChangeMs, 1000);
+          double factor = Math.pow(INCREASE_FACTOR_PER_SECOND, elapsedMs / 1000.0);
+          bitrate = (int) (bitrate * factor) + 1000;
+        }
+        break;
+      case DECREASE:
+        int decreased = (int) (BETA * (ackedBitrate > 0 ? ackedBitrate : bitrate));
+        if (decreased < bitrate) bitrate = decreased;
+        state = State.HOLD;
+        break;
+      case HOLD:
+        break;
+    }
+    lastChangeMs = nowMs;
+    bitrate = clamp(bitrate);
+    return bitrate;
+  }
+
+  /**
+   * Reduce bitrate when server report packet loss.
+   *
+   * @param lossFraction lost packets / total packets in last feedback
+   */
+  public int onLoss(double lossFraction) {
+    if (lossFraction > 0.1) {
+      bitrate = clamp((int) (bitrate * (1 - 0.5 * lossFraction)));
+      state = State.HOLD;
+    }
+    return bitrate;
+  }
+
+  public int getBitrate() {
+    return bitrate;
+  }
+
+  /**
+   * @param bitrate current bitrate, used again as start bitrate after {@link #reset()}.
+   */
+  public void setBitrates(int bitrate, int minBitrate, int maxBitrate) {
+    this.startBitrate = bitrate;
+    this.minBitrate = minBitrate;
+    this.maxBitrate = maxBitrate;
+    this.bitrate = clamp(bitrate);
+  }
+
+  /**
+   * Go back to start bitrate, a new session must not inherit a rate reduced by old congestion.
+   */
+  public void reset() {
+    bitrate = clamp(startBitrate);
+    state = State.INCREASE;
+    lastChangeMs = -1;
+  }
+
+  private int clamp(int bitrate) {
+    return Math.max(minBitrate, Math.min(maxBitrate, bitrate));
+  }
+}
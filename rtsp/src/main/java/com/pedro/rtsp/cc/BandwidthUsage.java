@@ -0,0 +1,8 @@
+package com.pedro.rtsp.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public enum BandwidthUsage {
+  NORMAL, UNDERUSING, OVERUSING
+}
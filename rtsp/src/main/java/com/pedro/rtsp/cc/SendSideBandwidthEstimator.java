@@ -0,0 +1,209 @@
+package com.pedro.rtsp.cc;
+
+import com.pedro.rtsp.rtcp.TransportFeedback;
+import com.pedro.rtsp.rtsp.RtpFrame;
+import com.pedro.rtsp.utils.RtpConstants;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Sender side bandwidth estimation using transport-wide sequence numbers (GCC).
+ * Packets are stamped with abs-send-time and a transport-wide sequence number just before send.
+ * Server feedback give us the arrival time of each packet so we can detect queues growing in the
+ * network before packets are lost.
+ */
+public class SendSideBandwidthEstimator {
+
+  public interface Listener {
+    void onTargetBitrate(int bitrate);
+  }
+
+  private static final int HISTORY_SIZE = 1 << 12;
+  //packets sent in the same burst are grouped
+  private static final long BURST_TIME_US = 5000;
+  private static final long ACKED_WINDOW_US = 500000;
+  private static final float MIN_CHANGE_NOTIFY = 0.05f;
+
+  private final Listener listener;
+  private final TrendlineEstimator trendlineEstimator = new TrendlineEstimator();
+  private final AimdRateControl aimdRateControl;
+  //send history
+  private final int[] historySequence = new int[HISTORY_SIZE];
+  private final long[] historySendTimeUs = new long[HISTORY_SIZE];
+  private final int[] historySize = new int[HISTORY_SIZE];
+  private int transportSequence = 0;
+  //packet groups
+  private long groupFirstSendUs = -1;
+  private long groupLastSendUs;
+  private long groupArrivalUs;
+  private long prevGroupSendUs = -1;
+  private long prevGroupArrivalUs;
+  //acked bitrate
+  private long ackedWindowStartUs = -1;
+  private long ackedBytes = 0;
+  private int ackedBitrate = 0;
+  private int notifiedBitrate = 0;
+  //feedback arrives a feedback interval after the newest packet, rtt includes it
+  private volatile long rttMs = -1;
+  private volatile float lossRate = 0;
+
+  public SendSideBandwidthEstimator(int startBitrate, int minBitrate, int maxBitrate,
+      Listener listener) {
+    this.listener = listener;
+    aimdRateControl = new AimdRateControl(startBitrate, minBitrate, maxBitrate);
+    reset();
+  }
+
+  /**
+   * Write header extensions values and save packet in history. Must be called in send order.
+   */
+  public synchronized void onPacketSent(RtpFrame rtpFrame) {
+    byte[] buffer = rtpFrame.getBuffer();
+    if ((buffer[0] & 0x10) == 0) return;
+    long nowUs = System.nanoTime() / 1000;
+    int sequence = transportSequence;
+    transportSequence = (transportSequence + 1) & 0xFFFF;
+    //6.18 fixed point seconds, 24 bits
+    long absSendTime = ((nowUs << 18) / 1000000) & 0xFFFFFF;
+    int offset = RtpConstants.ABS_SEND_TIME_OFFSET;
+    buffer[offset] = (byte) (absSendTime >> 16);
+    buffer[offset + 1] = (byte) (absSendTime >> 8);
+    buffer[offset + 2] = (byte) absSendTime;
+    buffer[RtpConstants.TRANSPORT_CC_OFFSET] = (byte) (sequence >> 8);
+    buffer[RtpConstants.TRANSPORT_CC_OFFSET + 1] = (byte) sequence;
+
+    int index = sequence & (HISTORY_SIZE - 1);
+    historySequence[index] = sequence;
+    historySendTimeUs[index] = nowUs;
+    historySize[index] = rtpFrame.getLength();
+  }
+
+  public synchronized void onTransportFeedback(TransportFeedback transportFeedback) {
+    int lost = 0;
+    int total = 0;
+    long nowUs = System.nanoTime() / 1000;
+    long nowMs = nowUs / 1000;
+    long newestSendUs = -1;
+    for (int i = 0; i < transportFeedback.getPacketCount(); i++) {
+      int sequence = transportFeedback.getSequence(i);
+      int index = sequence & (HISTORY_SIZE - 1);
+      //too old or never sent
+      if (historySequence[index] != sequence) continue;
+      total++;
+      long arrivalUs = transportFeedback.getArrivalTimeUs(i);
+      if (arrivalUs == TransportFeedback.NOT_RECEIVED) {
+        lost++;
+        continue;
+      }
+      onPacketArrived(historySendTimeUs[index], arrivalUs, historySize[index]);
+      newestSendUs = Math.max(newestSendUs, historySendTimeUs[index]);
+      //avoid process it again if repeated in other feedback
+      historySequence[index] = -1;
+    }
+    int bitrate = aimdRateControl.update(trendlineEstimator.getBandwidthUsage(), ackedBitrate,
+        nowMs);
+    if (total > 0) {
+      lossRate = (float) lost / total;
+      bitrate = aimdRateControl.onLoss((double) lost / total);
+    }
+    if (newestSendUs >= 0) {
+      long rtt = (nowUs - newestSendUs) / 1000;
+      rttMs = rttMs < 0 ? rtt : (7 * rttMs + rtt) / 8;
+    }
+    notifyBitrate(bitrate);
+  }
+
+  public int getTargetBitrate() {
+    return aimdRateControl.getBitrate();
+  }
+
+  public int getAckedBitrate() {
+    return ackedBitrate;
+  }
+
+  /**
+   * @return smoothed time since a packet is sent until its feedback is received. -1 if unknown.
+   */
+  public long getRttMs() {
+    return rttMs;
+  }
+
+  /**
+   * @return packets lost in last feedback, between 0 and 1.
+   */
+  public float getLossRate() {
+    return lossRate;
+  }
+
+  public BandwidthUsage getBandwidthUsage() {
+    return trendlineEstimator.getBandwidthUsage();
+  }
+
+  public synchronized void reset() {
+    trendlineEstimator.reset();
+    aimdRateControl.reset();
+    for (int i = 0; i < HISTORY_SIZE; i++) historySequence[i] = -1;
+    transportSequence = 0;
+    groupFirstSendUs = -1;
+    prevGroupSendUs = -1;
+    ackedWindowStartUs = -1;
+    ackedBytes = 0;
+    ackedBitrate = 0;
+    notifiedBitrate = 0;
+    rttMs = -1;
+    lossRate = 0;
+  }
+
+  private void onPacketArrived(long sendUs, long arrivalUs, int size) {
+    updateAckedBitrate(arrivalUs, size);
+    if (groupFirstSendUs == -1) {
+      startGroup(sendUs, arrivalUs);
+      return;
+    }
+    //reordered packet, ignore it for delay calculation
+    if (sendUs < groupFirstSendUs) return;
+    if (sendUs - groupFirstSendUs <= BURST_TIME_US) {
+      groupLastSendUs = Math.max(groupLastSendUs, sendUs);
+      groupArrivalUs = Math.max(groupArrivalUs, arrivalUs);
+      return;
+    }
+    //current group is complete, compare it with previous one
+    if (prevGroupSendUs != -1) {
+      double sendDeltaMs = (groupLastSendUs - prevGroupSendUs) / 1000.0;
+      double recvDeltaMs = (groupArrivalUs - prevGroupArrivalUs) / 1000.0;
+      trendlineEstimator.update(recvDeltaMs, sendDeltaMs, groupArrivalUs / 1000);
+    }
+    prevGroupSendUs = groupLastSendUs;
+    prevGroupArrivalUs = groupArrivalUs;
+    startGroup(sendUs, arrivalUs);
+  }
+
+  private void startGroup(long sendUs, long arrivalUs) {
+    groupFirstSendUs = sendUs;
+    groupLastSendUs = sendUs;
+    groupArrivalUs = arrivalUs;
+  }
+
+  private void updateAckedBitrate(long arrivalUs, int size) {
+    if (ackedWindowStartUs == -1 || arrivalUs < ackedWindowStartUs) {
+      ackedWindowStartUs = arrivalUs;
+      ackedBytes = 0;
+    }
+    ackedBytes += size;
+    long elapsedUs = arrivalUs - ackedWindowStartUs;
+    if (elapsedUs >= ACKED_WINDOW_US) {
+      ackedBitrate = (int) (ackedBytes * 8 * 1000000 / elapsedUs);
+      ackedWindowStartUs = arrivalUs;
+      ackedBytes = 0;
+    }
+  }
+
+  private void notifyBitrate(int bitrate) {
+    if (listener == null) return;
+    if (notifiedBitrate == 0
+        || Math.abs(bitrate - notifiedBitrate) >= notifiedBitrate * MIN_CHANGE_NOTIFY) {
+      notifiedBitrate = bitrate;
+      listener.onTargetBitrate(bitrate);
+    }
+  }
+}
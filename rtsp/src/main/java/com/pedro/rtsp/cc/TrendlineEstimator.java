@@ -0,0 +1,138 @@
+package com.pedro.rtsp.cc;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Delay gradient over-use detector (GCC trendline filter).
+ * Estimate the slope of the one way delay variation with a linear regression over the last
+ * packet groups and compare it with an adaptive threshold.
+ */
+public class TrendlineEstimator {
+
+  private static final int WINDOW_SIZE = 20;
+  private static final double SMOOTHING = 0.9;
+  private static final double THRESHOLD_GAIN = 4.0;
+  private static final int MAX_DELTAS = 60;
+  private static final double OVERUSING_TIME_THRESHOLD = 10;
+  private static final double K_UP = 0.0087;
+  private static final double K_DOWN = 0.039;
+  private static final double MAX_ADAPT_OFFSET = 15;
+
+  private final double[] arrivalTimes = new double[WINDOW_SIZE];
+  private final double[] smoothedDelays = new double[WINDOW_SIZE];
+  private int windowCount = 0;
+  private int windowIndex = 0;
+  private long firstArrivalMs = -1;
+  private double accumulatedDelay = 0;
+  private double smoothedDelay = 0;
+  private int numDeltas = 0;
+  private double trend = 0;
+  private double prevTrend = 0;
+  //detector
+  private double threshold = 12.5;
+  private long lastThresholdUpdateMs = -1;
+  private double timeOverUsing = -1;
+  private int overuseCounter = 0;
+  private BandwidthUsage bandwidthUsage = BandwidthUsage.NORMAL;
+
+  /**
+   * @param recvDeltaMs arrival time difference between two packet groups
+   * @param sendDeltaMs send time difference between two packet groups
+   * @param arrivalTimeMs arrival time of current packet group
+   */
+  public BandwidthUsage update(double recvDeltaMs, double sendDeltaMs, long arrivalTimeMs) {
+    double delta = recvDeltaMs - sendDeltaMs;
+    if (numDeltas < MAX_DELTAS) numDeltas++;
+    if (firstArrivalMs == -1) firstArrivalMs = arrivalTimeMs;
+    accumulatedDelay += delta;
+    smoothedDelay = SMOOTHING * smoothedDelay + (1 - SMOOTHING) * accumulatedDelay;
+
+    arrivalTimes[windowIndex] = arrivalTimeMs - firstArrivalMs;
+    smoothedDelays[windowIndex] = smoothedDelay;
+    windowIndex = (windowIndex + 1) % WINDOW_SIZE;
+    if (windowCount < WINDOW_SIZE) windowCount++;
+    if (windowCount == WINDOW_SIZE) trend = linearFitSlope();
+    detect(sendDeltaMs, arrivalTimeMs);
+    return bandwidthUsage;
+  }
+
+  public BandwidthUsage getBandwidthUsage() {
+    return bandwidthUsage;
+  }
+
+  public void reset() {
+    windowCount = 0;
+    windowIndex = 0;
+    firstArrivalMs = -1;
+    accumulatedDelay = 0;
+    smoothedDelay = 0;
+    numDeltas = 0;
+    trend = 0;
+    prevTrend = 0;
+    threshold = 12.5;
+    lastThresholdUpdateMs = -1;
+    timeOverUsing = -1;
+    overuseCounter = 0;
+    bandwidthUsage = BandwidthUsage.NORMAL;
+  }
+
+  private double linearFitSlope() {
+    double sumX = 0, sumY = 0;
+    for (int i = 0; i < windowCount; i++) {
+      sumX += arrivalTimes[i];
+      sumY += smoothedDelays[i];
+    }
+    double avgX = sumX / windowCount;
+    double avgY = sumY / windowCount;
+    double numerator = 0, denominator = 0;
+    for (int i = 0; i < windowCount; i++) {
+      double x = arrivalTimes[i] - avgX;
+      numerator += x * (smoothedDelays[i] - avgY);
+      denominator += x * x;
+    }
+    return denominator == 0 ? trend : numerator / denominator;
+  }
+
+  private void detect(double sendDeltaMs, long nowMs) {
+    double modifiedTrend = Math.min(numDeltas, MAX_DELTAS) * trend * THRESHOLD_GAIN;
+    if (modifiedTrend > threshold) {
+      if (timeOverUsing == -1) {
+        //initialize with half the inter-group time, assuming overuse started in the middle
+        timeOverUsing = sendDeltaMs / 2;
+      } else {
+        timeOverUsing += sendDeltaMs;
+      }
+      overuseCounter++;
+      if (timeOverUsing > OVERUSING_TIME_THRESHOLD && overuseCounter > 1 && trend >= prevTrend) {
+        timeOverUsing = 0;
+        overuseCounter = 0;
+        bandwidthUsage = BandwidthUsage.OVERUSING;
+      }
+    } else if (modifiedTrend < -threshold) {
+      timeOverUsing = -1;
+      overuseCounter = 0;
+      bandwidthUsage = BandwidthUsage.UNDERUSING;
+    } else {
+      timeOverUsing = -1;
+      overuseCounter = 0;
+      bandwidthUsage = BandwidthUsage.NORMAL;
+    }
+    prevTrend = trend;
+    updateThreshold(modifiedTrend, nowMs);
+  }
+
+  private void updateThreshold(double modifiedTrend, long nowMs) {
+    if (lastThresholdUpdateMs == -1) lastThresholdUpdateMs = nowMs;
+    double absTrend = Math.abs(modifiedTrend);
+    //avoid adapting the threshold to spikes
+    if (absTrend > threshold + MAX_ADAPT_OFFSET) {
+      lastThresholdUpdateMs = nowMs;
+      return;
+    }
+    double k = absTrend < threshold ? K_DOWN : K_UP;
+    long timeDeltaMs = Math.min(nowMs - lastThresholdUpdateMs, 100);
+    threshold += k * (absTrend - threshold) * timeDeltaMs;
+    threshold = Math.max(6, Math.min(600, threshold));
+    lastThresholdUpdateMs = nowMs;
+  }
+}
@@ -0,0 +1,96 @@
+package com.pedro.rtsp.rtcp;
+
+import android.util.Log;
+import com.pedro.rtsp.rtsp.Protocol;
+import com.pedro.rtsp.rtsp.RtspReader;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Read RTCP packets sent by server and notify feedback messages.
+ */
+public abstract class BaseRtcpReceiver {
+
+  protected static final String TAG = "BaseRtcpReceiver";
+  protected static final int MTU = 1500;
+  //RTCP packet types
+  private static final int RTPFB = 205;
+  private static final int PSFB = 206;
+  //RTPFB formats
+  private static final int TRANSPORT_CC = 15;
+  //PSFB formats
+  private static final int PLI = 1;
+  private static final int FIR = 4;
+
+  protected RtcpFeedbackCallback rtcpFeedbackCallback;
+  protected volatile boolean running = false;
+  private int lastFirSequence = -1;
+
+  public static BaseRtcpReceiver getInstance(Protocol protocol, BaseSenderReport senderReport) {
+    return protocol == Protocol.TCP ? new RtcpReceiverTcp()
+        : new RtcpReceiverUdp((SenderReportUdp) senderReport);
+  }
+
+  public void setRtcpFeedbackCallback(RtcpFeedbackCallback rtcpFeedbackCallback) {
+    this.rtcpFeedbackCallback = rtcpFeedbackCallback;
+  }
+
+  /**
+   * @param rtspReader RTSP connection reader. Only used with TCP, RTCP is interleaved on it.
+   */
+  public abstract void setDataStream(RtspReader rtspReader);
+
+  public abstract void start();
+
+  public void stop() {
+    running = false;
+    lastFirSequence = -1;
+  }
+
+  /**
+   * Parse a compound RTCP packet.
+   */
+  protected void parse(byte[] buffer, int offset, int length) {
+    int end = offset + length;
+    while (offset + 4 <= end) {
+      int version = (buffer[offset] & 0xFF) >> 6;
+      if (version != 2) {
+        Log.i(TAG, "invalid RTCP version: " + version);
+        return;
+      }
+      int format = buffer[offset] & 0x1F;
+      int packetType = buffer[offset + 1] & 0xFF;
+      int packetLength = (((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF)) * 4 + 4;
+      if (offset + packetLength > end) {
+        Log.i(TAG, "RTCP packet truncated");
+        return;
+      }
+      onPacket(buffer, offset, packetLength, packetType, format);
+      offset += packetLength;
+    }
+  }
+
+  private void onPacket(byte[] buffer, int offset, int length, int packetType, int format) {
+    if (rtcpFeedbackCallback == null) return;
+    if (packetType == RTPFB && format == TRANSPORT_CC) {
+      TransportFeedback transportFeedback = TransportFeedback.parse(buffer, offset, length);
+      if (transportFeedback != null) {
+        rtcpFeedbackCallback.onTransportFeedback(transportFeedback);
+      } else {
+        Log.i(TAG, "malformed transport feedback");
+      }
+    } else if (packetType == PSFB && format == PLI) {
+      Log.i(TAG, "picture loss indication received");
+      rtcpFeedbackCallback.onKeyFrameRequest();
+    } else if (packetType == PSFB && format == FIR && length >= 20) {
+      //FCI: SSRC(32 bits), sequence number(8 bits), reserved(24 bits).
+      //Retransmissions of the same request use the same sequence number.
+      int firSequence = buffer[offset + 16] & 0xFF;
+      if (firSequence != lastFirSequence) {
+        lastFirSequence = firSequence;
+        Log.i(TAG, "full intra request received");
+        rtcpFeedbackCallback.onKeyFrameRequest();
+      }
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package com.pedro.rtsp.rtcp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Feedback messages received from server (RFC 4585).
+ */
+public interface RtcpFeedbackCallback {
+
+  void onTransportFeedback(TransportFeedback transportFeedback);
+
+  /**
+   * Server need a key frame. Picture loss indication or full intra request received.
+   */
+  void onKeyFrameRequest();
+}
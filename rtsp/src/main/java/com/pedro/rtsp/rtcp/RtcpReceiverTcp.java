@@ -0,0 +1,61 @@
+package com.pedro.rtsp.rtcp;
+
+import android.util.Log;
+import com.pedro.rtsp.rtsp.RtspReader;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RTCP packets are interleaved on RTSP connection: '$', channel, length(16 bits), data.
+ */
+public class RtcpReceiverTcp extends BaseRtcpReceiver {
+
+  private RtspReader rtspReader;
+  private final byte[] buffer = new byte[MTU];
+  private Thread thread;
+
+  @Override
+  public void setDataStream(RtspReader rtspReader) {
+    this.rtspReader = rtspReader;
+  }
+
+  @Override
+  public void start() {
+    if (rtspReader == null) return;
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          try {
+            readPacket();
+          } catch (SocketTimeoutException ignored) {
+            //nothing received, keep waiting
+          } catch (IOException e) {
+            if (running) Log.e(TAG, "read error", e);
+            running = false;
+          }
+        }
+      }
+    });
+    thread.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  private void readPacket() throws IOException {
+    //RTSP messages sent by server are skipped by reader
+    int length = rtspReader.readPacket(buffer);
+    //odd channels are RTCP
+    if (length >= 0 && rtspReader.getChannel() % 2 == 1) parse(buffer, 0, length);
+  }
+}
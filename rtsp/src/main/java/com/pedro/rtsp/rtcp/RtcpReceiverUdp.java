@@ -0,0 +1,67 @@
+package com.pedro.rtsp.rtcp;
+
+import android.util.Log;
+import com.pedro.rtsp.rtsp.RtspReader;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RTCP packets are received in the same sockets used to send reports.
+ */
+public class RtcpReceiverUdp extends BaseRtcpReceiver {
+
+  private final SenderReportUdp senderReportUdp;
+  private Thread videoThread;
+  private Thread audioThread;
+
+  public RtcpReceiverUdp(SenderReportUdp senderReportUdp) {
+    this.senderReportUdp = senderReportUdp;
+  }
+
+  @Override
+  public void setDataStream(RtspReader rtspReader) {
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    videoThread = createThread(senderReportUdp.getVideoSocket());
+    audioThread = createThread(senderReportUdp.getAudioSocket());
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    if (videoThread != null) videoThread.interrupt();
+    if (audioThread != null) audioThread.interrupt();
+    videoThread = null;
+    audioThread = null;
+  }
+
+  private Thread createThread(final DatagramSocket socket) {
+    if (socket == null) return null;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[MTU];
+        DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+          try {
+            datagramPacket.setLength(buffer.length);
+            socket.receive(datagramPacket);
+            parse(buffer, 0, datagramPacket.getLength());
+          } catch (IOException e) {
+            if (running) Log.e(TAG, "read error", e);
+            //only this socket failed, keep receiving in the other one
+            break;
+          }
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+}
@@ -52,6 +52,14 @@ public class SenderReportUdp extends BaseSenderReport {
     multicastSocketAudio.close();
   }
 
+  MulticastSocket getVideoSocket() {
+    return multicastSocketVideo;
+  }
+
+  MulticastSocket getAudioSocket() {
+    return multicastSocketAudio;
+  }
+
   private void sendReportUDP(byte[] buffer, int port, String type, int packet, int octet)
       throws IOException {
     datagramPacket.setData(buffer);
@@ -0,0 +1,103 @@
+package com.pedro.rtsp.rtcp;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Transport-wide congestion control feedback.
+ * draft-holmer-rmcat-transport-wide-cc-extensions-01
+ */
+public class TransportFeedback {
+
+  public static final long NOT_RECEIVED = -1;
+
+  private final int baseSequence;
+  private final long[] arrivalTimesUs;
+
+  public TransportFeedback(int baseSequence, long[] arrivalTimesUs) {
+    this.baseSequence = baseSequence;
+    this.arrivalTimesUs = arrivalTimesUs;
+  }
+
+  public int getBaseSequence() {
+    return baseSequence;
+  }
+
+  public int getPacketCount() {
+    return arrivalTimesUs.length;
+  }
+
+  public int getSequence(int index) {
+    return (baseSequence + index) & 0xFFFF;
+  }
+
+  /**
+   * @return arrival time in receiver clock or {@link #NOT_RECEIVED} if the packet was lost.
+   */
+  public long getArrivalTimeUs(int index) {
+    return arrivalTimesUs[index];
+  }
+
+  /**
+   * @param buffer RTCP packet starting in common header
+   * @return parsed feedback or null if malformed
+   */
+  public static TransportFeedback parse(byte[] buffer, int offset, int length) {
+    if (length < 20) return null;
+    int baseSequence = getInt(buffer, offset + 12, 2);
+    int statusCount = getInt(buffer, offset + 14, 2);
+    //24 bits signed in multiples of 64ms
+    int referenceTime = getInt(buffer, offset + 16, 3);
+    if ((referenceTime & 0x800000) != 0) referenceTime -= 0x1000000;
+    int end = offset + length;
+    int index = offset + 20;
+
+    int[] symbols = new int[statusCount];
+    int count = 0;
+    while (count < statusCount) {
+      if (index + 2 > end) return null;
+      int chunk = getInt(buffer, index, 2);
+      index += 2;
+      if ((chunk & 0x8000) == 0) {
+        //run length chunk
+        int symbol = (chunk >> 13) & 0x03;
+        int runLength = chunk & 0x1FFF;
+        for (int i = 0; i < runLength && count < statusCount; i++) symbols[count++] = symbol;
+      } else if ((chunk & 0x4000) == 0) {
+        //status vector chunk, 14 one bit symbols
+        for (int i = 13; i >= 0 && count < statusCount; i--) symbols[count++] = (chunk >> i) & 0x01;
+      } else {
+        //status vector chunk, 7 two bits symbols
+        for (int i = 6; i >= 0 && count < statusCount; i--) {
+          symbols[count++] = (chunk >> (i * 2)) & 0x03;
+        }
+      }
+    }
+
+    long[] arrivalTimesUs = new long[statusCount];
+    long time = referenceTime * 64000L;
+    for (int i = 0; i < statusCount; i++) {
+      if (symbols[i] == 1) {
+        if (index + 1 > end) return null;
+        time += (buffer[index] & 0xFF) * 250L;
+        index += 1;
+        arrivalTimesUs[i] = time;
+      } else if (symbols[i] == 2) {
+        if (index + 2 > end) return null;
+        time += ((short) getInt(buffer, index, 2)) * 250L;
+        index += 2;
+        arrivalTimesUs[i] = time;
+      } else {
+        arrivalTimesUs[i] = NOT_RECEIVED;
+      }
+    }
+    return new TransportFeedback(baseSequence, arrivalTimesUs);
+  }
+
+  private static int getInt(byte[] buffer, int offset, int length) {
+    int value = 0;
+    for (int i = 0; i < length; i++) {
+      value = (value << 8) | (buffer[offset + i] & 0xFF);
+    }
+    return value;
+  }
+}
@@ -2,54 +2,186 @@ package com.pedro.rtsp.rtp.packets;
 
 import android.media.MediaCodec;
 import com.pedro.rtsp.rtsp.RtpFrame;
-import com.pedro.rtsp.utils.RtpConstants;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by pedro on 27/11/18.
  *
  * RFC 3640.
+ * Each packet can carry one AU, one fragment of an AU or, with aggregation enabled, several
+ * consecutive AUs. Aggregated AUs are also sent when max latency expires without a new AU, so
+ * gaps in audio (DTX) don't hold them.
  */
 public class AacPacket extends BasePacket {
 
+  //AAC LC frame size
+  private static final int SAMPLES_PER_FRAME = 1024;
+  private static final int MAX_FRAMES_PER_PACKET = 32;
   private AudioPacketCallback audioPacketCallback;
+  private final long frameDuration;
+  private int packetSize = maxPacketSize;
+  private long maxLatency = 0;
+  private byte[] pendingData;
+  private final int[] pendingSizes = new int[MAX_FRAMES_PER_PACKET];
+  private int pendingFrames = 0;
+  private int pendingLength = 0;
+  private long pendingTs;
+  private long lastTs;
+  private ScheduledExecutorService flushExecutor;
+  //increased on each flush, a scheduled flush only sends the AUs pending when it was scheduled
+  private int flushCount = 0;
 
   public AacPacket(int sampleRate, AudioPacketCallback audioPacketCallback) {
     super(sampleRate);
     this.audioPacketCallback = audioPacketCallback;
     channelIdentifier = (byte) 0;
+    frameDuration = SAMPLES_PER_FRAME * 1000000000L / sampleRate;
+  }
+
+  /**
+   * Aggregate consecutive AUs in the same packet.
+   *
+   * @param maxLatencyMs max time an AU is hold before send. 0 to disable aggregation.
+   * @param mtu max packet size used to aggregate and fragment AUs.
+   */
+  public synchronized void setAggregation(long maxLatencyMs, int mtu) {
+    flush();
+    maxLatency = maxLatencyMs * 1000000L;
+    packetSize = mtu - 28;
+    pendingData = new byte[packetSize];
+    pendingFrames = 0;
+    pendingLength = 0;
   }
 
   @Override
-  public void createAndSendPacket(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+  public synchronized void createAndSendPacket(ByteBuffer byteBuffer,
+      MediaCodec.BufferInfo bufferInfo) {
     int length = bufferInfo.size - byteBuffer.position();
     if (length > 0) {
-      byte[] buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 4);
-
-      byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 4, length);
       long ts = bufferInfo.presentationTimeUs * 1000;
-      markPacket(buffer);
+      if (maxLatency <= 0 || length > packetSize - rtpHeaderLength - 4) {
+        flush();
+        sendAccessUnit(byteBuffer, length, ts);
+        return;
+      }
+      // AU-Index-delta is always 0 so only consecutive AUs can share a packet
+      if (pendingFrames > 0 && (Math.abs(ts - lastTs - frameDuration) > frameDuration / 2
+          || pendingFrames == MAX_FRAMES_PER_PACKET
+          || rtpHeaderLength + 2 + 2 * (pendingFrames + 1) + pendingLength + length
+          > packetSize)) {
+        flush();
+      }
+      boolean first = pendingFrames == 0;
+      if (first) pendingTs = ts;
+      byteBuffer.get(pendingData, pendingLength, length);
+      pendingSizes[pendingFrames++] = length;
+      pendingLength += length;
+      lastTs = ts;
+      // waiting the next AU would exceed the max latency of the first one
+      if (ts - pendingTs + frameDuration > maxLatency) {
+        flush();
+      } else if (first) {
+        scheduleFlush();
+      }
+    }
+  }
+
+  /**
+   * Pending AUs are sent before reset.
+   */
+  @Override
+  public synchronized void reset() {
+    flush();
+    super.reset();
+    if (flushExecutor != null) {
+      flushExecutor.shutdownNow();
+      flushExecutor = null;
+    }
+  }
+
+  /**
+   * Send AUs pending now when max latency expires if they were not sent before.
+   */
+  private void scheduleFlush() {
+    if (flushExecutor == null) flushExecutor = Executors.newSingleThreadScheduledExecutor();
+    final int count = flushCount;
+    flushExecutor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (AacPacket.this) {
+          if (count == flushCount) flush();
+        }
+      }
+    }, maxLatency, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Send an AU alone, fragmented in several packets if it doesn't fit in one.
+   * All fragments have the same timestamp and AU-size. Marker is only set in the last one.
+   */
+  private void sendAccessUnit(ByteBuffer byteBuffer, int length, long ts) {
+    int maxFragment = packetSize - rtpHeaderLength - 4;
+    int sum = 0;
+    while (sum < length) {
+      int fragment = Math.min(length - sum, maxFragment);
+      byte[] buffer = getBuffer(fragment + rtpHeaderLength + 4);
+
+      byteBuffer.get(buffer, rtpHeaderLength + 4, fragment);
+      sum += fragment;
+      if (sum == length) markPacket(buffer);
       updateTimeStamp(buffer, ts);
 
       // AU-headers-length field: contains the size in bits of a AU-header
       // 13+3 = 16 bits -> 13bits for AU-size and 3bits for AU-Index / AU-Index-delta
       // 13 bits will be enough because ADTS uses 13 bits for frame length
-      buffer[RtpConstants.RTP_HEADER_LENGTH] = (byte) 0;
-      buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = (byte) 0x10;
-
-      // AU-size
-      buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = (byte) (length >> 5);
-      buffer[RtpConstants.RTP_HEADER_LENGTH + 3] = (byte) (length << 3);
-
-      // AU-Index
-      buffer[RtpConstants.RTP_HEADER_LENGTH + 3] &= 0xF8;
-      buffer[RtpConstants.RTP_HEADER_LENGTH + 3] |= 0x00;
+      buffer[rtpHeaderLength] = (byte) 0;
+      buffer[rtpHeaderLength + 1] = (byte) 0x10;
+      setAuHeader(buffer, rtpHeaderLength + 2, length);
 
       updateSeq(buffer);
       RtpFrame rtpFrame =
-          new RtpFrame(buffer, ts, RtpConstants.RTP_HEADER_LENGTH + length + 4, rtpPort, rtcpPort,
+          new RtpFrame(buffer, ts, rtpHeaderLength + fragment + 4, rtpPort, rtcpPort,
               channelIdentifier);
       audioPacketCallback.onAudioFrameCreated(rtpFrame);
     }
   }
+
+  /**
+   * Send pending AUs in a single packet with one AU-header per AU.
+   */
+  private void flush() {
+    if (pendingFrames == 0) return;
+    int headersLength = 2 * pendingFrames;
+    int length = rtpHeaderLength + 2 + headersLength + pendingLength;
+    byte[] buffer = getBuffer(length);
+
+    markPacket(buffer);
+    updateTimeStamp(buffer, pendingTs);
+    buffer[rtpHeaderLength] = (byte) (headersLength * 8 >> 8);
+    buffer[rtpHeaderLength + 1] = (byte) (headersLength * 8);
+    for (int i = 0; i < pendingFrames; i++) {
+      setAuHeader(buffer, rtpHeaderLength + 2 + 2 * i, pendingSizes[i]);
+    }
+    System.arraycopy(pendingData, 0, buffer, rtpHeaderLength + 2 + headersLength,
+        pendingLength);
+
+    updateSeq(buffer);
+    RtpFrame rtpFrame =
+        new RtpFrame(buffer, pendingTs, length, rtpPort, rtcpPort, channelIdentifier);
+    audioPacketCallback.onAudioFrameCreated(rtpFrame);
+    pendingFrames = 0;
+    pendingLength = 0;
+    flushCount++;
+  }
+
+  /**
+   * AU-size (13 bits) followed by AU-Index / AU-Index-delta (3 bits), always 0.
+   */
+  private void setAuHeader(byte[] buffer, int offset, int auSize) {
+    buffer[offset] = (byte) (auSize >> 5);
+    buffer[offset + 1] = (byte) ((auSize << 3) & 0xF8);
+  }
 }
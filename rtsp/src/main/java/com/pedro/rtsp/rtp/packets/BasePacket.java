@@ -15,7 +15,9 @@ public abstract class BasePacket {
   protected byte channelIdentifier;
   protected int rtpPort;
   protected int rtcpPort;
+  protected int rtpHeaderLength = RtpConstants.RTP_HEADER_LENGTH;
   private final long clock;
+  private boolean headerExtensions = false;
   private int seq = 0;
   private int ssrc;
 
@@ -31,6 +33,16 @@ public abstract class BasePacket {
     this.rtcpPort = rtcpPort;
   }
 
+  /**
+   * Reserve abs-send-time and transport-wide sequence number extensions in each packet header.
+   * Values are filled just before send by {@link com.pedro.rtsp.cc.SendSideBandwidthEstimator}.
+   */
+  public void setHeaderExtensions(boolean headerExtensions) {
+    this.headerExtensions = headerExtensions;
+    rtpHeaderLength = headerExtensions ? RtpConstants.RTP_HEADER_LENGTH
+        + RtpConstants.RTP_EXTENSION_LENGTH : RtpConstants.RTP_HEADER_LENGTH;
+  }
+
   public void reset() {
     seq = 0;
     ssrc = new Random().nextInt();
@@ -42,6 +54,7 @@ public abstract class BasePacket {
     buffer[1] = (byte) RtpConstants.payloadType;
     setLongSSRC(buffer, ssrc);
     requestBuffer(buffer);
+    if (headerExtensions) setHeaderExtensions(buffer);
     return buffer;
   }
 
@@ -69,6 +82,19 @@ public abstract class BasePacket {
     setLong(buffer, ssrc, 8, 12);
   }
 
+  private void setHeaderExtensions(byte[] buffer) {
+    int offset = RtpConstants.RTP_HEADER_LENGTH;
+    //extension bit
+    buffer[0] |= 0x10;
+    //one-byte header profile and length in 32 bits words
+    buffer[offset] = (byte) 0xBE;
+    buffer[offset + 1] = (byte) 0xDE;
+    setLong(buffer, RtpConstants.RTP_EXTENSION_LENGTH / 4 - 1, offset + 2, offset + 4);
+    //id and length - 1 of each element, values are written on send
+    buffer[offset + 4] = (byte) (RtpConstants.ABS_SEND_TIME_ID << 4 | 2);
+    buffer[offset + 8] = (byte) (RtpConstants.TRANSPORT_CC_ID << 4 | 1);
+  }
+
   private void requestBuffer(byte[] buffer) {
     buffer[1] &= 0x7F;
   }
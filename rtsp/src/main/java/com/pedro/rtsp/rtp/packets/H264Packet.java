@@ -13,7 +13,7 @@ import java.nio.ByteBuffer;
 public class H264Packet extends BasePacket {
 
   private byte[] header = new byte[5];
-  private byte[] stapA;
+  private volatile byte[] stapA;
   private VideoPacketCallback videoPacketCallback;
   private boolean sendKeyFrame = false;
 
@@ -34,35 +34,36 @@ public class H264Packet extends BasePacket {
     int naluLength = bufferInfo.size - byteBuffer.position() + 1;
     int type = header[4] & 0x1F;
     if (type == RtpConstants.IDR || bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
-      byte[] buffer = getBuffer(stapA.length + RtpConstants.RTP_HEADER_LENGTH);
+      byte[] stapA = this.stapA;
+      byte[] buffer = getBuffer(stapA.length + rtpHeaderLength);
       updateTimeStamp(buffer, ts);
 
       markPacket(buffer); //mark end frame
-      System.arraycopy(stapA, 0, buffer, RtpConstants.RTP_HEADER_LENGTH, stapA.length);
+      System.arraycopy(stapA, 0, buffer, rtpHeaderLength, stapA.length);
 
       updateSeq(buffer);
       RtpFrame rtpFrame =
-          new RtpFrame(buffer, ts, stapA.length + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort,
+          new RtpFrame(buffer, ts, stapA.length + rtpHeaderLength, rtpPort, rtcpPort,
               channelIdentifier);
       videoPacketCallback.onVideoFrameCreated(rtpFrame);
       sendKeyFrame = true;
     }
     if (sendKeyFrame) {
       // Small NAL unit => Single NAL unit
-      if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
+      if (naluLength <= maxPacketSize - rtpHeaderLength - 2) {
         int cont = naluLength - 1;
         int length = cont < bufferInfo.size - byteBuffer.position() ? cont : bufferInfo.size - byteBuffer.position();
-        byte[] buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 1);
+        byte[] buffer = getBuffer(length + rtpHeaderLength + 1);
 
-        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[4];
-        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 1, length);
+        buffer[rtpHeaderLength] = header[4];
+        byteBuffer.get(buffer, rtpHeaderLength + 1, length);
 
         updateTimeStamp(buffer, ts);
         markPacket(buffer); //mark end frame
 
         updateSeq(buffer);
         RtpFrame rtpFrame =
-            new RtpFrame(buffer, ts, naluLength + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort,
+            new RtpFrame(buffer, ts, naluLength + rtpHeaderLength, rtpPort, rtcpPort,
                 channelIdentifier);
         videoPacketCallback.onVideoFrameCreated(rtpFrame);
       }
@@ -77,27 +78,27 @@ public class H264Packet extends BasePacket {
 
         int sum = 1;
         while (sum < naluLength) {
-          int cont = naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2 ?
+          int cont = naluLength - sum > maxPacketSize - rtpHeaderLength - 2 ?
               maxPacketSize
-                  - RtpConstants.RTP_HEADER_LENGTH
+                  - rtpHeaderLength
                   - 2 : naluLength - sum;
           int length = cont < bufferInfo.size - byteBuffer.position() ? cont : bufferInfo.size - byteBuffer.position();
-          byte[] buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 2);
+          byte[] buffer = getBuffer(length + rtpHeaderLength + 2);
 
-          buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0];
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1];
+          buffer[rtpHeaderLength] = header[0];
+          buffer[rtpHeaderLength + 1] = header[1];
           updateTimeStamp(buffer, ts);
-          byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, length);
+          byteBuffer.get(buffer, rtpHeaderLength + 2, length);
           sum += length;
           // Last packet before next NAL
           if (sum >= naluLength) {
             // End bit on
-            buffer[RtpConstants.RTP_HEADER_LENGTH + 1] += 0x40;
+            buffer[rtpHeaderLength + 1] += 0x40;
             markPacket(buffer); //mark end frame
           }
           updateSeq(buffer);
           RtpFrame rtpFrame =
-              new RtpFrame(buffer, ts, length + RtpConstants.RTP_HEADER_LENGTH + 2, rtpPort,
+              new RtpFrame(buffer, ts, length + rtpHeaderLength + 2, rtpPort,
                   rtcpPort, channelIdentifier);
           videoPacketCallback.onVideoFrameCreated(rtpFrame);
           // Switch start bit
@@ -107,8 +108,11 @@ public class H264Packet extends BasePacket {
     }
   }
 
-  private void setSpsPps(byte[] sps, byte[] pps) {
-    stapA = new byte[sps.length + pps.length + 5];
+  /**
+   * Parameter sets sent before each key frame, can be replaced while streaming.
+   */
+  public void setSpsPps(byte[] sps, byte[] pps) {
+    byte[] stapA = new byte[sps.length + pps.length + 5];
 
     // STAP-A NAL header is 24
     stapA[0] = 24;
@@ -124,6 +128,7 @@ public class H264Packet extends BasePacket {
     // Write NALU 1 into the array, then write NALU 2 into the array.
     System.arraycopy(sps, 0, stapA, 3, sps.length);
     System.arraycopy(pps, 0, stapA, 5 + sps.length, pps.length);
+    this.stapA = stapA;
   }
 
   @Override
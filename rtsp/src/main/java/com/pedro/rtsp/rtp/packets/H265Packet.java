@@ -13,7 +13,7 @@ import java.nio.ByteBuffer;
 public class H265Packet extends BasePacket {
 
   private byte[] header = new byte[6];
-  private byte[] stapA;
+  private volatile byte[] stapA;
   private VideoPacketCallback videoPacketCallback;
   private boolean sendKeyFrame = false;
 
@@ -35,36 +35,37 @@ public class H265Packet extends BasePacket {
     int type = (header[4] >> 1) & 0x3f;
     if (type == RtpConstants.IDR_N_LP || type == RtpConstants.IDR_W_DLP
         || bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
-      byte[] buffer = getBuffer(stapA.length + RtpConstants.RTP_HEADER_LENGTH);
+      byte[] stapA = this.stapA;
+      byte[] buffer = getBuffer(stapA.length + rtpHeaderLength);
       updateTimeStamp(buffer, ts);
 
       markPacket(buffer); //mark end frame
-      System.arraycopy(stapA, 0, buffer, RtpConstants.RTP_HEADER_LENGTH, stapA.length);
+      System.arraycopy(stapA, 0, buffer, rtpHeaderLength, stapA.length);
 
       updateSeq(buffer);
       RtpFrame rtpFrame =
-          new RtpFrame(buffer, ts, stapA.length + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort,
+          new RtpFrame(buffer, ts, stapA.length + rtpHeaderLength, rtpPort, rtcpPort,
               channelIdentifier);
       videoPacketCallback.onVideoFrameCreated(rtpFrame);
       sendKeyFrame = true;
     }
     if (sendKeyFrame) {
       // Small NAL unit => Single NAL unit
-      if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3) {
+      if (naluLength <= maxPacketSize - rtpHeaderLength - 3) {
         int cont = naluLength - 1;
         int length = cont < bufferInfo.size - byteBuffer.position() ? cont : bufferInfo.size - byteBuffer.position();
-        byte[] buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 2);
+        byte[] buffer = getBuffer(length + rtpHeaderLength + 2);
         //Set PayloadHdr (exact copy of nal unit header)
-        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[4];
-        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[5];
-        byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, length);
+        buffer[rtpHeaderLength] = header[4];
+        buffer[rtpHeaderLength + 1] = header[5];
+        byteBuffer.get(buffer, rtpHeaderLength + 2, length);
 
         updateTimeStamp(buffer, ts);
         markPacket(buffer); //mark end frame
 
         updateSeq(buffer);
         RtpFrame rtpFrame =
-            new RtpFrame(buffer, ts, naluLength + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort,
+            new RtpFrame(buffer, ts, naluLength + rtpHeaderLength, rtpPort, rtcpPort,
                 channelIdentifier);
         videoPacketCallback.onVideoFrameCreated(rtpFrame);
       }
@@ -84,28 +85,28 @@ public class H265Packet extends BasePacket {
 
         int sum = 1;
         while (sum < naluLength) {
-          int cont = naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3 ?
+          int cont = naluLength - sum > maxPacketSize - rtpHeaderLength - 3 ?
               maxPacketSize
-                  - RtpConstants.RTP_HEADER_LENGTH
+                  - rtpHeaderLength
                   - 3 : naluLength - sum;
           int length = cont < bufferInfo.size - byteBuffer.position() ? cont : bufferInfo.size - byteBuffer.position();
-          byte[] buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 3);
+          byte[] buffer = getBuffer(length + rtpHeaderLength + 3);
 
-          buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0];
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1];
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = header[2];
+          buffer[rtpHeaderLength] = header[0];
+          buffer[rtpHeaderLength + 1] = header[1];
+          buffer[rtpHeaderLength + 2] = header[2];
           updateTimeStamp(buffer, ts);
-          byteBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 3, length);
+          byteBuffer.get(buffer, rtpHeaderLength + 3, length);
           sum += length;
           // Last packet before next NAL
           if (sum >= naluLength) {
             // End bit on
-            buffer[RtpConstants.RTP_HEADER_LENGTH + 2] += 0x40;
+            buffer[rtpHeaderLength + 2] += 0x40;
             markPacket(buffer); //mark end frame
           }
           updateSeq(buffer);
           RtpFrame rtpFrame =
-              new RtpFrame(buffer, ts, length + RtpConstants.RTP_HEADER_LENGTH + 3, rtpPort,
+              new RtpFrame(buffer, ts, length + rtpHeaderLength + 3, rtpPort,
                   rtcpPort, channelIdentifier);
           videoPacketCallback.onVideoFrameCreated(rtpFrame);
           // Switch start bit
@@ -115,8 +116,11 @@ public class H265Packet extends BasePacket {
     }
   }
 
-  private void setSpsPpsVps(byte[] sps, byte[] pps, byte[] vps) {
-    stapA = new byte[sps.length + pps.length + 6];
+  /**
+   * Parameter sets sent before each key frame, can be replaced while streaming.
+   */
+  public void setSpsPpsVps(byte[] sps, byte[] pps, byte[] vps) {
+    byte[] stapA = new byte[sps.length + pps.length + 6];
 
     stapA[0] = 48 << 1;
     stapA[1] = 1;
@@ -132,6 +136,7 @@ public class H265Packet extends BasePacket {
     // Write NALU 1 into the array, then write NALU 2 into the array.
     System.arraycopy(sps, 0, stapA, 4, sps.length);
     System.arraycopy(pps, 0, stapA, 6 + sps.length, pps.length);
+    this.stapA = stapA;
   }
 
   @Override
@@ -101,4 +101,37 @@ public class Body {
         + trackVideo
         + "\r\n";
   }
+
+  /**
+   * Key frame requests accepted from receivers (RFC 4585 and RFC 5104).
+   * Appended to video media description.
+   */
+  public static String createKeyFrameFeedbackBody() {
+    return "a=rtcp-fb:"
+        + RtpConstants.payloadType
+        + " nack pli\r\n"
+        + "a=rtcp-fb:"
+        + RtpConstants.payloadType
+        + " ccm fir\r\n";
+  }
+
+  /**
+   * Header extensions and feedback used for transport-wide congestion control.
+   * Appended to a media description.
+   */
+  public static String createTransportCcBody() {
+    return "a=extmap:"
+        + RtpConstants.ABS_SEND_TIME_ID
+        + " "
+        + RtpConstants.ABS_SEND_TIME_URI
+        + "\r\n"
+        + "a=extmap:"
+        + RtpConstants.TRANSPORT_CC_ID
+        + " "
+        + RtpConstants.TRANSPORT_CC_URI
+        + "\r\n"
+        + "a=rtcp-fb:"
+        + RtpConstants.payloadType
+        + " transport-cc\r\n";
+  }
 }
@@ -4,7 +4,6 @@ import android.util.Base64;
 import android.util.Log;
 import com.pedro.rtsp.utils.AuthUtil;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.regex.Matcher;
@@ -34,6 +33,8 @@ public class CommandsManager {
   private int trackVideo = 1;
   private Protocol protocol;
   private boolean isOnlyAudio;
+  private boolean transportCc = false;
+  private boolean keyFrameFeedback = false;
 
   //For udp
   private final int[] audioClientPorts = new int[] { 5000, 5001 };
@@ -104,6 +105,14 @@ public class CommandsManager {
     this.protocol = protocol;
   }
 
+  public void setTransportCc(boolean transportCc) {
+    this.transportCc = transportCc;
+  }
+
+  public void setKeyFrameFeedback(boolean keyFrameFeedback) {
+    this.keyFrameFeedback = keyFrameFeedback;
+  }
+
   public String getHost() {
     return host;
   }
@@ -206,7 +215,11 @@ public class CommandsManager {
     if (!isOnlyAudio) {
       videoBody = vps == null ? Body.createH264Body(trackVideo, getSpsString(), getPpsString())
           : Body.createH265Body(trackVideo, getSpsString(), getPpsString(), getVpsString());
+      if (keyFrameFeedback) videoBody += Body.createKeyFrameFeedbackBody();
+      if (transportCc) videoBody += Body.createTransportCcBody();
     }
+    String audioBody = Body.createAacBody(trackAudio, sampleRate, isStereo);
+    if (transportCc) audioBody += Body.createTransportCcBody();
     return "v=0\r\n"
         + "o=- "
         + timeStamp
@@ -223,7 +236,7 @@ public class CommandsManager {
         + "t=0 0\r\n"
         + "a=recvonly\r\n"
         + videoBody
-        + Body.createAacBody(trackAudio, sampleRate, isStereo);
+        + audioBody;
   }
 
   private String createAuth(String authResponse) {
@@ -380,7 +393,7 @@ public class CommandsManager {
 
   //Response parser
 
-  public String getResponse(BufferedReader reader, ConnectCheckerRtsp connectCheckerRtsp,
+  public String getResponse(RtspReader reader, ConnectCheckerRtsp connectCheckerRtsp,
       boolean isAudio, boolean checkStatus) {
     try {
       String response = "";
@@ -4,12 +4,14 @@ import android.media.MediaCodec;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import com.pedro.rtsp.cc.SendSideBandwidthEstimator;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
 import com.pedro.rtsp.utils.CreateSSLSocket;
-import java.io.BufferedReader;
+import com.pedro.rtsp.utils.KeyFrameRequestListener;
+import com.pedro.rtsp.utils.LatencyListener;
+import com.pedro.rtsp.utils.NetworkListener;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
@@ -32,7 +34,7 @@ public class RtspClient {
   private ConnectCheckerRtsp connectCheckerRtsp;
   //sockets objects
   private Socket connectionSocket;
-  private BufferedReader reader;
+  private RtspReader reader;
   private BufferedWriter writer;
   private Thread thread;
   //for tcp
@@ -47,6 +49,8 @@ public class RtspClient {
   private int reTries;
   private Handler handler;
   private Runnable runnable;
+  private boolean optimizedHandshake = false;
+  private volatile boolean optimizedHandshakeFailed = false;
 
   public RtspClient(ConnectCheckerRtsp connectCheckerRtsp) {
     this.connectCheckerRtsp = connectCheckerRtsp;
@@ -63,6 +67,91 @@ public class RtspClient {
     commandsManager.setProtocol(protocol);
   }
 
+  /**
+   * Skip OPTIONS and pipeline SETUP of video track with RECORD after session id is received to
+   * reduce round trips on connect. Sequential mode is used if server fails with it.
+   * Need be called before connect. Disabled by default.
+   */
+  public void setOptimizedHandshake(boolean optimizedHandshake) {
+    this.optimizedHandshake = optimizedHandshake;
+    optimizedHandshakeFailed = false;
+  }
+
+  /**
+   * Add abs-send-time and transport-wide sequence number to RTP packets and estimate available
+   * bandwidth with transport-cc feedback sent by server. Server must support it.
+   * Need be called before connect.
+   *
+   * @param startBitrate initial target bitrate in bps.
+   * @param minBitrate min target bitrate in bps.
+   * @param maxBitrate max target bitrate in bps.
+   * @param listener called with new target bitrate. Normally used to set video encoder bitrate.
+   */
+  public void enableTransportCc(int startBitrate, int minBitrate, int maxBitrate,
+      SendSideBandwidthEstimator.Listener listener) {
+    SendSideBandwidthEstimator bandwidthEstimator =
+        new SendSideBandwidthEstimator(startBitrate, minBitrate, maxBitrate, listener);
+    rtspSender.setBandwidthEstimator(bandwidthEstimator);
+    commandsManager.setTransportCc(true);
+  }
+
+  public void disableTransportCc() {
+    rtspSender.setBandwidthEstimator(null);
+    commandsManager.setTransportCc(false);
+  }
+
+  /**
+   * @param keyFrameRequestListener called when server send RTCP PLI or FIR. Normally used to force
+   * a sync frame in video encoder. SDP advertises PLI and FIR feedback only if not null. Need be
+   * called before connect. null by default.
+   */
+  public void setKeyFrameRequestListener(KeyFrameRequestListener keyFrameRequestListener) {
+    rtspSender.setKeyFrameRequestListener(keyFrameRequestListener);
+    commandsManager.setKeyFrameFeedback(keyFrameRequestListener != null);
+  }
+
+  /**
+   * @param interval min time in ms between two key frame requests. 1000 by default.
+   */
+  public void setKeyFrameRequestInterval(long interval) {
+    rtspSender.setKeyFrameRequestInterval(interval);
+  }
+
+  /**
+   * Send several AAC frames per RTP packet (RFC 3640 AU aggregation).
+   *
+   * @param maxLatencyMs max time a frame is hold before send. 0 by default (disabled).
+   * @param mtu max packet size. {@link com.pedro.rtsp.utils.RtpConstants#MTU} by default.
+   */
+  public void setAudioAggregation(long maxLatencyMs, int mtu) {
+    rtspSender.setAudioAggregation(maxLatencyMs, mtu);
+  }
+
+  /**
+   * Drop frames of temporal enhancement layers while packets in queue are over a latency budget,
+   * base layer keeps playing without waiting a key frame.
+   *
+   * @param maxLatencyMs 0 by default (disabled).
+   */
+  public void setTemporalLayerDropping(long maxLatencyMs) {
+    rtspSender.setTemporalLayerDropping(maxLatencyMs);
+  }
+
+  /**
+   * @param latencyListener notified for each packet queued, dequeued and sent. Null to disable.
+   */
+  public void setLatencyListener(LatencyListener latencyListener) {
+    rtspSender.setLatencyListener(latencyListener);
+  }
+
+  /**
+   * @param networkListener notified for each packet sent or discarded and for each transport-cc
+   * feedback. Null to disable.
+   */
+  public void setNetworkListener(NetworkListener networkListener) {
+    rtspSender.setNetworkListener(networkListener);
+  }
+
   public void setAuthorization(String user, String password) {
     commandsManager.setAuth(user, password);
   }
@@ -105,8 +194,16 @@ public class RtspClient {
     return connectCheckerRtsp;
   }
 
+  /**
+   * If called while streaming (resolution change), new parameter sets are sent in the RTP stream
+   * before next key frames.
+   */
   public void setSPSandPPS(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
     commandsManager.setVideoInfo(sps, pps, vps);
+    if (streaming) {
+      rtspSender.updateVideoInfo(commandsManager.getSps(), commandsManager.getPps(),
+          commandsManager.getVps());
+    }
   }
 
   public void setIsStereo(boolean isStereo) {
@@ -151,17 +248,32 @@ public class RtspClient {
               if (connectionSocket == null) throw new IOException("Socket creation failed");
             }
             connectionSocket.setSoTimeout(5000);
-            reader = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
+            reader = new RtspReader(connectionSocket.getInputStream());
             outputStream = connectionSocket.getOutputStream();
             writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-            writer.write(commandsManager.createOptions());
-            writer.flush();
-            commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
+            final boolean optimized = optimizedHandshake && !optimizedHandshakeFailed;
+            if (!optimized) {
+              writer.write(commandsManager.createOptions());
+              writer.flush();
+              commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
+            }
             writer.write(commandsManager.createAnnounce());
             writer.flush();
             //check if you need credential for stream, if you need try connect with credential
             String response = commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
             int status = commandsManager.getResponseStatus(response);
+            if (optimized && status != 200 && status != 401 && status != 403) {
+              //server could need OPTIONS before ANNOUNCE
+              Log.i(TAG, "announce without options failed, using sequential handshake");
+              optimizedHandshakeFailed = true;
+              writer.write(commandsManager.createOptions());
+              writer.flush();
+              commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
+              writer.write(commandsManager.createAnnounce());
+              writer.flush();
+              response = commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
+              status = commandsManager.getResponseStatus(response);
+            }
             if (status == 403) {
               connectCheckerRtsp.onConnectionFailedRtsp("Error configure stream, access denied");
               Log.e(TAG, "Response 403, access denied");
@@ -191,16 +303,14 @@ public class RtspClient {
             writer.write(commandsManager.createSetup(commandsManager.getTrackAudio()));
             writer.flush();
             commandsManager.getResponse(reader, connectCheckerRtsp, true, true);
-            if (!commandsManager.isOnlyAudio()) {
-              writer.write(commandsManager.createSetup(commandsManager.getTrackVideo()));
-              writer.flush();
-              commandsManager.getResponse(reader, connectCheckerRtsp, false, true);
+            if (optimized && !optimizedHandshakeFailed) {
+              sendSetupVideoAndRecordPipelined();
+            } else {
+              sendSetupVideoAndRecord(true, true);
             }
-            writer.write(commandsManager.createRecord());
-            writer.flush();
-            commandsManager.getResponse(reader, connectCheckerRtsp, false, true);
 
             rtspSender.setDataStream(outputStream, commandsManager.getHost());
+            rtspSender.setFeedbackStream(reader);
             int[] videoPorts = commandsManager.getVideoServerPorts();
             int[] audioPorts = commandsManager.getAudioServerPorts();
             if (!commandsManager.isOnlyAudio()) {
@@ -213,6 +323,8 @@ public class RtspClient {
             connectCheckerRtsp.onConnectionSuccessRtsp();
           } catch (IOException | NullPointerException e) {
             Log.e(TAG, "connection error", e);
+            //next connect will use sequential handshake
+            if (optimizedHandshake) optimizedHandshakeFailed = true;
             connectCheckerRtsp.onConnectionFailedRtsp("Error configure stream, " + e.getMessage());
             streaming = false;
           }
@@ -222,6 +334,50 @@ public class RtspClient {
     }
   }
 
+  private void sendSetupVideoAndRecord(boolean setupVideo, boolean record) throws IOException {
+    if (setupVideo && !commandsManager.isOnlyAudio()) {
+      writer.write(commandsManager.createSetup(commandsManager.getTrackVideo()));
+      writer.flush();
+      commandsManager.getResponse(reader, connectCheckerRtsp, false, true);
+    }
+    if (record) {
+      writer.write(commandsManager.createRecord());
+      writer.flush();
+      commandsManager.getResponse(reader, connectCheckerRtsp, false, true);
+    }
+  }
+
+  /**
+   * Write SETUP of video track and RECORD without wait response between them. Session id is
+   * already known after SETUP of audio track. If only RECORD failed, failed requests are sent
+   * again sequentially. If SETUP failed but RECORD succeeded, session is torn down and connect
+   * fails so next connect (retry) use sequential handshake.
+   */
+  private void sendSetupVideoAndRecordPipelined() throws IOException {
+    boolean setupVideo = !commandsManager.isOnlyAudio();
+    if (setupVideo) writer.write(commandsManager.createSetup(commandsManager.getTrackVideo()));
+    writer.write(commandsManager.createRecord());
+    writer.flush();
+    boolean setupVideoFailed = false;
+    if (setupVideo) {
+      String response = commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
+      setupVideoFailed = response == null || commandsManager.getResponseStatus(response) != 200;
+    }
+    String response = commandsManager.getResponse(reader, connectCheckerRtsp, false, false);
+    boolean recordFailed = response == null || commandsManager.getResponseStatus(response) != 200;
+    if (setupVideoFailed || recordFailed) optimizedHandshakeFailed = true;
+    if (setupVideoFailed && !recordFailed) {
+      //server is already recording without video track, a second RECORD is rejected (455)
+      Log.i(TAG, "pipelined setup of video failed, tearing down session");
+      writer.write(commandsManager.createTeardown());
+      writer.flush();
+      throw new IOException("pipelined setup of video track failed");
+    } else if (recordFailed) {
+      Log.i(TAG, "pipelined setup failed, using sequential handshake");
+      sendSetupVideoAndRecord(setupVideoFailed, true);
+    }
+  }
+
   public void disconnect() {
     handler.removeCallbacks(runnable);
     disconnect(true);
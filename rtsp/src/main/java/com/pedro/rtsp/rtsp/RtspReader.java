@@ -0,0 +1,117 @@
+package com.pedro.rtsp.rtsp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Read RTSP connection. RTSP messages and interleaved packets ('$', channel, length(16 bits),
+ * data) share the same stream, both are read from a single buffer so bytes read ahead by one of
+ * them are not lost to the other.
+ */
+public class RtspReader {
+
+  private final DataInputStream inputStream;
+  private int channel = -1;
+
+  public RtspReader(InputStream inputStream) {
+    this.inputStream = new DataInputStream(new BufferedInputStream(inputStream));
+  }
+
+  /**
+   * Interleaved packets received before the line are discarded.
+   *
+   * @return next line of a RTSP message without line terminator. Null if connection is closed.
+   */
+  public synchronized String readLine() throws IOException {
+    int value = inputStream.read();
+    while (value == '$') {
+      channel = inputStream.readUnsignedByte();
+      skipFully(inputStream.readUnsignedShort());
+      value = inputStream.read();
+    }
+    return value == -1 ? null : readLine(value);
+  }
+
+  /**
+   * Read next interleaved packet or RTSP message. RTSP messages (server requests or late
+   * responses) are discarded with their body.
+   *
+   * @return length of packet copied in buffer. -1 if a RTSP message or a packet bigger than buffer
+   * was discarded.
+   */
+  public synchronized int readPacket(byte[] buffer) throws IOException {
+    int value = inputStream.read();
+    if (value == -1) throw new EOFException("connection closed");
+    //a timeout after first byte would leave stream in the middle of a message
+    try {
+      if (value != '$') {
+        skipMessage(value);
+        return -1;
+      }
+      channel = inputStream.readUnsignedByte();
+      int length = inputStream.readUnsignedShort();
+      if (length > buffer.length) {
+        skipFully(length);
+        return -1;
+      }
+      inputStream.readFully(buffer, 0, length);
+      return length;
+    } catch (SocketTimeoutException e) {
+      throw new IOException("read timeout in the middle of a message", e);
+    }
+  }
+
+  /**
+   * @return channel of last interleaved packet read.
+   */
+  public synchronized int getChannel() {
+    return channel;
+  }
+
+  private String readLine(int value) throws IOException {
+    StringBuilder line = new StringBuilder();
+    while (value != '\n' && value != -1) {
+      if (value != '\r') line.append((char) value);
+      value = inputStream.read();
+    }
+    return line.toString();
+  }
+
+  private void skipMessage(int value) throws IOException {
+    int contentLength = 0;
+    String line = readLine(value);
+    while (!line.isEmpty()) {
+      String header = line.toLowerCase(Locale.US);
+      if (header.startsWith("content-length:")) {
+        try {
+          contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+        } catch (NumberFormatException e) {
+          throw new IOException("invalid Content-Length: " + line);
+        }
+      }
+      value = inputStream.read();
+      if (value == -1) throw new EOFException("connection closed");
+      line = readLine(value);
+    }
+    skipFully(contentLength);
+  }
+
+  private void skipFully(int length) throws IOException {
+    while (length > 0) {
+      int skipped = inputStream.skipBytes(length);
+      if (skipped <= 0) {
+        //skipBytes don't report end of stream
+        if (inputStream.read() == -1) throw new EOFException("connection closed");
+        skipped = 1;
+      }
+      length -= skipped;
+    }
+  }
+}
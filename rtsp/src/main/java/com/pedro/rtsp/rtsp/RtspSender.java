@@ -2,7 +2,11 @@ package com.pedro.rtsp.rtsp;
 
 import android.media.MediaCodec;
 import android.util.Log;
+import com.pedro.rtsp.cc.SendSideBandwidthEstimator;
+import com.pedro.rtsp.rtcp.BaseRtcpReceiver;
 import com.pedro.rtsp.rtcp.BaseSenderReport;
+import com.pedro.rtsp.rtcp.RtcpFeedbackCallback;
+import com.pedro.rtsp.rtcp.TransportFeedback;
 import com.pedro.rtsp.rtp.packets.AacPacket;
 import com.pedro.rtsp.rtp.packets.AudioPacketCallback;
 import com.pedro.rtsp.rtp.packets.BasePacket;
@@ -12,6 +16,9 @@ import com.pedro.rtsp.rtp.packets.VideoPacketCallback;
 import com.pedro.rtsp.rtp.sockets.BaseRtpSocket;
 import com.pedro.rtsp.utils.BitrateManager;
 import com.pedro.rtsp.utils.ConnectCheckerRtsp;
+import com.pedro.rtsp.utils.KeyFrameRequestListener;
+import com.pedro.rtsp.utils.LatencyListener;
+import com.pedro.rtsp.utils.NetworkListener;
 import com.pedro.rtsp.utils.RtpConstants;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -19,27 +26,43 @@ import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by pedro on 7/11/18.
  */
 
-public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
+public class RtspSender
+    implements VideoPacketCallback, AudioPacketCallback, RtcpFeedbackCallback {
 
   private final static String TAG = "RtspSender";
   private BasePacket videoPacket;
   private AacPacket aacPacket;
   private BaseRtpSocket rtpSocket;
   private BaseSenderReport baseSenderReport;
+  private BaseRtcpReceiver rtcpReceiver;
+  private SendSideBandwidthEstimator bandwidthEstimator;
   private volatile BlockingQueue<RtpFrame> rtpFrameBlockingQueue =
       new LinkedBlockingQueue<>(getDefaultCacheSize());
   private Thread thread;
   private ConnectCheckerRtsp connectCheckerRtsp;
   private long audioFramesSent = 0;
   private long videoFramesSent = 0;
-  private long droppedAudioFrames = 0;
-  private long droppedVideoFrames = 0;
+  //incremented from encoder threads
+  private final AtomicLong droppedAudioFrames = new AtomicLong(0);
+  private final AtomicLong droppedVideoFrames = new AtomicLong(0);
   private BitrateManager bitrateManager;
+  private KeyFrameRequestListener keyFrameRequestListener;
+  private long keyFrameRequestInterval = 1000;
+  private long lastKeyFrameRequest = 0;
+  private long audioMaxLatency = 0;
+  private int audioMtu = RtpConstants.MTU;
+  private volatile LatencyListener latencyListener;
+  private volatile NetworkListener networkListener;
+  //pts in ms of last packet queued, used to know queue delay
+  private volatile long lastQueuedTimestampMs = 0;
+  private volatile long temporalLayerMaxLatency = 0;
+  private boolean dropEnhancementLayers = false;
 
   public RtspSender(ConnectCheckerRtsp connectCheckerRtsp) {
     this.connectCheckerRtsp = connectCheckerRtsp;
@@ -50,15 +73,50 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
     rtpSocket = BaseRtpSocket.getInstance(protocol, videoSourcePorts[0], audioSourcePorts[0]);
     baseSenderReport =
         BaseSenderReport.getInstance(protocol, videoSourcePorts[1], audioSourcePorts[1]);
+    rtcpReceiver = BaseRtcpReceiver.getInstance(protocol, baseSenderReport);
+    rtcpReceiver.setRtcpFeedbackCallback(this);
   }
 
   public void setVideoInfo(byte[] sps, byte[] pps, byte[] vps) {
     videoPacket =
         vps == null ? new H264Packet(sps, pps, this) : new H265Packet(sps, pps, vps, this);
+    videoPacket.setHeaderExtensions(bandwidthEstimator != null);
+  }
+
+  /**
+   * Replace parameter sets while streaming (resolution change). Sequence numbers and ssrc are kept,
+   * new parameter sets are sent before next key frames.
+   */
+  public void updateVideoInfo(byte[] sps, byte[] pps, byte[] vps) {
+    if (videoPacket instanceof H264Packet) {
+      ((H264Packet) videoPacket).setSpsPps(sps, pps);
+    } else if (videoPacket instanceof H265Packet) {
+      ((H265Packet) videoPacket).setSpsPpsVps(sps, pps, vps);
+    }
   }
 
   public void setAudioInfo(int sampleRate) {
     aacPacket = new AacPacket(sampleRate, this);
+    aacPacket.setHeaderExtensions(bandwidthEstimator != null);
+    if (audioMaxLatency > 0) aacPacket.setAggregation(audioMaxLatency, audioMtu);
+  }
+
+  /**
+   * @param maxLatencyMs max time an AAC frame is hold to be sent with the next ones. 0 to disable.
+   * @param mtu max size of aggregated and fragmented audio packets.
+   * Must be set before setAudioInfo.
+   */
+  public void setAudioAggregation(long maxLatencyMs, int mtu) {
+    audioMaxLatency = maxLatencyMs;
+    audioMtu = mtu;
+  }
+
+  /**
+   * @param bandwidthEstimator null to disable header extensions and bandwidth estimation.
+   * Must be set before setVideoInfo and setAudioInfo.
+   */
+  public void setBandwidthEstimator(SendSideBandwidthEstimator bandwidthEstimator) {
+    this.bandwidthEstimator = bandwidthEstimator;
   }
 
   /**
@@ -68,11 +126,38 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
     return 10 * 1024 * 1024 / RtpConstants.MTU;
   }
 
+  public void setKeyFrameRequestListener(KeyFrameRequestListener keyFrameRequestListener) {
+    this.keyFrameRequestListener = keyFrameRequestListener;
+  }
+
+  /**
+   * @param keyFrameRequestInterval min time in ms between two key frame requests to encoder.
+   */
+  public void setKeyFrameRequestInterval(long keyFrameRequestInterval) {
+    this.keyFrameRequestInterval = keyFrameRequestInterval;
+  }
+
+  public void setLatencyListener(LatencyListener latencyListener) {
+    this.latencyListener = latencyListener;
+  }
+
+  public void setNetworkListener(NetworkListener networkListener) {
+    this.networkListener = networkListener;
+  }
+
   public void setDataStream(OutputStream outputStream, String host) {
     rtpSocket.setDataStream(outputStream, host);
     baseSenderReport.setDataStream(outputStream, host);
   }
 
+  /**
+   * @param rtspReader RTSP connection reader, used to read RTCP interleaved with TCP. Must not be
+   * used by other thread after start.
+   */
+  public void setFeedbackStream(RtspReader rtspReader) {
+    rtcpReceiver.setDataStream(rtspReader);
+  }
+
   public void setVideoPorts(int rtpPort, int rtcpPort) {
     videoPacket.setPorts(rtpPort, rtcpPort);
   }
@@ -81,10 +166,70 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
     aacPacket.setPorts(rtpPort, rtcpPort);
   }
 
+  /**
+   * @param maxLatencyMs max time between oldest packet in queue and new video frame before drop
+   * frames of temporal enhancement layers. 0 to disable.
+   */
+  public void setTemporalLayerDropping(long maxLatencyMs) {
+    temporalLayerMaxLatency = maxLatencyMs;
+  }
+
   public void sendVideoFrame(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    if (dropTemporalLayer(h264Buffer, info)) return;
     videoPacket.createAndSendPacket(h264Buffer, info);
   }
 
+  /**
+   * Frames are dropped before packetize them so sequence numbers have no gaps. Decision only
+   * change on base layer frames, dropped frames are never referenced by frames sent.
+   */
+  private boolean dropTemporalLayer(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+    long maxLatency = temporalLayerMaxLatency;
+    if (maxLatency <= 0) {
+      dropEnhancementLayers = false;
+      return false;
+    }
+    if (getTemporalLayer(videoBuffer, info, videoPacket instanceof H265Packet) == 0) {
+      RtpFrame oldest = rtpFrameBlockingQueue.peek();
+      dropEnhancementLayers = oldest != null
+          && info.presentationTimeUs / 1000 - oldest.getTimeStamp() / 1000000 > maxLatency;
+      return false;
+    } else if (dropEnhancementLayers) {
+      onFrameDropped(true);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return temporal id of H265 frames or H264 frames with prefix NAL unit, without it H264 non
+   * reference frames are layer 1.
+   */
+  static int getTemporalLayer(ByteBuffer videoBuffer, MediaCodec.BufferInfo info,
+      boolean isH265) {
+    if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) return 0;
+    //frames start with 00 00 01 or 00 00 00 01
+    int header = info.offset + getStartCodeSize(videoBuffer, info);
+    //prefix NAL unit with its svc extension is the longest header read
+    if (header + 4 > info.offset + info.size) return 0;
+    if (isH265) {
+      return Math.max(0, (videoBuffer.get(header + 1) & 0x07) - 1);
+    }
+    int nalHeader = videoBuffer.get(header);
+    int type = nalHeader & 0x1F;
+    if (type == RtpConstants.PREFIX_NALU) return (videoBuffer.get(header + 3) >> 5) & 0x07;
+    return type == RtpConstants.NON_IDR && (nalHeader & 0x60) == 0 ? 1 : 0;
+  }
+
+  private static int getStartCodeSize(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+    int offset = info.offset;
+    if (info.size < 4 || videoBuffer.get(offset) != 0 || videoBuffer.get(offset + 1) != 0) {
+      return 0;
+    }
+    if (videoBuffer.get(offset + 2) == 1) return 3;
+    return videoBuffer.get(offset + 2) == 0 && videoBuffer.get(offset + 3) == 1 ? 4 : 0;
+  }
+
   public void sendAudioFrame(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
     aacPacket.createAndSendPacket(aacBuffer, info);
   }
@@ -93,9 +238,12 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
   public void onVideoFrameCreated(RtpFrame rtpFrame) {
     try {
       rtpFrameBlockingQueue.add(rtpFrame);
+      lastQueuedTimestampMs = rtpFrame.getTimeStamp() / 1000000;
+      LatencyListener listener = latencyListener;
+      if (listener != null) listener.onPacketQueued(true, rtpFrame.getTimeStamp() / 1000000);
     } catch (IllegalStateException e) {
       Log.i(TAG, "Video frame discarded");
-      droppedVideoFrames++;
+      onFrameDropped(true);
     }
   }
 
@@ -103,13 +251,52 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
   public void onAudioFrameCreated(RtpFrame rtpFrame) {
     try {
       rtpFrameBlockingQueue.add(rtpFrame);
+      lastQueuedTimestampMs = rtpFrame.getTimeStamp() / 1000000;
+      LatencyListener listener = latencyListener;
+      if (listener != null) listener.onPacketQueued(false, rtpFrame.getTimeStamp() / 1000000);
     } catch (IllegalStateException e) {
       Log.i(TAG, "Audio frame discarded");
-      droppedAudioFrames++;
+      onFrameDropped(false);
+    }
+  }
+
+  private void onFrameDropped(boolean isVideo) {
+    if (isVideo) {
+      droppedVideoFrames.incrementAndGet();
+    } else {
+      droppedAudioFrames.incrementAndGet();
+    }
+    NetworkListener listener = networkListener;
+    if (listener != null) listener.onFrameDropped(isVideo);
+  }
+
+  @Override
+  public void onTransportFeedback(TransportFeedback transportFeedback) {
+    if (bandwidthEstimator == null) return;
+    bandwidthEstimator.onTransportFeedback(transportFeedback);
+    NetworkListener listener = networkListener;
+    if (listener != null) {
+      listener.onFeedback(bandwidthEstimator.getRttMs(), bandwidthEstimator.getLossRate());
     }
   }
 
+  @Override
+  public void onKeyFrameRequest() {
+    if (keyFrameRequestListener == null) return;
+    //servers repeat requests until a key frame arrive, avoid a key frame burst
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (now - lastKeyFrameRequest < keyFrameRequestInterval) return;
+      lastKeyFrameRequest = now;
+    }
+    keyFrameRequestListener.onKeyFrameRequest();
+  }
+
   public void start() {
+    if (bandwidthEstimator != null) bandwidthEstimator.reset();
+    lastKeyFrameRequest = 0;
+    //feedback is only read if someone use it
+    if (bandwidthEstimator != null || keyFrameRequestListener != null) rtcpReceiver.start();
     thread = new Thread(new Runnable() {
       @Override
       public void run() {
@@ -120,7 +307,20 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
               Log.i(TAG, "Skipping iteration, frame null");
               continue;
             }
+            LatencyListener listener = latencyListener;
+            //RTP timestamp of frame is pts in ns
+            long timestampMs = rtpFrame.getTimeStamp() / 1000000;
+            if (listener != null) listener.onPacketDequeued(rtpFrame.isVideoFrame(), timestampMs);
+            if (bandwidthEstimator != null) bandwidthEstimator.onPacketSent(rtpFrame);
+            long writeTime = System.currentTimeMillis();
             rtpSocket.sendFrame(rtpFrame);
+            NetworkListener network = networkListener;
+            if (network != null) {
+              network.onFrameSent(rtpFrame.isVideoFrame(), rtpFrame.getLength(),
+                  Math.max(0, lastQueuedTimestampMs - timestampMs),
+                  System.currentTimeMillis() - writeTime);
+            }
+            if (listener != null) listener.onPacketSent(rtpFrame.isVideoFrame(), timestampMs);
             //bytes to bits
             bitrateManager.calculateBitrate(rtpFrame.getLength() * 8);
             if (rtpFrame.isVideoFrame()) {
@@ -152,12 +352,16 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
       }
       thread = null;
     }
+    //reset flushes pending audio, clear after it so nothing is sent in the next session
+    aacPacket.reset();
+    if (videoPacket != null) videoPacket.reset();
     rtpFrameBlockingQueue.clear();
+    dropEnhancementLayers = false;
+    lastQueuedTimestampMs = 0;
+    rtcpReceiver.stop();
     baseSenderReport.reset();
     baseSenderReport.close();
     rtpSocket.close();
-    aacPacket.reset();
-    if (videoPacket != null) videoPacket.reset();
 
     resetSentAudioFrames();
     resetSentVideoFrames();
@@ -188,11 +392,11 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
   }
 
   public long getDroppedAudioFrames() {
-    return droppedAudioFrames;
+    return droppedAudioFrames.get();
   }
 
   public long getDroppedVideoFrames() {
-    return droppedVideoFrames;
+    return droppedVideoFrames.get();
   }
 
   public void resetSentAudioFrames() {
@@ -204,10 +408,10 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
   }
 
   public void resetDroppedAudioFrames() {
-    droppedAudioFrames = 0;
+    droppedAudioFrames.set(0);
   }
 
   public void resetDroppedVideoFrames() {
-    droppedVideoFrames = 0;
+    droppedVideoFrames.set(0);
   }
 }
@@ -0,0 +1,367 @@
+package com.pedro.rtsp.server;
+
+import android.media.MediaCodec;
+import android.util.Base64;
+import android.util.Log;
+import com.pedro.rtsp.rtp.packets.AacPacket;
+import com.pedro.rtsp.rtp.packets.AudioPacketCallback;
+import com.pedro.rtsp.rtp.packets.BasePacket;
+import com.pedro.rtsp.rtp.packets.H264Packet;
+import com.pedro.rtsp.rtp.packets.H265Packet;
+import com.pedro.rtsp.rtp.packets.VideoPacketCallback;
+import com.pedro.rtsp.rtsp.Body;
+import com.pedro.rtsp.rtsp.RtpFrame;
+import com.pedro.rtsp.utils.KeyFrameRequestListener;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RTSP server to pull the stream directly from the device (DESCRIBE, SETUP and PLAY).
+ * Frames are packetized only once and the same RTP packets are queued to every playing session.
+ */
+public class RtspServer implements VideoPacketCallback, AudioPacketCallback {
+
+  private static final String TAG = "RtspServer";
+  static final int TRACK_AUDIO = 0;
+  static final int TRACK_VIDEO = 1;
+
+  public interface Listener {
+
+    void onClientConnected(String address);
+
+    void onClientDisconnected(String address);
+
+    /**
+     * Server can't listen in its port, nothing is served until stream is restarted.
+     */
+    void onServerError(String reason);
+  }
+
+  private final int port;
+  private ServerSocket serverSocket;
+  private Thread thread;
+  private volatile boolean running = false;
+  private final List<ServerClient> clients = new CopyOnWriteArrayList<>();
+  //seq and RTP timestamp of last packet created by track, used in RTP-Info of PLAY responses
+  private final int[] lastSeq = new int[2];
+  private final long[] lastRtpTime = new long[2];
+  private BasePacket videoPacket;
+  private AacPacket aacPacket;
+  private byte[] sps;
+  private byte[] pps;
+  private byte[] vps;
+  private int sampleRate = 32000;
+  private boolean isStereo = true;
+  private boolean isOnlyAudio = false;
+  private Listener listener;
+  private KeyFrameRequestListener keyFrameRequestListener;
+  private long keyFrameRequestInterval = 1000;
+  private long lastKeyFrameRequest = 0;
+  private long sentAudioFrames = 0;
+  private long sentVideoFrames = 0;
+  //incremented from client threads
+  private final AtomicLong droppedAudioFrames = new AtomicLong(0);
+  private final AtomicLong droppedVideoFrames = new AtomicLong(0);
+
+  /**
+   * @param port TCP port to listen RTSP requests. 554 is normally reserved, use 8554 or higher.
+   */
+  public RtspServer(int port) {
+    this.port = port;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @param keyFrameRequestListener called when a client start to play or lose video packets.
+   */
+  public void setKeyFrameRequestListener(KeyFrameRequestListener keyFrameRequestListener) {
+    this.keyFrameRequestListener = keyFrameRequestListener;
+  }
+
+  /**
+   * @param keyFrameRequestInterval min time in ms between two key frame requests. 1000 by default.
+   */
+  public void setKeyFrameRequestInterval(long keyFrameRequestInterval) {
+    this.keyFrameRequestInterval = keyFrameRequestInterval;
+  }
+
+  public void setOnlyAudio(boolean onlyAudio) {
+    isOnlyAudio = onlyAudio;
+  }
+
+  public void setAudioInfo(int sampleRate, boolean isStereo) {
+    this.sampleRate = sampleRate;
+    this.isStereo = isStereo;
+  }
+
+  /**
+   * If called while running (resolution change), new parameter sets are sent before next key
+   * frames and used in SDP of new clients.
+   */
+  public void setVideoInfo(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    this.sps = getData(sps);
+    this.pps = getData(pps);
+    this.vps = getData(vps);
+    if (videoPacket instanceof H264Packet) {
+      ((H264Packet) videoPacket).setSpsPps(this.sps, this.pps);
+    } else if (videoPacket instanceof H265Packet) {
+      ((H265Packet) videoPacket).setSpsPpsVps(this.sps, this.pps, this.vps);
+    }
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public int getNumClients() {
+    return clients.size();
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Video info must be set before start, except with only audio.
+   *
+   * @throws IOException if port can't be opened, listener is notified too.
+   */
+  public void startServer() throws IOException {
+    if (running) return;
+    try {
+      serverSocket = new ServerSocket(port);
+    } catch (IOException e) {
+      if (listener != null) listener.onServerError("Error opening port " + port + ": " + e);
+      throw e;
+    }
+    aacPacket = new AacPacket(sampleRate, this);
+    if (!isOnlyAudio) {
+      videoPacket =
+          vps == null ? new H264Packet(sps, pps, this) : new H265Packet(sps, pps, vps, this);
+    }
+    synchronized (this) {
+      Arrays.fill(lastSeq, 0);
+      Arrays.fill(lastRtpTime, 0);
+    }
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          try {
+            Socket socket = serverSocket.accept();
+            ServerClient client = new ServerClient(socket, RtspServer.this);
+            clients.add(client);
+            client.start();
+            if (listener != null) listener.onClientConnected(client.getAddress());
+          } catch (IOException e) {
+            if (running) Log.e(TAG, "accept error", e);
+          }
+        }
+      }
+    });
+    thread.start();
+  }
+
+  public void stopServer() {
+    running = false;
+    try {
+      if (serverSocket != null) serverSocket.close();
+    } catch (IOException e) {
+      Log.e(TAG, "close error", e);
+    }
+    serverSocket = null;
+    if (thread != null) {
+      try {
+        thread.join(100);
+      } catch (InterruptedException e) {
+        thread.interrupt();
+      }
+      thread = null;
+    }
+    //reset flushes pending audio to clients
+    if (aacPacket != null) aacPacket.reset();
+    if (videoPacket != null) videoPacket.reset();
+    for (ServerClient client : clients) {
+      client.stop();
+    }
+    clients.clear();
+    videoPacket = null;
+    lastKeyFrameRequest = 0;
+  }
+
+  public void sendVideo(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    if (running && videoPacket != null && hasPlayingClients()) {
+      videoPacket.createAndSendPacket(h264Buffer, info);
+      sentVideoFrames++;
+    }
+  }
+
+  public void sendAudio(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    if (running && hasPlayingClients()) {
+      aacPacket.createAndSendPacket(aacBuffer, info);
+      sentAudioFrames++;
+    }
+  }
+
+  /**
+   * @return frames packetized while at least a client was playing.
+   */
+  public long getSentAudioFrames() {
+    return sentAudioFrames;
+  }
+
+  public long getSentVideoFrames() {
+    return sentVideoFrames;
+  }
+
+  /**
+   * @return packets discarded because a client queue was full, for all clients.
+   */
+  public long getDroppedAudioFrames() {
+    return droppedAudioFrames.get();
+  }
+
+  public long getDroppedVideoFrames() {
+    return droppedVideoFrames.get();
+  }
+
+  public void resetSentAudioFrames() {
+    sentAudioFrames = 0;
+  }
+
+  public void resetSentVideoFrames() {
+    sentVideoFrames = 0;
+  }
+
+  public void resetDroppedAudioFrames() {
+    droppedAudioFrames.set(0);
+  }
+
+  public void resetDroppedVideoFrames() {
+    droppedVideoFrames.set(0);
+  }
+
+  @Override
+  public void onVideoFrameCreated(RtpFrame rtpFrame) {
+    updateRtpInfo(TRACK_VIDEO, rtpFrame);
+    for (ServerClient client : clients) {
+      client.sendFrame(rtpFrame);
+    }
+  }
+
+  @Override
+  public void onAudioFrameCreated(RtpFrame rtpFrame) {
+    updateRtpInfo(TRACK_AUDIO, rtpFrame);
+    for (ServerClient client : clients) {
+      client.sendFrame(rtpFrame);
+    }
+  }
+
+  private synchronized void updateRtpInfo(int track, RtpFrame rtpFrame) {
+    byte[] buffer = rtpFrame.getBuffer();
+    lastSeq[track] = ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
+    lastRtpTime[track] = ((buffer[4] & 0xFFL) << 24) | ((buffer[5] & 0xFFL) << 16)
+        | ((buffer[6] & 0xFFL) << 8) | (buffer[7] & 0xFFL);
+  }
+
+  /**
+   * @return RTP-Info parameters of the track. Packets are already running, so seq is the next
+   * packet and rtptime the last timestamp used.
+   */
+  synchronized String getRtpInfo(int track) {
+    return "seq=" + ((lastSeq[track] + 1) & 0xFFFF) + ";rtptime=" + lastRtpTime[track];
+  }
+
+  boolean isOnlyAudio() {
+    return isOnlyAudio;
+  }
+
+  boolean isH265() {
+    return vps != null;
+  }
+
+  void requestKeyFrame() {
+    if (keyFrameRequestListener == null || isOnlyAudio) return;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (now - lastKeyFrameRequest < keyFrameRequestInterval) return;
+      lastKeyFrameRequest = now;
+    }
+    keyFrameRequestListener.onKeyFrameRequest();
+  }
+
+  void onFrameDropped(boolean isVideo) {
+    if (isVideo) {
+      droppedVideoFrames.incrementAndGet();
+    } else {
+      droppedAudioFrames.incrementAndGet();
+    }
+  }
+
+  void onClientDisconnected(ServerClient client) {
+    if (clients.remove(client) && listener != null) {
+      listener.onClientDisconnected(client.getAddress());
+    }
+  }
+
+  /**
+   * @return null if video info is not ready yet.
+   */
+  String createSdp(String host) {
+    if (!isOnlyAudio && (sps == null || pps == null)) return null;
+    String videoBody = "";
+    if (!isOnlyAudio) {
+      videoBody = vps == null ? Body.createH264Body(TRACK_VIDEO, encodeToString(sps),
+          encodeToString(pps))
+          : Body.createH265Body(TRACK_VIDEO, encodeToString(sps), encodeToString(pps),
+              encodeToString(vps));
+    }
+    String audioBody = Body.createAacBody(TRACK_AUDIO, sampleRate, isStereo);
+    return "v=0\r\n"
+        + "o=- 0 0 IN IP4 "
+        + host
+        + "\r\n"
+        + "s=Unnamed\r\n"
+        + "i=N/A\r\n"
+        + "c=IN IP4 0.0.0.0\r\n"
+        + "t=0 0\r\n"
+        + "a=sendonly\r\n"
+        + videoBody
+        + audioBody;
+  }
+
+  private boolean hasPlayingClients() {
+    for (ServerClient client : clients) {
+      if (client.isPlaying()) return true;
+    }
+    return false;
+  }
+
+  private byte[] getData(ByteBuffer byteBuffer) {
+    if (byteBuffer != null) {
+      ByteBuffer buffer = byteBuffer.duplicate();
+      byte[] bytes = new byte[buffer.capacity() - 4];
+      buffer.position(4);
+      buffer.get(bytes, 0, bytes.length);
+      return bytes;
+    } else {
+      return null;
+    }
+  }
+
+  private String encodeToString(byte[] bytes) {
+    return Base64.encodeToString(bytes, 0, bytes.length, Base64.NO_WRAP);
+  }
+}
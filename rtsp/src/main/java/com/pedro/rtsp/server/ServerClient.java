@@ -0,0 +1,362 @@
+package com.pedro.rtsp.server;
+
+import android.util.Log;
+import com.pedro.rtsp.rtsp.RtpFrame;
+import com.pedro.rtsp.utils.RtpConstants;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RTSP session of a client connected to {@link RtspServer}.
+ * One thread parses requests and another one sends queued RTP packets, TCP interleaved or UDP.
+ */
+class ServerClient {
+
+  private static final String TAG = "ServerClient";
+  private static final Pattern trackPattern = Pattern.compile("trackID=(\\d+)");
+  private static final Pattern interleavedPattern = Pattern.compile("interleaved=(\\d+)-(\\d+)");
+  private static final Pattern clientPortPattern = Pattern.compile("client_port=(\\d+)-(\\d+)");
+
+  private final Socket socket;
+  private final RtspServer server;
+  private final InetAddress address;
+  private final String sessionId;
+  private InputStream inputStream;
+  private OutputStream outputStream;
+  private DatagramSocket datagramSocket;
+  private final DatagramPacket datagramPacket = new DatagramPacket(new byte[] { 0 }, 1);
+  private final byte[] tcpHeader = new byte[] { '$', 0, 0, 0 };
+  private final BlockingQueue<RtpFrame> rtpFrameBlockingQueue =
+      new LinkedBlockingQueue<>(2 * 1024 * 1024 / RtpConstants.MTU);
+  private Thread thread;
+  private Thread senderThread;
+  private volatile boolean playing = false;
+  private volatile boolean waitKeyFrame = true;
+  //index by track, -1 if track is not setup
+  private final int[] channels = new int[] { -1, -1 };
+  private final int[] clientPorts = new int[] { -1, -1 };
+  private final String[] trackUrls = new String[2];
+  private boolean tcp = true;
+  private long droppedFrames = 0;
+
+  ServerClient(Socket socket, RtspServer server) {
+    this.socket = socket;
+    this.server = server;
+    address = socket.getInetAddress();
+    sessionId = Integer.toHexString(new Random().nextInt() & 0x7FFFFFFF);
+  }
+
+  String getAddress() {
+    return address.getHostAddress();
+  }
+
+  boolean isPlaying() {
+    return playing;
+  }
+
+  void start() {
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          inputStream = new BufferedInputStream(socket.getInputStream());
+          outputStream = new BufferedOutputStream(socket.getOutputStream());
+          while (!Thread.interrupted()) {
+            if (!handleRequest()) break;
+          }
+        } catch (IOException e) {
+          Log.i(TAG, "client " + getAddress() + " closed: " + e.getMessage());
+        }
+        stop();
+      }
+    });
+    thread.start();
+  }
+
+  synchronized void stop() {
+    playing = false;
+    if (senderThread != null) {
+      senderThread.interrupt();
+      senderThread = null;
+    }
+    rtpFrameBlockingQueue.clear();
+    try {
+      socket.close();
+    } catch (IOException e) {
+      Log.e(TAG, "close error", e);
+    }
+    if (datagramSocket != null) datagramSocket.close();
+    server.onClientDisconnected(this);
+  }
+
+  /**
+   * Called by server thread for every packet created. Video is only queued after parameter sets so
+   * the player can start decoding. If the queue is full the session waits for the next key frame.
+   */
+  void sendFrame(RtpFrame rtpFrame) {
+    if (!playing) return;
+    int track = rtpFrame.isVideoFrame() ? RtspServer.TRACK_VIDEO : RtspServer.TRACK_AUDIO;
+    if (!isSetup(track)) return;
+    if (track == RtspServer.TRACK_VIDEO && waitKeyFrame) {
+      if (!isParameterSets(rtpFrame)) return;
+      waitKeyFrame = false;
+    }
+    if (!rtpFrameBlockingQueue.offer(rtpFrame)) {
+      droppedFrames++;
+      Log.i(TAG, "frame discarded for client " + getAddress() + ", total: " + droppedFrames);
+      server.onFrameDropped(track == RtspServer.TRACK_VIDEO);
+      if (track == RtspServer.TRACK_VIDEO) {
+        waitKeyFrame = true;
+        server.requestKeyFrame();
+      }
+    }
+  }
+
+  private boolean isSetup(int track) {
+    return tcp ? channels[track] >= 0 : clientPorts[track] >= 0;
+  }
+
+  private boolean isParameterSets(RtpFrame rtpFrame) {
+    byte nalHeader = rtpFrame.getBuffer()[RtpConstants.RTP_HEADER_LENGTH];
+    return server.isH265() ? ((nalHeader >> 1) & 0x3F) == 48 : (nalHeader & 0x1F) == 24;
+  }
+
+  /**
+   * @return false if session finished.
+   */
+  private boolean handleRequest() throws IOException {
+    String line = readLine();
+    if (line == null) return false;
+    if (line.isEmpty()) return true;
+    String[] requestLine = line.split(" ");
+    String method = requestLine[0];
+    String url = requestLine.length > 1 ? requestLine[1] : "";
+    String cSeq = "0";
+    String transport = null;
+    while ((line = readLine()) != null && !line.isEmpty()) {
+      int index = line.indexOf(':');
+      if (index < 0) continue;
+      String key = line.substring(0, index).trim();
+      String value = line.substring(index + 1).trim();
+      if (key.equalsIgnoreCase("CSeq")) {
+        cSeq = value;
+      } else if (key.equalsIgnoreCase("Transport")) {
+        transport = value;
+      } else if (key.equalsIgnoreCase("Content-Length")) {
+        skip(Integer.parseInt(value));
+      }
+    }
+    Log.i(TAG, method + " " + url + " from " + getAddress());
+    switch (method) {
+      case "OPTIONS":
+        writeResponse(200, "OK", cSeq,
+            "Public: OPTIONS, DESCRIBE, SETUP, PLAY, TEARDOWN, GET_PARAMETER\r\n", "");
+        return true;
+      case "DESCRIBE":
+        String sdp = server.createSdp(socket.getLocalAddress().getHostAddress());
+        if (sdp == null) {
+          writeResponse(503, "Service Unavailable", cSeq, "", "");
+        } else {
+          String base = url.endsWith("/") ? url : url + "/";
+          writeResponse(200, "OK", cSeq,
+              "Content-Base: " + base + "\r\nContent-Type: application/sdp\r\n", sdp);
+        }
+        return true;
+      case "SETUP":
+        setup(url, transport, cSeq);
+        return true;
+      case "PLAY":
+        play();
+        writeResponse(200, "OK", cSeq, "Session: " + sessionId + "\r\nRange: npt=0.000-\r\n"
+            + getRtpInfo(), "");
+        return true;
+      case "GET_PARAMETER":
+      case "SET_PARAMETER":
+        writeResponse(200, "OK", cSeq, "Session: " + sessionId + "\r\n", "");
+        return true;
+      case "TEARDOWN":
+        writeResponse(200, "OK", cSeq, "Session: " + sessionId + "\r\n", "");
+        return false;
+      default:
+        writeResponse(405, "Method Not Allowed", cSeq, "", "");
+        return true;
+    }
+  }
+
+  private void setup(String url, String transport, String cSeq) throws IOException {
+    Matcher trackMatcher = trackPattern.matcher(url);
+    int track = trackMatcher.find() ? Integer.parseInt(trackMatcher.group(1)) : -1;
+    if (transport == null || (track != RtspServer.TRACK_AUDIO && track != RtspServer.TRACK_VIDEO)
+        || (track == RtspServer.TRACK_VIDEO && server.isOnlyAudio())) {
+      writeResponse(404, "Not Found", cSeq, "", "");
+      return;
+    }
+    Matcher interleavedMatcher = interleavedPattern.matcher(transport);
+    Matcher clientPortMatcher = clientPortPattern.matcher(transport);
+    String responseTransport;
+    if (transport.contains("TCP") || interleavedMatcher.find()) {
+      tcp = true;
+      int channel =
+          interleavedMatcher.find(0) ? Integer.parseInt(interleavedMatcher.group(1)) : 2 * track;
+      channels[track] = channel;
+      responseTransport =
+          "RTP/AVP/TCP;unicast;interleaved=" + channel + "-" + (channel + 1);
+    } else if (clientPortMatcher.find()) {
+      tcp = false;
+      if (datagramSocket == null) datagramSocket = new DatagramSocket();
+      clientPorts[track] = Integer.parseInt(clientPortMatcher.group(1));
+      int serverPort = datagramSocket.getLocalPort();
+      //only RTP port is opened, RTCP is not sent or received
+      responseTransport = "RTP/AVP;unicast;client_port="
+          + clientPorts[track]
+          + "-"
+          + clientPortMatcher.group(2)
+          + ";server_port="
+          + serverPort;
+    } else {
+      writeResponse(461, "Unsupported Transport", cSeq, "", "");
+      return;
+    }
+    trackUrls[track] = url;
+    writeResponse(200, "OK", cSeq,
+        "Transport: " + responseTransport + "\r\nSession: " + sessionId + ";timeout=60\r\n", "");
+  }
+
+  /**
+   * @return RTP-Info header of tracks setup, clients join RTP sequences already running.
+   */
+  private String getRtpInfo() {
+    StringBuilder rtpInfo = new StringBuilder();
+    for (int track = 0; track < trackUrls.length; track++) {
+      if (trackUrls[track] == null) continue;
+      rtpInfo.append(rtpInfo.length() == 0 ? "RTP-Info: " : ",")
+          .append("url=")
+          .append(trackUrls[track])
+          .append(";")
+          .append(server.getRtpInfo(track));
+    }
+    return rtpInfo.length() == 0 ? "" : rtpInfo.append("\r\n").toString();
+  }
+
+  private void play() {
+    if (playing) return;
+    waitKeyFrame = true;
+    playing = true;
+    senderThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!Thread.interrupted()) {
+          try {
+            RtpFrame rtpFrame = rtpFrameBlockingQueue.poll(1, TimeUnit.SECONDS);
+            if (rtpFrame == null) continue;
+            if (tcp) {
+              writeFrameTcp(rtpFrame);
+            } else {
+              writeFrameUdp(rtpFrame);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (IOException e) {
+            Log.e(TAG, "send error to " + getAddress(), e);
+            Thread.currentThread().interrupt();
+            stop();
+          }
+        }
+      }
+    });
+    senderThread.start();
+    server.requestKeyFrame();
+  }
+
+  private void writeFrameTcp(RtpFrame rtpFrame) throws IOException {
+    int track = rtpFrame.isVideoFrame() ? RtspServer.TRACK_VIDEO : RtspServer.TRACK_AUDIO;
+    synchronized (outputStream) {
+      int len = rtpFrame.getLength();
+      tcpHeader[1] = (byte) channels[track];
+      tcpHeader[2] = (byte) (len >> 8);
+      tcpHeader[3] = (byte) (len & 0xFF);
+      outputStream.write(tcpHeader);
+      outputStream.write(rtpFrame.getBuffer(), 0, len);
+      outputStream.flush();
+    }
+  }
+
+  private void writeFrameUdp(RtpFrame rtpFrame) throws IOException {
+    int track = rtpFrame.isVideoFrame() ? RtspServer.TRACK_VIDEO : RtspServer.TRACK_AUDIO;
+    datagramPacket.setData(rtpFrame.getBuffer(), 0, rtpFrame.getLength());
+    datagramPacket.setAddress(address);
+    datagramPacket.setPort(clientPorts[track]);
+    datagramSocket.send(datagramPacket);
+  }
+
+  private void writeResponse(int status, String reason, String cSeq, String headers, String body)
+      throws IOException {
+    String response = "RTSP/1.0 "
+        + status
+        + " "
+        + reason
+        + "\r\n"
+        + "CSeq: "
+        + cSeq
+        + "\r\n"
+        + headers
+        + (body.isEmpty() ? "" : "Content-Length: " + body.length() + "\r\n")
+        + "\r\n"
+        + body;
+    Log.i(TAG, response);
+    synchronized (outputStream) {
+      outputStream.write(response.getBytes());
+      outputStream.flush();
+    }
+  }
+
+  /**
+   * Read a request line. RTCP packets sent interleaved by the client are skipped.
+   *
+   * @return null if connection is closed.
+   */
+  private String readLine() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    int b;
+    while ((b = inputStream.read()) != -1) {
+      if (b == '$' && builder.length() == 0) {
+        inputStream.read(); //channel
+        int length = (inputStream.read() << 8) | inputStream.read();
+        skip(length);
+      } else if (b == '\n') {
+        int end = builder.length();
+        if (end > 0 && builder.charAt(end - 1) == '\r') builder.setLength(end - 1);
+        return builder.toString();
+      } else {
+        builder.append((char) b);
+      }
+    }
+    return null;
+  }
+
+  private void skip(int length) throws IOException {
+    while (length > 0) {
+      long skipped = inputStream.skip(length);
+      if (skipped <= 0) {
+        if (inputStream.read() == -1) throw new IOException("Connection closed");
+        skipped = 1;
+      }
+      length -= skipped;
+    }
+  }
+}
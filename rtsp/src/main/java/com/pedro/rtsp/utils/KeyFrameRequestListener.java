@@ -0,0 +1,11 @@
+package com.pedro.rtsp.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Used to ask a sync frame to video encoder when server request it.
+ */
+public interface KeyFrameRequestListener {
+
+  void onKeyFrameRequest();
+}
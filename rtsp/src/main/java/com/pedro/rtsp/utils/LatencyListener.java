@@ -0,0 +1,16 @@
+package com.pedro.rtsp.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Notify when packets of a frame are queued, dequeued and written to the socket, used to measure
+ * latency. Timestamp is the frame pts in ms.
+ */
+public interface LatencyListener {
+
+  void onPacketQueued(boolean isVideo, long timestampMs);
+
+  void onPacketDequeued(boolean isVideo, long timestampMs);
+
+  void onPacketSent(boolean isVideo, long timestampMs);
+}
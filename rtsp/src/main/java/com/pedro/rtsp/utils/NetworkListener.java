@@ -0,0 +1,30 @@
+package com.pedro.rtsp.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Notify packets written to the socket or discarded and server feedback, used to measure network
+ * state.
+ */
+public interface NetworkListener {
+
+  /**
+   * @param size bytes written.
+   * @param queueDelayMs time between the packet and the last packet queued.
+   * @param writeTimeMs time blocked writing it in the socket.
+   */
+  void onFrameSent(boolean isVideo, int size, long queueDelayMs, long writeTimeMs);
+
+  /**
+   * Packet or frame discarded because queue was full or to reduce latency.
+   */
+  void onFrameDropped(boolean isVideo);
+
+  /**
+   * Only with transport-cc enabled.
+   *
+   * @param rttMs smoothed round trip time.
+   * @param lossRate packets lost in last feedback, between 0 and 1.
+   */
+  void onFeedback(long rttMs, float lossRate);
+}
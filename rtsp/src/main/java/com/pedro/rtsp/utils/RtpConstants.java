@@ -11,7 +11,20 @@ public class RtpConstants {
   public static final int payloadType = 96;
   //H264 IDR
   public static final int IDR = 5;
+  //H264 non IDR slice and SVC prefix
+  public static final int NON_IDR = 1;
+  public static final int PREFIX_NALU = 14;
   //H265 IDR
   public static final int IDR_N_LP = 20;
   public static final int IDR_W_DLP = 19;
+  //RTP header extensions, one-byte header (RFC 8285)
+  public static final int RTP_EXTENSION_LENGTH = 12;
+  public static final int ABS_SEND_TIME_ID = 1;
+  public static final int TRANSPORT_CC_ID = 2;
+  public static final int ABS_SEND_TIME_OFFSET = RTP_HEADER_LENGTH + 5;
+  public static final int TRANSPORT_CC_OFFSET = RTP_HEADER_LENGTH + 9;
+  public static final String ABS_SEND_TIME_URI =
+      "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time";
+  public static final String TRANSPORT_CC_URI =
+      "http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01";
 }
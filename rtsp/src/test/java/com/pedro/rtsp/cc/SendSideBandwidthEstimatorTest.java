@@ -0,0 +1,61 @@
+package com.pedro.rtsp.cc;
+
+import com.pedro.rtsp.rtcp.TransportFeedback;
+import com.pedro.rtsp.rtsp.RtpFrame;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class SendSideBandwidthEstimatorTest {
+
+  private static final int START_BITRATE = 1000 * 1000;
+
+  private void sendLostPackets(SendSideBandwidthEstimator estimator, int baseSequence,
+      int packets) {
+    long[] arrivalTimes = new long[packets];
+    for (int i = 0; i < packets; i++) {
+      byte[] buffer = new byte[1200];
+      //header extension bit
+      buffer[0] = (byte) 0x90;
+      estimator.onPacketSent(new RtpFrame(buffer, 0, buffer.length, 0, 0, (byte) 0));
+      arrivalTimes[i] = TransportFeedback.NOT_RECEIVED;
+    }
+    estimator.onTransportFeedback(new TransportFeedback(baseSequence, arrivalTimes));
+  }
+
+  @Test
+  public void lossReducesTargetBitrate() {
+    SendSideBandwidthEstimator estimator =
+        new SendSideBandwidthEstimator(START_BITRATE, 100 * 1000, 5000 * 1000, null);
+    sendLostPackets(estimator, 0, 10);
+    assertTrue(estimator.getTargetBitrate() < START_BITRATE);
+  }
+
+  @Test
+  public void resetRestoresStartBitrate() {
+    SendSideBandwidthEstimator estimator =
+        new SendSideBandwidthEstimator(START_BITRATE, 100 * 1000, 5000 * 1000, null);
+    sendLostPackets(estimator, 0, 10);
+    sendLostPackets(estimator, 10, 10);
+    assertTrue(estimator.getTargetBitrate() < START_BITRATE / 2);
+    estimator.reset();
+    assertEquals(START_BITRATE, estimator.getTargetBitrate());
+    assertEquals(BandwidthUsage.NORMAL, estimator.getBandwidthUsage());
+  }
+
+  @Test
+  public void rateControlResetRestoresStartBitrate() {
+    AimdRateControl aimdRateControl = new AimdRateControl(START_BITRATE, 100 * 1000, 5000 * 1000);
+    aimdRateControl.update(BandwidthUsage.OVERUSING, 400 * 1000, 0);
+    assertEquals(340 * 1000, aimdRateControl.getBitrate());
+    aimdRateControl.reset();
+    assertEquals(START_BITRATE, aimdRateControl.getBitrate());
+    //increase state again after reset
+    aimdRateControl.update(BandwidthUsage.NORMAL, 0, 0);
+    assertTrue(aimdRateControl.update(BandwidthUsage.NORMAL, 0, 1000) > START_BITRATE);
+  }
+}
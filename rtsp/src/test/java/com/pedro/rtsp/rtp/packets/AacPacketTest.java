@@ -0,0 +1,114 @@
+package com.pedro.rtsp.rtp.packets;
+
+import android.media.MediaCodec;
+import com.pedro.rtsp.rtsp.RtpFrame;
+import com.pedro.rtsp.utils.RtpConstants;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class AacPacketTest {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final long FRAME_DURATION_US = 1024 * 1000000L / SAMPLE_RATE;
+  private final List<RtpFrame> frames = new ArrayList<>();
+  private AacPacket aacPacket;
+
+  @Before
+  public void setUp() {
+    frames.clear();
+    aacPacket = new AacPacket(SAMPLE_RATE, new AudioPacketCallback() {
+      @Override
+      public void onAudioFrameCreated(RtpFrame rtpFrame) {
+        synchronized (frames) {
+          frames.add(rtpFrame);
+        }
+      }
+    });
+  }
+
+  private void send(int size, long ptsUs) {
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.offset = 0;
+    info.size = size;
+    info.presentationTimeUs = ptsUs;
+    aacPacket.createAndSendPacket(ByteBuffer.wrap(new byte[size]), info);
+  }
+
+  private int getSentFrames() {
+    synchronized (frames) {
+      return frames.size();
+    }
+  }
+
+  /**
+   * @return number of AU-headers of a packet.
+   */
+  private int getAccessUnits(RtpFrame rtpFrame) {
+    byte[] buffer = rtpFrame.getBuffer();
+    int bits = (buffer[RtpConstants.RTP_HEADER_LENGTH] & 0xFF) << 8
+        | buffer[RtpConstants.RTP_HEADER_LENGTH + 1] & 0xFF;
+    return bits / 16;
+  }
+
+  @Test
+  public void withoutAggregationEachAccessUnitIsSent() {
+    for (int i = 0; i < 5; i++) send(200, i * FRAME_DURATION_US);
+    assertEquals(5, getSentFrames());
+  }
+
+  @Test
+  public void consecutiveAccessUnitsAreAggregated() {
+    aacPacket.setAggregation(100, RtpConstants.MTU);
+    //AUs of 21.3 ms, waiting a 6th AU would hold the first one more than 100 ms
+    for (int i = 0; i < 5; i++) send(200, i * FRAME_DURATION_US);
+    assertEquals(1, getSentFrames());
+    assertEquals(5, getAccessUnits(frames.get(0)));
+    aacPacket.reset();
+  }
+
+  @Test
+  public void pendingAccessUnitsAreSentWhenLatencyExpires() throws InterruptedException {
+    aacPacket.setAggregation(50, RtpConstants.MTU);
+    send(200, 0);
+    send(200, FRAME_DURATION_US);
+    assertEquals(0, getSentFrames());
+    //no more AUs (DTX), they must not wait the next one
+    long timeoutMs = System.currentTimeMillis() + 1000;
+    while (getSentFrames() == 0 && System.currentTimeMillis() < timeoutMs) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, getSentFrames());
+    assertEquals(2, getAccessUnits(frames.get(0)));
+    aacPacket.reset();
+  }
+
+  @Test
+  public void gapInTimestampsSendsPendingAccessUnits() {
+    aacPacket.setAggregation(1000, RtpConstants.MTU);
+    send(200, 0);
+    send(200, 10 * FRAME_DURATION_US);
+    assertEquals(1, getSentFrames());
+    assertEquals(1, getAccessUnits(frames.get(0)));
+    aacPacket.reset();
+  }
+
+  @Test
+  public void resetSendsPendingAccessUnits() {
+    aacPacket.setAggregation(1000, RtpConstants.MTU);
+    send(200, 0);
+    send(200, FRAME_DURATION_US);
+    send(200, 2 * FRAME_DURATION_US);
+    assertEquals(0, getSentFrames());
+    aacPacket.reset();
+    assertEquals(1, getSentFrames());
+    assertEquals(3, getAccessUnits(frames.get(0)));
+  }
+}
@@ -0,0 +1,110 @@
+package com.pedro.rtsp.rtsp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class RtspReaderTest {
+
+  private static void writeText(ByteArrayOutputStream output, String text) {
+    byte[] bytes = text.getBytes();
+    output.write(bytes, 0, bytes.length);
+  }
+
+  private static void writePacket(ByteArrayOutputStream output, int channel, byte[] data) {
+    output.write('$');
+    output.write(channel);
+    output.write(data.length >> 8);
+    output.write(data.length & 0xFF);
+    output.write(data, 0, data.length);
+  }
+
+  private static RtspReader createReader(ByteArrayOutputStream output) {
+    return new RtspReader(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  @Test
+  public void packetAfterResponseIsNotLost() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeText(output, "RTSP/1.0 200 OK\r\nCSeq: 5\r\nSession: 1234\r\n\r\n");
+    byte[] rtcp = { (byte) 0x81, (byte) 206, 0, 2, 1, 2, 3, 4, 5, 6, 7, 8 };
+    writePacket(output, 1, rtcp);
+    RtspReader reader = createReader(output);
+    assertEquals("RTSP/1.0 200 OK", reader.readLine());
+    assertEquals("CSeq: 5", reader.readLine());
+    assertEquals("Session: 1234", reader.readLine());
+    assertEquals("", reader.readLine());
+
+    byte[] buffer = new byte[1500];
+    assertEquals(rtcp.length, reader.readPacket(buffer));
+    assertEquals(1, reader.getChannel());
+    byte[] read = new byte[rtcp.length];
+    System.arraycopy(buffer, 0, read, 0, read.length);
+    assertArrayEquals(rtcp, read);
+  }
+
+  @Test
+  public void dollarInPayloadDoesNotResync() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] first = { '$', 0x7F, 0x7F, '$', 1, 2 };
+    byte[] second = { 9, 8, 7, 6 };
+    writePacket(output, 3, first);
+    writePacket(output, 1, second);
+    RtspReader reader = createReader(output);
+    byte[] buffer = new byte[1500];
+    assertEquals(first.length, reader.readPacket(buffer));
+    assertEquals(3, reader.getChannel());
+    assertEquals(second.length, reader.readPacket(buffer));
+    assertEquals(1, reader.getChannel());
+    assertEquals(9, buffer[0]);
+  }
+
+  @Test
+  public void serverMessageWithBodyIsSkipped() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeText(output, "GET_PARAMETER rtsp://host/live RTSP/1.0\r\nCSeq: 1\r\n"
+        + "Content-Length: 6\r\n\r\n$$$$$$");
+    byte[] rtcp = { (byte) 0x80, (byte) 201, 0, 1, 1, 2, 3, 4 };
+    writePacket(output, 1, rtcp);
+    RtspReader reader = createReader(output);
+    byte[] buffer = new byte[1500];
+    assertEquals(-1, reader.readPacket(buffer));
+    assertEquals(rtcp.length, reader.readPacket(buffer));
+    assertEquals((byte) 201, buffer[1]);
+  }
+
+  @Test
+  public void oversizedPacketIsSkipped() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writePacket(output, 1, new byte[64]);
+    writePacket(output, 1, new byte[] { 1, 2 });
+    RtspReader reader = createReader(output);
+    byte[] buffer = new byte[16];
+    assertEquals(-1, reader.readPacket(buffer));
+    assertEquals(2, reader.readPacket(buffer));
+  }
+
+  @Test
+  public void packetBeforeResponseIsSkippedByReadLine() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writePacket(output, 0, new byte[] { '\n', 'x', '\r' });
+    writeText(output, "RTSP/1.0 200 OK\r\n");
+    RtspReader reader = createReader(output);
+    assertEquals("RTSP/1.0 200 OK", reader.readLine());
+    assertNull(reader.readLine());
+  }
+
+  @Test(expected = EOFException.class)
+  public void closedConnectionFailsPacketRead() throws IOException {
+    createReader(new ByteArrayOutputStream()).readPacket(new byte[16]);
+  }
+}
@@ -0,0 +1,66 @@
+package com.pedro.rtsp.rtsp;
+
+import android.media.MediaCodec;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class RtspSenderTest {
+
+  private static MediaCodec.BufferInfo createInfo(int size, int flags) {
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.offset = 0;
+    info.size = size;
+    info.flags = flags;
+    return info;
+  }
+
+  private static int getTemporalLayer(byte[] frame, int flags, boolean isH265) {
+    return RtspSender.getTemporalLayer(ByteBuffer.wrap(frame), createInfo(frame.length, flags),
+        isH265);
+  }
+
+  @Test
+  public void h264NonReferenceFrameIsEnhancementLayer() {
+    //nal_ref_idc 0, non IDR slice
+    assertEquals(1, getTemporalLayer(new byte[] { 0, 0, 0, 1, 0x01, 1, 2, 3 }, 0, false));
+    assertEquals(1, getTemporalLayer(new byte[] { 0, 0, 1, 0x01, 1, 2, 3 }, 0, false));
+    //nal_ref_idc 2, referenced slice
+    assertEquals(0, getTemporalLayer(new byte[] { 0, 0, 0, 1, 0x41, 1, 2, 3 }, 0, false));
+    assertEquals(0, getTemporalLayer(new byte[] { 0, 0, 1, 0x41, 1, 2, 3 }, 0, false));
+  }
+
+  @Test
+  public void h264PrefixNalTemporalId() {
+    //prefix NAL (14) with temporal_id 2 in the last svc extension byte
+    byte[] longStartCode = { 0, 0, 0, 1, 0x0E, (byte) 0x80, 0, 0x40, 0, 0, 1, 0x01, 1 };
+    byte[] shortStartCode = { 0, 0, 1, 0x0E, (byte) 0x80, 0, 0x40, 0, 0, 1, 0x01, 1 };
+    assertEquals(2, getTemporalLayer(longStartCode, 0, false));
+    assertEquals(2, getTemporalLayer(shortStartCode, 0, false));
+  }
+
+  @Test
+  public void h265TemporalId() {
+    //TRAIL_N with nuh_temporal_id_plus1 3
+    assertEquals(2, getTemporalLayer(new byte[] { 0, 0, 0, 1, 0x00, 0x03, 1, 2 }, 0, true));
+    assertEquals(2, getTemporalLayer(new byte[] { 0, 0, 1, 0x00, 0x03, 1, 2 }, 0, true));
+    assertEquals(0, getTemporalLayer(new byte[] { 0, 0, 1, 0x02, 0x01, 1, 2 }, 0, true));
+  }
+
+  @Test
+  public void keyFrameFlagIsBaseLayerWithOtherFlags() {
+    byte[] frame = { 0, 0, 0, 1, 0x01, 1, 2, 3 };
+    int flags = MediaCodec.BUFFER_FLAG_KEY_FRAME | MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
+    assertEquals(0, getTemporalLayer(frame, flags, false));
+  }
+
+  @Test
+  public void shortFramesAreBaseLayer() {
+    assertEquals(0, getTemporalLayer(new byte[] { 0, 0, 1, 0x01 }, 0, false));
+    assertEquals(0, getTemporalLayer(new byte[] { 0, 0 }, 0, false));
+  }
+}
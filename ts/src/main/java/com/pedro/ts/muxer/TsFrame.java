@@ -0,0 +1,46 @@
+package com.pedro.ts.muxer;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Transport stream packets of a sample, with tables and PCR packets inserted before it.
+ */
+public class TsFrame {
+
+  private final byte[] data;
+  private final long timeUs;
+  private final long presentationTimeUs;
+  private final boolean videoFrame;
+
+  public TsFrame(byte[] data, long timeUs, long presentationTimeUs, boolean videoFrame) {
+    this.data = data;
+    this.timeUs = timeUs;
+    this.presentationTimeUs = presentationTimeUs;
+    this.videoFrame = videoFrame;
+  }
+
+  /**
+   * @return 188 bytes packets.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * @return PCR time of the frame, increasing between frames.
+   */
+  public long getTimeUs() {
+    return timeUs;
+  }
+
+  /**
+   * @return pts of encoder output.
+   */
+  public long getPresentationTimeUs() {
+    return presentationTimeUs;
+  }
+
+  public boolean isVideoFrame() {
+    return videoFrame;
+  }
+}
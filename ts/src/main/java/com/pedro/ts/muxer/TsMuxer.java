@@ -0,0 +1,420 @@
+package com.pedro.ts.muxer;
+
+import android.media.MediaCodec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * MPEG-TS (ISO 13818-1) muxer of a single program with H264 or H265 video and AAC audio.
+ * Each encoded sample is converted to a PES packet split in 188 bytes transport packets. PAT and
+ * PMT are repeated in each key frame and at least each 100 ms, PCR is sent in the PCR PID at
+ * least each 40 ms. Output start with a video key frame.
+ */
+public class TsMuxer {
+
+  public static final int PACKET_SIZE = 188;
+  private static final int PAT_PID = 0x0000;
+  private static final int PMT_PID = 0x1000;
+  private static final int VIDEO_PID = 0x0100;
+  private static final int AUDIO_PID = 0x0101;
+  private static final int STREAM_TYPE_H264 = 0x1B;
+  private static final int STREAM_TYPE_H265 = 0x24;
+  private static final int STREAM_TYPE_AAC = 0x0F;
+  private static final int VIDEO_STREAM_ID = 0xE0;
+  private static final int AUDIO_STREAM_ID = 0xC0;
+  private static final long TABLES_INTERVAL_US = 100000;
+  private static final long PCR_INTERVAL_US = 40000;
+  private static final byte[] H264_AUD = { 0, 0, 0, 1, 0x09, (byte) 0xF0 };
+  private static final byte[] H265_AUD = { 0, 0, 0, 1, 0x46, 0x01, 0x50 };
+  private static final byte[] START_CODE = { 0, 0, 0, 1 };
+  private static final int[] AAC_SAMPLE_RATES = {
+      96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+  };
+  private static final int[] CRC_TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i << 24;
+      for (int j = 0; j < 8; j++) {
+        crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+      }
+      CRC_TABLE[i] = crc;
+    }
+  }
+
+  private byte[] sps;
+  private byte[] pps;
+  private byte[] vps;
+  private int sampleRate = 44100;
+  private boolean isStereo = true;
+  private boolean onlyAudio = false;
+  private long muxDelayUs = 500000;
+  //output buffer of current frame
+  private byte[] output = new byte[64 * 1024];
+  private int outputLength;
+  //PES of current frame
+  private byte[] pes = new byte[64 * 1024];
+  private int pesLength;
+  private final int[] continuityCounters = new int[0x2000];
+  private long startUs = -1;
+  private long lastPcrUs = -1;
+  private long lastTablesUs = -1;
+  private long lastTimeUs = 0;
+
+  /**
+   * @param sps sps, pps and vps with 4 bytes start code, like encoder output format. vps null
+   * for H264.
+   */
+  public synchronized void setVideoInfo(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    this.sps = getData(sps);
+    this.pps = getData(pps);
+    this.vps = getData(vps);
+  }
+
+  public synchronized void setAudioInfo(int sampleRate, boolean isStereo) {
+    this.sampleRate = sampleRate;
+    this.isStereo = isStereo;
+  }
+
+  public synchronized void setOnlyAudio(boolean onlyAudio) {
+    this.onlyAudio = onlyAudio;
+  }
+
+  /**
+   * @param muxDelayMs difference between PCR and PTS, time decoder buffers before show a frame.
+   * 500 by default.
+   */
+  public synchronized void setMuxDelay(long muxDelayMs) {
+    this.muxDelayUs = muxDelayMs * 1000;
+  }
+
+  /**
+   * Start a new stream, next output start with tables and a key frame.
+   */
+  public synchronized void reset() {
+    Arrays.fill(continuityCounters, 0);
+    startUs = -1;
+    lastPcrUs = -1;
+    lastTablesUs = -1;
+    lastTimeUs = 0;
+  }
+
+  /**
+   * @return packets of the frame or null if it was discarded waiting a key frame.
+   */
+  public synchronized TsFrame createVideoFrame(ByteBuffer videoBuffer,
+      MediaCodec.BufferInfo info) {
+    if (onlyAudio || sps == null || isConfig(info)) return null;
+    boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    if (startUs < 0) {
+      if (!keyFrame) return null;
+      startUs = info.presentationTimeUs;
+    }
+    long timeUs = info.presentationTimeUs - startUs;
+    if (timeUs < 0) return null;
+    outputLength = 0;
+    if (keyFrame || lastTablesUs < 0 || timeUs - lastTablesUs >= TABLES_INTERVAL_US) {
+      writeTables(timeUs);
+    }
+    boolean h265 = vps != null;
+    ByteBuffer data = videoBuffer.duplicate();
+    data.limit(info.offset + info.size);
+    data.position(info.offset);
+    int nalType = getNalType(data, h265);
+    startPes(VIDEO_STREAM_ID, timeUs);
+    if (nalType != (h265 ? 35 : 9)) putPes(h265 ? H265_AUD : H264_AUD);
+    //decoders can join the stream in any key frame
+    if (keyFrame && nalType != (h265 ? 32 : 7)) {
+      if (h265) putNal(vps);
+      putNal(sps);
+      putNal(pps);
+    }
+    ensurePes(data.remaining());
+    data.get(pes, pesLength, data.remaining());
+    pesLength += info.size;
+    writePes(VIDEO_PID, getPcr(timeUs, true), keyFrame);
+    return createFrame(info.presentationTimeUs, true);
+  }
+
+  /**
+   * @param aacBuffer raw AAC frame, an ADTS header is added.
+   * @return packets of the frame or null if it was discarded waiting a key frame.
+   */
+  public synchronized TsFrame createAudioFrame(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    if (isConfig(info)) return null;
+    if (startUs < 0) {
+      if (!onlyAudio) return null;
+      startUs = info.presentationTimeUs;
+    }
+    long timeUs = info.presentationTimeUs - startUs;
+    if (timeUs < 0) return null;
+    outputLength = 0;
+    if (lastTablesUs < 0 || timeUs - lastTablesUs >= TABLES_INTERVAL_US) writeTables(timeUs);
+    ByteBuffer data = aacBuffer.duplicate();
+    data.limit(info.offset + info.size);
+    data.position(info.offset);
+    startPes(AUDIO_STREAM_ID, timeUs);
+    ensurePes(7 + info.size);
+    writeAdtsHeader(info.size);
+    data.get(pes, pesLength, info.size);
+    pesLength += info.size;
+    //PES packet length of audio count bytes after it
+    int length = pesLength - 6;
+    pes[4] = (byte) (length >>> 8);
+    pes[5] = (byte) length;
+    long pcrUs = getPcr(timeUs, onlyAudio);
+    if (!onlyAudio && pcrUs >= 0) {
+      writePcrPacket(VIDEO_PID, pcrUs);
+      pcrUs = -1;
+    }
+    writePes(AUDIO_PID, pcrUs, false);
+    return createFrame(info.presentationTimeUs, false);
+  }
+
+  private TsFrame createFrame(long presentationTimeUs, boolean videoFrame) {
+    return new TsFrame(Arrays.copyOf(output, outputLength), lastTimeUs, presentationTimeUs,
+        videoFrame);
+  }
+
+  /**
+   * @return PCR to write with this sample or -1 if last one is recent.
+   */
+  private long getPcr(long timeUs, boolean pcrStream) {
+    //PCR and frame times must increase, audio and video could be a bit disordered
+    lastTimeUs = Math.max(lastTimeUs, timeUs);
+    if (!pcrStream && lastPcrUs >= 0 && lastTimeUs - lastPcrUs < PCR_INTERVAL_US) return -1;
+    lastPcrUs = lastTimeUs;
+    return lastTimeUs;
+  }
+
+  private void writeTables(long timeUs) {
+    lastTablesUs = timeUs;
+    //PAT
+    byte[] section = new byte[12];
+    section[0] = 0x00;
+    section[3] = 0x00;
+    section[4] = 0x01;
+    section[5] = (byte) 0xC1;
+    section[8] = 0x00;
+    section[9] = 0x01;
+    section[10] = (byte) (0xE0 | (PMT_PID >>> 8));
+    section[11] = (byte) PMT_PID;
+    writeSection(PAT_PID, section);
+    //PMT
+    int streams = onlyAudio ? 1 : 2;
+    section = new byte[12 + streams * 5];
+    int pcrPid = onlyAudio ? AUDIO_PID : VIDEO_PID;
+    section[0] = 0x02;
+    section[3] = 0x00;
+    section[4] = 0x01;
+    section[5] = (byte) 0xC1;
+    section[8] = (byte) (0xE0 | (pcrPid >>> 8));
+    section[9] = (byte) pcrPid;
+    section[10] = (byte) 0xF0;
+    int position = 12;
+    if (!onlyAudio) {
+      position = writeStream(section, position, vps != null ? STREAM_TYPE_H265 : STREAM_TYPE_H264,
+          VIDEO_PID);
+    }
+    writeStream(section, position, STREAM_TYPE_AAC, AUDIO_PID);
+    writeSection(PMT_PID, section);
+  }
+
+  private int writeStream(byte[] section, int position, int streamType, int pid) {
+    section[position] = (byte) streamType;
+    section[position + 1] = (byte) (0xE0 | (pid >>> 8));
+    section[position + 2] = (byte) pid;
+    section[position + 3] = (byte) 0xF0;
+    section[position + 4] = 0x00;
+    return position + 5;
+  }
+
+  /**
+   * @param section table without length and CRC.
+   */
+  private void writeSection(int pid, byte[] section) {
+    //length count from transport stream id to CRC
+    int length = section.length - 3 + 4;
+    section[1] = (byte) (0xB0 | (length >>> 8));
+    section[2] = (byte) length;
+    int crc = crc32(section);
+    int start = startPacket(pid, true, false, true);
+    output[start] = 0x00; //pointer field
+    System.arraycopy(section, 0, output, start + 1, section.length);
+    int end = start + 1 + section.length;
+    output[end] = (byte) (crc >>> 24);
+    output[end + 1] = (byte) (crc >>> 16);
+    output[end + 2] = (byte) (crc >>> 8);
+    output[end + 3] = (byte) crc;
+    Arrays.fill(output, end + 4, outputLength, (byte) 0xFF);
+  }
+
+  private void startPes(int streamId, long timeUs) {
+    pesLength = 0;
+    ensurePes(14);
+    pes[0] = 0x00;
+    pes[1] = 0x00;
+    pes[2] = 0x01;
+    pes[3] = (byte) streamId;
+    //0 is unbounded length, only valid for video
+    pes[4] = 0x00;
+    pes[5] = 0x00;
+    pes[6] = (byte) 0x84; //data alignment indicator
+    pes[7] = (byte) 0x80; //PTS only, DTS is the same
+    pes[8] = 0x05;
+    long pts = ((timeUs + muxDelayUs) * 90 / 1000) & 0x1FFFFFFFFL;
+    pes[9] = (byte) (0x21 | ((pts >>> 29) & 0x0E));
+    pes[10] = (byte) (pts >>> 22);
+    pes[11] = (byte) (0x01 | ((pts >>> 14) & 0xFE));
+    pes[12] = (byte) (pts >>> 7);
+    pes[13] = (byte) (0x01 | ((pts << 1) & 0xFE));
+    pesLength = 14;
+  }
+
+  private void writePes(int pid, long pcrUs, boolean randomAccess) {
+    int position = 0;
+    boolean first = true;
+    while (position < pesLength) {
+      boolean pcr = first && pcrUs >= 0;
+      boolean flags = pcr || (first && randomAccess);
+      int fieldLength = flags ? 2 + (pcr ? 6 : 0) : 0;
+      int space = PACKET_SIZE - 4 - fieldLength;
+      int payload = Math.min(pesLength - position, space);
+      int stuffing = space - payload;
+      int start = startPacket(pid, first, flags || stuffing > 0, true);
+      int index = start - PACKET_SIZE + 4;
+      if (flags) {
+        output[index++] = (byte) (fieldLength - 1 + stuffing);
+        output[index++] = (byte) ((pcr ? 0x10 : 0) | (first && randomAccess ? 0x40 : 0));
+        if (pcr) index = putPcr(index, pcrUs);
+        Arrays.fill(output, index, index + stuffing, (byte) 0xFF);
+        index += stuffing;
+      } else if (stuffing > 0) {
+        output[index++] = (byte) (stuffing - 1);
+        if (stuffing > 1) {
+          output[index++] = 0x00;
+          Arrays.fill(output, index, index + stuffing - 2, (byte) 0xFF);
+          index += stuffing - 2;
+        }
+      }
+      System.arraycopy(pes, position, output, index, payload);
+      position += payload;
+      first = false;
+    }
+  }
+
+  /**
+   * Packet with only adaptation field to send PCR in a PID without payload now.
+   */
+  private void writePcrPacket(int pid, long pcrUs) {
+    int start = startPacket(pid, false, true, false);
+    int index = start - PACKET_SIZE + 4;
+    output[index++] = (byte) (PACKET_SIZE - 5);
+    output[index++] = 0x10;
+    index = putPcr(index, pcrUs);
+    Arrays.fill(output, index, outputLength, (byte) 0xFF);
+  }
+
+  private int putPcr(int index, long pcrUs) {
+    long pcr = pcrUs * 27;
+    long base = (pcr / 300) & 0x1FFFFFFFFL;
+    long extension = pcr % 300;
+    output[index] = (byte) (base >>> 25);
+    output[index + 1] = (byte) (base >>> 17);
+    output[index + 2] = (byte) (base >>> 9);
+    output[index + 3] = (byte) (base >>> 1);
+    output[index + 4] = (byte) (((base & 1) << 7) | 0x7E | (extension >>> 8));
+    output[index + 5] = (byte) extension;
+    return index + 6;
+  }
+
+  /**
+   * Write transport packet header.
+   *
+   * @return position after header for PSI packets, end of packet for others.
+   */
+  private int startPacket(int pid, boolean payloadStart, boolean adaptationField,
+      boolean payload) {
+    if (outputLength + PACKET_SIZE > output.length) {
+      output = Arrays.copyOf(output, output.length * 2);
+    }
+    int start = outputLength;
+    //continuity counter only increase in packets with payload
+    int counter = payload ? continuityCounters[pid] : (continuityCounters[pid] + 15) & 0x0F;
+    if (payload) continuityCounters[pid] = (counter + 1) & 0x0F;
+    output[start] = 0x47;
+    output[start + 1] = (byte) ((payloadStart ? 0x40 : 0) | (pid >>> 8));
+    output[start + 2] = (byte) pid;
+    output[start + 3] =
+        (byte) ((adaptationField ? 0x20 : 0) | (payload ? 0x10 : 0) | counter);
+    outputLength += PACKET_SIZE;
+    return pid == PAT_PID || pid == PMT_PID ? start + 4 : outputLength;
+  }
+
+  private void writeAdtsHeader(int size) {
+    int frameLength = size + 7;
+    int frequencyIndex = 4;
+    for (int i = 0; i < AAC_SAMPLE_RATES.length; i++) {
+      if (AAC_SAMPLE_RATES[i] == sampleRate) frequencyIndex = i;
+    }
+    int channels = isStereo ? 2 : 1;
+    //AAC LC
+    int profile = 1;
+    pes[pesLength] = (byte) 0xFF;
+    pes[pesLength + 1] = (byte) 0xF1;
+    pes[pesLength + 2] = (byte) ((profile << 6) | (frequencyIndex << 2) | (channels >>> 2));
+    pes[pesLength + 3] = (byte) (((channels & 3) << 6) | (frameLength >>> 11));
+    pes[pesLength + 4] = (byte) (frameLength >>> 3);
+    pes[pesLength + 5] = (byte) (((frameLength & 7) << 5) | 0x1F);
+    pes[pesLength + 6] = (byte) 0xFC;
+    pesLength += 7;
+  }
+
+  private void putNal(byte[] nal) {
+    putPes(START_CODE);
+    putPes(nal);
+  }
+
+  private void putPes(byte[] bytes) {
+    ensurePes(bytes.length);
+    System.arraycopy(bytes, 0, pes, pesLength, bytes.length);
+    pesLength += bytes.length;
+  }
+
+  private void ensurePes(int bytes) {
+    if (pesLength + bytes > pes.length) {
+      pes = Arrays.copyOf(pes, Math.max(pes.length * 2, pesLength + bytes));
+    }
+  }
+
+  private int getNalType(ByteBuffer data, boolean h265) {
+    int start = data.position();
+    if (data.remaining() < 5) return -1;
+    int header = data.get(start + 2) == 1 ? start + 3 : start + 4;
+    return h265 ? (data.get(header) >> 1) & 0x3F : data.get(header) & 0x1F;
+  }
+
+  private boolean isConfig(MediaCodec.BufferInfo info) {
+    return (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size <= 0;
+  }
+
+  private static int crc32(byte[] data) {
+    int crc = 0xFFFFFFFF;
+    for (byte value : data) {
+      crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ value) & 0xFF];
+    }
+    return crc;
+  }
+
+  private static byte[] getData(ByteBuffer byteBuffer) {
+    if (byteBuffer == null) return null;
+    ByteBuffer data = byteBuffer.duplicate();
+    data.position(4);
+    data.limit(data.capacity());
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,46 @@
+package com.pedro.ts.output;
+
+import android.util.Log;
+import com.pedro.ts.muxer.TsFrame;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Write transport stream in a .ts file as fast as frames arrive.
+ */
+public class FileTsOutput implements TsOutput {
+
+  private static final String TAG = "FileTsOutput";
+  private final File file;
+  private OutputStream outputStream;
+
+  public FileTsOutput(File file) {
+    this.file = file;
+  }
+
+  @Override
+  public void open() throws IOException {
+    outputStream = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+  }
+
+  @Override
+  public void write(TsFrame tsFrame) throws IOException {
+    outputStream.write(tsFrame.getData());
+  }
+
+  @Override
+  public void close() {
+    if (outputStream == null) return;
+    try {
+      outputStream.close();
+    } catch (IOException e) {
+      Log.e(TAG, "close error", e);
+    }
+    outputStream = null;
+  }
+}
@@ -0,0 +1,21 @@
+package com.pedro.ts.output;
+
+import com.pedro.ts.muxer.TsFrame;
+import java.io.IOException;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Destination of transport stream packets. Methods are called from sender thread.
+ */
+public interface TsOutput {
+
+  void open() throws IOException;
+
+  /**
+   * @throws InterruptedException if sender is stopped while waiting to send.
+   */
+  void write(TsFrame tsFrame) throws IOException, InterruptedException;
+
+  void close();
+}
@@ -0,0 +1,109 @@
+package com.pedro.ts.output;
+
+import com.pedro.ts.muxer.TsFrame;
+import com.pedro.ts.muxer.TsMuxer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Send transport stream in UDP datagrams of 7 packets (1316 bytes). Datagrams are paced with PCR
+ * times: packets of a frame are spread until time of next frame, so receivers get a smooth
+ * bitrate instead of a burst for each frame. It add a frame of latency.
+ */
+public class UdpTsOutput implements TsOutput {
+
+  public static final int PACKETS_PER_DATAGRAM = 7;
+  //sender is late more than this after a stall, restart clock instead of sending a burst
+  private static final long MAX_DELAY_NS = 500000000L;
+  //limit wait after a gap between frames
+  private static final long MAX_FRAME_DURATION_US = 200000;
+  private final String host;
+  private final int port;
+  private DatagramChannel channel;
+  private final ByteBuffer datagram =
+      ByteBuffer.allocateDirect(PACKETS_PER_DATAGRAM * TsMuxer.PACKET_SIZE);
+  private TsFrame pendingFrame;
+  private boolean pacing = true;
+  private long clockNs = -1;
+  private long clockUs;
+
+  public UdpTsOutput(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * @param pacing false to send frames when they are produced. True by default.
+   */
+  public void setPacing(boolean pacing) {
+    this.pacing = pacing;
+  }
+
+  @Override
+  public void open() throws IOException {
+    datagram.clear();
+    pendingFrame = null;
+    clockNs = -1;
+    channel = DatagramChannel.open();
+    channel.connect(new InetSocketAddress(host, port));
+  }
+
+  @Override
+  public void write(TsFrame tsFrame) throws IOException, InterruptedException {
+    if (pendingFrame != null) send(pendingFrame, tsFrame.getTimeUs());
+    pendingFrame = tsFrame;
+  }
+
+  @Override
+  public void close() {
+    pendingFrame = null;
+    if (channel == null) return;
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+    }
+    channel = null;
+  }
+
+  private void send(TsFrame tsFrame, long endUs) throws IOException, InterruptedException {
+    byte[] data = tsFrame.getData();
+    int packets = data.length / TsMuxer.PACKET_SIZE;
+    long durationUs = Math.min(Math.max(0, endUs - tsFrame.getTimeUs()), MAX_FRAME_DURATION_US);
+    for (int i = 0; i < packets; i++) {
+      datagram.put(data, i * TsMuxer.PACKET_SIZE, TsMuxer.PACKET_SIZE);
+      //packets left in a datagram are sent with next frame
+      if (!datagram.hasRemaining()) {
+        waitUntil(tsFrame.getTimeUs() + durationUs * i / packets);
+        datagram.flip();
+        try {
+          channel.write(datagram);
+        } catch (PortUnreachableException ignored) {
+          //receiver is not listening yet, keep sending like a broadcast
+        }
+        datagram.clear();
+      }
+    }
+  }
+
+  private void waitUntil(long timeUs) throws InterruptedException {
+    if (!pacing) return;
+    long now = System.nanoTime();
+    if (clockNs < 0) {
+      clockNs = now;
+      clockUs = timeUs;
+      return;
+    }
+    long delayNs = clockNs + (timeUs - clockUs) * 1000 - now;
+    if (delayNs > 0) {
+      Thread.sleep(delayNs / 1000000, (int) (delayNs % 1000000));
+    } else if (delayNs < -MAX_DELAY_NS) {
+      clockNs = now;
+      clockUs = timeUs;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.pedro.ts.ts;
+
+import android.media.MediaCodec;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.pedro.ts.muxer.TsFrame;
+import com.pedro.ts.muxer.TsMuxer;
+import com.pedro.ts.output.FileTsOutput;
+import com.pedro.ts.output.TsOutput;
+import com.pedro.ts.output.UdpTsOutput;
+import com.pedro.ts.utils.BitrateManager;
+import com.pedro.ts.utils.ConnectCheckerTs;
+import com.pedro.ts.utils.LatencyListener;
+import com.pedro.ts.utils.NetworkListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Send MPEG-TS to a UDP destination (udp://ip:port, unicast or multicast) or write it in a file
+ * (absolute path or file:// url).
+ */
+public class TsClient {
+
+  private static final String TAG = "TsClient";
+  private static final Pattern udpUrlPattern = Pattern.compile("^udp://([^/:]+):(\\d+)/?$");
+
+  private ConnectCheckerTs connectCheckerTs;
+  private TsMuxer tsMuxer = new TsMuxer();
+  private volatile BlockingQueue<TsFrame> tsFrameBlockingQueue =
+      new LinkedBlockingQueue<>(getDefaultCacheSize());
+  private BitrateManager bitrateManager;
+  private Thread thread;
+  private TsOutput tsOutput;
+  private volatile boolean streaming = false;
+  private volatile LatencyListener latencyListener;
+  private volatile NetworkListener networkListener;
+  //pts of last frame queued, used to know queue delay
+  private volatile long lastQueuedTimeUs = 0;
+  private boolean pacing = true;
+  private String url;
+  private int numRetry;
+  private int reTries;
+  private Handler handler;
+  private Runnable runnable;
+  //updated from sender and encoder threads, read from app thread
+  private final AtomicLong audioFramesSent = new AtomicLong(0);
+  private final AtomicLong videoFramesSent = new AtomicLong(0);
+  private final AtomicLong droppedAudioFrames = new AtomicLong(0);
+  private final AtomicLong droppedVideoFrames = new AtomicLong(0);
+
+  public TsClient(ConnectCheckerTs connectCheckerTs) {
+    this.connectCheckerTs = connectCheckerTs;
+    bitrateManager = new BitrateManager(connectCheckerTs);
+    handler = new Handler(Looper.getMainLooper());
+  }
+
+  private int getDefaultCacheSize() {
+    //frames, about a second of video and audio
+    return 80;
+  }
+
+  public void setOnlyAudio(boolean onlyAudio) {
+    tsMuxer.setOnlyAudio(onlyAudio);
+  }
+
+  /**
+   * @param pacing spread UDP datagrams with PCR times. True by default. Must be called before
+   * connect.
+   */
+  public void setPacing(boolean pacing) {
+    this.pacing = pacing;
+  }
+
+  /**
+   * @param muxDelayMs time receivers buffer before decode a frame. 500 by default.
+   */
+  public void setMuxDelay(long muxDelayMs) {
+    tsMuxer.setMuxDelay(muxDelayMs);
+  }
+
+  /**
+   * @param latencyListener notified for each frame queued, dequeued and sent. Null to disable.
+   */
+  public void setLatencyListener(LatencyListener latencyListener) {
+    this.latencyListener = latencyListener;
+  }
+
+  /**
+   * @param networkListener notified for each frame sent or discarded. Null to disable.
+   */
+  public void setNetworkListener(NetworkListener networkListener) {
+    this.networkListener = networkListener;
+  }
+
+  public void setReTries(int reTries) {
+    numRetry = reTries;
+    this.reTries = reTries;
+  }
+
+  public boolean shouldRetry(String reason) {
+    boolean validReason = !reason.contains("Endpoint malformed");
+    return validReason && reTries > 0;
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public void setSampleRate(int sampleRate, boolean isStereo) {
+    tsMuxer.setAudioInfo(sampleRate, isStereo);
+  }
+
+  public void setSPSandPPS(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    tsMuxer.setVideoInfo(sps, pps, vps);
+  }
+
+  public void connect() {
+    if (streaming) return;
+    final TsOutput output = createOutput(url);
+    if (output == null) {
+      connectCheckerTs.onConnectionFailedTs(
+          "Endpoint malformed, should be: udp://ip:port or /path/file.ts");
+      return;
+    }
+    tsOutput = output;
+    tsMuxer.reset();
+    tsFrameBlockingQueue.clear();
+    lastQueuedTimeUs = 0;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          output.open();
+        } catch (IOException e) {
+          Log.e(TAG, "connection error", e);
+          connectCheckerTs.onConnectionFailedTs("Error configure stream, " + e.getMessage());
+          return;
+        }
+        streaming = true;
+        reTries = numRetry;
+        connectCheckerTs.onConnectionSuccessTs();
+        while (!Thread.interrupted()) {
+          try {
+            TsFrame tsFrame = tsFrameBlockingQueue.poll(1, TimeUnit.SECONDS);
+            if (tsFrame == null) {
+              Log.i(TAG, "Skipping iteration, frame null");
+              continue;
+            }
+            LatencyListener listener = latencyListener;
+            long timestampMs = tsFrame.getPresentationTimeUs() / 1000;
+            boolean isVideo = tsFrame.isVideoFrame();
+            if (listener != null) listener.onPacketDequeued(isVideo, timestampMs);
+            long writeTime = System.currentTimeMillis();
+            output.write(tsFrame);
+            if (listener != null) listener.onPacketSent(isVideo, timestampMs);
+            NetworkListener network = networkListener;
+            if (network != null) {
+              network.onFrameSent(isVideo, tsFrame.getData().length,
+                  Math.max(0, (lastQueuedTimeUs - tsFrame.getPresentationTimeUs()) / 1000),
+                  System.currentTimeMillis() - writeTime);
+            }
+            //bytes to bits
+            bitrateManager.calculateBitrate(tsFrame.getData().length * 8);
+            if (tsFrame.isVideoFrame()) {
+              videoFramesSent.incrementAndGet();
+            } else {
+              audioFramesSent.incrementAndGet();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (IOException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "send error: ", e);
+            //stop muxing, nothing drains the queue
+            streaming = false;
+            connectCheckerTs.onConnectionFailedTs("Error send packet, " + e.getMessage());
+          }
+        }
+      }
+    });
+    thread.start();
+  }
+
+  private TsOutput createOutput(String url) {
+    if (url == null) return null;
+    Matcher udpMatcher = udpUrlPattern.matcher(url);
+    if (udpMatcher.matches()) {
+      UdpTsOutput output =
+          new UdpTsOutput(udpMatcher.group(1), Integer.parseInt(udpMatcher.group(2)));
+      output.setPacing(pacing);
+      return output;
+    } else if (url.startsWith("file://")) {
+      return new FileTsOutput(new File(url.substring("file://".length())));
+    } else if (url.startsWith("/")) {
+      return new FileTsOutput(new File(url));
+    }
+    return null;
+  }
+
+  public void disconnect() {
+    handler.removeCallbacks(runnable);
+    disconnect(true);
+  }
+
+  private void disconnect(boolean clear) {
+    streaming = false;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(100);
+      } catch (InterruptedException e) {
+        thread.interrupt();
+      }
+      thread = null;
+    }
+    tsFrameBlockingQueue.clear();
+    if (tsOutput != null) tsOutput.close();
+    tsOutput = null;
+    resetSentAudioFrames();
+    resetSentVideoFrames();
+    resetDroppedAudioFrames();
+    resetDroppedVideoFrames();
+    if (clear) {
+      reTries = 0;
+      connectCheckerTs.onDisconnectTs();
+    }
+  }
+
+  public void sendVideo(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    if (!isStreaming()) return;
+    TsFrame tsFrame = tsMuxer.createVideoFrame(h264Buffer, info);
+    if (tsFrame == null) return;
+    if (tsFrameBlockingQueue.offer(tsFrame)) {
+      lastQueuedTimeUs = tsFrame.getPresentationTimeUs();
+      LatencyListener listener = latencyListener;
+      if (listener != null) listener.onPacketQueued(true, info.presentationTimeUs / 1000);
+    } else {
+      Log.i(TAG, "Video frame discarded");
+      droppedVideoFrames.incrementAndGet();
+      notifyFrameDropped(true);
+    }
+  }
+
+  public void sendAudio(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    if (!isStreaming()) return;
+    TsFrame tsFrame = tsMuxer.createAudioFrame(aacBuffer, info);
+    if (tsFrame == null) return;
+    if (tsFrameBlockingQueue.offer(tsFrame)) {
+      lastQueuedTimeUs = tsFrame.getPresentationTimeUs();
+      LatencyListener listener = latencyListener;
+      if (listener != null) listener.onPacketQueued(false, info.presentationTimeUs / 1000);
+    } else {
+      Log.i(TAG, "Audio frame discarded");
+      droppedAudioFrames.incrementAndGet();
+      notifyFrameDropped(false);
+    }
+  }
+
+  private void notifyFrameDropped(boolean isVideo) {
+    NetworkListener listener = networkListener;
+    if (listener != null) listener.onFrameDropped(isVideo);
+  }
+
+  public void reConnect(long delay) {
+    reTries--;
+    disconnect(false);
+    runnable = new Runnable() {
+      @Override
+      public void run() {
+        connect();
+      }
+    };
+    handler.postDelayed(runnable, delay);
+  }
+
+  public long getDroppedAudioFrames() {
+    return droppedAudioFrames.get();
+  }
+
+  public long getDroppedVideoFrames() {
+    return droppedVideoFrames.get();
+  }
+
+  public void resetSentAudioFrames() {
+    audioFramesSent.set(0);
+  }
+
+  public void resetSentVideoFrames() {
+    videoFramesSent.set(0);
+  }
+
+  public void resetDroppedAudioFrames() {
+    droppedAudioFrames.set(0);
+  }
+
+  public void resetDroppedVideoFrames() {
+    droppedVideoFrames.set(0);
+  }
+
+  public void resizeCache(int newSize) throws RuntimeException {
+    if (newSize < tsFrameBlockingQueue.size() - tsFrameBlockingQueue.remainingCapacity()) {
+      throw new RuntimeException("Can't fit current cache inside new cache size");
+    }
+    BlockingQueue<TsFrame> tempQueue = new LinkedBlockingQueue<>(newSize);
+    tsFrameBlockingQueue.drainTo(tempQueue);
+    tsFrameBlockingQueue = tempQueue;
+  }
+
+  public int getCacheSize() {
+    return tsFrameBlockingQueue.size();
+  }
+
+  public long getSentAudioFrames() {
+    return audioFramesSent.get();
+  }
+
+  public long getSentVideoFrames() {
+    return videoFramesSent.get();
+  }
+}
@@ -0,0 +1,27 @@
+package com.pedro.ts.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Calculate video and audio bitrate per second
+ */
+public class BitrateManager {
+
+  private long bitrate;
+  private long timeStamp = System.currentTimeMillis();
+  private ConnectCheckerTs connectCheckerTs;
+
+  public BitrateManager(ConnectCheckerTs connectCheckerTs) {
+    this.connectCheckerTs = connectCheckerTs;
+  }
+
+  public synchronized void calculateBitrate(long size) {
+    bitrate += size;
+    long timeDiff = System.currentTimeMillis() - timeStamp;
+    if (timeDiff >= 1000) {
+      connectCheckerTs.onNewBitrateTs((int) (bitrate / (timeDiff / 1000f)));
+      timeStamp = System.currentTimeMillis();
+      bitrate = 0;
+    }
+  }
+}
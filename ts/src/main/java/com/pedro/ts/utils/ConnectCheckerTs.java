@@ -0,0 +1,16 @@
+package com.pedro.ts.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+
+public interface ConnectCheckerTs {
+
+  void onConnectionSuccessTs();
+
+  void onConnectionFailedTs(String reason);
+
+  void onNewBitrateTs(long bitrate);
+
+  void onDisconnectTs();
+}
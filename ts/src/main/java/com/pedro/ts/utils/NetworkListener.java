@@ -0,0 +1,21 @@
+package com.pedro.ts.utils;
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Notify frames written to the output or discarded, used to measure network state.
+ */
+public interface NetworkListener {
+
+  /**
+   * @param size bytes written.
+   * @param queueDelayMs time between the frame and the last frame queued.
+   * @param writeTimeMs time blocked writing it.
+   */
+  void onFrameSent(boolean isVideo, int size, long queueDelayMs, long writeTimeMs);
+
+  /**
+   * Frame discarded because queue was full.
+   */
+  void onFrameDropped(boolean isVideo);
+}
@@ -0,0 +1,320 @@
+package com.pedro.ts.muxer;
+
+import android.media.MediaCodec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+public class TsMuxerTest {
+
+  private static final int PAT_PID = 0x0000;
+  private static final int PMT_PID = 0x1000;
+  private static final int VIDEO_PID = 0x0100;
+  private static final int AUDIO_PID = 0x0101;
+  private static final byte[] SPS = { 0, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1E };
+  private static final byte[] PPS = { 0, 0, 0, 1, 0x68, (byte) 0xCE, 0x06, (byte) 0xE2 };
+
+  /**
+   * Transport packet fields used by tests.
+   */
+  private static class Packet {
+    int pid;
+    boolean payloadStart;
+    int counter;
+    boolean hasPayload;
+    boolean randomAccess;
+    long pcrUs = -1;
+    byte[] payload;
+  }
+
+  private TsMuxer tsMuxer;
+
+  @Before
+  public void setUp() {
+    tsMuxer = new TsMuxer();
+    tsMuxer.setVideoInfo(ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS), null);
+    tsMuxer.setAudioInfo(44100, true);
+  }
+
+  private static MediaCodec.BufferInfo info(int size, long timeUs, int flags) {
+    //fields are set directly, methods of android classes are not implemented in unit tests
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.offset = 0;
+    info.size = size;
+    info.presentationTimeUs = timeUs;
+    info.flags = flags;
+    return info;
+  }
+
+  private static byte[] idrFrame(int size) {
+    byte[] frame = new byte[size];
+    frame[3] = 1;
+    frame[4] = 0x65;
+    for (int i = 5; i < size; i++) frame[i] = (byte) i;
+    return frame;
+  }
+
+  private TsFrame video(byte[] frame, long timeUs, int flags) {
+    return tsMuxer.createVideoFrame(ByteBuffer.wrap(frame), info(frame.length, timeUs, flags));
+  }
+
+  private TsFrame audio(int size, long timeUs) {
+    return tsMuxer.createAudioFrame(ByteBuffer.allocate(size), info(size, timeUs, 0));
+  }
+
+  private static List<Packet> parse(byte[] data) {
+    assertEquals(0, data.length % TsMuxer.PACKET_SIZE);
+    List<Packet> packets = new ArrayList<>();
+    for (int start = 0; start < data.length; start += TsMuxer.PACKET_SIZE) {
+      assertEquals(0x47, data[start] & 0xFF);
+      Packet packet = new Packet();
+      packet.payloadStart = (data[start + 1] & 0x40) != 0;
+      packet.pid = ((data[start + 1] & 0x1F) << 8) | (data[start + 2] & 0xFF);
+      boolean adaptationField = (data[start + 3] & 0x20) != 0;
+      packet.hasPayload = (data[start + 3] & 0x10) != 0;
+      packet.counter = data[start + 3] & 0x0F;
+      int index = start + 4;
+      if (adaptationField) {
+        int length = data[index] & 0xFF;
+        if (length > 0) {
+          int flags = data[index + 1] & 0xFF;
+          packet.randomAccess = (flags & 0x40) != 0;
+          if ((flags & 0x10) != 0) packet.pcrUs = readPcrBase(data, index + 2) * 300 / 27;
+        }
+        index += 1 + length;
+      }
+      packet.payload = new byte[start + TsMuxer.PACKET_SIZE - index];
+      System.arraycopy(data, index, packet.payload, 0, packet.payload.length);
+      packets.add(packet);
+    }
+    return packets;
+  }
+
+  private static long readPcrBase(byte[] data, int index) {
+    return ((data[index] & 0xFFL) << 25) | ((data[index + 1] & 0xFFL) << 17)
+        | ((data[index + 2] & 0xFFL) << 9) | ((data[index + 3] & 0xFFL) << 1)
+        | ((data[index + 4] & 0xFFL) >>> 7);
+  }
+
+  /**
+   * @return PES packets of the pid, joined from packets with payload start.
+   */
+  private static List<byte[]> getPes(List<Packet> packets, int pid) {
+    List<byte[]> pesList = new ArrayList<>();
+    ByteArrayOutputStream pes = null;
+    for (Packet packet : packets) {
+      if (packet.pid != pid || !packet.hasPayload) continue;
+      if (packet.payloadStart) {
+        if (pes != null) pesList.add(pes.toByteArray());
+        pes = new ByteArrayOutputStream();
+      }
+      assertNotNull(pes);
+      pes.write(packet.payload, 0, packet.payload.length);
+    }
+    if (pes != null) pesList.add(pes.toByteArray());
+    return pesList;
+  }
+
+  private static long getPtsUs(byte[] pes) {
+    assertEquals(0x80, pes[7] & 0xC0);
+    long pts = ((pes[9] & 0x0EL) << 29) | ((pes[10] & 0xFFL) << 22)
+        | ((pes[11] & 0xFEL) << 14) | ((pes[12] & 0xFFL) << 7) | ((pes[13] & 0xFEL) >>> 1);
+    return pts * 1000 / 90;
+  }
+
+  private static byte[] getPayload(byte[] pes) {
+    int start = 9 + (pes[8] & 0xFF);
+    byte[] payload = new byte[pes.length - start];
+    System.arraycopy(pes, start, payload, 0, payload.length);
+    return payload;
+  }
+
+  private static int crc32(byte[] data, int offset, int length) {
+    int crc = 0xFFFFFFFF;
+    for (int i = offset; i < offset + length; i++) {
+      crc ^= (data[i] & 0xFF) << 24;
+      for (int j = 0; j < 8; j++) {
+        crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+      }
+    }
+    return crc;
+  }
+
+  private static boolean contains(byte[] data, byte[] value) {
+    for (int i = 0; i + value.length <= data.length; i++) {
+      boolean found = true;
+      for (int j = 0; j < value.length && found; j++) found = data[i + j] == value[j];
+      if (found) return true;
+    }
+    return false;
+  }
+
+  @Test
+  public void framesBeforeKeyFrameAreDiscarded() {
+    assertNull(audio(100, 0));
+    assertNull(video(idrFrame(100), 0, 0));
+    assertNotNull(video(idrFrame(100), 33333, MediaCodec.BUFFER_FLAG_KEY_FRAME));
+    assertNotNull(audio(100, 40000));
+  }
+
+  @Test
+  public void configFramesAreDiscarded() {
+    assertNull(video(SPS, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG));
+    assertNull(tsMuxer.createAudioFrame(ByteBuffer.allocate(2),
+        info(2, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)));
+  }
+
+  @Test
+  public void keyFrameWithOtherFlagsStartsStream() {
+    assertNotNull(video(idrFrame(100), 0,
+        MediaCodec.BUFFER_FLAG_KEY_FRAME | MediaCodec.BUFFER_FLAG_END_OF_STREAM));
+  }
+
+  @Test
+  public void keyFrameStartsWithValidTables() {
+    List<Packet> packets =
+        parse(video(idrFrame(1000), 0, MediaCodec.BUFFER_FLAG_KEY_FRAME).getData());
+    assertEquals(PAT_PID, packets.get(0).pid);
+    assertEquals(PMT_PID, packets.get(1).pid);
+    for (int i = 0; i < 2; i++) {
+      byte[] payload = packets.get(i).payload;
+      //pointer field, then section with CRC, CRC of section with its CRC is 0
+      int length = 3 + (((payload[2] & 0x0F) << 8) | (payload[3] & 0xFF));
+      assertEquals(0, crc32(payload, 1, length));
+    }
+    //PAT point to PMT
+    byte[] pat = packets.get(0).payload;
+    assertEquals(PMT_PID, ((pat[11] & 0x1F) << 8) | (pat[12] & 0xFF));
+    //PMT with H264 and AAC, PCR in video
+    byte[] pmt = packets.get(1).payload;
+    assertEquals(VIDEO_PID, ((pmt[9] & 0x1F) << 8) | (pmt[10] & 0xFF));
+    assertEquals(0x1B, pmt[13]);
+    assertEquals(0x0F, pmt[18]);
+  }
+
+  @Test
+  public void videoPesKeepsFrameAndTime() {
+    tsMuxer.setMuxDelay(500);
+    byte[] frame = idrFrame(1000);
+    video(idrFrame(100), 1000000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+    TsFrame tsFrame = video(frame, 1040000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+    List<Packet> packets = parse(tsFrame.getData());
+    assertTrue(packets.get(2).randomAccess);
+    assertEquals(40000, packets.get(2).pcrUs);
+    List<byte[]> pesList = getPes(packets, VIDEO_PID);
+    assertEquals(1, pesList.size());
+    byte[] pes = pesList.get(0);
+    assertEquals(0xE0, pes[3] & 0xFF);
+    assertEquals(540000, getPtsUs(pes), 11);
+    byte[] payload = getPayload(pes);
+    //AUD, sps and pps before key frames, then the frame
+    assertEquals(0x09, payload[4]);
+    assertTrue(contains(payload, SPS));
+    assertTrue(contains(payload, PPS));
+    byte[] end = new byte[frame.length];
+    System.arraycopy(payload, payload.length - frame.length, end, 0, frame.length);
+    assertArrayEquals(frame, end);
+    assertEquals(40000, tsFrame.getTimeUs());
+    assertEquals(1040000, tsFrame.getPresentationTimeUs());
+  }
+
+  @Test
+  public void audioPesHasAdtsHeader() {
+    video(idrFrame(100), 0, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+    TsFrame tsFrame = audio(300, 23000);
+    List<byte[]> pesList = getPes(parse(tsFrame.getData()), AUDIO_PID);
+    assertEquals(1, pesList.size());
+    byte[] pes = pesList.get(0);
+    assertEquals(0xC0, pes[3] & 0xFF);
+    byte[] payload = getPayload(pes);
+    //packet length counts bytes after it
+    assertEquals(pes.length - 6, ((pes[4] & 0xFF) << 8) | (pes[5] & 0xFF));
+    assertEquals(307, payload.length);
+    assertEquals(0xFF, payload[0] & 0xFF);
+    assertEquals(0xF1, payload[1] & 0xFF);
+    //44100 Hz
+    assertEquals(4, (payload[2] >> 2) & 0x0F);
+    int frameLength = ((payload[3] & 0x03) << 11) | ((payload[4] & 0xFF) << 3)
+        | ((payload[5] & 0xFF) >>> 5);
+    assertEquals(307, frameLength);
+    assertFalse(tsFrame.isVideoFrame());
+  }
+
+  @Test
+  public void continuityCountersIncrease() {
+    Map<Integer, Integer> counters = new HashMap<>();
+    for (int i = 0; i < 30; i++) {
+      int flags = i % 10 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+      List<Packet> packets = new ArrayList<>();
+      packets.addAll(parse(video(idrFrame(2000), i * 33333, flags).getData()));
+      packets.addAll(parse(audio(300, i * 33333 + 1000).getData()));
+      for (Packet packet : packets) {
+        if (!packet.hasPayload) continue;
+        Integer last = counters.get(packet.pid);
+        if (last != null) assertEquals((last + 1) & 0x0F, packet.counter);
+        counters.put(packet.pid, packet.counter);
+      }
+    }
+  }
+
+  @Test
+  public void pcrIsSentOften() {
+    long lastPcrUs = -1;
+    for (int i = 0; i < 100; i++) {
+      TsFrame tsFrame = i % 2 == 0 ? video(idrFrame(500), i * 20000,
+          i % 50 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0) : audio(200, i * 20000);
+      for (Packet packet : parse(tsFrame.getData())) {
+        if (packet.pcrUs < 0) continue;
+        assertEquals(VIDEO_PID, packet.pid);
+        if (lastPcrUs >= 0) {
+          assertTrue(packet.pcrUs > lastPcrUs);
+          assertTrue(packet.pcrUs - lastPcrUs <= 40000);
+        }
+        lastPcrUs = packet.pcrUs;
+      }
+    }
+    assertTrue(lastPcrUs > 1900000);
+  }
+
+  @Test
+  public void onlyAudioStartsWithAudio() {
+    tsMuxer.setOnlyAudio(true);
+    assertNull(video(idrFrame(100), 0, MediaCodec.BUFFER_FLAG_KEY_FRAME));
+    TsFrame tsFrame = audio(200, 5000);
+    assertNotNull(tsFrame);
+    List<Packet> packets = parse(tsFrame.getData());
+    byte[] pmt = packets.get(1).payload;
+    //PCR in audio and a single stream
+    assertEquals(AUDIO_PID, ((pmt[9] & 0x1F) << 8) | (pmt[10] & 0xFF));
+    assertEquals(0x0F, pmt[13]);
+    //9 bytes of header, 5 of the stream and 4 of CRC
+    assertEquals(18, ((pmt[2] & 0x0F) << 8) | (pmt[3] & 0xFF));
+    assertEquals(0, packets.get(2).pcrUs);
+  }
+
+  @Test
+  public void resetWaitsKeyFrame() {
+    video(idrFrame(100), 0, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+    tsMuxer.reset();
+    assertNull(video(idrFrame(100), 33333, 0));
+    List<Packet> packets =
+        parse(video(idrFrame(100), 66666, MediaCodec.BUFFER_FLAG_KEY_FRAME).getData());
+    assertEquals(0, packets.get(0).counter);
+    assertEquals(0, packets.get(2).pcrUs);
+  }
+}